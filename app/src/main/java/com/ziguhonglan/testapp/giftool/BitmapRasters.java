@@ -0,0 +1,34 @@
+package com.ziguhonglan.testapp.giftool;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmap与{@link GifRaster}互转，编解码模块不依赖Android，只在界面等边界处转换
+ */
+public class BitmapRasters {
+
+    /**
+     * 读取Bitmap的ARGB像素
+     */
+    public static GifRaster fromBitmap(Bitmap bitmap) {
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        GifRaster raster = new GifRaster(w, h);
+        bitmap.getPixels(raster.pixels, 0, w, 0, 0, w, h);
+        return raster;
+    }
+
+    /**
+     * 创建ARGB_8888的Bitmap
+     */
+    public static Bitmap toBitmap(GifRaster raster) {
+        return Bitmap.createBitmap(raster.pixels, raster.width, raster.height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 解码出的帧转为Bitmap，用于预览
+     */
+    public static Bitmap toBitmap(GifFrame frame) {
+        return toBitmap(frame.image);
+    }
+}
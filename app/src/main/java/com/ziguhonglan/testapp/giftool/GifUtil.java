@@ -1,14 +1,11 @@
 package com.ziguhonglan.testapp.giftool;
 
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
-import android.util.Log;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -16,14 +13,28 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.List;
 
 @SuppressWarnings({"SameParameterValue", "ResultOfMethodCallIgnored"})
 public class GifUtil {
 
+    private static volatile GifResultCache sResultCache;
+
+    /**
+     * 设置全局的分阶段统计回调，对未在{@link GifCompressOptions#setMetrics(CompressionMetrics)}中
+     * 单独指定的压缩生效，为null时关闭统计
+     */
+    public static void setDefaultMetrics(CompressionMetrics metrics) {
+        GifCompressor.setDefaultMetrics(metrics);
+    }
+
+    /**
+     * 设置异步压缩使用的结果缓存，相同输入和参数的重复请求直接复制缓存的结果，为null时不使用缓存
+     */
+    public static void setResultCache(GifResultCache cache) {
+        sResultCache = cache;
+    }
+
     public static boolean isGif(String str) {
         return isEndWid(str, "gif");
     }
@@ -55,52 +66,88 @@ public class GifUtil {
         return b[0] == 'G' && b[1] == 'I' && b[2] == 'F' && b[3] == '8' && (b[4] == '7' || b[4] == '9') && b[5] == 'a';
     }
 
-    public boolean resizeGif(InputStream in, OutputStream out, int maxWidth, int maxHeight) throws IOException {
-        checkParams(in, out, maxWidth, maxHeight);
-        GifFrame[] frameList = null;
+    /**
+     * 只解码一帧作为列表封面或缩略图，耗时与单帧相关而不是整个动画，见{@link GifDecoder#extractFrame}
+     *
+     * @param index   帧序号，通常为0
+     * @param maxSize 长边上限，0表示原尺寸
+     * @return 解码失败或index超出帧数时返回null
+     */
+    public static Bitmap extractFrame(InputStream in, int index, int maxSize) {
+        GifRaster frame = GifDecoder.extractFrame(in, index, maxSize);
+        return frame != null ? BitmapRasters.toBitmap(frame) : null;
+    }
+
+    public static Bitmap extractFrame(String path, int index, int maxSize) {
+        InputStream in = null;
         try {
-            GifDecoder gifDecoder = new GifDecoder();
-            int code = gifDecoder.read(in);
-            if (code == GifDecoder.STATUS_OK) {//解码成功
-                frameList = gifDecoder.getFrames();
-            } else {
-                return false;
-            }
-        } catch (Exception e) {
+            in = new FileInputStream(path);
+            return extractFrame(in, index, maxSize);
+        } catch (IOException e) {
             e.printStackTrace();
-        }
-        if (frameList == null) {
-            return false;
-        }
-        AnimatedGifEncoder ge = new AnimatedGifEncoder();
-        ge.start(out);
-        ge.setRepeat(0);
-        int ratio = getFrameRatio(frameList);
-        for (int i = 0; i < frameList.length; i++) {
-            if (i % ratio == 0) {
-                Bitmap frame = frameList[i].image;
-                int delay = frameList[i].delay;
-                ge.setDelay(delay * ratio);
-                ge.addFrame(frame, true, maxWidth);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         }
-        ge.finish();
-        return true;
     }
 
-    public static void resizeGifWithMultiThreadsAsync(final String originPath, final String destPath, @NotNull final IResizeGifCallback callback) throws IOException {
+    public boolean resizeGif(InputStream in, OutputStream out, int maxWidth, int maxHeight) throws IOException {
+        return GifCompressor.resizeGif(in, out, maxWidth, maxHeight);
+    }
+
+    public static GifCompressHandle resizeGifWithMultiThreadsAsync(final String originPath, final String destPath, @NotNull final IResizeGifCallback callback) throws IOException {
+        return resizeGifWithMultiThreadsAsync(originPath, destPath, null, callback);
+    }
+
+    /**
+     * 按预设参数异步多线程压缩，见{@link GifCompressOptions#applyPreset(int)}
+     *
+     * @param preset {@link GifCompressOptions#PRESET_FASTEST}、{@link GifCompressOptions#PRESET_FAST}、
+     *               {@link GifCompressOptions#PRESET_BALANCED}或{@link GifCompressOptions#PRESET_SMALLEST}
+     */
+    public static GifCompressHandle resizeGifWithMultiThreadsAsync(final String originPath, final String destPath, int preset,
+                                                                   @NotNull final IResizeGifCallback callback) throws IOException {
+        return resizeGifWithMultiThreadsAsync(originPath, destPath, newOptions(preset), callback);
+    }
+
+    /**
+     * 按预设创建压缩参数，尺寸、帧率等其余参数为默认值，可在返回后继续修改
+     */
+    public static GifCompressOptions newOptions(int preset) {
+        return new GifCompressOptions().applyPreset(preset);
+    }
+
+    /**
+     * 异步多线程压缩
+     *
+     * @param options 压缩参数，为null时使用默认参数；其中的优先级决定排队和编码线程的调度顺序，
+     *                超时时间从调用时开始计算，超时按失败回调
+     * @return 任务句柄，调用{@link GifCompressHandle#cancel()}后停止压缩、删除未完成的输出文件且不再回调
+     */
+    public static GifCompressHandle resizeGifWithMultiThreadsAsync(final String originPath, final String destPath, final GifCompressOptions options,
+                                                                   @NotNull final IResizeGifCallback callback) throws IOException {
+        final GifCompressHandle handle = new GifCompressHandle(options != null ? options.getTimeoutMillis() : 0);
         if (originPath == null || originPath.isEmpty() || destPath == null || destPath.isEmpty()) {
+            handle.markDone();
             callback.onFailed(originPath);
-            return;
+            return handle;
         }
         final File originFile = new File(originPath);
         if (!originFile.exists()) {
+            handle.markDone();
             callback.onFailed(originPath);
-            return;
+            return handle;
         }
         if (!originFile.isFile()) {
+            handle.markDone();
             callback.onFailed(originPath);
-            return;
+            return handle;
         }
         File destFile = new File(destPath);
         if (destFile.isDirectory()) {
@@ -110,20 +157,43 @@ public class GifUtil {
             destFile.createNewFile();
         }
         final File finalDestFile = destFile;
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+        int priority = options != null ? options.getPriority() : GifCompressOptions.PRIORITY_NORMAL;
+        GifCompressScheduler.getInstance().executeJob(new Runnable() {
             @Override
             public void run() {
-                boolean result;
-                try {
-                    result = resizeGifWithMultiThreadsSync(new FileInputStream(originFile), new FileOutputStream(finalDestFile));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    result = false;
+                boolean result = false;
+                if (!handle.isStopped()) {
+                    try {
+                        GifResultCache cache = sResultCache;
+                        if (GifCompressor.passthroughIfOptimal(originFile, finalDestFile, options)) {
+                            //已满足限制，直接复制
+                            result = true;
+                        } else if (cache != null) {
+                            result = cache.compress(new FileInputStream(originFile), new FileOutputStream(finalDestFile), options, handle);
+                        } else {
+                            result = resizeGifWithMultiThreadsSync(new FileInputStream(originFile), new FileOutputStream(finalDestFile), options, handle);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        result = false;
+                    }
+                }
+                if (!result) {
+                    //失败、超时或取消，清理未完成的输出
+                    finalDestFile.delete();
+                }
+                if (handle.isCancelled()) {
+                    //已取消，不再回调
+                    return;
                 }
                 final boolean finalResult = result;
                 new Handler(Looper.getMainLooper()).post(new Runnable() {
                     @Override
                     public void run() {
+                        if (handle.isCancelled()) {
+                            return;
+                        }
+                        handle.markDone();
                         if (finalResult) {
                             callback.onSuccess(finalDestFile.getAbsolutePath());
                         } else {
@@ -132,94 +202,95 @@ public class GifUtil {
                     }
                 });
             }
-        });
+        }, priority);
+        return handle;
     }
 
 
     public static boolean resizeGifWithMultiThreadsSync(InputStream in, OutputStream out) throws IOException {
-        if (in == null || out == null)
-            throw new IOException("InputStream or OutputStream must be not null.");
-        GifFrame[] frameList = null;
+        return resizeGifWithMultiThreadsSync(in, out, null);
+    }
+
+    public static boolean resizeGifWithMultiThreadsSync(InputStream in, OutputStream out, GifCompressOptions options) throws IOException {
+        return resizeGifWithMultiThreadsSync(in, out, options, null);
+    }
+
+    /**
+     * 同步多线程压缩，当前线程解码，帧在共享编码线程上并行编码，见{@link GifCompressor#compress}
+     *
+     * @param options 压缩参数，为null时使用默认参数
+     * @param handle  取消句柄，为null时按options中的超时时间创建。取消或超时后解码在帧之间停止，
+     *                排队中的帧被丢弃，正在编码的帧在LZW循环中退出，返回false
+     */
+    public static boolean resizeGifWithMultiThreadsSync(InputStream in, OutputStream out, GifCompressOptions options,
+                                                        GifCompressHandle handle) throws IOException {
+        return GifCompressor.compress(in, out, options, handle);
+    }
+
+    /**
+     * 多路输出，一次解码同时压缩出缩略图、聊天尺寸和原尺寸等多个GIF，见{@link GifCompressor#compressRenditions}
+     *
+     * @param renditions 各路输出流及参数，如new GifRendition(out, 240, 10, 0)，输出流在返回前关闭
+     * @return 各路是否成功，与renditions顺序一致
+     */
+    public static boolean[] resizeGifRenditions(InputStream in, List<GifRendition> renditions) throws IOException {
+        return GifCompressor.compressRenditions(in, renditions, null);
+    }
+
+    /**
+     * 单线程、内存恒定的流式压缩，见{@link GifCompressor#compressStreaming}
+     *
+     * @param options 压缩参数，为null时使用默认参数
+     * @return 压缩成功返回true
+     */
+    public static boolean resizeGifStreaming(InputStream in, OutputStream out, GifCompressOptions options) throws IOException {
+        return GifCompressor.compressStreaming(in, out, options);
+    }
+
+    /**
+     * 截取一段时间范围，只解码截取所需的帧，见{@link GifCompressor#trim}
+     *
+     * @param endMs 结束时间(毫秒)，0表示截到末尾
+     * @return 范围为空或解码失败时返回false
+     */
+    public static boolean trimGif(InputStream in, OutputStream out, long startMs, long endMs) throws IOException {
+        return GifCompressor.trim(in, out, startMs, endMs, null);
+    }
+
+    /**
+     * 按顺序拼接多个GIF文件，直接复制各帧，见{@link GifCompressor#concat}
+     *
+     * @return 某个文件不是GIF或读写失败时返回false
+     */
+    public static boolean concatGifs(List<String> paths, String destPath) throws IOException {
+        List<InputStream> inputs = new ArrayList<>(paths.size());
         try {
-            GifDecoder gifDecoder = new GifDecoder();
-            int code = gifDecoder.read(in);
-            if (code == GifDecoder.STATUS_OK) {//解码成功
-                frameList = gifDecoder.getFrames();
-            } else {
-                return false;
+            for (String path : paths) {
+                inputs.add(new FileInputStream(path));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        if (frameList == null) {
-            return false;
-        }
-        ExecutorService executorService = Executors.newFixedThreadPool(5);
-        Log.w("GifUtil", "thread count: " + 5);
-        ArrayList<ByteArrayOutputStream> outputStreams = new ArrayList<>();
-        ArrayList<Runnable> tasks = new ArrayList<>();
-        ArrayList<Future<?>> futures = new ArrayList<>();
-        int ratio = getFrameRatio(frameList);
-        for (int i = 0; i < frameList.length; i++) {
-            if (i % ratio == 0) {
-                Bitmap frame = frameList[i].image;
-                int delay = frameList[i].delay;
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                outputStreams.add(bos);
-                EncoderTask task = new EncoderTask(bos, frame, i == 0, ratio, delay, 0);
-                tasks.add(task);
-            }
-        }
-        for (Runnable task : tasks) {
-            Future<?> future = executorService.submit(task);
-            futures.add(future);
-        }
-        boolean isComplete = true;
-        //等待任务执行完成
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-                isComplete = false;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                isComplete = false;
+            return GifCompressor.concat(inputs, new FileOutputStream(destPath));
+        } finally {
+            //concat正常返回时已关闭，打开失败时关闭已打开的输入
+            for (InputStream in : inputs) {
+                in.close();
             }
         }
-        //将各个bos写入output
-        for (int i = 0; i < outputStreams.size(); i++) {
-            ByteArrayOutputStream byteArrayOutputStream = outputStreams.get(i);
-            out.write(byteArrayOutputStream.toByteArray());
-            byteArrayOutputStream.close();
-        }
-        //写尾标志
-        out.write(0x3b); // gif trailer
-        out.flush();
-        out.close();
-        outputStreams.clear();
-        tasks.clear();
-        executorService.shutdownNow();
-        return isComplete;
-    }
-
-    private static int getFrameRatio(GifFrame[] frameList) {
-        Log.w("GifUtil", "frame count: " + frameList.length);
-        Log.w("GifUtil", "frame in sample: " + 2);
-        return 2;
-    }
-
-    private static void checkParams(InputStream in, OutputStream out, int maxWidth, int maxHeight)
-            throws IOException {
-        if (in == null) {
-            throw new IOException("InputStream can not be null ");
-        }
-        if (out == null) {
-            throw new IOException("OutputStream can not be null ");
-        }
-        if (maxWidth < 1 || maxHeight < 1) {
-            throw new IOException("maxWidth or maxHeight can not be less than 1 ");
-        }
+    }
+
+    /**
+     * 打开或创建可追加的GIF文件，录屏时逐帧写入，见{@link AppendableGifEncoder}
+     *
+     * @param options 新帧的压缩参数，为null时使用默认参数
+     */
+    public static AppendableGifEncoder openAppendableGif(String path, GifCompressOptions options) throws IOException {
+        return AppendableGifEncoder.open(new File(path), options);
+    }
+
+    /**
+     * 追加一帧到画布左上角
+     */
+    public static boolean appendFrame(AppendableGifEncoder encoder, Bitmap bitmap, int delayMs) {
+        return bitmap != null && encoder.addFrame(BitmapRasters.fromBitmap(bitmap), delayMs);
     }
 
 }
@@ -1,35 +0,0 @@
-package com.ziguhonglan.testapp.giftool;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-public class Utils {
-    public static String toHex(int value, int length) {
-        String hex = Integer.toHexString(value);
-        hex = hex.toUpperCase();
-
-        if (hex.length() < length) {
-            while (hex.length() < length)
-                hex = "0" + hex;
-        } else if (hex.length() > length) {
-            hex = hex.substring(hex.length() - length);
-        }
-        return hex;
-    }
-
-    public static byte[] streamToBytes(InputStream stream) throws IOException,
-            OutOfMemoryError {
-        byte[] buff = new byte[1024];
-        int read;
-        ByteArrayOutputStream bao = new ByteArrayOutputStream();
-        while ((read = stream.read(buff)) != -1) {
-            bao.write(buff, 0, read);
-        }
-        try {
-            stream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return bao.toByteArray();
-    }
-}
\ No newline at end of file
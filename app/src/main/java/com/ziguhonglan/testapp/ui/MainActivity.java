@@ -11,6 +11,7 @@ import androidx.annotation.Nullable;
 
 import com.bumptech.glide.Glide;
 import com.ziguhonglan.testapp.R;
+import com.ziguhonglan.testapp.giftool.GifCompressHandle;
 import com.ziguhonglan.testapp.giftool.GifUtil;
 import com.ziguhonglan.testapp.giftool.IResizeGifCallback;
 
@@ -28,6 +29,7 @@ public class MainActivity extends Activity {
 
     private ImageView originImageView;
     private ImageView compressView;
+    private GifCompressHandle compressHandle;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -39,6 +41,15 @@ public class MainActivity extends Activity {
         Glide.with(this).load(R.drawable.test3).into(originImageView);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //离开页面后不再压缩，也不再回调
+        if (compressHandle != null) {
+            compressHandle.cancel();
+        }
+    }
+
     public void compress(View view) {
         compressASync();
     }
@@ -51,7 +62,10 @@ public class MainActivity extends Activity {
         try {
             String originPath = getFilesDir() + "/test.gif";
             String destPath = getFilesDir().getAbsolutePath();
-            GifUtil.resizeGifWithMultiThreadsAsync(originPath, destPath, new IResizeGifCallback() {
+            if (compressHandle != null) {
+                compressHandle.cancel();
+            }
+            compressHandle = GifUtil.resizeGifWithMultiThreadsAsync(originPath, destPath, new IResizeGifCallback() {
                 @Override
                 public void onSuccess(String path) {
                     Glide.with(MainActivity.this).load(path).into(compressView);
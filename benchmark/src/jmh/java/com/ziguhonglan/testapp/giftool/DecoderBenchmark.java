@@ -0,0 +1,137 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码各阶段：第一帧的LZW解码(decodeImageData)与画布合成(setPixels)，
+ * 以及单帧提取{@link GifDecoder#extractFrame}：第一帧和最后一帧各缩小到长边128的缩略图
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270"})
+    public String input;
+
+    private static final int THUMBNAIL_SIZE = 128;
+
+    private byte[] gif;
+    private int lastFrame;
+    private FrameDecoder decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        gif = BenchmarkCorpus.load(input);
+        decoder = new FrameDecoder(gif);
+        lastFrame = decoder.getFrameCount() - 1;
+        // 读完整个文件后pixels是最后一帧，重新解码第一帧供setPixels使用
+        decoder.decodeFirstFrame();
+    }
+
+    @Benchmark
+    public byte[] decodeImageData(PixelCounter counter) {
+        decoder.decodeFirstFrame();
+        counter.pixels += decoder.getFramePixels();
+        return decoder.pixels;
+    }
+
+    @Benchmark
+    public int[] setPixels(PixelCounter counter) {
+        decoder.compositeFirstFrame();
+        counter.pixels += decoder.getFramePixels();
+        return decoder.canvas;
+    }
+
+    @Benchmark
+    public GifRaster extractFirstFrame(PixelCounter counter) {
+        GifRaster frame = GifDecoder.extractFrame(new ByteArrayInputStream(gif), 0, THUMBNAIL_SIZE);
+        counter.pixels += decoder.getFramePixels();
+        return frame;
+    }
+
+    @Benchmark
+    public GifRaster extractLastFrame(PixelCounter counter) {
+        GifRaster frame = GifDecoder.extractFrame(new ByteArrayInputStream(gif), lastFrame, THUMBNAIL_SIZE);
+        counter.pixels += decoder.getFramePixels();
+        return frame;
+    }
+
+    /**
+     * 记住第一帧图像数据在输入中的位置和帧参数，以便反复解码同一帧
+     */
+    static class FrameDecoder extends GifDecoder {
+
+        private final ByteArrayInputStream data;
+        private boolean marked = false;
+        private int firstX, firstY, firstW, firstH;
+        private boolean firstInterlace;
+        private int[] firstAct;
+
+        FrameDecoder(byte[] gif) {
+            data = new ByteArrayInputStream(gif);
+            setCopyFrames(false);
+            read(data);
+            in = data;
+        }
+
+        @Override
+        protected void decodeImageData() {
+            if (!marked) {
+                marked = true;
+                data.mark(0);
+                firstX = ix;
+                firstY = iy;
+                firstW = iw;
+                firstH = ih;
+                firstInterlace = interlace;
+                firstAct = act.clone();
+            }
+            super.decodeImageData();
+        }
+
+        void decodeFirstFrame() {
+            data.reset();
+            restoreFirstFrame();
+            decodeImageData();
+        }
+
+        void compositeFirstFrame() {
+            restoreFirstFrame();
+            lastDispose = 0;
+            dispose = 0;
+            setPixels();
+        }
+
+        int getFramePixels() {
+            return firstW * firstH;
+        }
+
+        private void restoreFirstFrame() {
+            status = STATUS_OK;
+            ix = firstX;
+            iy = firstY;
+            iw = firstW;
+            ih = firstH;
+            interlace = firstInterlace;
+            act = firstAct;
+        }
+    }
+}
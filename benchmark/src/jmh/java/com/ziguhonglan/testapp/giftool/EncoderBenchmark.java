@@ -0,0 +1,103 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编码各阶段：量化加映射(analyzePixels)与LZW编码(LZWEncoder.encode)，以及整帧编码按行分条带与否的对比
+ * (encodeFrameSerial/encodeFrameStriped)。synthetic-1448x1448刚超过拆分阈值(2个条带)，
+ * synthetic-2000x2000为超大帧；阈值以下的帧两者相同。条带的帮手在共享编码线程上执行，核数少于2时只能看到拆分的开销
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncoderBenchmark {
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270", "synthetic-1448x1448", "synthetic-2000x2000"})
+    public String input;
+
+    private GifRaster frame;
+    private GifCompressScheduler.Job job;
+    private StreamingGifEncoder encoder;
+    private int width;
+    private int height;
+    private byte[] indexedPixels;
+    private LZWEncoder lzw;
+    private final BenchmarkCorpus.NullOutputStream sink = new BenchmarkCorpus.NullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        frame = BenchmarkCorpus.firstFrame(BenchmarkCorpus.load(input));
+        job = GifCompressScheduler.getInstance().newJob(GifCompressOptions.PRIORITY_NORMAL);
+        width = frame.width;
+        height = frame.height;
+        // 先完整编码一帧，建立analyzePixels所需的像素缓冲
+        encoder = new StreamingGifEncoder(sink, new GifCompressOptions());
+        encoder.addFrame(frame, 100);
+
+        byte[] bgr = BenchmarkCorpus.toBgr(frame);
+        NeuQuant nq = new NeuQuant(bgr, bgr.length, GifCompressOptions.DEFAULT_QUALITY);
+        nq.process();
+        indexedPixels = new byte[width * height];
+        int k = 0;
+        for (int i = 0; i < indexedPixels.length; i++) {
+            indexedPixels[i] = (byte) nq.map(bgr[k++] & 0xff, bgr[k++] & 0xff, bgr[k++] & 0xff, false);
+        }
+        lzw = new LZWEncoder(width, height, indexedPixels, 8);
+    }
+
+    @Benchmark
+    public StreamingGifEncoder analyzePixels(PixelCounter counter) {
+        encoder.analyzePixels();
+        counter.pixels += width * height;
+        return encoder;
+    }
+
+    @Benchmark
+    public LZWEncoder lzwEncode(PixelCounter counter) throws IOException {
+        lzw.reset(width, height, indexedPixels, 8);
+        lzw.encode(sink);
+        counter.pixels += width * height;
+        return lzw;
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream encodeFrameSerial(PixelCounter counter) {
+        return encodeFrame(null, counter);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream encodeFrameStriped(PixelCounter counter) {
+        return encodeFrame(job, counter);
+    }
+
+    @TearDown
+    public void tearDown() {
+        job.close();
+    }
+
+    private ByteArrayOutputStream encodeFrame(GifCompressScheduler.Job stripes, PixelCounter counter) {
+        EncoderTask task = new EncoderTask(new ByteArrayOutputStream(), frame, true, 1, 100, 0);
+        task.setRowStripes(stripes);
+        task.run();
+        counter.pixels += width * height;
+        return task.getOutputStream();
+    }
+}
@@ -0,0 +1,65 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端压缩：多线程流水线与单线程流式，pixels按源GIF所有帧的像素数计。
+ * strategy对比自动选择的编码策略(0)与总是重新量化(1)，见{@link GifCompressOptions#setStrategy(int)}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EndToEndBenchmark {
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270"})
+    public String input;
+
+    @Param({"0", "1"})
+    public int strategy;
+
+    private byte[] gif;
+    private long sourcePixels;
+    private GifCompressOptions options;
+    private final BenchmarkCorpus.NullOutputStream sink = new BenchmarkCorpus.NullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        gif = BenchmarkCorpus.load(input);
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        decoder.read(new ByteArrayInputStream(gif));
+        sourcePixels = (long) decoder.getWidth() * decoder.getHeigh() * decoder.getFrameCount();
+        options = new GifCompressOptions().setStrategy(strategy);
+    }
+
+    @Benchmark
+    public boolean compress(PixelCounter counter) throws IOException {
+        boolean ok = GifCompressor.compress(new ByteArrayInputStream(gif), sink, options, null);
+        counter.pixels += sourcePixels;
+        return ok;
+    }
+
+    @Benchmark
+    public boolean compressStreaming(PixelCounter counter) throws IOException {
+        boolean ok = GifCompressor.compressStreaming(new ByteArrayInputStream(gif), sink, options);
+        counter.pixels += sourcePixels;
+        return ok;
+    }
+}
@@ -0,0 +1,72 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NeuQuant各阶段：网络学习(learn)、建索引(inxbuild)和逐像素映射(map)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NeuQuantBenchmark {
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270"})
+    public String input;
+
+    @Param({"10", "1"})
+    public int sample;
+
+    private byte[] bgr;
+    private int nPix;
+    private NeuQuant nq;
+
+    @Setup
+    public void setup() throws IOException {
+        bgr = BenchmarkCorpus.toBgr(BenchmarkCorpus.firstFrame(BenchmarkCorpus.load(input)));
+        nPix = bgr.length / 3;
+        nq = new NeuQuant(bgr, bgr.length, sample);
+        nq.process();
+    }
+
+    @Benchmark
+    public NeuQuant learn(PixelCounter counter) {
+        nq.reset(bgr, bgr.length, sample);
+        nq.learn();
+        counter.pixels += nPix;
+        return nq;
+    }
+
+    @Benchmark
+    public NeuQuant inxbuild() {
+        // 网络已排序，重复建索引的开销与首次相同量级
+        nq.inxbuild();
+        return nq;
+    }
+
+    @Benchmark
+    public int map(PixelCounter counter) {
+        int sum = 0;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            sum += nq.map(bgr[k++] & 0xff, bgr[k++] & 0xff, bgr[k++] & 0xff, false);
+        }
+        counter.pixels += nPix;
+        return sum;
+    }
+}
@@ -0,0 +1,22 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 每次操作处理的像素数。基准的输出时间单位为微秒，pixels的速率即MPixel/s
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PixelCounter {
+
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        pixels = 0;
+    }
+}
@@ -0,0 +1,76 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缩略图、聊天尺寸和原尺寸三路输出：逐路调用{@link GifCompressor#compress}与一次解码的
+ * {@link GifCompressor#compressRenditions}对比，pixels按源GIF所有帧的像素数计(每次操作计一次)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RenditionBenchmark {
+
+    private static final int[] MAX_SIZES = {120, 320, 0};
+    private static final float[] MAX_FPS = {8, 12, 0};
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270"})
+    public String input;
+
+    private byte[] gif;
+    private long sourcePixels;
+    private final BenchmarkCorpus.NullOutputStream sink = new BenchmarkCorpus.NullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        gif = BenchmarkCorpus.load(input);
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        decoder.read(new ByteArrayInputStream(gif));
+        sourcePixels = (long) decoder.getWidth() * decoder.getHeigh() * decoder.getFrameCount();
+    }
+
+    @Benchmark
+    public boolean separate(PixelCounter counter) throws IOException {
+        boolean ok = true;
+        for (int i = 0; i < MAX_SIZES.length; i++) {
+            ok &= GifCompressor.compress(new ByteArrayInputStream(gif), sink, options(i), null);
+        }
+        counter.pixels += sourcePixels;
+        return ok;
+    }
+
+    @Benchmark
+    public boolean[] renditions(PixelCounter counter) throws IOException {
+        List<GifRendition> renditions = new ArrayList<>();
+        for (int i = 0; i < MAX_SIZES.length; i++) {
+            renditions.add(new GifRendition(sink, options(i)));
+        }
+        boolean[] ok = GifCompressor.compressRenditions(new ByteArrayInputStream(gif), renditions, null);
+        counter.pixels += sourcePixels;
+        return ok;
+    }
+
+    private static GifCompressOptions options(int i) {
+        return new GifCompressOptions().setMaxWidth(MAX_SIZES[i]).setMaxHeight(MAX_SIZES[i]).setMaxFps(MAX_FPS[i]);
+    }
+}
@@ -0,0 +1,75 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 截取开头和末尾一段，见{@link GifCompressor#trim}，pixels按截取范围内的帧的像素数计。
+ * 耗时应只与截取长度有关，末尾与开头相差很大时说明解码了范围之前不需要的帧
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrimBenchmark {
+
+    @Param({"test.gif", "test2.gif", "synthetic-480x270"})
+    public String input;
+
+    @Param({"500"})
+    public long clipMs;
+
+    private byte[] gif;
+    private long duration;
+    private long headPixels;
+    private long tailPixels;
+    private final BenchmarkCorpus.NullOutputStream sink = new BenchmarkCorpus.NullOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        gif = BenchmarkCorpus.load(input);
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        duration = info.getDurationMs();
+        long pixels = (long) info.getWidth() * info.getHeight();
+        long begin = 0;
+        for (int i = 0; i < info.getFrameCount(); i++) {
+            long next = begin + GifInfo.playbackDelay(info.getFrame(i).delay);
+            if (begin < clipMs) {
+                headPixels += pixels;
+            }
+            if (next > duration - clipMs) {
+                tailPixels += pixels;
+            }
+            begin = next;
+        }
+    }
+
+    @Benchmark
+    public boolean trimHead(PixelCounter counter) throws IOException {
+        boolean ok = GifCompressor.trim(new ByteArrayInputStream(gif), sink, 0, clipMs, null);
+        counter.pixels += headPixels;
+        return ok;
+    }
+
+    @Benchmark
+    public boolean trimTail(PixelCounter counter) throws IOException {
+        boolean ok = GifCompressor.trim(new ByteArrayInputStream(gif), sink, Math.max(0, duration - clipMs), 0, null);
+        counter.pixels += tailPixels;
+        return ok;
+    }
+}
@@ -0,0 +1,106 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 基准测试输入：app/src/main/assets下的GIF，或{@link SyntheticGifGenerator}生成的合成GIF。
+ * 名称形如"test.gif"时从giftool.corpus目录读取，形如"synthetic-480x270"、"synthetic-4k"时按固定种子生成，结果可复现
+ */
+final class BenchmarkCorpus {
+
+    static final String CORPUS_DIR_PROPERTY = "giftool.corpus";
+    private static final String SYNTHETIC_PREFIX = "synthetic-";
+    private static final int SYNTHETIC_FRAMES = 8;
+    private static final long SYNTHETIC_SEED = 20201112L;
+
+    // 持有引用，避免Logger被回收后级别设置失效
+    private static final Logger COMPRESSOR_LOG = Logger.getLogger("GifCompressor");
+
+    static {
+        // 每次压缩都会打印帧数等信息，基准测试中关闭
+        COMPRESSOR_LOG.setLevel(Level.WARNING);
+    }
+
+    private BenchmarkCorpus() {
+    }
+
+    static byte[] load(String name) throws IOException {
+        if (name.startsWith(SYNTHETIC_PREFIX)) {
+            return synthetic(name.substring(SYNTHETIC_PREFIX.length())).setSeed(SYNTHETIC_SEED).generate();
+        }
+        File dir = new File(System.getProperty(CORPUS_DIR_PROPERTY, "app/src/main/assets"));
+        return Utils.streamToBytes(new FileInputStream(new File(dir, name)));
+    }
+
+    /**
+     * "4k"、"1000frames"、"2color"、"photo"对应{@link SyntheticGifGenerator}的预设，
+     * 形如"480x270"时为该尺寸下整帧变化、带少量噪点的8帧动画
+     */
+    private static SyntheticGifGenerator synthetic(String spec) {
+        switch (spec) {
+            case "4k":
+                return SyntheticGifGenerator.fourK();
+            case "1000frames":
+                return SyntheticGifGenerator.longAnimation();
+            case "2color":
+                return SyntheticGifGenerator.twoColor();
+            case "photo":
+                return SyntheticGifGenerator.photographic();
+            default:
+                String[] size = spec.split("x");
+                if (size.length != 2) {
+                    throw new IllegalArgumentException("Unknown synthetic input: " + SYNTHETIC_PREFIX + spec);
+                }
+                return new SyntheticGifGenerator()
+                        .setSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]))
+                        .setFrameCount(SYNTHETIC_FRAMES)
+                        .setChangedFraction(1f)
+                        .setNoise(0.06f);
+        }
+    }
+
+    /**
+     * 解码出第一帧
+     */
+    static GifRaster firstFrame(byte[] gif) {
+        GifDecoder decoder = new GifDecoder();
+        decoder.read(new ByteArrayInputStream(gif));
+        return decoder.getImage();
+    }
+
+    /**
+     * 转为编码器使用的BGR字节
+     */
+    static byte[] toBgr(GifRaster raster) {
+        int nPix = raster.width * raster.height;
+        byte[] bgr = new byte[nPix * 3];
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int c = raster.pixels[i];
+            bgr[k++] = (byte) (c & 0xff);
+            bgr[k++] = (byte) ((c >> 8) & 0xff);
+            bgr[k++] = (byte) ((c >> 16) & 0xff);
+        }
+        return bgr;
+    }
+
+    /**
+     * 丢弃写入内容的输出流，排除磁盘IO对编码耗时的影响
+     */
+    static final class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 压缩预设的大小与耗时曲线，见{@link GifCompressOptions#applyPreset(int)}。
+ * <p>
+ * 对每个输入和预设端到端压缩若干次，输出耗时中位数、输出大小和相对输入的比例，写入CSV和JSON。
+ * 预设参数调整后用它确认四档仍按耗时递增、大小递减排列。--max-size大于0时限制输出长边，
+ * 同时测量缩小方式的影响。
+ * <p>
+ * 参数：--inputs test.gif,synthetic-480x270 --presets fastest,fast,balanced,smallest
+ * --max-size 长边上限 --runs 每个测试点的次数 --corpus-dir 目录 --out 输出文件前缀
+ */
+public class PresetBenchmark {
+
+    private static final String[] PRESET_NAMES = {"fastest", "fast", "balanced", "smallest"};
+    private static final String CSV_HEADER = "input,preset,maxSize,runs,medianMs,minMs,inputBytes,outputBytes,ratio";
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.setProperty(BenchmarkCorpus.CORPUS_DIR_PROPERTY, options.corpusDir);
+        List<String> rows = new ArrayList<>();
+        for (String input : options.inputs) {
+            byte[] gif = BenchmarkCorpus.load(input);
+            // 预热：每个预设完整压缩一次，让JIT编译各自的热点路径
+            for (int preset : options.presets) {
+                compress(gif, preset, options.maxSize);
+            }
+            for (int preset : options.presets) {
+                String row = runPoint(input, gif, preset, options.maxSize, options.runs);
+                rows.add(row);
+                System.out.println(row);
+            }
+        }
+        writeResults(options.out, rows);
+    }
+
+    private static String runPoint(String input, byte[] gif, int preset, int maxSize, int runs) throws IOException {
+        long[] times = new long[runs];
+        int outputBytes = 0;
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            outputBytes = compress(gif, preset, maxSize);
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return String.format(Locale.US, "%s,%s,%d,%d,%.1f,%.1f,%d,%d,%.3f",
+                input, PRESET_NAMES[preset], maxSize, runs, times[runs / 2] / 1e6, times[0] / 1e6,
+                gif.length, outputBytes, outputBytes < 0 ? -1.0 : (double) outputBytes / gif.length);
+    }
+
+    /**
+     * @return 输出字节数，失败时返回-1
+     */
+    private static int compress(byte[] gif, int preset, int maxSize) throws IOException {
+        GifCompressOptions options = new GifCompressOptions().applyPreset(preset);
+        if (maxSize > 0) {
+            options.setMaxWidth(maxSize).setMaxHeight(maxSize);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(gif.length);
+        if (!GifCompressor.compress(new ByteArrayInputStream(gif), out, options, null)) {
+            return -1;
+        }
+        return out.size();
+    }
+
+    private static void writeResults(String out, List<String> rows) throws IOException {
+        File csv = new File(out + ".csv");
+        File json = new File(out + ".json");
+        File dir = csv.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            for (String row : rows) {
+                writer.write(row);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        String[] keys = CSV_HEADER.split(",");
+        writer = new OutputStreamWriter(new FileOutputStream(json), "UTF-8");
+        try {
+            writer.write("[\n");
+            for (int r = 0; r < rows.size(); r++) {
+                String[] values = rows.get(r).split(",");
+                writer.write("  {");
+                for (int i = 0; i < keys.length; i++) {
+                    // 前两列是字符串
+                    String value = i < 2 ? "\"" + values[i] + "\"" : values[i];
+                    writer.write((i > 0 ? ", \"" : "\"") + keys[i] + "\": " + value);
+                }
+                writer.write(r < rows.size() - 1 ? "},\n" : "}\n");
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + csv.getPath() + " and " + json.getPath());
+    }
+
+    private static class Options {
+        String[] inputs = {"test.gif", "test2.gif", "synthetic-480x270"};
+        int[] presets = {GifCompressOptions.PRESET_FASTEST, GifCompressOptions.PRESET_FAST,
+                GifCompressOptions.PRESET_BALANCED, GifCompressOptions.PRESET_SMALLEST};
+        int maxSize = 0;
+        int runs = 5;
+        String corpusDir = "app/src/main/assets";
+        String out = "build/reports/presets/results";
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                } else if ("--inputs".equals(arg)) {
+                    options.inputs = args[++i].split(",");
+                } else if ("--presets".equals(arg)) {
+                    options.presets = parsePresets(args[++i]);
+                } else if ("--max-size".equals(arg)) {
+                    options.maxSize = Math.max(0, Integer.parseInt(args[++i]));
+                } else if ("--runs".equals(arg)) {
+                    options.runs = Math.max(1, Integer.parseInt(args[++i]));
+                } else if ("--corpus-dir".equals(arg)) {
+                    options.corpusDir = args[++i];
+                } else if ("--out".equals(arg)) {
+                    options.out = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Unknown argument " + arg);
+                }
+            }
+            return options;
+        }
+
+        private static int[] parsePresets(String value) {
+            String[] parts = value.split(",");
+            int[] result = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                int preset = Arrays.asList(PRESET_NAMES).indexOf(parts[i].trim());
+                if (preset < 0) {
+                    throw new IllegalArgumentException("Unknown preset " + parts[i]);
+                }
+                result[i] = preset;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编码线程数与并发任务数的伸缩测试。
+ * <p>
+ * 对每个编码线程数启动一个子JVM(调度器在进程内只能配置一次)，在子进程中依次以1..M个并发任务
+ * 端到端压缩语料，每个测试点输出墙钟时间、进程CPU时间、吞吐量、任务延迟p50/p99和堆峰值，
+ * 汇总写入CSV和JSON。用于按机器选择线程数，以及发现伸缩性退化。
+ * <p>
+ * 参数：--threads 1,2,4 --jobs 1,2,4 --inputs test.gif,synthetic-480x270
+ * --corpus-dir 目录 --jobs-per-point 每个测试点完成的任务数 --out 输出文件前缀
+ */
+public class ScalingBenchmark {
+
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final String CSV_HEADER = "threads,jobs,completedJobs,wallMs,cpuMs,mpixelPerSec,jobsPerSec,p50Ms,p99Ms,peakHeapMb";
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        if (options.child) {
+            runChild(options);
+            return;
+        }
+        List<String> rows = new ArrayList<>();
+        for (int threads : options.threads) {
+            rows.addAll(forkChild(options, threads));
+        }
+        writeResults(options.out, rows);
+    }
+
+    /**
+     * 以指定编码线程数启动子JVM，收集其输出的结果行
+     */
+    private static List<String> forkChild(Options options, int threads) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        // 沿用父进程的-Xmx等JVM参数
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScalingBenchmark.class.getName());
+        command.add("--child");
+        command.add("--threads");
+        command.add(String.valueOf(threads));
+        command.add("--jobs");
+        command.add(join(options.jobs));
+        command.add("--inputs");
+        command.add(join(options.inputs));
+        command.add("--corpus-dir");
+        command.add(options.corpusDir);
+        command.add("--jobs-per-point");
+        command.add(String.valueOf(options.jobsPerPoint));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    String row = line.substring(RESULT_PREFIX.length());
+                    rows.add(row);
+                    System.out.println(row);
+                } else {
+                    System.out.println("  [threads=" + threads + "] " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        int exit = process.waitFor();
+        if (exit != 0) {
+            throw new IOException("Benchmark child with " + threads + " threads exited with " + exit);
+        }
+        return rows;
+    }
+
+    private static void runChild(Options options) throws Exception {
+        System.setProperty(BenchmarkCorpus.CORPUS_DIR_PROPERTY, options.corpusDir);
+        int threads = options.threads[0];
+        int maxJobs = 1;
+        for (int jobs : options.jobs) {
+            maxJobs = Math.max(maxJobs, jobs);
+        }
+        GifCompressScheduler.configure(threads, maxJobs);
+        byte[][] corpus = new byte[options.inputs.length][];
+        long[] corpusPixels = new long[corpus.length];
+        for (int i = 0; i < corpus.length; i++) {
+            corpus[i] = BenchmarkCorpus.load(options.inputs[i]);
+            corpusPixels[i] = countPixels(corpus[i]);
+        }
+        // 预热：每个输入完整压缩一次，让JIT编译热点路径
+        for (byte[] gif : corpus) {
+            compress(gif);
+        }
+        for (int jobs : options.jobs) {
+            System.out.println(RESULT_PREFIX + runPoint(threads, jobs, options.jobsPerPoint, corpus, corpusPixels));
+        }
+    }
+
+    /**
+     * 以jobs个并发客户端线程完成jobsPerPoint次压缩，统计一个测试点
+     */
+    private static String runPoint(int threads, final int jobs, final int jobsPerPoint, final byte[][] corpus,
+                                   final long[] corpusPixels) throws InterruptedException {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+        final long[] latencies = new long[jobsPerPoint];
+        final long[] pixels = new long[1];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] clients = new Thread[jobs];
+        for (int i = 0; i < jobs; i++) {
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    long done = 0;
+                    while ((index = next.getAndIncrement()) < jobsPerPoint) {
+                        int input = index % corpus.length;
+                        long start = System.nanoTime();
+                        if (!compress(corpus[input])) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[index] = System.nanoTime() - start;
+                        done += corpusPixels[input];
+                    }
+                    synchronized (pixels) {
+                        pixels[0] += done;
+                    }
+                }
+            }, "scaling-client-" + i);
+        }
+        long cpuStart = processCpuNanos();
+        long wallStart = System.nanoTime();
+        for (Thread client : clients) {
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        long wall = System.nanoTime() - wallStart;
+        long cpu = processCpuNanos();
+        cpu = cpu >= 0 && cpuStart >= 0 ? cpu - cpuStart : -1;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        if (failures.get() > 0) {
+            System.out.println(failures.get() + " jobs failed with threads=" + threads + " jobs=" + jobs);
+        }
+        Arrays.sort(latencies);
+        return String.format(Locale.US, "%d,%d,%d,%.1f,%.1f,%.2f,%.2f,%.1f,%.1f,%.1f",
+                threads, jobs, jobsPerPoint - failures.get(),
+                wall / 1e6, cpu >= 0 ? cpu / 1e6 : -1.0,
+                pixels[0] * 1e3 / wall, jobsPerPoint * 1e9 / wall,
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                peakHeap / (1024.0 * 1024.0));
+    }
+
+    private static boolean compress(byte[] gif) {
+        try {
+            // 固定重新量化，测量编码线程池的伸缩性，不受自动策略影响
+            GifCompressOptions options = new GifCompressOptions().setStrategy(GifCompressOptions.STRATEGY_REQUANTIZE);
+            return GifCompressor.compress(new ByteArrayInputStream(gif), new BenchmarkCorpus.NullOutputStream(), options, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static long countPixels(byte[] gif) {
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        decoder.read(new ByteArrayInputStream(gif));
+        return (long) decoder.getWidth() * decoder.getHeigh() * decoder.getFrameCount();
+    }
+
+    // nearest-rank
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * 进程CPU时间(纳秒)，JVM不支持时返回-1
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static void writeResults(String out, List<String> rows) throws IOException {
+        File csv = new File(out + ".csv");
+        File json = new File(out + ".json");
+        File dir = csv.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            for (String row : rows) {
+                writer.write(row);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        String[] keys = CSV_HEADER.split(",");
+        writer = new OutputStreamWriter(new FileOutputStream(json), "UTF-8");
+        try {
+            writer.write("[\n");
+            for (int r = 0; r < rows.size(); r++) {
+                String[] values = rows.get(r).split(",");
+                writer.write("  {");
+                for (int i = 0; i < keys.length; i++) {
+                    writer.write((i > 0 ? ", \"" : "\"") + keys[i] + "\": " + values[i]);
+                }
+                writer.write(r < rows.size() - 1 ? "},\n" : "}\n");
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+        System.out.println("Results written to " + csv.getPath() + " and " + json.getPath());
+    }
+
+    private static String join(int[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i > 0 ? "," : "").append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private static String join(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i > 0 ? "," : "").append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private static class Options {
+        boolean child = false;
+        int[] threads;
+        int[] jobs = {1, 2, 4};
+        String[] inputs = {"test.gif", "test2.gif", "synthetic-480x270"};
+        String corpusDir = "app/src/main/assets";
+        int jobsPerPoint = 16;
+        String out = "build/reports/scaling/results";
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--child".equals(arg)) {
+                    options.child = true;
+                } else if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                } else if ("--threads".equals(arg)) {
+                    options.threads = parseInts(args[++i]);
+                } else if ("--jobs".equals(arg)) {
+                    options.jobs = parseInts(args[++i]);
+                } else if ("--inputs".equals(arg)) {
+                    options.inputs = args[++i].split(",");
+                } else if ("--corpus-dir".equals(arg)) {
+                    options.corpusDir = args[++i];
+                } else if ("--jobs-per-point".equals(arg)) {
+                    options.jobsPerPoint = Math.max(1, Integer.parseInt(args[++i]));
+                } else if ("--out".equals(arg)) {
+                    options.out = args[++i];
+                } else {
+                    throw new IllegalArgumentException("Unknown argument " + arg);
+                }
+            }
+            if (options.threads == null) {
+                // 默认1, 2, 4 ... 直到CPU核数
+                int cpus = Runtime.getRuntime().availableProcessors();
+                List<Integer> list = new ArrayList<>();
+                for (int t = 1; t < cpus; t *= 2) {
+                    list.add(t);
+                }
+                list.add(cpus);
+                options.threads = new int[list.size()];
+                for (int i = 0; i < list.size(); i++) {
+                    options.threads[i] = list.get(i);
+                }
+            }
+            return options;
+        }
+
+        private static int[] parseInts(String value) {
+            String[] parts = value.split(",");
+            int[] result = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                result[i] = Math.max(1, Integer.parseInt(parts[i].trim()));
+            }
+            return result;
+        }
+    }
+}
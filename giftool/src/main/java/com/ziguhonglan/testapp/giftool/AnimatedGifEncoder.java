@@ -1,14 +1,8 @@
 package com.ziguhonglan.testapp.giftool;
 
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
 
 /**
  * Gif编码压缩
@@ -25,7 +19,7 @@ public class AnimatedGifEncoder {
     protected int delay = 0; // frame delay (hundredths)
     protected boolean started = false; // ready to output frames
     protected OutputStream out;
-    protected Bitmap image; // 当前帧
+    protected GifRaster image; // 当前帧
     protected byte[] pixels; // BGR byte array from frame
     protected byte[] indexedPixels; // converted frame indexed to palette
     protected int colorDepth; // number of bit planes
@@ -37,6 +31,9 @@ public class AnimatedGifEncoder {
     protected boolean firstFrame = true;
     protected boolean sizeSet = false; // if false, get size from first frame
     protected int sample = 10; // default sample interval for quantizer
+    protected boolean interlace = false; // 是否隔行存储像素
+    protected int[] fixedPalette; // 固定调色板(RGB)，设置后不做NeuQuant量化
+    protected boolean globalPaletteOnly = false; // 各帧共用全局调色板，不写局部调色板
 
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
@@ -65,6 +62,34 @@ public class AnimatedGifEncoder {
         }
     }
 
+    /**
+     * 设置后续帧是否隔行存储
+     */
+    public void setInterlace(boolean interlace) {
+        this.interlace = interlace;
+    }
+
+    /**
+     * 设置后续帧使用的固定调色板，像素映射到最接近的颜色，不再做NeuQuant量化。
+     * 调色板大小决定颜色表大小(向上取2的幂)，为null时恢复量化
+     *
+     * @param rgb 最多256个RGB颜色
+     */
+    public void setPalette(int[] rgb) {
+        if (rgb != null && (rgb.length < 1 || rgb.length > 256)) {
+            throw new IllegalArgumentException("Palette size must be 1..256: " + rgb.length);
+        }
+        fixedPalette = rgb;
+    }
+
+    /**
+     * 设置后第一帧之后的帧不写局部调色板，直接使用第一帧写出的全局调色板。
+     * 只应与{@link #setPalette(int[])}一起使用，且各帧使用同一调色板，必须在第一帧之前调用
+     */
+    public void setGlobalPaletteOnly(boolean globalPaletteOnly) {
+        this.globalPaletteOnly = globalPaletteOnly;
+    }
+
     /**
      * Sets the number of times the set of GIF frames should be played. Default is
      * 1; 0 means play indefinitely. Must be invoked before the first image is
@@ -100,38 +125,19 @@ public class AnimatedGifEncoder {
      * <code>setSize</code> was not invoked, the size of the first image is used
      * for all subsequent frames.
      *
-     * @param im BufferedImage containing frame to write.
+     * @param im GifRaster containing frame to write.
      * @return true if successful.
      */
-    public boolean addFrame(Bitmap im,boolean compressBitmap) {
+    public boolean addFrame(GifRaster im) {
         if ((im == null) || !started) {
             return false;
         }
         boolean ok = true;
         try {
-            if (compressBitmap){
-//                MyLog.i("---压缩帧前:w="+im.getWidth()+",h="+im.getHeight()+",size="+im.getByteCount());
-                try{
-//                   Bitmap temp = Bitmap.createScaledBitmap(im, (int) (im.getWidth()*0.6f), (int) (im.getHeight()*0.6f), true);
-
-                    byte[] bytes = byteArrayFromBitmap(im,100);
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inPreferredConfig = Config.RGB_565;
-                    options.inSampleSize = 1;
-                    Bitmap temp = BitmapFactory.decodeByteArray(bytes,0,bytes.length,options);
-                   if (temp != null){
-                       im.recycle();
-                       im = temp;
-//                       MyLog.i("---压缩帧后:w="+im.getWidth()+",h="+im.getHeight()+",size="+im.getByteCount());
-                   }
-                }catch (OutOfMemoryError e){
-                    e.printStackTrace();
-                }
-            }
             image = im;
             if (!sizeSet) {
                 // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
+                setSize(im.width, im.height);
             }
 
             getImagePixels(); // convert to correct format if necessary
@@ -146,7 +152,7 @@ public class AnimatedGifEncoder {
             }
             writeGraphicCtrlExt(); // write graphic control extension
             writeImageDesc(); // image descriptor
-            if (!firstFrame) {
+            if (!firstFrame && !globalPaletteOnly) {
                 writePalette(); // local color table
             }
             writePixels(); // encode and write pixel data
@@ -162,50 +168,34 @@ public class AnimatedGifEncoder {
     }
 
 
-    public boolean addFrame(Bitmap im, boolean compressBitmap, int maxWidth) {
+    /**
+     * 添加一帧，scaleDown为true时按长边不超过maxWidth整数倍缩小
+     */
+    public boolean addFrame(GifRaster im, boolean scaleDown, int maxWidth) {
         if ((im == null) || !started) {
             return false;
         }
         boolean ok = true;
         try {
 
-            if(compressBitmap){
-
-    //                MyLog.i("---压缩帧前:w="+im.getWidth()+",h="+im.getHeight()+",size="+im.getByteCount());
-                try{
-    //                   Bitmap temp = Bitmap.createScaledBitmap(im, (int) (im.getWidth()*0.6f), (int) (im.getHeight()*0.6f), true);
-                    byte[] bytes = byteArrayFromBitmap(im,100);
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inJustDecodeBounds = true;
-                    BitmapFactory.decodeByteArray(bytes,0,bytes.length,options);
-                    int sampleSize = 1;
-                    if (options.outWidth > options.outHeight && options.outWidth > maxWidth) {
-                        sampleSize = Math.round(options.outWidth * 1.0f / maxWidth);
-                    } else if (options.outHeight >= options.outWidth && options.outHeight > maxWidth) {
-                        sampleSize = Math.round(options.outHeight * 1.0f / maxWidth);
-                    }
-                    if(sampleSize < 1){
-                        sampleSize = 1;
-                    }
-                    options.inJustDecodeBounds = false;
-                    options.inPreferredConfig = Config.RGB_565;
-                    options.inSampleSize = sampleSize;
-                    Bitmap temp = BitmapFactory.decodeByteArray(bytes,0,bytes.length,options);
-                    if (temp != null){
-                        im.recycle();
-                        im = temp;
-    //                       MyLog.i("---压缩帧后:w="+im.getWidth()+",h="+im.getHeight()+",size="+im.getByteCount());
-                    }
-                }catch (OutOfMemoryError e){
-                    e.printStackTrace();
+            if(scaleDown){
+                int sampleSize = 1;
+                if (im.width > im.height && im.width > maxWidth) {
+                    sampleSize = Math.round(im.width * 1.0f / maxWidth);
+                } else if (im.height >= im.width && im.height > maxWidth) {
+                    sampleSize = Math.round(im.height * 1.0f / maxWidth);
+                }
+                if(sampleSize < 1){
+                    sampleSize = 1;
                 }
+                im = im.downsample(sampleSize);
             }
 
             image = im;
 
             if (!sizeSet) {
                 // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
+                setSize(im.width, im.height);
             }
 
             getImagePixels(); // convert to correct format if necessary
@@ -220,7 +210,7 @@ public class AnimatedGifEncoder {
             }
             writeGraphicCtrlExt(); // write graphic control extension
             writeImageDesc(); // image descriptor
-            if (!firstFrame) {
+            if (!firstFrame && !globalPaletteOnly) {
                 writePalette(); // local color table
             }
 
@@ -236,28 +226,6 @@ public class AnimatedGifEncoder {
         return ok;
     }
 
-
-    public byte[] byteArrayFromBitmap(Bitmap bitmap, int percent){
-        byte[] data = null;
-        ByteArrayOutputStream baos = null;
-        try {
-            baos = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.PNG, percent, baos);
-            data = baos.toByteArray();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if(baos != null) {
-                    baos.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        return data;
-    }
-
     /**
      * Flushes any pending data and closes output file. If writing to an
      * OutputStream, the stream is not closed.
@@ -383,6 +351,10 @@ public class AnimatedGifEncoder {
      * Analyzes image colors and creates color map.
      */
     protected void analyzePixels() {
+        if (fixedPalette != null) {
+            mapToFixedPalette();
+            return;
+        }
         int len = pixels.length;
         int nPix = len / 3;
         indexedPixels = new byte[nPix];
@@ -415,6 +387,59 @@ public class AnimatedGifEncoder {
         }
     }
 
+    /**
+     * 将像素映射到固定调色板，相同颜色只查找一次
+     */
+    protected void mapToFixedPalette() {
+        int n = fixedPalette.length;
+        palSize = 0;
+        while ((2 << palSize) < n) {
+            palSize++;
+        }
+        colorDepth = palSize + 1;
+        colorTab = new byte[3 * n];
+        for (int i = 0; i < n; i++) {
+            int c = fixedPalette[i];
+            colorTab[i * 3] = (byte) ((c >> 16) & 0xff);
+            colorTab[i * 3 + 1] = (byte) ((c >> 8) & 0xff);
+            colorTab[i * 3 + 2] = (byte) (c & 0xff);
+            usedEntry[i] = false;
+        }
+        int nPix = pixels.length / 3;
+        indexedPixels = new byte[nPix];
+        HashMap<Integer, Integer> cache = new HashMap<>();
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int b = pixels[k++] & 0xff;
+            int g = pixels[k++] & 0xff;
+            int r = pixels[k++] & 0xff;
+            int rgb = (r << 16) | (g << 8) | b;
+            Integer index = cache.get(rgb);
+            if (index == null) {
+                int best = 0;
+                int bestDist = Integer.MAX_VALUE;
+                for (int j = 0; j < n && bestDist > 0; j++) {
+                    int dr = r - ((fixedPalette[j] >> 16) & 0xff);
+                    int dg = g - ((fixedPalette[j] >> 8) & 0xff);
+                    int db = b - (fixedPalette[j] & 0xff);
+                    int d = dr * dr + dg * dg + db * db;
+                    if (d < bestDist) {
+                        bestDist = d;
+                        best = j;
+                    }
+                }
+                index = best;
+                cache.put(rgb, index);
+            }
+            usedEntry[index] = true;
+            indexedPixels[i] = (byte) (int) index;
+        }
+        pixels = null;
+        if (transparent != -1) {
+            transIndex = findClosest(transparent);
+        }
+    }
+
     /**
      * Returns index of palette color closest to c
      */
@@ -447,19 +472,13 @@ public class AnimatedGifEncoder {
      * Extracts image pixels into byte array "pixels"
      */
     protected void getImagePixels() {
-        int w = image.getWidth();
-        int h = image.getHeight();
-        if ((w != width) || (h != height)) {
-            // create new image with right size/format
-            Bitmap temp = Bitmap.createBitmap(width, height, Config.ARGB_4444);
-            Canvas g = new Canvas(temp);
-            g.drawBitmap(image, 0, 0, new Paint());
-            image = temp;
-        }
-        int[] data = getImageData(image);
-        pixels = new byte[data.length * 3];
+        // create new image with right size
+        image = image.resizeCanvas(width, height);
+        int[] data = image.pixels;
+        int nPix = width * height;
+        pixels = new byte[nPix * 3];
 
-        for (int i = 0; i < data.length; i++) {
+        for (int i = 0; i < nPix; i++) {
             int td = data[i];
             if(td >> 24 != 0) {//去掉透明像素,这里实际上透明像素被赋值为0了
                 float r = ((td >> 16) & 0xff);
@@ -482,16 +501,6 @@ public class AnimatedGifEncoder {
         }
     }
 
-
-    protected int[] getImageData(Bitmap img) {
-        int w = img.getWidth();
-        int h = img.getHeight();
-
-        int[] data = new int[w * h];
-        img.getPixels(data, 0, w, 0, 0, w, h);
-        return data;
-    }
-
     /**
      * Writes Graphic Control Extension
      */
@@ -533,13 +542,14 @@ public class AnimatedGifEncoder {
         writeShort(width); // image size
         writeShort(height);
         // packed fields
-        if (firstFrame) {
+        int interlaceFlag = interlace ? 0x40 : 0;
+        if (firstFrame || globalPaletteOnly) {
             // no LCT - GCT is used for first (or only) frame
-            out.write(0);
+            out.write(interlaceFlag);
         } else {
             // specify normal LCT
             out.write(0x80 | // 1 local color table 1=yes
-                    0 | // 2 interlace - 0=no
+                    interlaceFlag | // 2 interlace
                     0 | // 3 sorted - 0=no
                     0 | // 4-5 reserved
                     palSize); // 6-8 size of color table
@@ -582,7 +592,7 @@ public class AnimatedGifEncoder {
      */
     protected void writePalette() throws IOException {
         out.write(colorTab, 0, colorTab.length);
-        int n = (3 * 256) - colorTab.length;
+        int n = (3 * (2 << palSize)) - colorTab.length;
         for (int i = 0; i < n; i++) {
             out.write(0);
         }
@@ -592,10 +602,30 @@ public class AnimatedGifEncoder {
      * Encodes and writes pixel data
      */
     protected void writePixels() throws IOException {
+        if (interlace) {
+            indexedPixels = interlaceRows(indexedPixels);
+        }
         LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
         encoder.encode(out);
     }
 
+    /**
+     * 按隔行存储顺序(每8行第0行、每8行第4行、每4行第2行、每2行第1行)重排像素行
+     */
+    protected byte[] interlaceRows(byte[] src) {
+        byte[] dst = new byte[src.length];
+        int row = 0;
+        int[] starts = {0, 4, 2, 1};
+        int[] steps = {8, 8, 4, 2};
+        for (int pass = 0; pass < 4; pass++) {
+            for (int y = starts[pass]; y < height; y += steps[pass]) {
+                System.arraycopy(src, y * width, dst, row * width, width);
+                row++;
+            }
+        }
+        return dst;
+    }
+
     /**
      * Write 16-bit value to output stream, LSB first
      */
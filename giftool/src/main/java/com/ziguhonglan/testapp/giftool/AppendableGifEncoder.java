@@ -0,0 +1,222 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * 追加写入的GIF编码器：通过FileChannel打开已有的GIF，从结束标志处追加新帧，
+ * 沿用文件中的逻辑屏幕尺寸、循环次数和调色板设置
+ * (已有的帧都只用全局颜色表时，颜色都在表中的新帧也映射到全局颜色表，其余的帧写局部颜色表)。
+ * <p>
+ * 每帧编码后连同结束标志一起写入文件，下一帧从结束标志处覆盖写入，任何时刻文件都是完整的GIF。
+ * 进程中途退出最多丢失正在写入的一帧，再次打开时丢弃末尾不完整的块后继续追加。
+ * 内存只与单帧尺寸有关，适合录屏等长时间边录边写的场景。
+ * <p>
+ * 文件不存在或为空时创建新文件，画布尺寸为第一帧的尺寸。帧按原尺寸写入，不缩小
+ */
+public final class AppendableGifEncoder implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final GifCompressOptions options;
+    private int width; // 画布尺寸，新文件写入第一帧之前为0
+    private int height;
+    private int[] globalPalette; // 已有的帧都只用全局颜色表时不为null
+    private int frameCount;
+    private long end; // 结束标志的偏移，新帧从这里写入
+    private boolean closed;
+
+    private AppendableGifEncoder(File path, GifCompressOptions options) throws IOException {
+        this.path = path;
+        this.options = options;
+        file = new RandomAccessFile(path, "rw");
+        channel = file.getChannel();
+    }
+
+    /**
+     * 打开或创建文件，已有的内容按块结构读取，不解码图像数据
+     *
+     * @param options 新帧的量化、颜色数、有损程度等参数，新文件还使用其中的循环次数；为null时使用默认参数
+     * @throws IOException 文件不是GIF或无法读写
+     */
+    public static AppendableGifEncoder open(File file, GifCompressOptions options) throws IOException {
+        AppendableGifEncoder encoder = new AppendableGifEncoder(file, options != null ? options : new GifCompressOptions());
+        try {
+            encoder.recover();
+        } catch (IOException e) {
+            encoder.close();
+            throw e;
+        }
+        return encoder;
+    }
+
+    /**
+     * 读取已有的块结构，截掉结束标志及之后不完整的数据并重新写结束标志
+     */
+    private void recover() throws IOException {
+        long size = channel.size();
+        GifInfo info = size > 0 ? GifInfo.readRecoverable(Channels.newInputStream(channel.position(0))) : null;
+        if (info == null) {
+            if (size > 0 && !startsWithGif()) {
+                throw new IOException("Not a gif: " + path);
+            }
+            // 空文件或文件头没有写完，重新开始
+            channel.truncate(0);
+            end = 0;
+            return;
+        }
+        width = info.getWidth();
+        height = info.getHeight();
+        frameCount = info.getFrameCount();
+        if (info.hasGlobalPalette() && frameCount > 0 && !hasLocalPalette(info)) {
+            globalPalette = info.getGlobalPalette();
+        }
+        end = info.getEndOffset();
+        channel.truncate(end);
+        writeAt(new byte[]{0x3b}, end); // gif trailer
+        LOG.info("append to " + path + ": " + width + "x" + height + ", " + frameCount + " frames, "
+                + Math.max(0, size - end - 1) + " bytes dropped" + (globalPalette != null ? ", global palette" : ""));
+    }
+
+    private static boolean hasLocalPalette(GifInfo info) {
+        for (int i = 0; i < info.getFrameCount(); i++) {
+            if (info.getFrame(i).localPalette) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 文件开头是否为GIF，文件头没有写完时只比较已有的字节
+     */
+    private boolean startsWithGif() throws IOException {
+        ByteBuffer id = ByteBuffer.allocate(3);
+        channel.read(id, 0);
+        byte[] gif = {'G', 'I', 'F'};
+        for (int i = 0; i < id.position(); i++) {
+            if (id.get(i) != gif[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 编码一帧，写在画布左上角，见{@link #addFrame(GifRaster, int, int, int)}
+     */
+    public boolean addFrame(GifRaster frame, int delayMs) {
+        return addFrame(frame, 0, 0, delayMs);
+    }
+
+    /**
+     * 编码一帧并立即写入文件，不处置，未覆盖的区域保留之前的画面。
+     * 返回时数据已交给系统，进程退出不会丢失；需要防止断电丢失时调用{@link #sync()}
+     *
+     * @param x       帧在画布中的位置，新文件的第一帧决定画布尺寸，位置被忽略
+     * @param y       帧在画布中的位置
+     * @param delayMs 帧延迟(毫秒)
+     * @return 已关闭、帧超出画布或写入失败时返回false
+     */
+    public synchronized boolean addFrame(GifRaster frame, int x, int y, int delayMs) {
+        if (closed || frame == null) {
+            return false;
+        }
+        boolean first = end == 0;
+        if (!first && (x < 0 || y < 0 || x + frame.width > width || y + frame.height > height)) {
+            LOG.warning("frame " + frame.width + "x" + frame.height + " at " + x + "," + y
+                    + " out of canvas " + width + "x" + height);
+            return false;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        SimpleAnimatedGifEncoder ge = new SimpleAnimatedGifEncoder();
+        ge.start(bos, first);
+        ge.setRepeat(options.getRepeat());
+        ge.setQuality(options.getQuality());
+        ge.setColors(options.getColors());
+        ge.setLossy(options.getLossy());
+        ge.setQuantizer(options.getQuantizer());
+        ge.setExactPalette(true);
+        if (globalPalette != null) {
+            ge.setPalette(globalPalette);
+            ge.setGlobalPaletteOnly(true);
+        }
+        if (!first) {
+            ge.setPosition(x, y);
+        }
+        ge.setDispose(1);
+        ge.setDelay(delayMs);
+        ge.writeFrameData(frame);
+        ge.finish();
+        if (bos.size() == 0) {
+            return false;
+        }
+        bos.write(0x3b); // gif trailer，下一帧从这里覆盖写入
+        try {
+            writeAt(bos.toByteArray(), end);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        end += bos.size() - 1;
+        frameCount++;
+        if (first) {
+            width = frame.width;
+            height = frame.height;
+        }
+        return true;
+    }
+
+    private void writeAt(byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * 把已写入的帧刷到存储设备上
+     */
+    public synchronized void sync() throws IOException {
+        if (!closed) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 文件中的帧数，包括打开前已有的帧
+     */
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized int getWidth() {
+        return width;
+    }
+
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    /**
+     * 关闭文件，文件已是完整的GIF，不需要再写结束标志
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        file.close();
+    }
+}
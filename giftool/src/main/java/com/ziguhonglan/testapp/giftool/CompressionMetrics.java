@@ -0,0 +1,35 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 压缩流水线的分阶段耗时与字节数统计回调。
+ * <p>
+ * 解码、量化、映射、LZW、写出及排队等待各阶段每帧回调一次{@link #onFrameStage}，
+ * 任务结束时回调一次{@link #onJobFinished}。回调可能来自解码线程或任意编码线程，实现需线程安全，
+ * 且应尽量轻量(例如只做累加或采样上报)。未设置时各阶段不计时，没有额外开销。
+ */
+public interface CompressionMetrics {
+
+    int STAGE_DECODE = 0; // LZW解码及画布合成，bytes为该帧压缩数据字节数
+    int STAGE_QUANTIZE = 1; // NeuQuant学习与建索引，bytes为参与量化的BGR字节数
+    int STAGE_MAP = 2; // 像素映射到调色板，bytes为映射的BGR字节数
+    int STAGE_LZW = 3; // LZW编码，bytes为编码输出字节数
+    int STAGE_WRITE = 4; // 写入输出流，bytes为写出字节数
+    int STAGE_QUEUE_WAIT = 5; // 帧从投递到开始编码的排队时间，bytes为0
+    int STAGE_COUNT = 6;
+
+    /**
+     * 一帧完成某个阶段
+     *
+     * @param jobId         任务id，同一次压缩的回调相同
+     * @param frameIndex    帧在源GIF中的序号
+     * @param stage         阶段，STAGE_*常量
+     * @param durationNanos 阶段耗时(纳秒)
+     * @param bytes         阶段处理的字节数，含义见各阶段常量
+     */
+    void onFrameStage(long jobId, int frameIndex, int stage, long durationNanos, long bytes);
+
+    /**
+     * 任务结束时的汇总
+     */
+    void onJobFinished(CompressionSummary summary);
+}
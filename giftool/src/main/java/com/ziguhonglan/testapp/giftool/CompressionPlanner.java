@@ -0,0 +1,348 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.IOException;
+
+/**
+ * 压缩计划：按块结构信息(调色板布局、循环次数)和前几个保留帧的简单统计(不同颜色数、变化区域占比、重复帧)，
+ * 在能满足其余参数要求的策略中选出最快的一种，由{@link GifCompressor}执行。按从快到慢依次尝试：
+ * <ul>
+ * <li>{@link GifCompressOptions#STRATEGY_REMUX}：不缩小、不抽帧、不减少颜色、循环次数相同且没有重复帧，原样输出</li>
+ * <li>{@link GifCompressOptions#STRATEGY_DELTA}：相邻帧的变化区域平均不超过画布的一半，只编码变化区域，
+ * 下面两种调色板适用时同样使用，否则量化变化区域</li>
+ * <li>{@link GifCompressOptions#STRATEGY_GLOBAL_PALETTE}：不缩小且源文件只有全局颜色表，
+ * 分析帧合成后的像素都不透明且颜色都在该表中，沿用该表精确映射，不量化、不写局部颜色表。
+ * 编码器输出不写透明色，有透明像素(画布的透明背景)或表外颜色的帧按精确调色板或量化编码并写局部颜色表</li>
+ * <li>{@link GifCompressOptions#STRATEGY_EXACT_PALETTE}：不缩小且分析帧的不同颜色都不超过颜色数，
+ * 每帧直接用自身的颜色作调色板，个别帧颜色过多时该帧退回量化</li>
+ * <li>{@link GifCompressOptions#STRATEGY_REQUANTIZE}：每帧完整画布重新量化</li>
+ * </ul>
+ * 差分帧编码的像素最多是完整画布的一半，比完整画布的调色板映射更快。原样输出和两种调色板无损(有损程度另计)。
+ * 分析帧按点采样缩小到不超过{@link #ANALYSIS_PIXELS}个像素，只保留上一帧的采样，
+ * 大画布上的颜色数是下限，两种调色板都由编码器逐帧确认
+ */
+final class CompressionPlanner {
+
+    static final int ANALYZED_FRAMES = 6; // 分析的保留帧数
+    private static final int ANALYSIS_PIXELS = 512 * 512; // 分析帧采样后的像素数上限
+    private static final float DELTA_MAX_CHANGED = 0.5f; // 变化区域平均占比不超过该值时使用差分帧
+
+    private final GifCompressOptions options;
+    private GifInfo info;
+    private int localPalettes; // 带局部颜色表的帧数
+    // 分析结果
+    private int analyzedFrames;
+    private int maxColors; // 分析帧中最多的不同颜色数，超过256时为257
+    private float changed; // 相邻分析帧变化区域占画布的平均比例
+    private int duplicates; // 与上一分析帧完全相同的帧数
+    private boolean outsideGlobalPalette; // 分析帧中有透明像素或全局颜色表外的颜色
+    private int strategy = GifCompressOptions.STRATEGY_REQUANTIZE;
+    private int paletteMode = GifCompressOptions.STRATEGY_REQUANTIZE; // 适用的调色板方式，差分帧同样使用
+    private String reason;
+
+    private CompressionPlanner(GifCompressOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @param source    压缩的输入，分析帧时从头读取前几帧
+     * @param info      输入的块结构，为null时按块结构不完整处理
+     * @param framePlan 抽帧计划，为null时保留全部帧
+     * @param streaming 是否用于流式压缩，流式编码器不支持差分帧
+     * @param handle    取消句柄，可为null
+     */
+    static CompressionPlanner plan(GifSource source, GifInfo info, int[] framePlan, GifCompressOptions options,
+                                   boolean streaming, GifCompressHandle handle) throws IOException {
+        CompressionPlanner planner = new CompressionPlanner(options);
+        planner.info = info;
+        if (planner.info == null || planner.info.getFrameCount() == 0) {
+            // 由解码报告错误
+            planner.reason = "unreadable block structure";
+            return planner;
+        }
+        for (int i = 0; i < planner.info.getFrameCount(); i++) {
+            if (planner.info.getFrame(i).localPalette) {
+                planner.localPalettes++;
+            }
+        }
+        if (options.getStrategy() != GifCompressOptions.STRATEGY_AUTO) {
+            planner.force(options.getStrategy(), framePlan, streaming);
+        } else if (planner.analyze(source, framePlan, handle)) {
+            planner.choose(framePlan, streaming);
+        } else {
+            planner.reason = "cancelled";
+        }
+        return planner;
+    }
+
+    int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * 是否沿用源文件的全局颜色表，{@link #getGlobalPalette()}
+     */
+    boolean usesGlobalPalette() {
+        return strategy == GifCompressOptions.STRATEGY_GLOBAL_PALETTE
+                || paletteMode == GifCompressOptions.STRATEGY_GLOBAL_PALETTE;
+    }
+
+    /**
+     * 是否要求调色板映射无损：沿用全局颜色表时也只接受表中的颜色，不能精确映射的帧由编码器退回
+     */
+    boolean usesExactPalette() {
+        return usesGlobalPalette() || strategy == GifCompressOptions.STRATEGY_EXACT_PALETTE
+                || paletteMode == GifCompressOptions.STRATEGY_EXACT_PALETTE;
+    }
+
+    /**
+     * 源文件的全局颜色表，{@link GifCompressOptions#STRATEGY_GLOBAL_PALETTE}时使用
+     */
+    int[] getGlobalPalette() {
+        return info != null ? info.getGlobalPalette() : null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("plan: ").append(name(strategy));
+        if (strategy == GifCompressOptions.STRATEGY_DELTA) {
+            sb.append(" + ").append(name(paletteMode));
+        }
+        sb.append(" (").append(reason).append(")");
+        if (info != null) {
+            int[] gct = info.getGlobalPalette();
+            sb.append(", ").append(gct != null ? "global palette " + gct.length : "no global palette")
+                    .append(", local palettes ").append(localPalettes).append("/").append(info.getFrameCount());
+        }
+        if (analyzedFrames > 0) {
+            sb.append(", analyzed ").append(analyzedFrames).append(" frames: colors ")
+                    .append(maxColors > NeuQuant.MAX_COLORS ? ">" + NeuQuant.MAX_COLORS : String.valueOf(maxColors))
+                    .append(", changed ").append(Math.round(changed * 100)).append("%")
+                    .append(", duplicates ").append(duplicates);
+            if (outsideGlobalPalette) {
+                sb.append(", transparent or outside global palette");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 调用方指定的策略，不适用时按重新量化处理
+     */
+    private void force(int requested, int[] framePlan, boolean streaming) {
+        reason = "requested";
+        if (requested == GifCompressOptions.STRATEGY_REMUX && !canRemux(framePlan)) {
+            reason = "remux would not meet the options";
+        } else if (requested == GifCompressOptions.STRATEGY_GLOBAL_PALETTE && info.getGlobalPalette() == null) {
+            reason = "no global palette";
+        } else if (requested == GifCompressOptions.STRATEGY_DELTA && streaming) {
+            reason = "delta frames not supported by streaming encoder";
+        } else {
+            strategy = requested;
+            if (strategy == GifCompressOptions.STRATEGY_DELTA && canUseGlobalPalette()) {
+                paletteMode = GifCompressOptions.STRATEGY_GLOBAL_PALETTE;
+            }
+        }
+    }
+
+    private void choose(int[] framePlan, boolean streaming) {
+        if (duplicates == 0 && canRemux(framePlan)) {
+            strategy = GifCompressOptions.STRATEGY_REMUX;
+            reason = "source already meets the options";
+            return;
+        }
+        if (canUseGlobalPalette()) {
+            paletteMode = GifCompressOptions.STRATEGY_GLOBAL_PALETTE;
+        } else if (keepsColors() && maxColors <= options.getColors()) {
+            paletteMode = GifCompressOptions.STRATEGY_EXACT_PALETTE;
+        }
+        if (!streaming && analyzedFrames > 1 && changed <= DELTA_MAX_CHANGED) {
+            strategy = GifCompressOptions.STRATEGY_DELTA;
+            reason = "changed area " + Math.round(changed * 100) + "%";
+        } else if (paletteMode == GifCompressOptions.STRATEGY_GLOBAL_PALETTE) {
+            strategy = paletteMode;
+            reason = "all frames use the global palette";
+        } else if (paletteMode == GifCompressOptions.STRATEGY_EXACT_PALETTE) {
+            strategy = paletteMode;
+            reason = "frames fit in " + options.getColors() + " colors";
+        } else {
+            strategy = GifCompressOptions.STRATEGY_REQUANTIZE;
+            reason = "no cheaper strategy applies";
+        }
+    }
+
+    /**
+     * 原样输出是否满足参数：不缩小、不抽帧、无损、颜色表不超过颜色数、循环次数相同
+     */
+    private boolean canRemux(int[] framePlan) {
+        if (!isFullScale() || options.getLossy() > 0 || info.getLoopCount() != options.getRepeat()) {
+            return false;
+        }
+        if (framePlan != null) {
+            for (int delay : framePlan) {
+                if (delay == FrameSampler.DROP) {
+                    return false;
+                }
+            }
+        }
+        int[] gct = info.getGlobalPalette();
+        // 局部颜色表的大小没有读取，只在不限制颜色数时允许
+        return options.getColors() == NeuQuant.MAX_COLORS
+                || (localPalettes == 0 && gct != null && gct.length <= options.getColors());
+    }
+
+    private boolean canUseGlobalPalette() {
+        return hasOnlyGlobalPalette() && !outsideGlobalPalette;
+    }
+
+    /**
+     * 源文件只有全局颜色表且不超过颜色数，不缩小或取点缩小
+     */
+    private boolean hasOnlyGlobalPalette() {
+        int[] gct = info.getGlobalPalette();
+        return keepsColors() && gct != null && localPalettes == 0 && gct.length <= options.getColors();
+    }
+
+    private boolean isFullScale() {
+        return options.getSampleSize(info.getWidth(), info.getHeight()) == 1;
+    }
+
+    /**
+     * 缩小时块平均产生新的颜色，只按调色板映射的策略都要求不缩小或取点缩小
+     */
+    private boolean keepsColors() {
+        return isFullScale() || options.getScaleFilter() == GifCompressOptions.SCALE_FILTER_NEAREST;
+    }
+
+    /**
+     * 解码前几个保留帧并统计，不保留解码的帧
+     *
+     * @return 取消时返回false
+     */
+    private boolean analyze(GifSource source, int[] framePlan, final GifCompressHandle handle) throws IOException {
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        if (framePlan != null) {
+            boolean[] skipped = new boolean[framePlan.length];
+            for (int i = 1; i < framePlan.length; i++) {
+                skipped[i] = framePlan[i] == FrameSampler.DROP;
+            }
+            decoder.setSkippedFrames(skipped);
+        }
+        final PaletteMapper counter = new PaletteMapper();
+        final float[] changedSum = new float[1];
+        final int[] gct = hasOnlyGlobalPalette() ? info.getGlobalPalette() : null;
+        decoder.read(source.open(), new IGifFrameListener() {
+            private GifRaster previous;
+            private byte[] indexed;
+
+            @Override
+            public boolean onFrameDecoded(int index, GifFrame frame) {
+                if (handle != null && handle.isStopped()) {
+                    return false;
+                }
+                GifRaster sample = pointSample(frame.image);
+                int length = sample.width * sample.height;
+                if (gct != null && !outsideGlobalPalette) {
+                    if (indexed == null || indexed.length < length) {
+                        indexed = new byte[length];
+                    }
+                    outsideGlobalPalette = !counter.mapFixedExact(sample.pixels, length, indexed, gct);
+                }
+                maxColors = Math.max(maxColors,
+                        counter.countColors(sample.pixels, length, NeuQuant.MAX_COLORS));
+                if (previous != null) {
+                    int[] rect = changedRect(previous, sample, 1);
+                    if (rect == null) {
+                        duplicates++;
+                    } else {
+                        changedSum[0] += (float) rect[2] * rect[3] / (sample.width * sample.height);
+                    }
+                }
+                previous = sample;
+                return ++analyzedFrames < ANALYZED_FRAMES;
+            }
+        });
+        if (analyzedFrames > 1) {
+            changed = changedSum[0] / (analyzedFrames - 1);
+        }
+        return handle == null || !handle.isStopped();
+    }
+
+    /**
+     * 按固定步长取点缩小到不超过{@link #ANALYSIS_PIXELS}个像素，不混合颜色。足够小时复制一份
+     */
+    private static GifRaster pointSample(GifRaster image) {
+        int step = 1;
+        while ((long) (image.width / step) * (image.height / step) > ANALYSIS_PIXELS) {
+            step++;
+        }
+        return step == 1 ? image.copy() : image.downsampleNearest(step);
+    }
+
+    /**
+     * 两帧之间有变化的区域，换算到缩小后的坐标，缩小时被舍弃的边缘不计
+     *
+     * @param sampleSize 缩小倍数
+     * @return {x, y, 宽, 高}(缩小后的坐标)，没有变化时返回null
+     */
+    static int[] changedRect(GifRaster previous, GifRaster current, int sampleSize) {
+        int w = current.width;
+        int h = current.height;
+        int[] a = previous.pixels;
+        int[] b = current.pixels;
+        int minX = w;
+        int maxX = -1;
+        int minY = -1;
+        int maxY = -1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w;
+            int left = 0;
+            while (left < w && a[row + left] == b[row + left]) {
+                left++;
+            }
+            if (left == w) {
+                continue;
+            }
+            int right = w - 1;
+            while (a[row + right] == b[row + right]) {
+                right--;
+            }
+            if (minY < 0) {
+                minY = y;
+            }
+            maxY = y;
+            minX = Math.min(minX, left);
+            maxX = Math.max(maxX, right);
+        }
+        if (minY < 0) {
+            return null;
+        }
+        int outWidth = Math.max(1, w / sampleSize);
+        int outHeight = Math.max(1, h / sampleSize);
+        int x0 = minX / sampleSize;
+        int y0 = minY / sampleSize;
+        int x1 = Math.min(outWidth, maxX / sampleSize + 1);
+        int y1 = Math.min(outHeight, maxY / sampleSize + 1);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new int[]{x0, y0, x1 - x0, y1 - y0};
+    }
+
+    static String name(int strategy) {
+        switch (strategy) {
+            case GifCompressOptions.STRATEGY_REMUX:
+                return "remux";
+            case GifCompressOptions.STRATEGY_GLOBAL_PALETTE:
+                return "global palette";
+            case GifCompressOptions.STRATEGY_EXACT_PALETTE:
+                return "exact palette";
+            case GifCompressOptions.STRATEGY_DELTA:
+                return "delta frames";
+            case GifCompressOptions.STRATEGY_REQUANTIZE:
+                return "requantize";
+            default:
+                return "auto";
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 一次压缩任务的统计汇总
+ */
+public class CompressionSummary {
+
+    private final long jobId;
+    private final boolean success;
+    private final long wallNanos;
+    private final int decodedFrames;
+    private final int encodedFrames;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long[] stageNanos;
+    private final long[] stageBytes;
+    private final long workerBusyNanos;
+    private final int workerCount;
+
+    CompressionSummary(long jobId, boolean success, long wallNanos, int decodedFrames, int encodedFrames,
+                       long bytesIn, long bytesOut, long[] stageNanos, long[] stageBytes,
+                       long workerBusyNanos, int workerCount) {
+        this.jobId = jobId;
+        this.success = success;
+        this.wallNanos = wallNanos;
+        this.decodedFrames = decodedFrames;
+        this.encodedFrames = encodedFrames;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.stageNanos = stageNanos;
+        this.stageBytes = stageBytes;
+        this.workerBusyNanos = workerBusyNanos;
+        this.workerCount = workerCount;
+    }
+
+    public long getJobId() {
+        return jobId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * 任务开始到结束的墙钟时间(纳秒)
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public int getDecodedFrames() {
+        return decodedFrames;
+    }
+
+    public int getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * 读取的源GIF字节数
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * 写出的GIF字节数
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * 某阶段所有帧的累计耗时(纳秒)，stage为CompressionMetrics.STAGE_*
+     */
+    public long getStageNanos(int stage) {
+        return stageNanos[stage];
+    }
+
+    /**
+     * 某阶段所有帧的累计字节数，stage为CompressionMetrics.STAGE_*
+     */
+    public long getStageBytes(int stage) {
+        return stageBytes[stage];
+    }
+
+    /**
+     * 编码线程在本任务上的累计忙碌时间(纳秒)
+     */
+    public long getWorkerBusyNanos() {
+        return workerBusyNanos;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * 编码线程利用率：忙碌时间 / (墙钟时间 * 编码线程数)，范围0~1
+     */
+    public float getWorkerUtilization() {
+        if (wallNanos <= 0 || workerCount <= 0) {
+            return 0f;
+        }
+        return Math.min(1f, (float) workerBusyNanos / ((float) wallNanos * workerCount));
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionSummary{job=" + jobId
+                + ", success=" + success
+                + ", wall=" + wallNanos / 1000000 + "ms"
+                + ", frames=" + encodedFrames + "/" + decodedFrames
+                + ", in=" + bytesIn
+                + ", out=" + bytesOut
+                + ", decode=" + stageNanos[CompressionMetrics.STAGE_DECODE] / 1000000 + "ms"
+                + ", quantize=" + stageNanos[CompressionMetrics.STAGE_QUANTIZE] / 1000000 + "ms"
+                + ", map=" + stageNanos[CompressionMetrics.STAGE_MAP] / 1000000 + "ms"
+                + ", lzw=" + stageNanos[CompressionMetrics.STAGE_LZW] / 1000000 + "ms"
+                + ", write=" + stageNanos[CompressionMetrics.STAGE_WRITE] / 1000000 + "ms"
+                + ", queueWait=" + stageNanos[CompressionMetrics.STAGE_QUEUE_WAIT] / 1000000 + "ms"
+                + ", utilization=" + getWorkerUtilization()
+                + '}';
+    }
+}
@@ -0,0 +1,322 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 软截止时间控制，见{@link GifCompressOptions#setDeadlineMillis(long)}。
+ * <p>
+ * 第0帧解码后在解码线程上用缩小的代理图按原参数、较大采样间隔和均匀调色板各试编码一次，按像素数换算出三档的单帧耗时；
+ * 输出尺寸只能在第0帧编码前确定，最快一档也来不及时在这里缩小。之后每帧解码后按编码完成的速度预估剩余时间，
+ * 选出能赶上的最慢一档，最快一档也来不及时按比例抽帧，超过截止时间后剩余的帧全部合并到当前帧，
+ * 当前帧交给下游后停止解码，剩余的图像数据不再读取。
+ * 抽帧按解码前的保留计划重新计算当前帧之后的部分，预估变好时可以恢复，被丢弃帧的延迟合并到前一个保留帧。
+ * 解码线程调用{@link #probe}、{@link #beforeFrame}和{@link #frameSubmitted()}，编码线程调用{@link #frameEncoded}
+ */
+class DeadlineController {
+
+    static final int FAST_QUALITY = 30; // 提高后的NeuQuant采样间隔
+    // 预估只计编码，解码、写出及预估误差留出余量
+    private static final float SAFETY = 0.85f;
+    private static final int MIN_OUTPUT_SIZE = 96; // 缩小后长边的下限
+    private static final int PROBE_PIXELS = 256 * 256; // 试编码代理图的像素数上限
+    private static final int MIN_MEASURED_FRAMES = 3; // 按编码完成速度预估所需的帧数
+    private static final int DROP_ALL = Integer.MAX_VALUE;
+
+    private static final int LEVEL_BASE = 0;
+    private static final int LEVEL_FAST_QUALITY = 1;
+    private static final int LEVEL_UNIFORM = 2;
+    private static final int LEVEL_COUNT = 3;
+
+    private final GifCompressOptions options;
+    private final GifCompressHandle handle;
+    private final int[] plan;
+    private final int[] original; // 解码前的保留计划
+    private final boolean[] skipped;
+    private final long startNanos;
+    private final long deadlineNanos;
+    private final int parallelism;
+    private final int[] levelQuality = new int[LEVEL_COUNT];
+    private final int[] levelQuantizer = new int[LEVEL_COUNT];
+    private final long[] probeNanos = new long[LEVEL_COUNT]; // 按试编码换算的单帧耗时(已除以并行度)
+    // 各档编码完成的时间，用相邻完成的间隔作为单帧耗时，自然包含了并行度和线程争用
+    private final long[] firstDoneNanos = new long[LEVEL_COUNT];
+    private final long[] lastDoneNanos = new long[LEVEL_COUNT];
+    private final int[] doneFrames = new int[LEVEL_COUNT];
+
+    private int level = LEVEL_BASE;
+    private int sampleSize = 1;
+    private int step = 1; // 当前帧之后每step个保留帧保留1帧
+    private int submitted;
+    private int encoded;
+    private final StringBuilder report = new StringBuilder();
+
+    /**
+     * @param plan        解码前确定的保留计划，抽帧时直接修改
+     * @param skipped     传给解码器的丢弃标志，与plan同步修改
+     * @param startNanos  压缩开始的时间
+     * @param parallelism 编码并行度
+     */
+    DeadlineController(GifCompressOptions options, GifCompressHandle handle, int[] plan, boolean[] skipped,
+                       long startNanos, int parallelism) {
+        this.options = options;
+        this.handle = handle;
+        this.plan = plan;
+        this.original = plan.clone();
+        this.skipped = skipped;
+        this.startNanos = startNanos;
+        this.deadlineNanos = startNanos + options.getDeadlineMillis() * 1000000L;
+        this.parallelism = Math.max(1, parallelism);
+        int quality = options.getQuality();
+        int quantizer = options.getQuantizer();
+        levelQuality[LEVEL_BASE] = quality;
+        levelQuantizer[LEVEL_BASE] = quantizer;
+        levelQuality[LEVEL_FAST_QUALITY] = Math.max(quality, FAST_QUALITY);
+        levelQuantizer[LEVEL_FAST_QUALITY] = quantizer;
+        levelQuality[LEVEL_UNIFORM] = levelQuality[LEVEL_FAST_QUALITY];
+        levelQuantizer[LEVEL_UNIFORM] = GifCompressOptions.QUANTIZER_UNIFORM;
+    }
+
+    /**
+     * 第0帧编码前调用：三档各试编码一次，最快一档也来不及时缩小输出
+     *
+     * @param first 解码后的第0帧
+     */
+    synchronized void probe(GifRaster first) {
+        int baseSize = options.getSampleSize(first.width, first.height);
+        long basePixels = pixels(first, baseSize);
+        int proxySize = baseSize;
+        while (pixels(first, proxySize) > PROBE_PIXELS) {
+            proxySize++;
+        }
+        GifRaster proxy = first.downsample(proxySize);
+        for (int i = 0; i < LEVEL_COUNT; i++) {
+            // 量化、映射和LZW的耗时都与像素数成正比
+            long nanos = encodeCost(proxy, levelQuality[i], levelQuantizer[i]);
+            probeNanos[i] = nanos * basePixels / pixels(first, proxySize) / parallelism;
+        }
+        sampleSize = baseSize;
+        long budget = (long) ((deadlineNanos - nanoTime()) * SAFETY);
+        long frames = keptAfter(0) + 1;
+        int longSide = Math.max(first.width, first.height);
+        while (budget > 0 && frames * probeNanos[LEVEL_UNIFORM] * pixels(first, sampleSize) / basePixels > budget
+                && longSide / (sampleSize + 1) >= MIN_OUTPUT_SIZE) {
+            sampleSize++;
+        }
+        if (sampleSize != baseSize) {
+            for (int i = 0; i < LEVEL_COUNT; i++) {
+                probeNanos[i] = probeNanos[i] * pixels(first, sampleSize) / basePixels;
+            }
+            handle.addTradeOff(GifCompressHandle.TRADE_OFF_SCALE);
+            append("scale 1/" + sampleSize);
+        }
+        adapt(0);
+    }
+
+    /**
+     * 保留帧解码后、交给下游前调用：预估剩余时间，来不及时切换档位或抽帧
+     *
+     * @param index 帧序号，不为0
+     */
+    synchronized void beforeFrame(int index) {
+        if (index < plan.length) {
+            adapt(index);
+        }
+    }
+
+    synchronized void frameSubmitted() {
+        submitted++;
+    }
+
+    /**
+     * 编码线程完成一帧后调用
+     */
+    synchronized void frameEncoded(int quality, int quantizer) {
+        encoded++;
+        long now = nanoTime();
+        for (int i = LEVEL_COUNT - 1; i >= 0; i--) {
+            if (levelQuality[i] == quality && levelQuantizer[i] == quantizer) {
+                if (doneFrames[i]++ == 0) {
+                    firstDoneNanos[i] = now;
+                }
+                lastDoneNanos[i] = now;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 是否已超过截止时间、之后的帧全部合并到了最后一个保留帧：该帧交给下游后不必再解码
+     */
+    synchronized boolean isDroppingAll() {
+        return step == DROP_ALL;
+    }
+
+    synchronized int getSampleSize() {
+        return sampleSize;
+    }
+
+    synchronized int getQuality() {
+        return levelQuality[level];
+    }
+
+    synchronized int getQuantizer() {
+        return levelQuantizer[level];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "deadline " + options.getDeadlineMillis() + "ms, elapsed " + (nanoTime() - startNanos) / 1000000
+                + "ms, trade-offs: " + (report.length() > 0 ? report : "none");
+    }
+
+    /**
+     * 预估包括当前帧在内的剩余编码时间，选出能赶上的最慢一档，都赶不上时抽帧
+     */
+    private void adapt(int index) {
+        long timeLeft = deadlineNanos - nanoTime();
+        if (timeLeft <= 0) {
+            setStep(index, DROP_ALL);
+            return;
+        }
+        long budget = (long) (timeLeft * SAFETY);
+        int pending = Math.max(0, submitted - encoded) + 1; // 在途的帧及当前帧
+        int later = keptAfter(index);
+        for (int i = level; i < LEVEL_COUNT; i++) {
+            if ((pending + later) * average(i) <= budget) {
+                switchLevel(i, index);
+                setStep(index, 1);
+                return;
+            }
+        }
+        switchLevel(LEVEL_UNIFORM, index);
+        // 最快一档也来不及，按能编码的帧数等比例抽帧
+        long affordable = budget / Math.max(1, average(LEVEL_UNIFORM)) - pending;
+        if (affordable <= 0) {
+            setStep(index, DROP_ALL);
+        } else {
+            setStep(index, (int) ((later + affordable - 1) / affordable));
+        }
+    }
+
+    /**
+     * 某一档的单帧耗时(并行后)。编码完成的帧足够时按完成速度，否则按实测最多的档与试编码耗时的比例推算，
+     * 都没有实测时用试编码耗时
+     */
+    private long average(int i) {
+        if (doneFrames[i] >= MIN_MEASURED_FRAMES) {
+            return measured(i);
+        }
+        int reference = 0;
+        for (int j = 1; j < LEVEL_COUNT; j++) {
+            if (doneFrames[j] > doneFrames[reference]) {
+                reference = j;
+            }
+        }
+        if (doneFrames[reference] < MIN_MEASURED_FRAMES || probeNanos[reference] <= 0) {
+            return probeNanos[i];
+        }
+        return measured(reference) * probeNanos[i] / probeNanos[reference];
+    }
+
+    private long measured(int i) {
+        return (lastDoneNanos[i] - firstDoneNanos[i]) / (doneFrames[i] - 1);
+    }
+
+    private void switchLevel(int next, int index) {
+        if (next == level) {
+            return;
+        }
+        if (levelQuality[next] != levelQuality[level]) {
+            handle.addTradeOff(GifCompressHandle.TRADE_OFF_QUALITY);
+            append("quality " + levelQuality[next] + " from frame " + index);
+        }
+        if (levelQuantizer[next] != levelQuantizer[level]) {
+            handle.addTradeOff(GifCompressHandle.TRADE_OFF_QUANTIZER);
+            append("uniform quantizer from frame " + index);
+        }
+        level = next;
+    }
+
+    /**
+     * 按解码前的计划重新计算当前帧之后的保留帧：每step个保留1帧，其余的延迟合并到前一个保留帧
+     */
+    private void setStep(int index, int newStep) {
+        // 放宽时至少减半，避免预估的小幅波动导致反复重算
+        if (newStep == step || (newStep < step && newStep > step / 2)) {
+            return;
+        }
+        step = newStep;
+        plan[index] = original[index];
+        int kept = index;
+        int count = 0;
+        for (int j = index + 1; j < plan.length; j++) {
+            plan[j] = original[j];
+            skipped[j] = original[j] == FrameSampler.DROP;
+            if (skipped[j]) {
+                continue;
+            }
+            if (step != DROP_ALL && ++count % step == 0) {
+                kept = j;
+            } else {
+                plan[kept] += plan[j];
+                plan[j] = FrameSampler.DROP;
+                skipped[j] = true;
+            }
+        }
+        if (step > 1) {
+            handle.addTradeOff(GifCompressHandle.TRADE_OFF_FRAMES);
+        }
+        if (step == DROP_ALL) {
+            append("deadline reached at frame " + index + ", later frames merged");
+        } else if (step > 1) {
+            append("kept 1/" + step + " of frames from frame " + index);
+        } else {
+            append("all frames kept from frame " + index);
+        }
+    }
+
+    /**
+     * 不抽帧时index之后保留的帧数
+     */
+    private int keptAfter(int index) {
+        int count = 0;
+        for (int j = index + 1; j < original.length; j++) {
+            if (original[j] != FrameSampler.DROP) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void append(String tradeOff) {
+        if (report.length() > 0) {
+            report.append(", ");
+        }
+        report.append(tradeOff);
+    }
+
+    private static long pixels(GifRaster frame, int size) {
+        return (long) Math.max(1, frame.width / size) * Math.max(1, frame.height / size);
+    }
+
+    /**
+     * 当前时间，测试中替换为假时钟
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * 按给定参数试编码一帧的耗时，测试中替换为固定耗时
+     */
+    long encodeCost(GifRaster frame, int quality, int quantizer) {
+        long start = nanoTime();
+        SimpleAnimatedGifEncoder ge = new SimpleAnimatedGifEncoder();
+        ge.start(Utils.nullOutputStream(), true);
+        ge.setQuality(quality);
+        ge.setColors(options.getColors());
+        ge.setLossy(options.getLossy());
+        ge.setQuantizer(quantizer);
+        ge.writeFrameData(frame);
+        ge.finish();
+        return nanoTime() - start;
+    }
+}
@@ -0,0 +1,160 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.Arrays;
+
+/**
+ * 解码与编码之间的去重阶段：每帧与上一个保留帧比较，重复的帧丢弃，延迟合并到保留帧。
+ * <p>
+ * 先比较16x16网格的平均亮度签名；阈值为0时签名相同再逐像素比较，只合并完全相同的帧，
+ * 阈值大于0时每个网格的平均亮度差都不超过阈值即视为重复。
+ * 保留帧要等到下一个不重复的帧出现或{@link #flush()}时才知道最终延迟，因此延后一帧交给下游。
+ */
+class DuplicateFrameFilter {
+
+    private static final int GRID = 16;
+
+    /**
+     * 下游，通常是编码
+     */
+    interface Sink {
+        /**
+         * @return false表示停止
+         */
+        boolean onFrame(int index, GifRaster image, int delay);
+    }
+
+    private final float threshold;
+    private final boolean copyFrames;
+    private final Sink sink;
+
+    private GifRaster pending; // 等待交给下游的保留帧
+    private int pendingIndex = -1;
+    private int pendingDelay;
+    private final int[] pendingSignature = new int[GRID * GRID];
+    private final int[] signature = new int[GRID * GRID];
+    private int droppedCount;
+    // 计算签名的复用缓冲
+    private final long[] sums = new long[GRID * GRID];
+    private final int[] counts = new int[GRID * GRID];
+    private int[] columnCells;
+
+    /**
+     * @param threshold  网格平均亮度差阈值(0~255)，0表示只合并完全相同的帧
+     * @param copyFrames 帧为复用的画布时为true，保留帧会复制到内部缓冲(只分配一次)
+     */
+    DuplicateFrameFilter(float threshold, boolean copyFrames, Sink sink) {
+        this.threshold = Math.max(0, threshold);
+        this.copyFrames = copyFrames;
+        this.sink = sink;
+    }
+
+    /**
+     * @return false表示下游已停止
+     */
+    boolean add(int index, GifRaster image, int delay) {
+        computeSignature(image, signature);
+        if (pendingIndex >= 0 && isDuplicate(image)) {
+            pendingDelay += delay;
+            droppedCount++;
+            return true;
+        }
+        if (!flush()) {
+            return false;
+        }
+        if (copyFrames) {
+            if (pending == null || pending.width != image.width || pending.height != image.height) {
+                pending = new GifRaster(image.width, image.height);
+            }
+            System.arraycopy(image.pixels, 0, pending.pixels, 0, image.width * image.height);
+        } else {
+            pending = image;
+        }
+        System.arraycopy(signature, 0, pendingSignature, 0, signature.length);
+        pendingIndex = index;
+        pendingDelay = delay;
+        return true;
+    }
+
+    /**
+     * 把等待中的保留帧交给下游，解码结束时调用
+     *
+     * @return false表示下游已停止
+     */
+    boolean flush() {
+        if (pendingIndex < 0) {
+            return true;
+        }
+        int index = pendingIndex;
+        pendingIndex = -1;
+        GifRaster image = pending;
+        if (!copyFrames) {
+            pending = null;
+        }
+        return sink.onFrame(index, image, pendingDelay);
+    }
+
+    /**
+     * 被合并的帧数
+     */
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    private boolean isDuplicate(GifRaster image) {
+        if (image.width != pending.width || image.height != pending.height) {
+            return false;
+        }
+        // 取网格间的最大差，小范围的运动也不会被整体平均掉
+        int diff = 0;
+        for (int i = 0; i < signature.length; i++) {
+            diff = Math.max(diff, Math.abs(signature[i] - pendingSignature[i]));
+        }
+        if (threshold > 0) {
+            return diff <= threshold;
+        }
+        if (diff != 0) {
+            return false;
+        }
+        int[] a = image.pixels;
+        int[] b = pending.pixels;
+        int n = image.width * image.height;
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 16x16网格内的平均亮度，完全透明的像素按亮度0计算
+     */
+    private void computeSignature(GifRaster image, int[] out) {
+        int w = image.width;
+        int h = image.height;
+        int[] px = image.pixels;
+        if (columnCells == null || columnCells.length != w) {
+            columnCells = new int[w];
+            for (int x = 0; x < w; x++) {
+                columnCells[x] = x * GRID / w;
+            }
+        }
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        for (int y = 0; y < h; y++) {
+            int row = (y * GRID / h) * GRID;
+            int offset = y * w;
+            for (int x = 0; x < w; x++) {
+                int c = px[offset + x];
+                int cell = row + columnCells[x];
+                if ((c >>> 24) != 0) {
+                    sums[cell] += (((c >> 16) & 0xff) * 77 + ((c >> 8) & 0xff) * 150 + (c & 0xff) * 29) >> 8;
+                }
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < out.length; i++) {
+            out[i] = counts[i] > 0 ? (int) (sums[i] / counts[i]) : 0;
+        }
+    }
+}
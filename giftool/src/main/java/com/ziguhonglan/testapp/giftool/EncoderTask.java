@@ -0,0 +1,283 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * @author Firo
+ * time: 2020/11/12 09:32
+ * email: firo94@foxmail.com
+ */
+class EncoderTask extends Thread {
+
+    private ByteArrayOutputStream bos;
+    private GifRaster frame;
+    private boolean isFirstFrame;
+    private int frameRatio = 1;
+    private int delay;
+    private int repeat;
+    private int quality = GifCompressOptions.DEFAULT_QUALITY;
+    private int sampleSize = 1;
+    private int scaleFilter = GifCompressOptions.SCALE_FILTER_BOX;
+    private int colors = NeuQuant.MAX_COLORS;
+    private int lossy = 0;
+    private int quantizer = GifCompressOptions.QUANTIZER_NEUQUANT;
+    private int[] palette;
+    private boolean globalPaletteOnly = false;
+    private boolean exactPalette = false;
+    private int x = 0;
+    private int y = 0;
+    private int dispose = -1;
+    private int[] crop; // 缩小后裁剪的区域
+    private DeadlineController deadline;
+    private GifCompressScheduler.Job stripes;
+    private GifCompressHandle handle;
+    private MetricsRecorder metrics;
+    private int frameIndex;
+
+    public EncoderTask(ByteArrayOutputStream bos, GifRaster frame, boolean isFirstFrame, int frameRatio, int delay, int repeat) {
+        this("gif-encoder-thread", bos, frame, isFirstFrame, frameRatio, delay, repeat);
+    }
+
+    public EncoderTask(String name, ByteArrayOutputStream bos, GifRaster frame, boolean isFirstFrame, int frameRatio, int delay, int repeat) {
+        super(name);
+        this.bos = bos;
+        this.frame = frame;
+        this.isFirstFrame = isFirstFrame;
+        this.frameRatio = frameRatio;
+        this.delay = delay;
+        this.repeat = repeat;
+    }
+
+    public ByteArrayOutputStream getOutputStream() {
+        return bos;
+    }
+
+    public void setOutputStream(ByteArrayOutputStream bos) {
+        if (this.bos == null) {
+            this.bos = bos;
+        }
+    }
+
+    public GifRaster getFrame() {
+        return frame;
+    }
+
+    public void setFrame(GifRaster frame) {
+        this.frame = frame;
+    }
+
+    public boolean isFirstFrame() {
+        return isFirstFrame;
+    }
+
+    public void setFirstFrame(boolean firstFrame) {
+        isFirstFrame = firstFrame;
+    }
+
+    public int getFrameRatio() {
+        return frameRatio;
+    }
+
+    public void setFrameRatio(int frameRatio) {
+        this.frameRatio = frameRatio;
+    }
+
+    public int getDelay() {
+        return delay;
+    }
+
+    public void setDelay(int delay) {
+        this.delay = delay;
+    }
+
+    public int getRepeat() {
+        return repeat;
+    }
+
+    public void setRepeat(int repeat) {
+        this.repeat = repeat;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * 编码前按整数倍缩小帧，见{@link GifCompressOptions#getSampleSize(int, int)}
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * 缩小方式，见{@link GifCompressOptions#setScaleFilter(int)}
+     */
+    public void setScaleFilter(int scaleFilter) {
+        this.scaleFilter = scaleFilter;
+    }
+
+    public int getColors() {
+        return colors;
+    }
+
+    /**
+     * 调色板颜色数，见{@link GifCompressOptions#setColors(int)}
+     */
+    public void setColors(int colors) {
+        this.colors = colors;
+    }
+
+    public int getLossy() {
+        return lossy;
+    }
+
+    /**
+     * 有损程度，见{@link GifCompressOptions#setLossy(int)}
+     */
+    public void setLossy(int lossy) {
+        this.lossy = lossy;
+    }
+
+    public int getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * 量化方式，见{@link GifCompressOptions#setQuantizer(int)}
+     */
+    public void setQuantizer(int quantizer) {
+        this.quantizer = quantizer;
+    }
+
+    /**
+     * 固定调色板，见{@link SimpleAnimatedGifEncoder#setPalette(int[])}
+     *
+     * @param globalPaletteOnly 非第一帧不写局部调色板，各帧必须使用同一调色板
+     */
+    void setPalette(int[] palette, boolean globalPaletteOnly) {
+        this.palette = palette;
+        this.globalPaletteOnly = globalPaletteOnly;
+    }
+
+    /**
+     * 精确调色板，见{@link SimpleAnimatedGifEncoder#setExactPalette(boolean)}
+     */
+    void setExactPalette(boolean exactPalette) {
+        this.exactPalette = exactPalette;
+    }
+
+    /**
+     * 只编码画布的一部分时的位置(缩小后的坐标)，默认0,0
+     */
+    void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * 缩小后只编码{x, y, 宽, 高}区域(缩小后的坐标)，为null时编码整帧。
+     * 帧为{@link SharedFrame}时缩小结果在多路输出间共用，在缩小后裁剪
+     */
+    void setCrop(int[] crop) {
+        this.crop = crop;
+    }
+
+    /**
+     * 处置方法，-1表示默认
+     */
+    void setDispose(int dispose) {
+        this.dispose = dispose;
+    }
+
+    /**
+     * 超大帧按行分条带并行，条带提交到执行该任务的压缩任务，见{@link SimpleAnimatedGifEncoder#setRowStripes}。
+     * 为null(默认)时不拆分
+     */
+    void setRowStripes(GifCompressScheduler.Job job) {
+        this.stripes = job;
+    }
+
+    /**
+     * 编码完成后通知软截止时间控制，为null时不通知
+     */
+    void setDeadline(DeadlineController deadline) {
+        this.deadline = deadline;
+    }
+
+    public GifCompressHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * 设置取消句柄，任务取消或超时时run()抛出CancellationException
+     */
+    public void setHandle(GifCompressHandle handle) {
+        this.handle = handle;
+    }
+
+    public int getFrameIndex() {
+        return frameIndex;
+    }
+
+    /**
+     * 设置阶段统计，recorder为null时不计时
+     *
+     * @param frameIndex 该帧在源GIF中的序号
+     */
+    void setMetrics(MetricsRecorder recorder, int frameIndex) {
+        this.metrics = recorder;
+        this.frameIndex = frameIndex;
+    }
+
+    MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        if (bos == null) throw new IllegalArgumentException("Setup outputStream first.");
+        if (handle != null) {
+            handle.throwIfStopped();
+        }
+        GifRaster image = null;
+        if (frame != null) {
+            image = scaleFilter == GifCompressOptions.SCALE_FILTER_NEAREST
+                    ? frame.downsampleNearest(sampleSize) : frame.downsample(sampleSize);
+            if (crop != null) {
+                image = image.crop(crop[0], crop[1], crop[2], crop[3]);
+            }
+        }
+        SimpleAnimatedGifEncoder ge = new SimpleAnimatedGifEncoder();
+        ge.start(bos, isFirstFrame);
+        ge.setRepeat(repeat);
+        ge.setQuality(quality);
+        ge.setColors(colors);
+        ge.setLossy(lossy);
+        ge.setQuantizer(quantizer);
+        ge.setPalette(palette);
+        ge.setGlobalPaletteOnly(globalPaletteOnly);
+        ge.setExactPalette(exactPalette);
+        ge.setPosition(x, y);
+        ge.setDispose(dispose);
+        ge.setHandle(handle);
+        ge.setRowStripes(stripes);
+        ge.setMetrics(metrics, frameIndex);
+        ge.setDelay(delay * frameRatio);
+        try {
+            ge.writeFrameData(image);
+        } finally {
+            ge.finish();
+        }
+        if (deadline != null) {
+            deadline.frameEncoded(quality, quantizer);
+        }
+    }
+}
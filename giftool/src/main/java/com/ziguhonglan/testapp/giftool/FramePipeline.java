@@ -0,0 +1,182 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 解码 → 编码 → 写出 三段重叠执行的帧流水线。
+ * 解码线程调用{@link #submit(EncoderTask)}投递帧，编码线程池并行量化和LZW编码，
+ * 编码完成的帧按投递顺序由完成它的线程顺带写入输出流，不需要单独的写线程。
+ * 同时在途(已投递未写出)的帧最多maxInFlight个，超过时submit阻塞，形成背压，
+ * 内存占用与帧数无关。
+ */
+class FramePipeline {
+
+    private final Executor executor;
+    private final OutputStream out;
+    private final int maxInFlight;
+    private final Object lock = new Object();
+    // 已编码完成、等待按顺序写出的帧，value为null表示该帧编码失败
+    private final HashMap<Integer, EncoderTask> completed = new HashMap<>();
+    private int submitted = 0; // 已投递帧数，同时是下一帧的序号
+    private int nextToWrite = 0; // 下一个应写出的帧序号
+    private int running = 0; // 已开始编码、尚未提交结果的帧数
+    private boolean writing = false; // 是否已有线程在写出
+    private boolean aborted = false;
+    private volatile boolean failed = false;
+    private MetricsRecorder metrics; // 排队、编码线程忙碌和写出统计，可为null
+
+    FramePipeline(Executor executor, OutputStream out, int maxInFlight) {
+        this.executor = executor;
+        this.out = out;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    void setMetrics(MetricsRecorder recorder) {
+        metrics = recorder;
+    }
+
+    /**
+     * 投递一帧编码任务，在途帧已满时阻塞直到有帧写出
+     *
+     * @return false表示流水线已失败或被中止，调用方应停止投递
+     */
+    boolean submit(final EncoderTask task) throws InterruptedException {
+        final int seq;
+        synchronized (lock) {
+            while (!failed && submitted - nextToWrite >= maxInFlight) {
+                lock.wait();
+            }
+            if (failed) {
+                return false;
+            }
+            seq = submitted++;
+        }
+        final long submitTime = metrics != null ? System.nanoTime() : 0;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        if (aborted) {
+                            // 已中止，不再编码也不再写出
+                            return;
+                        }
+                        running++;
+                    }
+                    long start = 0;
+                    if (metrics != null) {
+                        start = System.nanoTime();
+                        metrics.record(task.getFrameIndex(), CompressionMetrics.STAGE_QUEUE_WAIT, start - submitTime, 0);
+                    }
+                    EncoderTask result = null;
+                    try {
+                        task.run();
+                        result = task;
+                    } catch (CancellationException e) {
+                        // 任务被取消或超时
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    if (metrics != null) {
+                        metrics.addWorkerBusy(System.nanoTime() - start);
+                    }
+                    commit(seq, result);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (lock) {
+                running++;
+            }
+            commit(seq, null);
+        }
+        return !failed;
+    }
+
+    /**
+     * 等待所有已投递的帧写出；中止后只等待正在编码的帧结束
+     *
+     * @return 所有帧都编码并写出成功时返回true
+     */
+    boolean finish() throws InterruptedException {
+        synchronized (lock) {
+            while (aborted ? (running > 0 || writing) : (nextToWrite < submitted || writing)) {
+                lock.wait();
+            }
+        }
+        return !failed;
+    }
+
+    /**
+     * 中止流水线：唤醒阻塞在submit中的解码线程，尚未开始的帧不再编码，已编码的帧不再写出。
+     * 排队中的帧应由调用方从执行器中移除，见{@link GifCompressScheduler.Job#close()}
+     */
+    void abort() {
+        synchronized (lock) {
+            aborted = true;
+            failed = true;
+            lock.notifyAll();
+        }
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    private void commit(int seq, EncoderTask task) {
+        synchronized (lock) {
+            running--;
+            completed.put(seq, task);
+            if (writing) {
+                // 正在写出的线程会顺带写出这一帧
+                lock.notifyAll();
+                return;
+            }
+            writing = true;
+        }
+        while (true) {
+            EncoderTask next;
+            synchronized (lock) {
+                if (!completed.containsKey(nextToWrite)) {
+                    writing = false;
+                    lock.notifyAll();
+                    return;
+                }
+                next = completed.remove(nextToWrite);
+            }
+            write(next);
+            synchronized (lock) {
+                nextToWrite++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void write(EncoderTask task) {
+        if (task == null) {
+            failed = true;
+            return;
+        }
+        if (failed) {
+            // 前面的帧已失败或流水线已中止，后续帧写出也没有意义
+            return;
+        }
+        ByteArrayOutputStream bos = task.getOutputStream();
+        try {
+            long start = metrics != null ? System.nanoTime() : 0;
+            bos.writeTo(out);
+            if (metrics != null) {
+                metrics.record(task.getFrameIndex(), CompressionMetrics.STAGE_WRITE, System.nanoTime() - start, bos.size());
+            }
+            bos.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 抽帧策略。在解码前根据块结构中的帧延迟决定保留哪些帧，丢弃帧的延迟合并到前一个保留帧，
+ * 丢弃的帧只合成到画布，不复制也不进入编码。
+ * <p>
+ * 结果缓存按{@link #getCacheKey()}区分不同的抽帧方式，toString只用于日志
+ */
+public interface FrameSampler {
+
+    int DROP = -1; // 丢弃该帧
+
+    /**
+     * @param delays 各帧的原始延迟(毫秒)
+     * @return 与delays等长，保留的帧为输出延迟(毫秒)，丢弃的帧为{@link #DROP}。第0帧必须保留
+     */
+    int[] sample(int[] delays);
+
+    /**
+     * 结果缓存键的一部分，参数相同的实例返回相同的值，抽帧结果不同时必须不同
+     *
+     * @return 无法区分参数时返回null，此时压缩结果不缓存
+     */
+    String getCacheKey();
+}
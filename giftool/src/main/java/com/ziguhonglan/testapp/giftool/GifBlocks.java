@@ -0,0 +1,171 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 块级别的写出：按{@link GifInfo}记录的偏移直接复制文件头和帧的块，不解码图像数据
+ */
+final class GifBlocks {
+
+    // 与浏览器一致，小于2(1/100秒)的延迟按100ms播放，改写延迟时不低于该值
+    static final int MIN_DELAY_CS = 2;
+
+    private GifBlocks() {
+    }
+
+    /**
+     * 写出文件头、逻辑屏幕标识符和全局颜色表，有循环次数时写NETSCAPE扩展，其他扩展块(注释等)不保留
+     *
+     * @param header 从文件开头读出的至少{@link GifInfo#getHeaderLength()}字节
+     */
+    static void writeHeader(OutputStream out, byte[] header, GifInfo info) throws IOException {
+        out.write(header, 0, info.getHeaderLength());
+        if (info.getLoopCount() >= 0) {
+            writeNetscapeExt(out, info.getLoopCount());
+        }
+    }
+
+    /**
+     * 写出NETSCAPE2.0扩展
+     *
+     * @param loopCount 循环次数，0表示无限循环
+     */
+    static void writeNetscapeExt(OutputStream out, int loopCount) throws IOException {
+        out.write(0x21); // extension introducer
+        out.write(0xff); // app extension label
+        out.write(11); // block size
+        out.write(new byte[]{'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0'});
+        out.write(3); // sub-block size
+        out.write(1); // loop sub-block id
+        out.write(loopCount & 0xff);
+        out.write((loopCount >> 8) & 0xff);
+        out.write(0); // block terminator
+    }
+
+    /**
+     * 原样复制一帧的块(图形控制扩展、图像标识符、局部颜色表和图像数据)
+     *
+     * @param blocks  该帧的块，从{@link GifInfo.Frame#getOffset()}到{@link GifInfo.Frame#end}，见{@link Reader#read}
+     * @param delayCs 改写的延迟(1/100秒)，-1或该帧没有图形控制扩展时保持原样
+     */
+    static void writeFrame(OutputStream out, byte[] blocks, GifInfo.Frame frame, int delayCs) throws IOException {
+        writeFrame(out, blocks, frame, delayCs, -1, 0, 0, null);
+    }
+
+    /**
+     * 复制一帧的块，按需改写图形控制扩展和图像标识符，图像数据原样复制
+     *
+     * @param blocks  该帧的块，从{@link GifInfo.Frame#getOffset()}到{@link GifInfo.Frame#end}
+     * @param delayCs 改写的延迟(1/100秒)，-1或该帧没有图形控制扩展时保持原样
+     * @param dispose 改写的处置方法，-1保持原样；该帧没有图形控制扩展时补写一个
+     * @param dx      图像位置的水平偏移
+     * @param dy      图像位置的垂直偏移
+     * @param table   该帧没有局部颜色表时作为局部颜色表写入的颜色表字节(原来使用的全局颜色表)，为null时不写
+     */
+    static void writeFrame(OutputStream out, byte[] blocks, GifInfo.Frame frame, int delayCs, int dispose,
+                           int dx, int dy, byte[] table) throws IOException {
+        int descriptor = (int) (frame.descriptorOffset - frame.getOffset());
+        if (frame.controlOffset >= 0) {
+            // 0x21 0xF9 块大小 packed 延迟(2字节) 透明色索引 0，之后到图像标识符之间的扩展块一并复制
+            byte[] block = Arrays.copyOfRange(blocks, 0, descriptor);
+            if (dispose >= 0) {
+                block[3] = (byte) ((block[3] & ~0x1c) | (dispose << 2));
+            }
+            if (delayCs >= 0) {
+                block[4] = (byte) delayCs;
+                block[5] = (byte) (delayCs >> 8);
+            }
+            out.write(block);
+        } else if (dispose >= 0) {
+            out.write(new byte[]{0x21, (byte) 0xf9, 4, (byte) (dispose << 2), 0, 0, 0, 0});
+        }
+        byte[] desc = Arrays.copyOfRange(blocks, descriptor, descriptor + 10);
+        if (dx != 0 || dy != 0) {
+            writeShort(desc, 1, frame.x + dx);
+            writeShort(desc, 3, frame.y + dy);
+        }
+        boolean promote = table != null && !frame.localPalette;
+        if (promote) {
+            // 保留交错标志，颜色表大小按2^(n+1)编码
+            int bits = 0;
+            while ((2 << bits) < table.length / 3) {
+                bits++;
+            }
+            desc[9] = (byte) ((desc[9] & 0x40) | 0x80 | bits);
+        }
+        out.write(desc);
+        if (promote) {
+            out.write(table);
+        }
+        int palette = descriptor + 10;
+        out.write(blocks, palette, blocks.length - palette);
+    }
+
+    /**
+     * 把合成好的画面编码为覆盖整个画布的一帧(不写文件头)，用于替换依赖之前画面的帧。
+     * 不超过256色时用精确调色板无损编码，否则按最高质量量化；透明像素按编码器的处理写为黑色
+     *
+     * @param dispose 处置方法
+     */
+    static void writeKeyframe(OutputStream out, GifRaster image, int delayMs, int dispose) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        EncoderTask task = new EncoderTask(bos, image, false, 1, delayMs, 0);
+        task.setExactPalette(true);
+        task.setQuality(1);
+        task.setDispose(dispose);
+        task.run();
+        bos.writeTo(out);
+    }
+
+    private static void writeShort(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+    }
+
+    /**
+     * 按偏移从前往后读取输入中各帧的块，跳过之间的数据，只保留当前读出的一帧
+     */
+    static final class Reader {
+
+        private final InputStream in;
+        private long position; // in的当前位置在文件中的偏移
+
+        /**
+         * @param position in的当前位置在文件中的偏移
+         */
+        Reader(InputStream in, long position) {
+            this.in = in;
+            this.position = position;
+        }
+
+        /**
+         * 读出一帧的块，frame不能在已读过的位置之前
+         */
+        byte[] read(GifInfo.Frame frame) throws IOException {
+            long offset = frame.getOffset();
+            if (offset < position) {
+                throw new IOException("frame at " + offset + " already passed, position " + position);
+            }
+            while (position < offset) {
+                long skipped = in.skip(offset - position);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    skipped = 1;
+                }
+                position += skipped;
+            }
+            byte[] blocks = new byte[(int) (frame.end - offset)];
+            new DataInputStream(in).readFully(blocks);
+            position = frame.end;
+            return blocks;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 压缩任务句柄，用于取消任务或设置截止时间。
+ * 解码在帧之间、编码在量化前后和LZW循环中检查{@link #isStopped()}，
+ * 取消后排队中的帧直接丢弃，正在执行的帧在几毫秒内退出。
+ */
+public class GifCompressHandle {
+
+    // 软截止时间下做出的取舍，见GifCompressOptions#setDeadlineMillis
+    public static final int TRADE_OFF_SCALE = 1; // 缩小了输出尺寸
+    public static final int TRADE_OFF_QUALITY = 1 << 1; // 提高了量化采样间隔
+    public static final int TRADE_OFF_QUANTIZER = 1 << 2; // 改用了均匀调色板
+    public static final int TRADE_OFF_FRAMES = 1 << 3; // 丢弃了更多的帧
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    private final long deadlineNanos; // 0表示没有截止时间
+    private final ArrayList<Runnable> cancelActions = new ArrayList<>();
+    private volatile int tradeOffs;
+
+    public GifCompressHandle() {
+        this(0);
+    }
+
+    /**
+     * @param timeoutMillis 从创建开始计算的超时时间，小于等于0表示不超时
+     */
+    public GifCompressHandle(long timeoutMillis) {
+        if (timeoutMillis > 0) {
+            long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+            deadlineNanos = deadline != 0 ? deadline : 1;
+        } else {
+            deadlineNanos = 0;
+        }
+    }
+
+    /**
+     * 取消任务。已取消的异步任务不会再回调
+     */
+    public void cancel() {
+        Runnable[] actions;
+        synchronized (cancelActions) {
+            if (cancelled || done) {
+                return;
+            }
+            cancelled = true;
+            actions = cancelActions.toArray(new Runnable[0]);
+            cancelActions.clear();
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 是否已超过截止时间
+     */
+    public boolean isExpired() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * 已取消或已超时，正在进行的工作应尽快停止
+     */
+    public boolean isStopped() {
+        return cancelled || isExpired();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 为满足软截止时间做出的取舍，{@link #TRADE_OFF_SCALE}等标志的组合，0表示没有降低画质
+     */
+    public int getTradeOffs() {
+        return tradeOffs;
+    }
+
+    synchronized void addTradeOff(int tradeOff) {
+        tradeOffs |= tradeOff;
+    }
+
+    /**
+     * 已取消或超时时抛出{@link CancellationException}，供编码循环中检查
+     */
+    public void throwIfStopped() {
+        if (cancelled) {
+            throw new CancellationException("Compression cancelled.");
+        }
+        if (isExpired()) {
+            throw new CancellationException("Compression deadline exceeded.");
+        }
+    }
+
+    /**
+     * 注册取消时执行的动作，已取消时立即执行
+     */
+    void addCancelAction(Runnable action) {
+        synchronized (cancelActions) {
+            if (!cancelled) {
+                cancelActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    void removeCancelAction(Runnable action) {
+        synchronized (cancelActions) {
+            cancelActions.remove(action);
+        }
+    }
+
+    void markDone() {
+        synchronized (cancelActions) {
+            done = true;
+            cancelActions.clear();
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * GIF压缩参数
+ */
+public class GifCompressOptions {
+
+    public static final float DEFAULT_MAX_FPS = 15; // 默认抽帧到15fps以下
+    public static final float DUPLICATE_EXACT = 0; // 只合并完全相同的连续帧
+    public static final float DUPLICATE_OFF = -1; // 不合并重复帧
+    public static final int DEFAULT_QUALITY = 10; // NeuQuant默认采样间隔
+
+    public static final int QUANTIZER_NEUQUANT = 0; // NeuQuant神经网络量化，每帧学习调色板
+    public static final int QUANTIZER_UNIFORM = 1; // 固定的均匀调色板，不学习，速度快但有色带
+
+    public static final int STRATEGY_AUTO = 0; // 按内容分析自动选择，见CompressionPlanner
+    public static final int STRATEGY_REQUANTIZE = 1; // 每帧完整画布重新量化
+    public static final int STRATEGY_DELTA = 2; // 只编码与上一帧相比变化的区域
+    public static final int STRATEGY_EXACT_PALETTE = 3; // 颜色不超过颜色数的帧原样保留颜色
+    public static final int STRATEGY_GLOBAL_PALETTE = 4; // 沿用源文件的全局颜色表
+    public static final int STRATEGY_REMUX = 5; // 不重新编码，原样输出
+
+    public static final int SCALE_FILTER_BOX = 0; // 块平均，缩小后平滑
+    public static final int SCALE_FILTER_NEAREST = 1; // 取点，更快且不产生新的颜色，细线可能断开
+
+    public static final int MAX_THREADS_HALF = -1; // 最多占用一半编码线程，至少1个
+
+    public static final int PRESET_FASTEST = 0;
+    public static final int PRESET_FAST = 1;
+    public static final int PRESET_BALANCED = 2; // 与默认参数相同
+    public static final int PRESET_SMALLEST = 3;
+
+    public static final int PRIORITY_BACKGROUND = 0; // 后台批量压缩
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_FOREGROUND = 2; // 用户正在等待的压缩
+
+    private int maxWidth = 0; // 输出最大宽度，0表示不限制
+    private int maxHeight = 0; // 输出最大高度，0表示不限制
+    private FrameSampler frameSampler; // 为null时按maxFps抽帧
+    private int quality = DEFAULT_QUALITY;
+    private int repeat = 0; // 0表示无限循环
+    private int priority = PRIORITY_NORMAL;
+    private long timeoutMillis = 0; // 0表示不超时
+    private CompressionMetrics metrics; // 为null时使用GifCompressor.setDefaultMetrics设置的全局统计
+    private long passthroughMaxBytes = 0; // 不超过该大小且满足限制的输入直接复制，0表示总是压缩
+    private float maxFps = DEFAULT_MAX_FPS; // 帧率上限，0表示不限制
+    private boolean allowHardLink = false;
+    private float duplicateThreshold = DUPLICATE_EXACT;
+    private int colors = NeuQuant.MAX_COLORS; // 调色板颜色数
+    private int lossy = 0; // 0表示无损
+    private long maxBytes = 0; // 输出大小上限，0表示不限制
+    private int quantizer = QUANTIZER_NEUQUANT;
+    private long deadlineMillis = 0; // 软截止时间，0表示不限制
+    private int strategy = STRATEGY_AUTO;
+    private int scaleFilter = SCALE_FILTER_BOX;
+    private int maxThreads = 0; // 0表示可使用全部编码线程，MAX_THREADS_HALF表示一半
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    /**
+     * 输出的最大宽度，超过时按整数倍缩小，0表示不限制
+     */
+    public GifCompressOptions setMaxWidth(int maxWidth) {
+        this.maxWidth = Math.max(0, maxWidth);
+        return this;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * 输出的最大高度，超过时按整数倍缩小，0表示不限制
+     */
+    public GifCompressOptions setMaxHeight(int maxHeight) {
+        this.maxHeight = Math.max(0, maxHeight);
+        return this;
+    }
+
+    /**
+     * 抽帧比例，每frameRatio帧保留1帧，保留帧的延迟为被丢弃帧的延迟之和。
+     * 等价于setFrameSampler(new RatioFrameSampler(frameRatio))，不考虑原始帧率
+     */
+    public GifCompressOptions setFrameRatio(int frameRatio) {
+        return setFrameSampler(new RatioFrameSampler(frameRatio));
+    }
+
+    /**
+     * 抽帧策略，未设置时为按{@link #getMaxFps()}抽帧的{@link TargetFpsFrameSampler}
+     */
+    public FrameSampler getFrameSampler() {
+        return frameSampler != null ? frameSampler : new TargetFpsFrameSampler(maxFps);
+    }
+
+    /**
+     * 设置抽帧策略，为null时恢复按{@link #getMaxFps()}抽帧
+     */
+    public GifCompressOptions setFrameSampler(FrameSampler frameSampler) {
+        this.frameSampler = frameSampler;
+        return this;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 颜色量化采样间隔，见{@link AnimatedGifEncoder#setQuality(int)}
+     */
+    public GifCompressOptions setQuality(int quality) {
+        this.quality = Math.max(1, quality);
+        return this;
+    }
+
+    public int getRepeat() {
+        return repeat;
+    }
+
+    public GifCompressOptions setRepeat(int repeat) {
+        this.repeat = Math.max(0, repeat);
+        return this;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 调度优先级，{@link #PRIORITY_BACKGROUND}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_FOREGROUND}。
+     * 共享编码线程优先处理高优先级任务的帧，低优先级任务在帧之间让出
+     */
+    public GifCompressOptions setPriority(int priority) {
+        this.priority = Math.max(PRIORITY_BACKGROUND, Math.min(PRIORITY_FOREGROUND, priority));
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * 任务超时时间，从提交开始计算，超时后停止解码和编码并按失败处理，0表示不超时
+     */
+    public GifCompressOptions setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = Math.max(0, timeoutMillis);
+        return this;
+    }
+
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 本次压缩的分阶段统计回调，为null时使用{@link GifCompressor#setDefaultMetrics(CompressionMetrics)}设置的全局回调
+     */
+    public GifCompressOptions setMetrics(CompressionMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public long getPassthroughMaxBytes() {
+        return passthroughMaxBytes;
+    }
+
+    /**
+     * 输入文件不超过该大小、宽高不超过最大宽高且帧率不超过{@link #setMaxFps(float)}时，
+     * 认为已无需压缩，直接复制到输出，见{@link GifCompressor#passthroughIfOptimal}。0表示总是压缩
+     */
+    public GifCompressOptions setPassthroughMaxBytes(long passthroughMaxBytes) {
+        this.passthroughMaxBytes = Math.max(0, passthroughMaxBytes);
+        return this;
+    }
+
+    public float getMaxFps() {
+        return maxFps;
+    }
+
+    /**
+     * 帧率上限，默认{@link #DEFAULT_MAX_FPS}，0表示不限制。未设置抽帧策略时按该帧率抽帧，
+     * 直接复制时要求输入的平均帧率不超过该值
+     */
+    public GifCompressOptions setMaxFps(float maxFps) {
+        this.maxFps = Math.max(0, maxFps);
+        return this;
+    }
+
+    public boolean isAllowHardLink() {
+        return allowHardLink;
+    }
+
+    /**
+     * 直接复制时是否优先创建硬链接。输出与输入共用同一份数据，修改其中一个会影响另一个
+     */
+    public GifCompressOptions setAllowHardLink(boolean allowHardLink) {
+        this.allowHardLink = allowHardLink;
+        return this;
+    }
+
+    public float getDuplicateThreshold() {
+        return duplicateThreshold;
+    }
+
+    /**
+     * 连续重复帧的合并阈值：与上一个保留帧相比，16x16网格中每格的平均亮度差(0~255)都不超过该值时
+     * 丢弃该帧，延迟合并到保留帧。
+     * 默认{@link #DUPLICATE_EXACT}只合并完全相同的帧，{@link #DUPLICATE_OFF}关闭
+     */
+    public GifCompressOptions setDuplicateThreshold(float duplicateThreshold) {
+        this.duplicateThreshold = duplicateThreshold < 0 ? DUPLICATE_OFF : Math.min(255, duplicateThreshold);
+        return this;
+    }
+
+    public int getColors() {
+        return colors;
+    }
+
+    /**
+     * 每帧调色板的颜色数(2~256)，默认256。颜色越少LZW码长越短，输出越小
+     */
+    public GifCompressOptions setColors(int colors) {
+        this.colors = Math.max(NeuQuant.MIN_COLORS, Math.min(NeuQuant.MAX_COLORS, colors));
+        return this;
+    }
+
+    public int getLossy() {
+        return lossy;
+    }
+
+    /**
+     * 有损程度(0~200)：映射到调色板后，与左边或上边像素颜色距离(RGB各分量差之和)不超过该值的像素
+     * 改用相同的索引，LZW输出更小。默认0表示无损
+     */
+    public GifCompressOptions setLossy(int lossy) {
+        this.lossy = Math.max(0, Math.min(LossyIndexFilter.MAX_LOSSY, lossy));
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 输出大小上限，0表示不限制。设置后先用少量采样帧估算各组参数的输出大小，
+     * 在帧率、缩小倍数、颜色数和有损程度中选出满足上限且画质损失最小的一组，再完整编码一次，
+     * 见{@link TargetSizePlanner}。最大宽高、帧率等已设置的参数作为起点，只会降低不会提高
+     */
+    public GifCompressOptions setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        return this;
+    }
+
+    public int getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * 量化方式，{@link #QUANTIZER_NEUQUANT}或{@link #QUANTIZER_UNIFORM}
+     */
+    public GifCompressOptions setQuantizer(int quantizer) {
+        this.quantizer = quantizer == QUANTIZER_UNIFORM ? QUANTIZER_UNIFORM : QUANTIZER_NEUQUANT;
+        return this;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * 软截止时间，从压缩开始计算，0表示不限制。与{@link #setTimeoutMillis(long)}不同，到时不会失败：
+     * 先按第0帧的编码耗时决定是否缩小，之后按已编码帧的耗时预估剩余时间，来不及时依次提高量化采样间隔、
+     * 改用均匀调色板、加倍抽帧，超过截止时间后剩余的帧全部合并到当前帧。
+     * 做出的取舍见{@link GifCompressHandle#getTradeOffs()}。只对{@link GifCompressor#compress}生效，
+     * 结果与当时的耗时有关，{@link GifResultCache}不缓存
+     */
+    public GifCompressOptions setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = Math.max(0, deadlineMillis);
+        return this;
+    }
+
+    public int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * 编码策略，默认{@link #STRATEGY_AUTO}：按块结构和前几帧的内容分析选出满足其余参数的最快策略，
+     * 见{@link CompressionPlanner}。指定的策略不适用于输入时按{@link #STRATEGY_REQUANTIZE}处理
+     */
+    public GifCompressOptions setStrategy(int strategy) {
+        this.strategy = strategy >= STRATEGY_AUTO && strategy <= STRATEGY_REMUX ? strategy : STRATEGY_AUTO;
+        return this;
+    }
+
+    public int getScaleFilter() {
+        return scaleFilter;
+    }
+
+    /**
+     * 缩小方式，{@link #SCALE_FILTER_BOX}或{@link #SCALE_FILTER_NEAREST}。取点缩小不产生新的颜色，
+     * 缩小时仍可沿用源文件的调色板
+     */
+    public GifCompressOptions setScaleFilter(int scaleFilter) {
+        this.scaleFilter = scaleFilter == SCALE_FILTER_NEAREST ? SCALE_FILTER_NEAREST : SCALE_FILTER_BOX;
+        return this;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * 本次压缩最多同时占用的共享编码线程数，0表示不限制，{@link #MAX_THREADS_HALF}表示一半。
+     * 限制后其余线程留给同时进行的其他压缩。只对{@link GifCompressor#compress}生效
+     */
+    public GifCompressOptions setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads == MAX_THREADS_HALF ? MAX_THREADS_HALF : Math.max(0, maxThreads);
+        return this;
+    }
+
+    /**
+     * 按预设统一设置量化方式、采样间隔、颜色数、编码策略(调色板与差分帧)、有损程度、缩小方式和线程数，
+     * 尺寸、帧率、优先级等其余参数不变，之后仍可单独修改。各预设的耗时与输出大小见benchmark模块的PresetBenchmark。
+     * <ul>
+     * <li>{@link #PRESET_FASTEST}：均匀调色板、取点缩小，自动策略，适合预览。照片类内容颜色明显失真</li>
+     * <li>{@link #PRESET_FAST}：NeuQuant采样间隔20、取点缩小，自动策略</li>
+     * <li>{@link #PRESET_BALANCED}：默认参数，NeuQuant采样间隔10、块平均缩小，自动策略</li>
+     * <li>{@link #PRESET_SMALLEST}：128色、有损程度80、差分帧、取点缩小，输出最小但画质有损，
+     * 最多占用一半编码线程，适合后台批量压缩</li>
+     * </ul>
+     */
+    public GifCompressOptions applyPreset(int preset) {
+        switch (preset) {
+            case PRESET_FASTEST:
+                return setQuantizer(QUANTIZER_UNIFORM).setQuality(30).setColors(NeuQuant.MAX_COLORS)
+                        .setStrategy(STRATEGY_AUTO).setLossy(0)
+                        .setScaleFilter(SCALE_FILTER_NEAREST).setMaxThreads(0);
+            case PRESET_FAST:
+                return setQuantizer(QUANTIZER_NEUQUANT).setQuality(20).setColors(NeuQuant.MAX_COLORS)
+                        .setStrategy(STRATEGY_AUTO).setLossy(0)
+                        .setScaleFilter(SCALE_FILTER_NEAREST).setMaxThreads(0);
+            case PRESET_SMALLEST:
+                return setQuantizer(QUANTIZER_NEUQUANT).setQuality(DEFAULT_QUALITY).setColors(128)
+                        .setStrategy(STRATEGY_DELTA).setLossy(80)
+                        .setScaleFilter(SCALE_FILTER_NEAREST)
+                        .setMaxThreads(MAX_THREADS_HALF);
+            default:
+                return setQuantizer(QUANTIZER_NEUQUANT).setQuality(DEFAULT_QUALITY).setColors(NeuQuant.MAX_COLORS)
+                        .setStrategy(STRATEGY_AUTO).setLossy(0)
+                        .setScaleFilter(SCALE_FILTER_BOX).setMaxThreads(0);
+        }
+    }
+
+    /**
+     * 输入是否已满足大小、尺寸和帧率限制，不需要重新编码
+     *
+     * @param info       块级信息
+     * @param inputBytes 输入文件大小
+     */
+    public boolean isAlreadyOptimal(GifInfo info, long inputBytes) {
+        return passthroughMaxBytes > 0 && inputBytes <= passthroughMaxBytes
+                && (maxBytes <= 0 || inputBytes <= maxBytes)
+                && getSampleSize(info.getWidth(), info.getHeight()) == 1
+                && (maxFps <= 0 || info.getFps() <= maxFps);
+    }
+
+    /**
+     * 影响输出内容的参数，用作结果缓存键的一部分。新增影响输出的参数时需要加入这里，
+     * 优先级、超时、统计等只影响调度的参数不计入
+     *
+     * @return 输出不只由参数决定时返回null，不缓存：设置了软截止时间(降级程度取决于当时的耗时)，
+     * 或抽帧策略没有缓存键
+     */
+    String outputKey() {
+        String samplerKey = getFrameSampler().getCacheKey();
+        if (deadlineMillis > 0 || samplerKey == null) {
+            return null;
+        }
+        return "w" + maxWidth + ";h" + maxHeight + ";s" + samplerKey + ";d" + duplicateThreshold + ";q" + quality
+                + ";c" + colors + ";y" + lossy + ";z" + quantizer + ";b" + maxBytes + ";p" + strategy + ";f" + scaleFilter + ";l" + repeat;
+    }
+
+    /**
+     * 复制全部参数
+     */
+    GifCompressOptions copy() {
+        GifCompressOptions copy = new GifCompressOptions();
+        copy.maxWidth = maxWidth;
+        copy.maxHeight = maxHeight;
+        copy.frameSampler = frameSampler;
+        copy.quality = quality;
+        copy.repeat = repeat;
+        copy.priority = priority;
+        copy.timeoutMillis = timeoutMillis;
+        copy.metrics = metrics;
+        copy.passthroughMaxBytes = passthroughMaxBytes;
+        copy.maxFps = maxFps;
+        copy.allowHardLink = allowHardLink;
+        copy.duplicateThreshold = duplicateThreshold;
+        copy.colors = colors;
+        copy.lossy = lossy;
+        copy.maxBytes = maxBytes;
+        copy.quantizer = quantizer;
+        copy.deadlineMillis = deadlineMillis;
+        copy.strategy = strategy;
+        copy.scaleFilter = scaleFilter;
+        copy.maxThreads = maxThreads;
+        return copy;
+    }
+
+    /**
+     * 计算满足最大宽高限制的整数缩小倍数
+     *
+     * @param width  原始宽度
+     * @param height 原始高度
+     * @return 缩小倍数，不需要缩小时为1
+     */
+    public int getSampleSize(int width, int height) {
+        int size = 1;
+        if (maxWidth > 0 && width > maxWidth) {
+            size = (width + maxWidth - 1) / maxWidth;
+        }
+        if (maxHeight > 0 && height > maxHeight) {
+            size = Math.max(size, (height + maxHeight - 1) / maxHeight);
+        }
+        return size;
+    }
+}
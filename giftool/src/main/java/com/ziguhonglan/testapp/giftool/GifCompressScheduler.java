@@ -0,0 +1,342 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内共享的压缩调度器，替代每次压缩都创建的固定线程池。
+ * <p>
+ * 编码线程数默认等于CPU核数。每个压缩任务通过{@link #newJob(int)}拿到自己的帧队列，
+ * 编码线程总是先取优先级最高的任务的帧，同一优先级的任务之间轮转取帧，多个任务同时压缩时公平分享CPU，
+ * 总线程数不随任务数增长。ForkJoinPool需要API 21，minSdk 14下使用按任务分队列的轮转调度。
+ * <p>
+ * 解码(驱动)线程由{@link #executeJob(Runnable, int)}提供，同时解码的任务数有上限，
+ * 超出的任务按优先级排队等待。
+ */
+public final class GifCompressScheduler {
+
+    private static int sWorkerCount = 0; // 0表示使用CPU核数
+    private static int sMaxConcurrentJobs = 0; // 0表示与编码线程数相同
+    private static GifCompressScheduler sInstance;
+
+    private final int workerCount;
+    private final ThreadPoolExecutor jobExecutor;
+    private final AtomicLong jobSequence = new AtomicLong();
+    private final Object lock = new Object();
+    // 按优先级分组的有待处理帧的任务，组内按轮转顺序排列
+    private final ArrayDeque<Job>[] readyJobs;
+
+    /**
+     * 配置调度器，必须在第一次使用前调用
+     *
+     * @param workerCount       编码线程数，小于1时使用CPU核数
+     * @param maxConcurrentJobs 同时解码的任务数上限，小于1时与编码线程数相同
+     */
+    public static synchronized void configure(int workerCount, int maxConcurrentJobs) {
+        if (sInstance != null) {
+            throw new IllegalStateException("GifCompressScheduler has already been started.");
+        }
+        sWorkerCount = workerCount;
+        sMaxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public static synchronized GifCompressScheduler getInstance() {
+        if (sInstance == null) {
+            int workers = sWorkerCount > 0 ? sWorkerCount : Runtime.getRuntime().availableProcessors();
+            workers = Math.max(1, workers);
+            int jobs = sMaxConcurrentJobs > 0 ? sMaxConcurrentJobs : workers;
+            sInstance = new GifCompressScheduler(workers, jobs);
+        }
+        return sInstance;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private GifCompressScheduler(int workerCount, int maxConcurrentJobs) {
+        this.workerCount = workerCount;
+        readyJobs = new ArrayDeque[GifCompressOptions.PRIORITY_FOREGROUND + 1];
+        for (int i = 0; i < readyJobs.length; i++) {
+            readyJobs[i] = new ArrayDeque<>();
+        }
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker();
+                }
+            }, "gif-compress-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        jobExecutor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory("gif-compress-job-"));
+        jobExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * 在驱动线程上执行整个压缩任务(解码及驱动流水线)，排队时优先级高的任务先开始
+     */
+    public void executeJob(Runnable task, int priority) {
+        jobExecutor.execute(new PrioritizedJob(task, clampPriority(priority), jobSequence.getAndIncrement()));
+    }
+
+    /**
+     * 为一次压缩创建帧队列，帧级任务通过返回的Job提交到共享编码线程
+     *
+     * @param priority 见{@link GifCompressOptions#setPriority(int)}
+     */
+    public Job newJob(int priority) {
+        return new Job(clampPriority(priority));
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(GifCompressOptions.PRIORITY_BACKGROUND, Math.min(GifCompressOptions.PRIORITY_FOREGROUND, priority));
+    }
+
+    // 调用时需持有lock
+    private boolean hasReadyJobsAbove(int priority) {
+        for (int i = readyJobs.length - 1; i > priority; i--) {
+            if (!readyJobs[i].isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 调用时需持有lock
+    private Job pollReadyJob() {
+        for (int i = readyJobs.length - 1; i >= 0; i--) {
+            Job job = readyJobs[i].poll();
+            if (job != null) {
+                job.ready = false;
+                return job;
+            }
+        }
+        return null;
+    }
+
+    private void runWorker() {
+        while (true) {
+            Runnable task;
+            Job job;
+            synchronized (lock) {
+                while ((job = pollReadyJob()) == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // 编码线程常驻，忽略中断
+                    }
+                }
+                task = job.tasks.poll();
+                job.running++;
+                if (!job.tasks.isEmpty() && job.running < job.maxThreads) {
+                    // 排到同优先级队尾，让其他任务的帧先执行
+                    job.markReady();
+                } else if (readyJobs[job.priority].isEmpty()) {
+                    // 该优先级已无待处理帧，唤醒在awaitTurn中等待的低优先级任务
+                    lock.notifyAll();
+                }
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            } finally {
+                synchronized (lock) {
+                    job.running--;
+                    // 达到线程数上限时暂停取帧，有线程空出后恢复
+                    if (!job.ready && !job.tasks.isEmpty()) {
+                        job.markReady();
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 单个压缩任务的帧队列
+     */
+    public final class Job implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final int priority;
+        private boolean closed = false;
+        // 以下字段由lock保护
+        private boolean ready = false; // 是否在readyJobs中
+        private int running = 0; // 正在编码线程上执行的帧数
+        private int maxThreads = Integer.MAX_VALUE;
+
+        private Job(int priority) {
+            this.priority = priority;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * 该任务最多同时占用的编码线程数，小于1表示不限制。见{@link GifCompressOptions#setMaxThreads(int)}
+         */
+        public void setMaxThreads(int maxThreads) {
+            synchronized (lock) {
+                this.maxThreads = maxThreads > 0 ? maxThreads : Integer.MAX_VALUE;
+            }
+        }
+
+        /**
+         * 该任务最多同时占用的编码线程数，不限制时为Integer.MAX_VALUE
+         */
+        int getMaxThreads() {
+            synchronized (lock) {
+                return maxThreads;
+            }
+        }
+
+        // 调用时需持有lock
+        private void markReady() {
+            if (!ready && running < maxThreads) {
+                ready = true;
+                readyJobs[priority].add(this);
+            }
+        }
+
+        /**
+         * 在投递下一帧之前调用：有更高优先级任务的帧在排队时阻塞，
+         * 让低优先级任务在帧之间让出编码线程，也不再继续领先解码占用内存
+         */
+        public void awaitTurn() throws InterruptedException {
+            synchronized (lock) {
+                while (!closed && hasReadyJobsAbove(priority)) {
+                    lock.wait();
+                }
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (task == null) {
+                throw new NullPointerException("task == null");
+            }
+            synchronized (lock) {
+                if (closed) {
+                    throw new RejectedExecutionException("Job has been closed.");
+                }
+                tasks.add(task);
+                markReady();
+                // 同一把锁上还有awaitTurn的等待者，notify可能唤醒不到编码线程
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * 插到该任务队列的最前面，用于调用线程正在等待的短任务(帧内条带，见{@link RowStripes})。
+         * 仍按该任务的优先级调度，受线程数上限限制
+         */
+        void executeNext(Runnable task) {
+            if (task == null) {
+                throw new NullPointerException("task == null");
+            }
+            synchronized (lock) {
+                if (closed) {
+                    throw new RejectedExecutionException("Job has been closed.");
+                }
+                tasks.addFirst(task);
+                markReady();
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * 移除尚未开始执行的task(提交了多次时全部移除)
+         */
+        void remove(Runnable task) {
+            synchronized (lock) {
+                while (tasks.remove(task)) {
+                    // 继续移除重复提交的
+                }
+                if (tasks.isEmpty() && ready) {
+                    ready = false;
+                    readyJobs[priority].remove(this);
+                }
+            }
+        }
+
+        /**
+         * 结束任务，丢弃尚未开始执行的帧，之后提交的帧会被拒绝
+         *
+         * @return 被丢弃的帧数
+         */
+        public int close() {
+            synchronized (lock) {
+                closed = true;
+                int discarded = tasks.size();
+                if (discarded > 0) {
+                    tasks.clear();
+                }
+                if (ready) {
+                    ready = false;
+                    readyJobs[priority].remove(this);
+                }
+                lock.notifyAll();
+                return discarded;
+            }
+        }
+    }
+
+    /**
+     * 驱动线程池排队中的任务，优先级高的先执行，同优先级先进先出
+     */
+    private static class PrioritizedJob implements Runnable, Comparable<PrioritizedJob> {
+
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+
+        PrioritizedJob(Runnable task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedJob other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,718 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 纯Java的GIF压缩入口，不依赖Android，可在服务端或桌面JVM上直接使用。
+ * Android端的异步接口及Bitmap转换见app模块中的GifUtil和BitmapRasters。
+ */
+public final class GifCompressor {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    // 每个编码线程对应的在途帧数，流水线中同时在途的最大帧数为 编码线程数 * 该值，
+    // 限制解码领先编码的距离，从而限制内存占用
+    static final int FRAMES_IN_FLIGHT_PER_WORKER = 2;
+
+    // 目标大小模式最多完整编码的次数，估算偏小导致超出上限时再编码一次
+    private static final int MAX_TARGET_SIZE_ENCODES = 2;
+
+    private static volatile CompressionMetrics sDefaultMetrics;
+
+    private GifCompressor() {
+    }
+
+    /**
+     * 设置全局的分阶段统计回调，对未在{@link GifCompressOptions#setMetrics(CompressionMetrics)}中
+     * 单独指定的压缩生效，为null时关闭统计
+     */
+    public static void setDefaultMetrics(CompressionMetrics metrics) {
+        sDefaultMetrics = metrics;
+    }
+
+    /**
+     * 输入已满足options中的大小、尺寸和帧率限制时不重新编码，直接把src放到dest：
+     * 允许时创建硬链接，否则用FileChannel.transferTo复制。只读取块结构，不解码图像数据
+     *
+     * @return 已直接放到dest返回true，需要压缩返回false
+     */
+    public static boolean passthroughIfOptimal(File src, File dest, GifCompressOptions options) throws IOException {
+        if (options == null || options.getPassthroughMaxBytes() <= 0) {
+            return false;
+        }
+        long length = src.length();
+        if (length > options.getPassthroughMaxBytes()) {
+            return false;
+        }
+        GifInfo info;
+        InputStream in = new BufferedInputStream(new FileInputStream(src));
+        try {
+            info = GifInfo.read(in);
+        } finally {
+            in.close();
+        }
+        if (info == null || !options.isAlreadyOptimal(info, length)) {
+            return false;
+        }
+        LOG.info("already optimal, pass through: " + info.getWidth() + "x" + info.getHeight()
+                + ", " + info.getFrameCount() + " frames, " + info.getFps() + " fps");
+        if (options.isAllowHardLink() && link(src, dest)) {
+            return true;
+        }
+        Utils.copyFile(src, dest);
+        return true;
+    }
+
+    private static boolean link(File src, File dest) {
+        try {
+            dest.delete();
+            Files.createLink(dest.toPath(), src.toPath());
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // 跨分区、文件系统不支持等，退回复制
+            return false;
+        } catch (LinkageError e) {
+            // Android 8.0以下没有java.nio.file
+            return false;
+        }
+    }
+
+    /**
+     * 单线程压缩，先解码全部帧再逐帧编码，按长边不超过maxWidth整数倍缩小
+     */
+    public static boolean resizeGif(InputStream in, OutputStream out, int maxWidth, int maxHeight) throws IOException {
+        checkParams(in, out, maxWidth, maxHeight);
+        GifFrame[] frameList = null;
+        try {
+            GifDecoder gifDecoder = new GifDecoder();
+            int code = gifDecoder.read(in);
+            if (code == GifDecoder.STATUS_OK) {//解码成功
+                frameList = gifDecoder.getFrames();
+            } else {
+                return false;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (frameList == null) {
+            return false;
+        }
+        AnimatedGifEncoder ge = new AnimatedGifEncoder();
+        ge.start(out);
+        ge.setRepeat(0);
+        LOG.info("frame count: " + frameList.length);
+        int[] delays = new int[frameList.length];
+        for (int i = 0; i < frameList.length; i++) {
+            delays[i] = frameList[i].delay;
+        }
+        int[] plan = sample(new GifCompressOptions().getFrameSampler(), delays);
+        for (int i = 0; i < frameList.length; i++) {
+            if (plan[i] != FrameSampler.DROP) {
+                ge.setDelay(plan[i]);
+                ge.addFrame(frameList[i].image, true, maxWidth);
+            }
+        }
+        ge.finish();
+        return true;
+    }
+
+    /**
+     * 多线程压缩，当前线程解码，帧在共享编码线程上并行编码
+     *
+     * @param options 压缩参数，为null时使用默认参数。设置了{@link GifCompressOptions#setMaxBytes(long)}时
+     *                先估算选出满足上限的参数，见{@link TargetSizePlanner}
+     * @param handle  取消句柄，为null时按options中的超时时间创建。取消或超时后解码在帧之间停止，
+     *                排队中的帧被丢弃，正在编码的帧在LZW循环中退出，返回false
+     */
+    public static boolean compress(InputStream in, OutputStream out, GifCompressOptions options,
+                                   GifCompressHandle handle) throws IOException {
+        if (in == null || out == null)
+            throw new IOException("InputStream or OutputStream must be not null.");
+        GifSource source = null;
+        try {
+            //解码前按块结构确定保留的帧，输入回到起点再解码，不复制到堆上
+            source = GifSource.of(in);
+            return compress(source, out, options, handle);
+        } finally {
+            closeQuietly(source != null ? source : in);
+        }
+    }
+
+    /**
+     * 同{@link #compress(InputStream, OutputStream, GifCompressOptions, GifCompressHandle)}，
+     * 从source的起点读取，返回时不关闭source，同一输入可以再次压缩
+     */
+    static boolean compress(GifSource source, OutputStream out, GifCompressOptions options,
+                            GifCompressHandle handle) throws IOException {
+        long startNanos = System.nanoTime();
+        final GifCompressOptions opts = options != null ? options : new GifCompressOptions();
+        final GifCompressHandle h = handle != null ? handle : new GifCompressHandle(opts.getTimeoutMillis());
+        if (opts.getMaxBytes() > 0) {
+            return compressToSize(source, out, opts, h, false);
+        }
+        GifCompressScheduler scheduler = GifCompressScheduler.getInstance();
+        final GifCompressScheduler.Job job = scheduler.newJob(opts.getPriority());
+        job.setMaxThreads(opts.getMaxThreads() == GifCompressOptions.MAX_THREADS_HALF
+                ? Math.max(1, scheduler.getWorkerCount() / 2) : opts.getMaxThreads());
+        LOG.info("thread count: " + scheduler.getWorkerCount());
+        final MetricsRecorder metrics = MetricsRecorder.create(getMetrics(opts), scheduler.getWorkerCount());
+        CountingInputStream countingIn = null;
+        CountingOutputStream countingOut = null;
+        if (metrics != null) {
+            out = countingOut = new CountingOutputStream(out);
+        }
+        //解码线程(当前线程)逐帧投递，共享编码线程并行编码，编码完成的帧按顺序写入out
+        final FramePipeline pipeline = new FramePipeline(job, out, scheduler.getWorkerCount() * FRAMES_IN_FLIGHT_PER_WORKER);
+        pipeline.setMetrics(metrics);
+        //取消时唤醒阻塞的解码线程并丢弃排队中的帧
+        Runnable cancelAction = new Runnable() {
+            @Override
+            public void run() {
+                pipeline.abort();
+                job.close();
+            }
+        };
+        h.addCancelAction(cancelAction);
+        int code = GifDecoder.STATUS_FORMAT_ERROR;
+        GifDecoder gifDecoder = new GifDecoder();
+        gifDecoder.setMetrics(metrics);
+        DeadlineController deadlineController = null;
+        boolean remuxed = false;
+        try {
+            GifInfo info = GifInfo.read(source.open());
+            final int[] plan = planFrames(info, opts.getFrameSampler());
+            //按内容分析选择编码策略
+            CompressionPlanner planner = CompressionPlanner.plan(source, info, plan, opts, false, h);
+            LOG.info(planner.toString());
+            int strategy = planner.getStrategy();
+            InputStream input = source.open();
+            if (metrics != null) {
+                input = countingIn = new CountingInputStream(input);
+            }
+            if (strategy == GifCompressOptions.STRATEGY_REMUX) {
+                Utils.copyStream(input, out);
+                remuxed = true;
+                code = GifDecoder.STATUS_OK;
+            } else {
+                boolean[] skipped = toSkipped(plan);
+                gifDecoder.setSkippedFrames(skipped);
+                if (opts.getDeadlineMillis() > 0 && plan != null) {
+                    //软截止时间，按编码耗时调整之后的帧，抽帧时修改plan和skipped
+                    deadlineController = new DeadlineController(opts, h, plan, skipped, startNanos,
+                            Math.min(scheduler.getWorkerCount(), Runtime.getRuntime().availableProcessors()));
+                }
+                code = decodeAndEncode(input, plan, planner, deadlineController, opts, h, job, pipeline, metrics,
+                        gifDecoder);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (h.isStopped()) {
+            //超时同样丢弃剩余的帧
+            cancelAction.run();
+        }
+        boolean isComplete;
+        //等待在途帧全部写出
+        try {
+            isComplete = pipeline.finish();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            isComplete = false;
+        }
+        job.close();
+        h.removeCancelAction(cancelAction);
+        if (deadlineController != null) {
+            LOG.info(deadlineController.toString());
+        }
+        boolean result;
+        if (code != GifDecoder.STATUS_OK || h.isCancelled()) {//解码失败、超时或已取消
+            out.close();
+            result = false;
+        } else {
+            //写尾标志，原样输出时已包含
+            if (!remuxed) {
+                out.write(0x3b); // gif trailer
+            }
+            out.flush();
+            out.close();
+            result = isComplete;
+        }
+        if (metrics != null) {
+            metrics.setDecodedFrames(gifDecoder.getFrameCount());
+            LOG.info(metrics.finish(result, countingIn != null ? countingIn.getCount() : 0,
+                    countingOut.getCount()).toString());
+        }
+        return result;
+    }
+
+    /**
+     * 按选定的策略逐帧解码并投递到流水线
+     *
+     * @param deadline 软截止时间控制，可为null
+     * @return 解码结果
+     */
+    private static int decodeAndEncode(InputStream input, final int[] plan, CompressionPlanner planner,
+                                       final DeadlineController deadline, final GifCompressOptions opts,
+                                       final GifCompressHandle h, final GifCompressScheduler.Job job,
+                                       final FramePipeline pipeline, final MetricsRecorder metrics,
+                                       GifDecoder gifDecoder) {
+        final boolean delta = planner.getStrategy() == GifCompressOptions.STRATEGY_DELTA;
+        final int[] globalPalette = planner.usesGlobalPalette() ? planner.getGlobalPalette() : null;
+        final boolean exactPalette = planner.usesExactPalette();
+        //编码阶段，去重开启时收到的是合并了延迟的保留帧
+        final DuplicateFrameFilter.Sink sink = new DuplicateFrameFilter.Sink() {
+            private GifRaster previous; // 差分帧：上一个保留帧(解码器复制的帧，不会被修改)
+
+            @Override
+            public boolean onFrame(int index, GifRaster image, int delay) {
+                int sampleSize = deadline != null ? deadline.getSampleSize() : opts.getSampleSize(image.width, image.height);
+                GifRaster frame = image;
+                int[] rect = null;
+                if (delta) {
+                    if (previous != null) {
+                        //只编码变化区域，没有变化时编码1个像素以保留延迟
+                        rect = CompressionPlanner.changedRect(previous, image, sampleSize);
+                        if (rect == null) {
+                            rect = new int[]{0, 0, 1, 1};
+                        }
+                        frame = image.crop(rect[0] * sampleSize, rect[1] * sampleSize,
+                                rect[2] * sampleSize, rect[3] * sampleSize);
+                    }
+                    previous = image;
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                EncoderTask task = new EncoderTask(bos, frame, index == 0, 1, delay, opts.getRepeat());
+                if (deadline != null) {
+                    task.setQuality(deadline.getQuality());
+                    task.setQuantizer(deadline.getQuantizer());
+                    deadline.frameSubmitted();
+                    task.setDeadline(deadline);
+                } else {
+                    task.setQuality(opts.getQuality());
+                    task.setQuantizer(opts.getQuantizer());
+                }
+                task.setSampleSize(sampleSize);
+                task.setScaleFilter(opts.getScaleFilter());
+                if (globalPalette != null) {
+                    task.setPalette(globalPalette, true);
+                }
+                task.setExactPalette(exactPalette);
+                if (delta) {
+                    //不处置，未覆盖的区域保留上一帧
+                    task.setDispose(1);
+                    if (rect != null) {
+                        task.setPosition(rect[0], rect[1]);
+                    }
+                }
+                task.setColors(opts.getColors());
+                task.setLossy(opts.getLossy());
+                task.setHandle(h);
+                task.setRowStripes(job);
+                task.setMetrics(metrics, index);
+                try {
+                    //有更高优先级任务排队时在帧之间让出
+                    job.awaitTurn();
+                    return pipeline.submit(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        };
+        final DuplicateFrameFilter filter = newDuplicateFilter(opts, false, sink);
+        final boolean[] deadlineReached = new boolean[1];
+        int code = gifDecoder.read(input, new IGifFrameListener() {
+            @Override
+            public boolean onFrameDecoded(int index, GifFrame frame) {
+                if (h.isStopped()) {
+                    return false;
+                }
+                if (deadline != null) {
+                    if (index == 0) {
+                        deadline.probe(frame.image);
+                    } else {
+                        deadline.beforeFrame(index);
+                    }
+                }
+                int delay = outputDelay(plan, index, frame.delay);
+                boolean added = filter != null ? filter.add(index, frame.image, delay) : sink.onFrame(index, frame.image, delay);
+                if (added && deadline != null && deadline.isDroppingAll()) {
+                    //剩余帧的延迟已合并到这一帧，不再解码
+                    deadlineReached[0] = true;
+                    return false;
+                }
+                return added;
+            }
+        });
+        if (code == GifDecoder.STATUS_ABORTED && deadlineReached[0]) {
+            code = GifDecoder.STATUS_OK;
+        }
+        if (filter != null && code == GifDecoder.STATUS_OK && !h.isStopped()) {
+            if (!filter.flush()) {
+                code = GifDecoder.STATUS_ABORTED;
+            }
+            LOG.info("duplicate frames merged: " + filter.getDroppedCount());
+        }
+        LOG.info("frame count: " + gifDecoder.getFrameCount());
+        return code;
+    }
+
+    /**
+     * 多路输出：一次读取和解码同时压缩出多个尺寸、帧率或大小上限不同的GIF，见{@link RenditionLadder}。
+     * 比逐路调用{@link #compress}少了重复的读取和解码，缩小倍数相同的路共用缩小结果
+     *
+     * @param renditions 各路输出流及参数，输出流在返回前关闭
+     * @param handle     取消句柄，为null时按第一路参数中的超时时间创建
+     * @return 各路是否成功，与renditions顺序一致
+     */
+    public static boolean[] compressRenditions(InputStream in, List<GifRendition> renditions,
+                                               GifCompressHandle handle) throws IOException {
+        if (in == null || renditions == null || renditions.isEmpty())
+            throw new IOException("InputStream or renditions must be not null.");
+        GifCompressHandle h = handle != null ? handle
+                : new GifCompressHandle(renditions.get(0).getOptions().getTimeoutMillis());
+        GifSource source = null;
+        try {
+            source = GifSource.of(in);
+        } catch (IOException e) {
+            closeQuietly(in);
+            for (GifRendition rendition : renditions) {
+                rendition.getOutputStream().close();
+            }
+            throw e;
+        }
+        try {
+            return RenditionLadder.compress(source, renditions, h);
+        } finally {
+            closeQuietly(source);
+        }
+    }
+
+    /**
+     * 截取[startMs, endMs)时间范围内的帧，时间按播放时的实际延迟计算，首尾被截断的帧改写延迟。
+     * 块结构只扫描到范围的最后一帧，回到起点后能直接复制块时不解码，否则只从范围之前最近的独立帧开始解码，
+     * 范围之后的数据不读取，见{@link GifTrimmer}。截到末尾时需要扫描整个块结构。
+     * 输入既不是FileInputStream也不支持mark时，读过的数据缓存在BufferedInputStream中。
+     * 不缩小也不抽帧，需要时对结果再调用{@link #compress}
+     *
+     * @param endMs  结束时间(毫秒)，0或超过总时长时截到末尾
+     * @param handle 取消句柄，可为null
+     * @return 范围为空、解码失败或已取消时返回false，输入流和输出流在返回前关闭
+     */
+    public static boolean trim(InputStream in, OutputStream out, long startMs, long endMs,
+                               GifCompressHandle handle) throws IOException {
+        if (in == null || out == null)
+            throw new IOException("InputStream or OutputStream must be not null.");
+        GifSource source = null;
+        try {
+            source = GifSource.of(in);
+            boolean result = GifTrimmer.trim(source, out, startMs, endMs, handle);
+            out.flush();
+            return result;
+        } finally {
+            closeQuietly(source != null ? source : in);
+            out.close();
+        }
+    }
+
+    /**
+     * 按顺序拼接多个GIF，各帧的块直接复制，不解码也不重新量化，见{@link GifConcatenator}。
+     * 画布尺寸不同时较小的段居中，交界处的画面互相影响时只重新合成该处的一帧。
+     * 各段依次处理，同一时刻只保留当前一帧的块和上一段的最后一帧；
+     * 输入既不是FileInputStream也不支持mark时，正在处理的一段读过的数据缓存在BufferedInputStream中
+     *
+     * @param inputs 各段输入，按播放顺序，返回前关闭
+     * @return 某一段不是GIF或没有帧时返回false，输出流在返回前关闭
+     */
+    public static boolean concat(List<InputStream> inputs, OutputStream out) throws IOException {
+        if (inputs == null || inputs.isEmpty() || out == null)
+            throw new IOException("InputStreams or OutputStream must be not null.");
+        List<GifSource> sources = new ArrayList<>(inputs.size());
+        try {
+            for (InputStream in : inputs) {
+                sources.add(GifSource.of(in));
+            }
+            boolean result = GifConcatenator.concat(sources, out);
+            out.flush();
+            return result;
+        } finally {
+            for (int i = 0; i < inputs.size(); i++) {
+                closeQuietly(i < sources.size() ? sources.get(i) : inputs.get(i));
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * 单线程、内存恒定的流式压缩：在调用线程上逐帧解码、抽帧、量化、编码并写出，
+     * 解码画布、像素缓冲、NeuQuant与LZW状态全程复用，不复制帧，
+     * 峰值内存只与单帧尺寸有关。适合低内存设备和后台任务。
+     * 解码前的块结构扫描和内容分析按FileChannel位置或mark/reset回到起点再解码，
+     * 输入是既不是FileInputStream也不支持mark的流时，读过的数据缓存在BufferedInputStream中
+     *
+     * @param options 压缩参数，为null时使用默认参数。设置了{@link GifCompressOptions#setMaxBytes(long)}时
+     *                先估算选出满足上限的参数，可能重新编码的那一次输出写到临时文件中直到确认大小，
+     *                内存仍只与单帧尺寸有关
+     * @return 压缩成功返回true
+     */
+    public static boolean compressStreaming(InputStream in, OutputStream out, GifCompressOptions options) throws IOException {
+        if (in == null || out == null)
+            throw new IOException("InputStream or OutputStream must be not null.");
+        if (options == null) {
+            options = new GifCompressOptions();
+        }
+        GifSource source = null;
+        try {
+            source = GifSource.of(in);
+            if (options.getMaxBytes() > 0) {
+                return compressToSize(source, out, options, null, true);
+            }
+            return compressStreaming(source, out, options);
+        } finally {
+            closeQuietly(source != null ? source : in);
+        }
+    }
+
+    /**
+     * 见{@link #compressStreaming(InputStream, OutputStream, GifCompressOptions)}，不关闭source，
+     * 目标大小模式每次编码都从起点重新读取
+     */
+    static boolean compressStreaming(GifSource source, OutputStream out, GifCompressOptions options)
+            throws IOException {
+        //单线程，编码线程数按1统计
+        final MetricsRecorder metrics = MetricsRecorder.create(getMetrics(options), 1);
+        CountingInputStream countingIn = null;
+        CountingOutputStream countingOut = null;
+        if (metrics != null) {
+            out = countingOut = new CountingOutputStream(out);
+        }
+        final StreamingGifEncoder encoder = new StreamingGifEncoder(out, options);
+        encoder.setMetrics(metrics);
+        int code = GifDecoder.STATUS_FORMAT_ERROR;
+        GifDecoder gifDecoder = new GifDecoder();
+        gifDecoder.setCopyFrames(false);
+        gifDecoder.setMetrics(metrics);
+        try {
+            //解码前按块结构确定保留的帧，输入回到起点再解码，不缓存输入和帧
+            GifInfo info = GifInfo.read(source.open());
+            final int[] plan = planFrames(info, options.getFrameSampler());
+            CompressionPlanner planner = CompressionPlanner.plan(source, info, plan, options, true, null);
+            LOG.info(planner.toString());
+            InputStream input = source.open();
+            if (metrics != null) {
+                input = countingIn = new CountingInputStream(input);
+            }
+            if (planner.getStrategy() == GifCompressOptions.STRATEGY_REMUX) {
+                Utils.copyStream(input, out);
+                out.flush();
+                out.close();
+                if (metrics != null) {
+                    LOG.info(metrics.finish(true, countingIn.getCount(), countingOut.getCount()).toString());
+                }
+                return true;
+            }
+            if (planner.usesGlobalPalette()) {
+                encoder.setPalette(planner.getGlobalPalette());
+            }
+            encoder.setExactPalette(planner.usesExactPalette());
+            gifDecoder.setSkippedFrames(toSkipped(plan));
+            final DuplicateFrameFilter.Sink sink = new DuplicateFrameFilter.Sink() {
+                @Override
+                public boolean onFrame(int index, GifRaster image, int delay) {
+                    if (metrics == null) {
+                        return encoder.addFrame(image, delay);
+                    }
+                    long start = System.nanoTime();
+                    encoder.setFrameIndex(index);
+                    boolean added = encoder.addFrame(image, delay);
+                    metrics.addWorkerBusy(System.nanoTime() - start);
+                    return added;
+                }
+            };
+            //解码画布是复用的，去重时保留帧复制到去重阶段的缓冲
+            final DuplicateFrameFilter filter = newDuplicateFilter(options, true, sink);
+            code = gifDecoder.read(input, new IGifFrameListener() {
+                @Override
+                public boolean onFrameDecoded(int index, GifFrame frame) {
+                    int delay = outputDelay(plan, index, frame.delay);
+                    return filter != null ? filter.add(index, frame.image, delay) : sink.onFrame(index, frame.image, delay);
+                }
+            });
+            if (filter != null && code == GifDecoder.STATUS_OK) {
+                if (!filter.flush()) {
+                    code = GifDecoder.STATUS_ABORTED;
+                }
+                LOG.info("duplicate frames merged: " + filter.getDroppedCount());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        boolean isComplete = encoder.finish() && code == GifDecoder.STATUS_OK;
+        out.close();
+        if (metrics != null) {
+            metrics.setDecodedFrames(gifDecoder.getFrameCount());
+            LOG.info(metrics.finish(isComplete, countingIn != null ? countingIn.getCount() : 0,
+                    countingOut.getCount()).toString());
+        }
+        return isComplete;
+    }
+
+    /**
+     * 目标大小模式：估算选出参数后完整编码一次，实际大小仍超出上限时按实际大小修正估算再编码一次。
+     * 到达参数阶梯末端仍无法满足时输出最小的结果并返回true，调用方可检查输出大小。
+     * 之后还可能重新编码的那一次写到临时文件中，确认大小后复制到out；不会再重新编码时直接写到out。
+     * 每次编码都由source回到起点重新读取输入
+     */
+    private static boolean compressToSize(GifSource source, OutputStream out, GifCompressOptions options,
+                                          GifCompressHandle handle, boolean streaming) throws IOException {
+        File temp = null;
+        try {
+            TargetSizePlanner planner = new TargetSizePlanner(source, options, streaming, handle);
+            GifCompressOptions planned = planner.plan();
+            for (int attempt = 1; planned != null; attempt++) {
+                if (attempt >= MAX_TARGET_SIZE_ENCODES || !planner.canReplan()) {
+                    CountingOutputStream counting = new CountingOutputStream(out);
+                    if (!compressAttempt(source, counting, planned, handle, streaming)) {
+                        return false;
+                    }
+                    if (counting.getCount() > options.getMaxBytes()) {
+                        LOG.warning("target size " + options.getMaxBytes() + " not reached: " + counting.getCount() + " bytes");
+                    }
+                    return true;
+                }
+                if (temp == null) {
+                    temp = File.createTempFile("gifcompress", ".gif");
+                }
+                if (!compressAttempt(source, new FileOutputStream(temp), planned, handle, streaming)) {
+                    return false;
+                }
+                long size = temp.length();
+                GifCompressOptions next = size > options.getMaxBytes() ? planner.replan(size) : null;
+                if (next == null) {
+                    FileInputStream result = new FileInputStream(temp);
+                    try {
+                        Utils.copyStream(result, out);
+                    } finally {
+                        result.close();
+                    }
+                    out.flush();
+                    return true;
+                }
+                LOG.info("target size " + options.getMaxBytes() + " exceeded: " + size + " bytes, re-encoding");
+                planned = next;
+            }
+            return false;
+        } finally {
+            if (temp != null && !temp.delete()) {
+                LOG.warning("failed to delete " + temp);
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * 目标大小模式的一次完整编码，out总是被关闭
+     */
+    private static boolean compressAttempt(GifSource source, OutputStream out, GifCompressOptions options,
+                                           GifCompressHandle handle, boolean streaming) throws IOException {
+        try {
+            return streaming ? compressStreaming(source, out, options) : compress(source, out, options, handle);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 按块结构中的帧延迟确定保留的帧及输出延迟，不解码图像数据
+     *
+     * @return 见{@link FrameSampler#sample(int[])}，无法读取块结构时返回null，保留全部帧
+     */
+    static int[] planFrames(GifInfo info, FrameSampler sampler) {
+        if (info == null) {
+            return null;
+        }
+        int[] delays = new int[info.getFrameCount()];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = info.getFrame(i).delay;
+        }
+        return sample(sampler, delays);
+    }
+
+    private static int[] sample(FrameSampler sampler, int[] delays) {
+        int[] plan = sampler.sample(delays);
+        int kept = 0;
+        for (int delay : plan) {
+            if (delay != FrameSampler.DROP) {
+                kept++;
+            }
+        }
+        LOG.info("frame sampler: " + sampler + ", kept " + kept + "/" + delays.length);
+        return plan;
+    }
+
+    static DuplicateFrameFilter newDuplicateFilter(GifCompressOptions options, boolean copyFrames,
+                                                           DuplicateFrameFilter.Sink sink) {
+        float threshold = options.getDuplicateThreshold();
+        return threshold < 0 ? null : new DuplicateFrameFilter(threshold, copyFrames, sink);
+    }
+
+    static boolean[] toSkipped(int[] plan) {
+        if (plan == null) {
+            return null;
+        }
+        boolean[] skipped = new boolean[plan.length];
+        // 第0帧写文件头，总是保留
+        for (int i = 1; i < plan.length; i++) {
+            skipped[i] = plan[i] == FrameSampler.DROP;
+        }
+        return skipped;
+    }
+
+    /**
+     * 保留帧的输出延迟，计划之外的帧(块结构不完整时)保持原延迟
+     */
+    static int outputDelay(int[] plan, int index, int delay) {
+        if (plan == null || index >= plan.length || plan[index] == FrameSampler.DROP) {
+            return delay;
+        }
+        return plan[index];
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CompressionMetrics getMetrics(GifCompressOptions options) {
+        CompressionMetrics metrics = options.getMetrics();
+        return metrics != null ? metrics : sDefaultMetrics;
+    }
+
+    private static void checkParams(InputStream in, OutputStream out, int maxWidth, int maxHeight)
+            throws IOException {
+        if (in == null) {
+            throw new IOException("InputStream can not be null ");
+        }
+        if (out == null) {
+            throw new IOException("OutputStream can not be null ");
+        }
+        if (maxWidth < 1 || maxHeight < 1) {
+            throw new IOException("maxWidth or maxHeight can not be less than 1 ");
+        }
+    }
+}
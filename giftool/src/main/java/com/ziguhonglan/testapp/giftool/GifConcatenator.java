@@ -0,0 +1,231 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 块级别拼接多个GIF，见{@link GifCompressor#concat}。
+ * <p>
+ * 各帧的块直接复制，不解码也不重新量化。输出画布取各段中最大的宽高，较小的段居中(改写图像位置)；
+ * 文件头、全局颜色表和循环次数取自第一段，其他段中使用全局颜色表的帧改为携带原全局颜色表作为局部颜色表。
+ * 各段依次扫描块结构后按{@link GifSource}回到起点逐帧读出块，不缓存整个输入。
+ * <p>
+ * 每段的第一帧原本画在空白画布上，拼接后画在上一段留下的画面上，只在两段交界处按需处理：
+ * <ul>
+ * <li>第一帧不透明、覆盖整个画布且处置方法不是3：不受之前画面影响，直接复制</li>
+ * <li>否则上一段的最后一帧覆盖整个画布时，把它的处置方法改为2(恢复到背景)，画布被清空</li>
+ * <li>都不满足时把第一帧单独解码合成，编码为覆盖整个画布的关键帧，见{@link GifBlocks#writeKeyframe}</li>
+ * </ul>
+ */
+final class GifConcatenator {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    private final int width; // 输出画布尺寸
+    private final int height;
+    private Pending pending; // 上一段的最后一帧，确定交界处理后写出
+
+    private GifConcatenator(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 先只读出各段的逻辑屏幕尺寸确定输出画布，再逐段扫描块结构并复制各帧。
+     * 同一时刻只保留当前一帧的块和上一段的最后一帧，每段处理完即关闭
+     *
+     * @param inputs 各段输入，按播放顺序
+     * @return 某一段不是GIF或没有帧时返回false，此时已写出的部分不完整
+     */
+    static boolean concat(List<GifSource> inputs, OutputStream out) throws IOException {
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            byte[] screen = readScreen(inputs.get(i));
+            if (screen == null) {
+                LOG.warning("concat: input " + i + " is not a gif");
+                return false;
+            }
+            width = Math.max(width, readShort(screen, 6));
+            height = Math.max(height, readShort(screen, 8));
+        }
+        GifConcatenator concatenator = new GifConcatenator(width, height);
+        int[] globalPalette = null;
+        int keyframes = 0;
+        for (int k = 0; k < inputs.size(); k++) {
+            GifSource source = inputs.get(k);
+            GifInfo info = GifInfo.read(source.open());
+            if (info == null || info.getFrameCount() == 0) {
+                LOG.warning("concat: input " + k + " is not a gif");
+                return false;
+            }
+            if (k == 0) {
+                concatenator.writeHeader(out, source.readHeader(info), info);
+                globalPalette = info.getGlobalPalette();
+            }
+            if (!concatenator.append(out, source, info, k > 0, globalPalette)) {
+                keyframes++;
+            }
+            source.close();
+        }
+        concatenator.pending.write(out, -1);
+        out.write(0x3b); // gif trailer
+        LOG.info("concat: " + inputs.size() + " inputs, canvas " + width + "x" + height + ", keyframes " + keyframes);
+        return true;
+    }
+
+    /**
+     * 文件头和逻辑屏幕尺寸，不是GIF时返回null
+     */
+    private static byte[] readScreen(GifSource source) throws IOException {
+        byte[] screen = new byte[10];
+        try {
+            new DataInputStream(source.open()).readFully(screen);
+        } catch (EOFException e) {
+            return null;
+        }
+        return screen[0] == 'G' && screen[1] == 'I' && screen[2] == 'F' ? screen : null;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+    }
+
+    /**
+     * 第一段的文件头，逻辑屏幕尺寸改为输出画布尺寸
+     */
+    private void writeHeader(OutputStream out, byte[] header, GifInfo info) throws IOException {
+        header[6] = (byte) width;
+        header[7] = (byte) (width >> 8);
+        header[8] = (byte) height;
+        header[9] = (byte) (height >> 8);
+        out.write(header);
+        if (info.getLoopCount() >= 0) {
+            GifBlocks.writeNetscapeExt(out, info.getLoopCount());
+        }
+    }
+
+    /**
+     * 写出上一段的最后一帧和本段除最后一帧外的各帧，各帧的块从第0帧开始按顺序读取
+     *
+     * @param boundary 是否与上一段相接(不是第一段)
+     * @return 本段第一帧被重新合成时返回false
+     */
+    private boolean append(OutputStream out, GifSource source, GifInfo info, boolean boundary, int[] globalPalette)
+            throws IOException {
+        int dx = (width - info.getWidth()) / 2;
+        int dy = (height - info.getHeight()) / 2;
+        // 使用的全局颜色表与输出的不同时，作为局部颜色表写入
+        byte[] table = info.hasGlobalPalette() && !Arrays.equals(info.getGlobalPalette(), globalPalette)
+                ? Arrays.copyOfRange(source.readHeader(info), 13, info.getHeaderLength()) : null;
+        GifInfo.Frame first = info.getFrame(0);
+        Pending head = null;
+        if (boundary) {
+            if (isFullCanvas(first, dx, dy) && !first.transparent && first.dispose != 3) {
+                pending.write(out, -1);
+            } else if (pending.coversCanvas()) {
+                pending.write(out, 2);
+            } else {
+                pending.write(out, -1);
+                head = recomposite(source, info, dx, dy);
+            }
+        }
+        // 每段的最后一帧留到下一段确定交界处理后再写
+        GifBlocks.Reader reader = new GifBlocks.Reader(source.open(first.getOffset()), first.getOffset());
+        int count = info.getFrameCount();
+        for (int i = 0; i < count; i++) {
+            Pending next;
+            if (i == 0 && head != null) {
+                next = head;
+            } else {
+                GifInfo.Frame frame = info.getFrame(i);
+                next = new Pending(reader.read(frame), frame, dx, dy, table);
+            }
+            if (i < count - 1) {
+                next.write(out, -1);
+            } else {
+                pending = next;
+            }
+        }
+        return head == null;
+    }
+
+    /**
+     * 帧移到输出画布中的位置后是否覆盖整个输出画布
+     */
+    private boolean isFullCanvas(GifInfo.Frame frame, int dx, int dy) {
+        return frame.x + dx == 0 && frame.y + dy == 0 && frame.width >= width && frame.height >= height;
+    }
+
+    /**
+     * 把第一帧按原画布单独合成后放到输出画布中，作为关键帧。
+     * 原处置方法为2或3时画在空白画布上的第一帧处置后画布为空，关键帧同样处置为2
+     */
+    private Pending recomposite(GifSource source, GifInfo info, int dx, int dy) throws IOException {
+        GifRaster frame = GifDecoder.extractFrame(source, info, 0, 0, 0);
+        GifRaster canvas = new GifRaster(width, height);
+        if (frame != null) {
+            for (int y = 0; y < frame.height; y++) {
+                System.arraycopy(frame.pixels, y * frame.width, canvas.pixels, (y + dy) * width + dx, frame.width);
+            }
+        }
+        GifInfo.Frame head = info.getFrame(0);
+        return new Pending(canvas, head.delay, head.dispose <= 1 ? 1 : 2);
+    }
+
+    /**
+     * 待写出的一帧：原样复制的帧，或重新合成的关键帧
+     */
+    private final class Pending {
+        final byte[] blocks; // 原样复制的帧的块
+        final GifInfo.Frame frame;
+        final int dx;
+        final int dy;
+        final byte[] table;
+        final GifRaster keyframe;
+        final int delay; // 关键帧延迟(毫秒)
+        final int dispose; // 关键帧处置方法
+
+        Pending(byte[] blocks, GifInfo.Frame frame, int dx, int dy, byte[] table) {
+            this.blocks = blocks;
+            this.frame = frame;
+            this.dx = dx;
+            this.dy = dy;
+            this.table = table;
+            keyframe = null;
+            delay = 0;
+            dispose = 0;
+        }
+
+        Pending(GifRaster keyframe, int delay, int dispose) {
+            this.keyframe = keyframe;
+            this.delay = delay;
+            this.dispose = dispose;
+            blocks = null;
+            frame = null;
+            dx = 0;
+            dy = 0;
+            table = null;
+        }
+
+        boolean coversCanvas() {
+            return keyframe != null || isFullCanvas(frame, dx, dy);
+        }
+
+        /**
+         * @param newDispose 改写的处置方法，-1保持原样
+         */
+        void write(OutputStream out, int newDispose) throws IOException {
+            if (keyframe != null) {
+                GifBlocks.writeKeyframe(out, keyframe, delay, newDispose >= 0 ? newDispose : dispose);
+            } else {
+                GifBlocks.writeFrame(out, blocks, frame, -1, newDispose, dx, dy, table);
+            }
+        }
+    }
+}
@@ -4,9 +4,11 @@ package com.ziguhonglan.testapp.giftool;
  * Created by jianglixuan on 2020/5/7.
  * Describe:
  */
-import android.graphics.Bitmap;
-
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Vector;
 
 public class GifDecoder {
@@ -14,6 +16,7 @@ public class GifDecoder {
     public static final int STATUS_OK = 0;//解码成功
     public static final int STATUS_FORMAT_ERROR = 1;//格式错误
     public static final int STATUS_OPEN_ERROR = 2;//打开图片失败
+    public static final int STATUS_ABORTED = 3;//解码被监听者中止
 
     protected int status;//解码状态
     protected InputStream in;
@@ -39,8 +42,15 @@ public class GifDecoder {
 
     protected int ix, iy, iw, ih; //当前帧图像的xy偏移量及宽高
     protected int lrx, lry, lrw, lrh;
-    protected Bitmap image; // current frame
-    protected Bitmap lastImage; // previous frame
+    protected GifRaster image; // current frame
+    protected GifRaster lastImage; // previous frame
+    protected int[] canvas; // 合成画布，逐帧复用，保存上一帧合成结果
+    protected GifRaster canvasRaster; // 包装canvas的帧，不复制帧时输出
+    protected int[] restoreCanvas; // dispose=3时需要恢复到的画布内容
+    protected boolean copyFrames = true; // 是否为每帧复制独立的像素，false时只输出复用的canvas
+    protected boolean[] skippedFrames; // 解码前确定丢弃的帧，只合成到画布
+    protected int startFrame = 0; // 之前的帧既不解码也不合成
+    protected int sampleSize = 1; // 画布按取点缩小的倍数
     protected int frameindex = 0;
 
     public int getFrameindex() {
@@ -76,6 +86,9 @@ public class GifDecoder {
 
     protected Vector<GifFrame> frames;// 存放各帧对象的数组
     protected int frameCount;//帧数
+    protected IGifFrameListener frameListener;//逐帧回调，设置后不再保留各帧
+    protected MetricsRecorder metrics;//阶段统计，可为null
+    protected int frameDataBytes;//当前帧已读取的图像数据字节数
 
     // to get its Width / Height
     public int getWidth() {
@@ -105,7 +118,7 @@ public class GifDecoder {
         return frameCount;
     }
 
-    public Bitmap getImage() {
+    public GifRaster getImage() {
         return getFrame(0);
     }
 
@@ -113,38 +126,206 @@ public class GifDecoder {
         return loopCount;
     }
 
+    /**
+     * 设置是否为每帧复制独立的像素。关闭后各帧只合成到复用的int[]画布，
+     * 通过{@link IGifFrameListener}拿到的{@link GifFrame#image}仅在回调期间有效，
+     * 适合逐帧处理、内存受限的场景
+     */
+    public void setCopyFrames(boolean copyFrames) {
+        this.copyFrames = copyFrames;
+    }
+
+    /**
+     * 设置解码前已确定丢弃的帧(按帧序号)。这些帧仍合成到画布(后续帧依赖它)，
+     * 但不复制像素、不回调{@link IGifFrameListener}。只在逐帧回调的解码中生效
+     */
+    public void setSkippedFrames(boolean[] skippedFrames) {
+        this.skippedFrames = skippedFrames;
+    }
+
+    /**
+     * 从第start帧开始解码：之前的帧跳过图像数据，不做LZW解码也不合成，该帧必须是独立帧，
+     * 见{@link GifInfo#findIndependentFrame(int)}。帧序号不变，只在逐帧回调的解码中生效
+     */
+    public void setStartFrame(int start) {
+        this.startFrame = Math.max(0, start);
+    }
+
+    /**
+     * 画布按整数倍取点缩小：每帧只合成落在采样点上的像素，输出的帧为缩小后的尺寸，
+     * 结果与先按原尺寸合成再取点缩小相同。LZW解码仍按原尺寸进行，{@link #getWidth()}仍为原尺寸
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = Math.max(1, sampleSize);
+    }
+
+    /**
+     * 只解码一帧，用于列表封面和缩略图。index为0时读到第0帧即停止；否则先扫描块结构到index为止，
+     * 找到index之前最近的独立帧，回到起点后跳过更早的帧，从独立帧开始合成到index即停止，之后的数据不再读取。
+     * 输入为FileInputStream时按文件位置回退和跳过，其余的流回退时读过的数据留在缓冲中。
+     * 需要缩小时画布直接按取点缩小合成，最后再块平均缩小到长边不超过maxSize
+     *
+     * @param in      GIF输入流，返回前关闭
+     * @param index   帧序号
+     * @param maxSize 长边上限，0表示原尺寸
+     * @return 解码失败或index超出帧数时返回null
+     */
+    public static GifRaster extractFrame(InputStream in, int index, int maxSize) {
+        if (in == null || index < 0) {
+            return null;
+        }
+        GifSource source = null;
+        try {
+            if (index > 0) {
+                source = GifSource.of(in);
+                GifInfo info = GifInfo.read(source.open(), index + 1);
+                if (info != null) {
+                    if (index >= info.getFrameCount()) {
+                        return null;
+                    }
+                    return extractFrame(source, info, info.findIndependentFrame(index), index, maxSize);
+                }
+                // 块结构不完整，由解码器从头读取
+                in = source.open();
+            } else if (!(in instanceof BufferedInputStream) && !(in instanceof ByteArrayInputStream)) {
+                in = new BufferedInputStream(in);
+            }
+            return extractFrame(in, index, readLongSide(in), maxSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 已扫描出块结构时解码一帧：文件头之后直接从独立帧start开始合成到index，更早的帧不再读取
+     *
+     * @param info  至少包含到index的块结构
+     * @param start index之前最近的独立帧，见{@link GifInfo#findIndependentFrame}
+     */
+    static GifRaster extractFrame(GifSource source, GifInfo info, int start, int index, int maxSize)
+            throws IOException {
+        return extractFrame(source.openFrom(info, start), index - start, Math.max(info.getWidth(), info.getHeight()),
+                maxSize);
+    }
+
+    /**
+     * 解码前读出画布的长边，in回到原位置
+     */
+    private static int readLongSide(InputStream in) throws IOException {
+        in.mark(10);
+        byte[] header = new byte[10];
+        int n = 0;
+        int count;
+        while (n < header.length && (count = in.read(header, n, header.length - n)) > 0) {
+            n += count;
+        }
+        in.reset();
+        return Math.max((header[6] & 0xff) | (header[7] & 0xff) << 8, (header[8] & 0xff) | (header[9] & 0xff) << 8);
+    }
+
+    /**
+     * 从in的第0帧开始合成到第index帧
+     */
+    private static GifRaster extractFrame(InputStream in, int index, int longSide, int maxSize) {
+        // 确定缩小倍数：先取点缩小一半，再块平均缩小剩下的倍数
+        int size = 1;
+        if (maxSize > 0 && longSide > maxSize) {
+            size = (longSide + maxSize - 1) / maxSize;
+        }
+        int pointSize = size / 2;
+        while (pointSize > 1 && size % pointSize != 0) {
+            pointSize--;
+        }
+        pointSize = Math.max(1, pointSize);
+        final int boxSize = size / pointSize;
+        final int wanted = index;
+        final GifRaster[] result = new GifRaster[1];
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        decoder.setSampleSize(pointSize);
+        boolean[] skipped = new boolean[index];
+        Arrays.fill(skipped, true);
+        decoder.setSkippedFrames(skipped);
+        decoder.read(in, new IGifFrameListener() {
+            @Override
+            public boolean onFrameDecoded(int i, GifFrame frame) {
+                if (i != wanted) {
+                    return true;
+                }
+                result[0] = boxSize > 1 ? frame.image.downsample(boxSize) : frame.image.copy();
+                return false;
+            }
+        });
+        return result[0];
+    }
+
+    protected boolean isSkipped(int index) {
+        return frameListener != null && skippedFrames != null && index < skippedFrames.length && skippedFrames[index];
+    }
+
     protected void setPixels() {
-        int[] dest = new int[width * height];
+        int s = sampleSize;
+        int cw = Math.max(1, width / s); // 画布尺寸，不缩小时即GIF尺寸
+        int ch = Math.max(1, height / s);
+        int npix = cw * ch;
+        if ((canvas == null) || (canvas.length < npix)) {
+            canvas = new int[npix];
+            canvasRaster = new GifRaster(canvas, cw, ch);
+            lastDispose = 0;
+        }
+        int[] dest = canvas;
         // fill in starting image contents based on last image's dispose code
-        if (lastDispose > 0) {
-            if (lastDispose == 3) {
-                // use image before last
-                int n = frameCount - 2;
-                if (n > 0) {
-                    lastImage = getFrame(n - 1);
-                } else {
-                    lastImage = null;
-                }
+        if (lastDispose == 0) {
+            Arrays.fill(dest, 0, npix, 0);
+        } else if (lastDispose == 3) {
+            // restore to the contents before last frame was drawn
+            if (restoreCanvas != null) {
+                System.arraycopy(restoreCanvas, 0, dest, 0, npix);
+            } else {
+                Arrays.fill(dest, 0, npix, 0);
             }
-            if (lastImage != null) {
-                lastImage.getPixels(dest, 0, width, 0, 0, width, height);
-                // copy pixels
-                if (lastDispose == 2) {
-                    // fill last image rect area with background color
-                    int c = 0;
-                    if (!transparency) {
-                        c = lastBgColor;
+        } else if (lastDispose == 2) {
+            // fill last image rect area with background color
+            int c = 0;
+            if (!transparency) {
+                c = lastBgColor;
+            }
+            if (s == 1) {
+                for (int i = 0; i < lrh; i++) {
+                    int n1 = (lry + i) * width + lrx;
+                    int n2 = n1 + lrw;
+                    for (int k = n1; k < n2; k++) {
+                        dest[k] = c;
                     }
-                    for (int i = 0; i < lrh; i++) {
-                        int n1 = (lry + i) * width + lrx;
-                        int n2 = n1 + lrw;
-                        for (int k = n1; k < n2; k++) {
-                            dest[k] = c;
-                        }
+                }
+            } else {
+                // 落在上一帧区域内的采样点
+                int x1 = Math.min(cw, (lrx + lrw + s - 1) / s);
+                int y1 = Math.min(ch, (lry + lrh + s - 1) / s);
+                for (int y = (lry + s - 1) / s; y < y1; y++) {
+                    for (int x = (lrx + s - 1) / s; x < x1; x++) {
+                        dest[y * cw + x] = c;
                     }
                 }
             }
         }
+        // lastDispose == 1: leave in place, canvas already holds last frame
+        if (dispose == 3) {
+            // keep current contents for the next frame to restore
+            if ((restoreCanvas == null) || (restoreCanvas.length < npix)) {
+                restoreCanvas = new int[npix];
+            }
+            System.arraycopy(dest, 0, restoreCanvas, 0, npix);
+        }
 
         // copy each source line to the appropriate place in the destination
         int pass = 1;
@@ -172,7 +353,11 @@ public class GifDecoder {
                 iline += inc;
             }
             line += iy;
-            if (line < height) {
+            if (s > 1) {
+                if (line % s == 0 && line / s < ch) {
+                    setSampledLine(dest, i, line / s, cw);
+                }
+            } else if (line < height) {
                 int k = line * width;
                 int dx = k + ix; // start of line in dest
                 int dlim = dx + iw; // end of dest line
@@ -191,11 +376,27 @@ public class GifDecoder {
                 }
             }
         }
-        image = Bitmap.createBitmap(dest, width, height, Bitmap.Config.RGB_565);
+        image = copyFrames && !isSkipped(frameCount - 1) ? canvasRaster.copy() : canvasRaster;
     }
 
-    public Bitmap getFrame(int n) {
-        Bitmap im = null;
+    /**
+     * 把当前帧第i行中落在采样点上的像素合成到缩小画布的第row行
+     */
+    private void setSampledLine(int[] dest, int i, int row, int cw) {
+        int s = sampleSize;
+        int x1 = Math.min(cw, (ix + iw + s - 1) / s);
+        int k = row * cw;
+        int sx = i * iw - ix;
+        for (int x = (ix + s - 1) / s; x < x1; x++) {
+            int c = act[((int) pixels[sx + x * s]) & 0xff];
+            if (c != 0) {
+                dest[k + x] = c;
+            }
+        }
+    }
+
+    public GifRaster getFrame(int n) {
+        GifRaster im = null;
         if ((n >= 0) && (n < frameCount)) {
             im = ((GifFrame) frames.elementAt(n)).image;
         }
@@ -208,7 +409,7 @@ public class GifDecoder {
         return null;
     }
 
-    public Bitmap nextBitmap() {
+    public GifRaster nextImage() {
         frameindex++;
         if (frameindex > frames.size() - 1) {
             frameindex = 0;
@@ -226,7 +427,26 @@ public class GifDecoder {
      * @return
      */
     public int read(InputStream is) {
+        return read(is, null);
+    }
+
+    /**
+     * 设置阶段统计，每帧的LZW解码和画布合成耗时按帧上报，recorder为null时不计时
+     */
+    void setMetrics(MetricsRecorder recorder) {
+        metrics = recorder;
+    }
+
+    /**
+     * 边解码边回调的读取入口，每合成一帧即交给listener处理，解码器自身不再保留帧，
+     * 后续阶段可与解码重叠执行。listener返回false时停止解码并返回{@link #STATUS_ABORTED}
+     * @param is GIF输入流
+     * @param listener 逐帧回调，为null时与{@link #read(InputStream)}一致
+     * @return 解码状态
+     */
+    public int read(InputStream is, IGifFrameListener listener) {
         init();
+        frameListener = listener;
         if (is != null) {
             in = is;
             readHeader();
@@ -239,6 +459,7 @@ public class GifDecoder {
         } else {
             status = STATUS_OPEN_ERROR;
         }
+        frameListener = null;
         try {
             if (is != null) {
                 is.close();
@@ -378,6 +599,11 @@ public class GifDecoder {
         frames = new Vector<GifFrame>();
         gct = null;
         lct = null;
+        lastImage = null;
+        canvas = null;
+        canvasRaster = null;
+        restoreCanvas = null;
+        lastDispose = 0;
     }
 
     /**
@@ -414,6 +640,7 @@ public class GifDecoder {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            frameDataBytes += n;
             if (n < blockSize) {
                 status = STATUS_FORMAT_ERROR;
             }
@@ -550,6 +777,8 @@ public class GifDecoder {
      * 基于颜色列表的图象数据(Table-Based Image Data)
      */
     protected void readImage() {
+        long start = metrics != null ? System.nanoTime() : 0;
+        frameDataBytes = 0;
         /**
          * 开始读取图象标识符(Image Descriptor)
          */
@@ -565,6 +794,11 @@ public class GifDecoder {
         // 4-5 - reserved
         lctSize = 2 << (packed & 7);//局部颜色列表大小(Size of Local Color Table)
 
+        if (frameListener != null && frameCount < startFrame) {
+            skipImage();
+            return;
+        }
+
         /**
          * 开始读取局部颜色列表(Local Color Table)
          */
@@ -598,14 +832,26 @@ public class GifDecoder {
             return;
         }
         frameCount++;
-        image = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-        setPixels(); //将像素数据转换为图像Bitmap
-        frames.addElement(new GifFrame(image, delay));//添加到帧图集合
+        setPixels(); //将像素数据合成到画布
+        GifFrame frame = new GifFrame(image, delay);
+        if (metrics != null) {
+            // 不含listener中的编码和背压等待
+            metrics.record(frameCount - 1, CompressionMetrics.STAGE_DECODE, System.nanoTime() - start, frameDataBytes);
+        }
+        boolean proceed = true;
+        if (frameListener == null) {
+            frames.addElement(frame);//添加到帧图集合
+        } else if (!isSkipped(frameCount - 1)) {
+            proceed = frameListener.onFrameDecoded(frameCount - 1, frame);
+        }
         // list
         if (transparency) {
             act[transIndex] = save;//重置回原来的颜色
         }
         resetFrame();
+        if (!proceed) {
+            status = STATUS_ABORTED;
+        }
     }
 
     /**
@@ -651,6 +897,27 @@ public class GifDecoder {
         return read() | (read() << 8);
     }
 
+    /**
+     * 跳过起始帧之前的一帧：读过颜色列表和图像数据，不解码、不合成，只保留后续帧用到的状态
+     */
+    protected void skipImage() {
+        if (lctFlag) {
+            readColorTable(lctSize);
+        } else if (bgIndex == transIndex) {
+            bgColor = 0; // 与readImage一致
+        }
+        read(); // LZW最小码长
+        skip();
+        if (err()) {
+            return;
+        }
+        frameCount++;
+        dispose = 0;
+        transparency = false;
+        delay = 0;
+        lct = null;
+    }
+
     protected void resetFrame() {
         lastDispose = dispose;
         lrx = ix;
@@ -1,7 +1,5 @@
 package com.ziguhonglan.testapp.giftool;
 
-import android.graphics.Bitmap;
-
 /**
  * Created by jianglixuan on 2020/5/7.
  * Describe:  各帧静态图对象
@@ -9,10 +7,10 @@ import android.graphics.Bitmap;
  *
  */
 public class GifFrame {
-    public Bitmap image;//静态图Bitmap
+    public GifRaster image;//静态图像素，关闭解码器的帧复制时是解码器复用的画布
     public int delay;//图像延迟时间
 
-    public GifFrame(Bitmap im, int del) {
+    public GifFrame(GifRaster im, int del) {
         image = im;
         delay = del;
     }
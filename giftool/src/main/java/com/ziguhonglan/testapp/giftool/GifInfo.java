@@ -0,0 +1,402 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * 只按块结构读取的GIF信息：画布尺寸、循环次数和每帧的延迟、位置、处置方法等。
+ * 图像数据的子块直接跳过，不做LZW解码，耗时只与文件中的块数有关。
+ * 同时记录各帧的块在输入中的偏移，截取、拼接等操作可以直接复制这些字节
+ */
+public final class GifInfo {
+
+    // 与浏览器一致，小于该值的延迟按100ms播放
+    private static final int MIN_DELAY_MS = 20;
+    private static final int DEFAULT_DELAY_MS = 100;
+
+    /**
+     * 帧的块级信息
+     */
+    public static final class Frame {
+        public final int delay; // 延迟(毫秒)
+        public final int dispose; // 处置方法
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+        public final boolean localPalette; // 是否有局部颜色表
+        public final int paletteBytes; // 局部颜色表的字节数，没有时为0
+        public final boolean interlaced;
+        public final boolean transparent; // 图形控制扩展中是否设置了透明色
+        public final long controlOffset; // 图形控制扩展(0x21 0xF9)的偏移，没有时为-1
+        public final long descriptorOffset; // 图像标识符(0x2C)的偏移
+        public final long end; // 图像数据结束(含长度为0的子块)后的偏移
+
+        Frame(int delay, int dispose, int x, int y, int width, int height, boolean localPalette, int paletteBytes,
+              boolean interlaced, boolean transparent, long controlOffset, long descriptorOffset, long end) {
+            this.delay = delay;
+            this.dispose = dispose;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.localPalette = localPalette;
+            this.paletteBytes = paletteBytes;
+            this.interlaced = interlaced;
+            this.transparent = transparent;
+            this.controlOffset = controlOffset;
+            this.descriptorOffset = descriptorOffset;
+            this.end = end;
+        }
+
+        /**
+         * 该帧的块的起始偏移：有图形控制扩展时从它开始，否则从图像标识符开始
+         */
+        public long getOffset() {
+            return controlOffset >= 0 ? controlOffset : descriptorOffset;
+        }
+
+        /**
+         * 图像数据(LZW最小码长)的偏移，在图像标识符和局部颜色表之后
+         */
+        public long getDataOffset() {
+            return descriptorOffset + 10 + paletteBytes;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] globalPalette; // 全局颜色表(RGB)，没有时为null
+    private final int loopCount;
+    private final Frame[] frames;
+    private final int headerLength; // 文件头、逻辑屏幕标识符和全局颜色表的字节数
+    private final long endOffset; // 结束标志的偏移
+
+    private GifInfo(int width, int height, int[] globalPalette, int loopCount, Frame[] frames, long endOffset) {
+        this.width = width;
+        this.height = height;
+        this.globalPalette = globalPalette;
+        this.loopCount = loopCount;
+        this.frames = frames;
+        headerLength = 13 + (globalPalette != null ? globalPalette.length * 3 : 0);
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * 读取块结构，in读到结束标志或末尾为止，不会被关闭。帧的偏移从in的当前位置算起
+     *
+     * @return 不是GIF或结构不完整时返回null
+     */
+    public static GifInfo read(InputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * 读取可能在写入中途中断的文件(进程退出等)：末尾不完整的块及之后的数据视为不存在，
+     * 返回已完整的帧，{@link #getEndOffset()}为第一个不完整的块的偏移。
+     * 文件头、逻辑屏幕标识符或全局颜色表不完整时仍返回null
+     */
+    static GifInfo readRecoverable(InputStream in) throws IOException {
+        return read(in, true);
+    }
+
+    /**
+     * 只读取前count帧：第count帧的图像数据读完即停止，之后的数据不再读取(in的缓冲预读的部分除外)。
+     * 帧数不足count时与{@link #read(InputStream)}相同；读满时{@link #getEndOffset()}为最后一帧之后的偏移
+     */
+    static GifInfo read(InputStream in, int count) throws IOException {
+        return read(in, false, count, Long.MAX_VALUE);
+    }
+
+    /**
+     * 读到按播放延迟累计的时长达到durationMs的那一帧为止，之后的数据不再读取(in的缓冲预读的部分除外)。
+     * 总时长不足durationMs时与{@link #read(InputStream)}相同
+     */
+    static GifInfo readUntil(InputStream in, long durationMs) throws IOException {
+        return read(in, false, Integer.MAX_VALUE, durationMs);
+    }
+
+    private static GifInfo read(InputStream in, boolean recover) throws IOException {
+        return read(in, recover, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    private static GifInfo read(InputStream in, boolean recover, int count, long durationMs) throws IOException {
+        if (!(in instanceof BufferedInputStream)) {
+            in = new BufferedInputStream(in);
+        }
+        CountingInputStream counting = new CountingInputStream(in);
+        in = counting;
+        byte[] header = new byte[13];
+        if (!readFully(in, header) || header[0] != 'G' || header[1] != 'I' || header[2] != 'F') {
+            return null;
+        }
+        int width = (header[6] & 0xff) | (header[7] & 0xff) << 8;
+        int height = (header[8] & 0xff) | (header[9] & 0xff) << 8;
+        int packed = header[10] & 0xff;
+        int[] globalPalette = null;
+        if ((packed & 0x80) != 0) {
+            // 全局颜色表最多768字节，读出供压缩计划判断调色板布局
+            byte[] table = new byte[3 * (2 << (packed & 7))];
+            if (!readFully(in, table)) {
+                return null;
+            }
+            globalPalette = new int[table.length / 3];
+            for (int i = 0; i < globalPalette.length; i++) {
+                globalPalette[i] = (table[i * 3] & 0xff) << 16 | (table[i * 3 + 1] & 0xff) << 8 | (table[i * 3 + 2] & 0xff);
+            }
+        }
+        int loopCount = -1; // 没有NETSCAPE扩展时只播放一次
+        int delay = 0;
+        int dispose = 0;
+        boolean transparent = false;
+        long controlOffset = -1;
+        ArrayList<Frame> frames = new ArrayList<>();
+        long duration = 0;
+        long offset = 0;
+        scan:
+        while (true) {
+            offset = counting.getCount();
+            int code = in.read();
+            switch (code) {
+                case 0x2C: // 图像标识符
+                    byte[] desc = new byte[9];
+                    if (!readFully(in, desc)) {
+                        break scan;
+                    }
+                    int flags = desc[8] & 0xff;
+                    boolean localPalette = (flags & 0x80) != 0;
+                    int paletteBytes = localPalette ? 3 * (2 << (flags & 7)) : 0;
+                    if (!skipFully(in, paletteBytes)) {
+                        break scan;
+                    }
+                    // LZW最小码长 + 图像数据子块
+                    if (in.read() < 0 || !skipSubBlocks(in)) {
+                        break scan;
+                    }
+                    frames.add(new Frame(delay, dispose,
+                            readShort(desc, 0), readShort(desc, 2), readShort(desc, 4), readShort(desc, 6),
+                            localPalette, paletteBytes, (flags & 0x40) != 0, transparent,
+                            controlOffset, offset, counting.getCount()));
+                    duration += playbackDelay(delay);
+                    if (frames.size() >= count || duration >= durationMs) {
+                        return new GifInfo(width, height, globalPalette, loopCount, frames.toArray(new Frame[0]),
+                                counting.getCount());
+                    }
+                    delay = 0;
+                    dispose = 0;
+                    transparent = false;
+                    controlOffset = -1;
+                    break;
+                case 0x21: // 扩展块
+                    int label = in.read();
+                    if (label == 0xF9) { // 图形控制扩展
+                        byte[] gce = new byte[6];
+                        if (!readFully(in, gce)) {
+                            break scan;
+                        }
+                        dispose = (gce[1] & 0x1c) >> 2;
+                        delay = readShort(gce, 2) * 10;
+                        transparent = (gce[1] & 1) != 0;
+                        controlOffset = offset;
+                        if (gce[5] != 0 && !skipSubBlocks(in)) {
+                            break scan;
+                        }
+                    } else if (label == 0xFF) { // 应用程序扩展
+                        int size = in.read();
+                        byte[] app = new byte[Math.max(0, size)];
+                        if (size < 0 || !readFully(in, app)) {
+                            break scan;
+                        }
+                        if (new String(app, "ISO-8859-1").equals("NETSCAPE2.0")) {
+                            int subSize = in.read();
+                            if (subSize < 0) {
+                                break scan;
+                            }
+                            if (subSize > 0) {
+                                byte[] sub = new byte[subSize];
+                                if (!readFully(in, sub)) {
+                                    break scan;
+                                }
+                                if (subSize >= 3 && sub[0] == 1) {
+                                    loopCount = readShort(sub, 1);
+                                }
+                                if (!skipSubBlocks(in)) {
+                                    break scan;
+                                }
+                            }
+                        } else if (!skipSubBlocks(in)) {
+                            break scan;
+                        }
+                    } else if (label < 0 || !skipSubBlocks(in)) {
+                        break scan;
+                    }
+                    break;
+                case 0x3B: // 结束标志
+                    return new GifInfo(width, height, globalPalette, loopCount, frames.toArray(new Frame[0]), offset);
+                case 0x00: // 与GifDecoder一致，忽略块之间的坏字节
+                    break;
+                default:
+                    // 缺少结束标志但已有完整的帧时，按GifDecoder的处理视为正常结束
+                    if (code < 0 && !frames.isEmpty() && !recover) {
+                        return new GifInfo(width, height, globalPalette, loopCount, frames.toArray(new Frame[0]), offset);
+                    }
+                    break scan;
+            }
+        }
+        if (!recover) {
+            return null;
+        }
+        // 从offset开始的块不完整或无法识别，恢复时丢弃，未完成的帧的图形控制扩展一并丢弃
+        long end = controlOffset >= 0 ? controlOffset : offset;
+        return new GifInfo(width, height, globalPalette, loopCount, frames.toArray(new Frame[0]), end);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean hasGlobalPalette() {
+        return globalPalette != null;
+    }
+
+    /**
+     * 全局颜色表(RGB)，按头部声明的大小包括末尾未使用的项，没有时返回null
+     */
+    public int[] getGlobalPalette() {
+        return globalPalette != null ? globalPalette.clone() : null;
+    }
+
+    /**
+     * NETSCAPE扩展中的循环次数，0表示无限循环，-1表示没有该扩展(只播放一次)
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public Frame getFrame(int index) {
+        return frames[index];
+    }
+
+    /**
+     * 文件头、逻辑屏幕标识符和全局颜色表的总字节数，之后是扩展块和各帧
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * 结束标志(0x3B)的偏移，即最后一个块之后的位置。缺少结束标志时为文件末尾，提前停止读取时为最后一帧之后
+     */
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * index及之前最近的独立帧：合成结果不依赖更早的帧，从它开始解码即可得到之后各帧的正确画面。
+     * 第0帧总是独立的；此外满足以下之一的帧也是独立的：
+     * <ul>
+     * <li>覆盖整个画布、没有透明色且处置方法不是3(恢复到之前，需要之前的画布内容)</li>
+     * <li>上一帧覆盖整个画布且处置方法为2(恢复到背景)，本帧有透明色，此时画布先被清为透明</li>
+     * </ul>
+     */
+    public int findIndependentFrame(int index) {
+        for (int i = Math.min(index, frames.length - 1); i > 0; i--) {
+            Frame frame = frames[i];
+            boolean fullCanvas = frame.x == 0 && frame.y == 0 && frame.width >= width && frame.height >= height;
+            if (fullCanvas && !frame.transparent && frame.dispose != 3) {
+                return i;
+            }
+            Frame previous = frames[i - 1];
+            if (previous.dispose == 2 && frame.transparent && previous.x == 0 && previous.y == 0
+                    && previous.width >= width && previous.height >= height) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 按播放时的实际延迟计算的总时长(毫秒)
+     */
+    public long getDurationMs() {
+        long duration = 0;
+        for (Frame frame : frames) {
+            duration += playbackDelay(frame.delay);
+        }
+        return duration;
+    }
+
+    /**
+     * 平均帧率
+     */
+    public float getFps() {
+        long duration = getDurationMs();
+        return duration > 0 ? frames.length * 1000f / duration : 0f;
+    }
+
+    /**
+     * 播放器实际使用的延迟：小于20ms的延迟按100ms播放
+     */
+    public static int playbackDelay(int delayMs) {
+        return delayMs < MIN_DELAY_MS ? DEFAULT_DELAY_MS : delayMs;
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+    }
+
+    private static boolean readFully(InputStream in, byte[] b) throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            int count = in.read(b, n, b.length - n);
+            if (count == -1) {
+                return false;
+            }
+            n += count;
+        }
+        return true;
+    }
+
+    private static boolean skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                // skip不保证推进，退回逐字节读取以区分文件末尾
+                if (in.read() < 0) {
+                    return false;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+        return true;
+    }
+
+    /**
+     * 跳过以长度为0的子块结束的子块序列
+     */
+    private static boolean skipSubBlocks(InputStream in) throws IOException {
+        while (true) {
+            int size = in.read();
+            if (size < 0) {
+                return false;
+            }
+            if (size == 0) {
+                return true;
+            }
+            if (!skipFully(in, size)) {
+                return false;
+            }
+        }
+    }
+}
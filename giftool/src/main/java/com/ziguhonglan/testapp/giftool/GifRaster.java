@@ -0,0 +1,140 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.Arrays;
+
+/**
+ * 不依赖Bitmap的帧像素，按行存放的ARGB int[]，宽度即行跨度。
+ * 编解码只读写pixels数组，Android端在边界处与Bitmap互转。
+ */
+public class GifRaster {
+
+    public final int width;
+    public final int height;
+    public final int[] pixels; // ARGB，长度至少为width * height
+
+    public GifRaster(int width, int height) {
+        this(new int[width * height], width, height);
+    }
+
+    public GifRaster(int[] pixels, int width, int height) {
+        if (width < 1 || height < 1 || pixels == null || pixels.length < width * height) {
+            throw new IllegalArgumentException("Invalid raster " + width + "x" + height);
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 复制一份独立的像素
+     */
+    public GifRaster copy() {
+        return new GifRaster(Arrays.copyOf(pixels, width * height), width, height);
+    }
+
+    /**
+     * 按整数倍块平均缩小
+     *
+     * @param sampleSize 缩小倍数，小于等于1时返回自身
+     */
+    public GifRaster downsample(int sampleSize) {
+        if (sampleSize <= 1) {
+            return this;
+        }
+        GifRaster dst = new GifRaster(Math.max(1, width / sampleSize), Math.max(1, height / sampleSize));
+        downsample(pixels, width, height, sampleSize, dst.pixels, dst.width, dst.height);
+        return dst;
+    }
+
+    /**
+     * 按整数倍取点缩小，每块取左上角的像素，不产生新的颜色
+     *
+     * @param sampleSize 缩小倍数，小于等于1时返回自身
+     */
+    public GifRaster downsampleNearest(int sampleSize) {
+        if (sampleSize <= 1) {
+            return this;
+        }
+        GifRaster dst = new GifRaster(Math.max(1, width / sampleSize), Math.max(1, height / sampleSize));
+        downsampleNearest(pixels, width, sampleSize, dst.pixels, dst.width, dst.height);
+        return dst;
+    }
+
+    /**
+     * 将图像放到w * h的画布左上角，超出部分裁掉，不足部分透明。尺寸相同时返回自身
+     */
+    public GifRaster resizeCanvas(int w, int h) {
+        if (w == width && h == height) {
+            return this;
+        }
+        GifRaster dst = new GifRaster(w, h);
+        int cw = Math.min(w, width);
+        int ch = Math.min(h, height);
+        for (int y = 0; y < ch; y++) {
+            System.arraycopy(pixels, y * width, dst.pixels, y * w, cw);
+        }
+        return dst;
+    }
+
+    /**
+     * 复制从(x, y)开始的w * h区域，超出画布的部分裁掉
+     */
+    public GifRaster crop(int x, int y, int w, int h) {
+        int cw = Math.max(1, Math.min(w, width - x));
+        int ch = Math.max(1, Math.min(h, height - y));
+        GifRaster dst = new GifRaster(cw, ch);
+        for (int row = 0; row < ch; row++) {
+            System.arraycopy(pixels, (y + row) * width + x, dst.pixels, row * cw, cw);
+        }
+        return dst;
+    }
+
+    /**
+     * 块平均缩小，dst的每个像素是src中sampleSize * sampleSize个像素各通道的平均值
+     *
+     * @param src        源像素，行跨度为srcWidth
+     * @param srcWidth   源宽度
+     * @param srcHeight  源高度
+     * @param sampleSize 缩小倍数
+     * @param dst        目标像素，行跨度为dstWidth
+     * @param dstWidth   目标宽度，不超过srcWidth / sampleSize(至少为1)
+     * @param dstHeight  目标高度，不超过srcHeight / sampleSize(至少为1)
+     */
+    public static void downsample(int[] src, int srcWidth, int srcHeight, int sampleSize,
+                                  int[] dst, int dstWidth, int dstHeight) {
+        // 源图小于缩小倍数时只对实际存在的像素取平均
+        int bw = Math.min(sampleSize, srcWidth);
+        int bh = Math.min(sampleSize, srcHeight);
+        int area = bw * bh;
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                int a = 0, r = 0, g = 0, b = 0;
+                int row = y * sampleSize * srcWidth + x * sampleSize;
+                for (int dy = 0; dy < bh; dy++) {
+                    int k = row + dy * srcWidth;
+                    for (int dx = 0; dx < bw; dx++) {
+                        int c = src[k + dx];
+                        a += c >>> 24;
+                        r += (c >> 16) & 0xff;
+                        g += (c >> 8) & 0xff;
+                        b += c & 0xff;
+                    }
+                }
+                dst[y * dstWidth + x] = ((a / area) << 24) | ((r / area) << 16) | ((g / area) << 8) | (b / area);
+            }
+        }
+    }
+
+    /**
+     * 取点缩小，dst的每个像素是src中对应块左上角的像素，参数见{@link #downsample(int[], int, int, int, int[], int, int)}
+     */
+    public static void downsampleNearest(int[] src, int srcWidth, int sampleSize, int[] dst, int dstWidth, int dstHeight) {
+        for (int y = 0; y < dstHeight; y++) {
+            int row = y * sampleSize * srcWidth;
+            int k = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                dst[k + x] = src[row + x * sampleSize];
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.OutputStream;
+
+/**
+ * 多路输出中的一路：输出流和该路的压缩参数，见{@link GifCompressor#compressRenditions}
+ */
+public final class GifRendition {
+
+    private final OutputStream out;
+    private final GifCompressOptions options;
+
+    /**
+     * @param options 压缩参数，为null时使用默认参数
+     */
+    public GifRendition(OutputStream out, GifCompressOptions options) {
+        if (out == null) {
+            throw new IllegalArgumentException("OutputStream must be not null.");
+        }
+        this.out = out;
+        this.options = options != null ? options : new GifCompressOptions();
+    }
+
+    /**
+     * 按常用限制创建，其余为默认参数，可通过{@link #getOptions()}继续修改
+     *
+     * @param maxSize  输出长边上限，0表示不限制
+     * @param maxFps   帧率上限，0表示不限制
+     * @param maxBytes 输出大小上限，0表示不限制
+     */
+    public GifRendition(OutputStream out, int maxSize, float maxFps, long maxBytes) {
+        this(out, new GifCompressOptions().setMaxWidth(maxSize).setMaxHeight(maxSize).setMaxFps(maxFps)
+                .setMaxBytes(maxBytes));
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    public GifCompressOptions getOptions() {
+        return options;
+    }
+}
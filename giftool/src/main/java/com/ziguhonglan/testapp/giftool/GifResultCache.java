@@ -0,0 +1,364 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * 按内容寻址的压缩结果磁盘缓存。
+ * <p>
+ * 键为输入字节与影响输出的压缩参数的SHA-1，输入在读入内存时同时计算摘要，不额外读一遍。
+ * 结果以"键.gif"保存在缓存目录，内存中按访问顺序维护索引，总大小超过上限时淘汰最久未使用的文件。
+ * 结果总是在持有锁时打开并登记读取者，正在读取的结果不会被淘汰，关闭后再按上限淘汰。
+ * 同一个键同时只有一个压缩在进行，其余请求等待它的结果。输出与耗时有关或参数无法区分的请求不缓存，见{@link #isCacheable}
+ */
+public class GifResultCache {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+    private static final String SUFFIX = ".gif";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long WAIT_POLL_MILLIS = 50;
+
+    private final File dir;
+    private final long maxBytes;
+    // 键 -> 文件大小，按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, InFlight> inFlight = new HashMap<>();
+    // 键 -> 未关闭的结果流个数
+    private final HashMap<String, Integer> readers = new HashMap<>();
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param dir      缓存目录，不存在时创建，目录中已有的结果按修改时间恢复访问顺序
+     * @param maxBytes 缓存文件总大小上限
+     */
+    public GifResultCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + dir);
+        }
+        this.dir = dir;
+        this.maxBytes = Math.max(0, maxBytes);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                //上次进程退出时未完成的结果
+                file.delete();
+            } else if (name.endsWith(SUFFIX) && file.isFile()) {
+                index.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                totalBytes += file.length();
+            }
+        }
+        synchronized (this) {
+            trimToSize();
+        }
+    }
+
+    /**
+     * 压缩并把结果写入out，命中缓存时直接复制缓存文件。参数不可缓存时(见{@link #isCacheable})直接压缩，
+     * 不查找也不写入缓存。in和out都会被关闭
+     *
+     * @return 成功返回true
+     */
+    public boolean compress(InputStream in, OutputStream out, GifCompressOptions options,
+                            GifCompressHandle handle) throws IOException {
+        if (options != null && !isCacheable(options)) {
+            return GifCompressor.compress(in, out, options, handle);
+        }
+        try {
+            InputStream cached = open(in, options, handle);
+            if (cached == null) {
+                return false;
+            }
+            try {
+                Utils.copyStream(cached, out);
+            } finally {
+                cached.close();
+            }
+            out.flush();
+            return true;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 压缩并打开缓存中的结果，命中缓存时直接打开。in会被关闭
+     *
+     * @param options 压缩参数，为null时使用默认参数
+     * @param handle  取消句柄，为null时按options中的超时时间创建
+     * @return 结果的输入流，关闭之前该结果不会被淘汰，调用方读完后必须关闭。压缩失败、取消或超时返回null
+     * @throws IllegalArgumentException 参数不可缓存，见{@link #isCacheable}
+     */
+    public InputStream open(InputStream in, GifCompressOptions options, GifCompressHandle handle) throws IOException {
+        if (in == null)
+            throw new IOException("InputStream must be not null.");
+        if (options == null) {
+            options = new GifCompressOptions();
+        }
+        String optionsKey = options.outputKey();
+        if (optionsKey == null) {
+            throw new IllegalArgumentException("Options are not cacheable");
+        }
+        if (handle == null) {
+            handle = new GifCompressHandle(options.getTimeoutMillis());
+        }
+        //读入输入的同时计算摘要
+        MessageDigest digest = newDigest();
+        byte[] input = Utils.streamToBytes(new DigestInputStream(in, digest));
+        digest.update(toBytes(optionsKey));
+        String key = toHex(digest.digest());
+        while (!handle.isStopped()) {
+            InFlight task;
+            boolean owner = false;
+            synchronized (this) {
+                InputStream cached = index.get(key) != null ? openEntry(key) : null;
+                if (cached != null) {
+                    hitCount++;
+                    return cached;
+                }
+                task = inFlight.get(key);
+                if (task == null) {
+                    task = new InFlight();
+                    inFlight.put(key, task);
+                    owner = true;
+                    missCount++;
+                }
+            }
+            if (owner) {
+                InputStream result = null;
+                try {
+                    result = compressInto(key, input, options, handle);
+                } finally {
+                    synchronized (this) {
+                        inFlight.remove(key);
+                    }
+                    task.finish();
+                }
+                return result;
+            }
+            //等待同一键的压缩完成后回到缓存中打开结果，它失败(例如被取消)时自己重新压缩
+            task.await(handle);
+        }
+        return null;
+    }
+
+    /**
+     * 输出是否只由输入和参数决定：设置了软截止时间或抽帧策略没有缓存键({@link FrameSampler#getCacheKey()})时，
+     * 相同的请求可能得到不同的结果，不缓存
+     */
+    public static boolean isCacheable(GifCompressOptions options) {
+        return options.outputKey() != null;
+    }
+
+    public synchronized long getSize() {
+        return totalBytes;
+    }
+
+    public synchronized int getCount() {
+        return index.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 删除全部缓存结果，不影响正在进行的压缩，正在读取的结果关闭后再删除
+     */
+    public synchronized void clear() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (readers.containsKey(entry.getKey())) {
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            fileFor(entry.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    /**
+     * 压缩到临时文件后改名为结果文件，在登记索引的同时打开
+     */
+    private InputStream compressInto(String key, byte[] input, GifCompressOptions options,
+                                     GifCompressHandle handle) throws IOException {
+        File temp = new File(dir, key + TEMP_SUFFIX);
+        boolean success = GifCompressor.compress(new ByteArrayInputStream(input), new FileOutputStream(temp),
+                options, handle);
+        File file = fileFor(key);
+        if (!success || !temp.renameTo(file)) {
+            temp.delete();
+            return null;
+        }
+        InputStream result;
+        synchronized (this) {
+            index.put(key, file.length());
+            totalBytes += file.length();
+            result = openEntry(key);
+            trimToSize();
+        }
+        LOG.info("cached " + key + " (" + file.length() + " bytes), cache size: " + totalBytes);
+        return result;
+    }
+
+    /**
+     * 打开结果并登记读取者，调用时持有锁。文件被外部删除时移除索引并返回null
+     */
+    private InputStream openEntry(final String key) {
+        File file = fileFor(key);
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            removeEntry(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        Integer count = readers.get(key);
+        readers.put(key, count != null ? count + 1 : 1);
+        return new FilterInputStream(in) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    synchronized (GifResultCache.this) {
+                        if (!closed) {
+                            closed = true;
+                            release(key);
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private void release(String key) {
+        int count = readers.get(key) - 1;
+        if (count > 0) {
+            readers.put(key, count);
+        } else {
+            readers.remove(key);
+            //读取期间跳过的淘汰
+            trimToSize();
+        }
+    }
+
+    /**
+     * 淘汰最久未使用的结果直到总大小不超过上限，正在读取的结果和最近使用的一个总是保留
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        int remaining = index.size();
+        while (totalBytes > maxBytes && remaining > 1 && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            remaining--;
+            if (readers.containsKey(eldest.getKey())) {
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            fileFor(eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    private void removeEntry(String key) {
+        Long size = index.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] toBytes(String s) throws IOException {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Utils.toHex(b & 0xff, 2));
+        }
+        return sb.toString().toLowerCase();
+    }
+
+    /**
+     * 进行中的压缩，等待者在它结束后从缓存中打开结果
+     */
+    private static class InFlight {
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        void finish() {
+            latch.countDown();
+        }
+
+        /**
+         * 等待压缩结束，自己的句柄取消或超时时提前返回
+         */
+        void await(GifCompressHandle handle) {
+            try {
+                while (!latch.await(WAIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (handle.isStopped()) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
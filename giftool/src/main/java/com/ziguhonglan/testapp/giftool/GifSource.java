@@ -0,0 +1,133 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * 可从头重复读取的压缩输入。解码前的块结构扫描和内容分析读完后回到起点再解码，压缩的输入不复制到堆上：
+ * FileInputStream按FileChannel的位置回退，支持mark的流(ByteArrayInputStream等)用mark/reset回退。
+ * 其余的流包装为BufferedInputStream后mark，此时读过的数据留在它的缓冲中，内存与输入大小有关
+ */
+final class GifSource implements Closeable {
+
+    private final InputStream in;
+    private final FileChannel channel; // 输入为FileInputStream时按它的位置回退，否则为null
+    private final long start;
+
+    private GifSource(InputStream in, FileChannel channel, long start) {
+        this.in = in;
+        this.channel = channel;
+        this.start = start;
+    }
+
+    static GifSource of(byte[] input) {
+        ByteArrayInputStream in = new ByteArrayInputStream(input);
+        in.mark(0);
+        return new GifSource(in, null, 0);
+    }
+
+    /**
+     * 从in的当前位置开始，{@link #close()}时关闭in
+     */
+    static GifSource of(InputStream in) throws IOException {
+        if (in instanceof FileInputStream) {
+            FileChannel channel = ((FileInputStream) in).getChannel();
+            return new GifSource(in, channel, channel.position());
+        }
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(new ChunkedInputStream(in));
+        }
+        in.mark(Integer.MAX_VALUE);
+        return new GifSource(in, null, 0);
+    }
+
+    /**
+     * 回到起点重新读取，上一次返回的流随之失效。返回的流关闭时不关闭输入，解码器读完关闭流后仍可再次打开
+     */
+    InputStream open() throws IOException {
+        return open(0);
+    }
+
+    /**
+     * 文件头(含全局颜色表)之后直接接上第frame帧的块，更早的帧不再读取：FileChannel直接定位，
+     * 其余的流跳过中间的数据。解码得到的帧从0开始编号，frame为独立帧时画面与完整解码相同。
+     * 上一次返回的流随之失效
+     *
+     * @param info 按块结构扫描的结果，偏移从输入的起点算起
+     */
+    InputStream openFrom(GifInfo info, int frame) throws IOException {
+        byte[] header = readHeader(info);
+        return new SequenceInputStream(new ByteArrayInputStream(header), open(info.getFrame(frame).getOffset()));
+    }
+
+    /**
+     * 文件头、逻辑屏幕标识符和全局颜色表，共{@link GifInfo#getHeaderLength()}字节
+     */
+    byte[] readHeader(GifInfo info) throws IOException {
+        byte[] header = new byte[info.getHeaderLength()];
+        new DataInputStream(open(0)).readFully(header);
+        return header;
+    }
+
+    /**
+     * 从offset开始读取，上一次返回的流随之失效
+     */
+    InputStream open(long offset) throws IOException {
+        InputStream stream;
+        if (channel != null) {
+            channel.position(start + offset);
+            stream = new BufferedInputStream(in);
+        } else {
+            in.reset();
+            in.mark(Integer.MAX_VALUE);
+            while (offset > 0) {
+                long skipped = in.skip(offset);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    skipped = 1;
+                }
+                offset -= skipped;
+            }
+            stream = in;
+        }
+        return new FilterInputStream(stream) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * 每次最多读取一个缓冲的大小。mark之后BufferedInputStream扩容时会一次读满整个新缓冲，
+     * 限制后只比需要的位置多读一块，提前停止读取时之后的数据不会被读入
+     */
+    private static final class ChunkedInputStream extends FilterInputStream {
+
+        private static final int CHUNK = 8192;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, CHUNK));
+        }
+    }
+}
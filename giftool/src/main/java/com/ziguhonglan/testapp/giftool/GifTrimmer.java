@@ -0,0 +1,144 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * 按时间范围截取，见{@link GifCompressor#trim}。
+ * <p>
+ * 先按块结构把时间换算为帧范围，之后按代价从低到高选择：
+ * <ul>
+ * <li>范围的第一帧是独立帧：直接复制范围内各帧的块，只改写首尾被截断的延迟</li>
+ * <li>第一帧依赖之前的帧且处置方法为0或1：从它之前最近的独立帧解码到第一帧，把合成结果编码为覆盖整个画布的关键帧，
+ * 之后的帧仍直接复制。合成结果不超过256色时关键帧是无损的，否则只有关键帧经过量化，之后的帧不受影响</li>
+ * <li>第一帧处置方法为2或3(之后的画布不等于合成结果)：从最近的独立帧解码到范围末尾，范围内的帧逐帧重新编码</li>
+ * </ul>
+ * 块结构只扫描到范围的最后一帧为止，之后回到起点：文件头之后直接从需要的帧开始读取，更早的帧和范围之后的数据都不再读取，
+ * 耗时只与截取的长度有关。输入按{@link GifSource}回退，既不是FileInputStream也不支持mark的流读过的数据留在缓冲中
+ */
+final class GifTrimmer {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    private GifTrimmer() {
+    }
+
+    /**
+     * @param source GIF输入，从起点开始
+     * @param handle 取消句柄，可为null
+     * @return 范围为空、解码失败或已取消时返回false
+     */
+    static boolean trim(GifSource source, OutputStream out, long startMs, long endMs, GifCompressHandle handle)
+            throws IOException {
+        // 读到覆盖结束时间的帧为止，截到末尾时读完整个块结构
+        GifInfo info = GifInfo.readUntil(source.open(), endMs > 0 ? endMs : Long.MAX_VALUE);
+        if (info == null) {
+            return false;
+        }
+        int count = info.getFrameCount(); // 提前停止时为读到的帧数
+        long[] begins = new long[count + 1]; // 各帧开始播放的时间，最后一项为总时长
+        for (int i = 0; i < count; i++) {
+            begins[i + 1] = begins[i] + GifInfo.playbackDelay(info.getFrame(i).delay);
+        }
+        long start = Math.max(0, startMs);
+        long end = endMs <= 0 || endMs > begins[count] ? begins[count] : endMs;
+        if (start >= end) {
+            LOG.warning("trim: empty range " + startMs + "-" + endMs + ", duration " + begins[count]);
+            return false;
+        }
+        int first = 0;
+        while (begins[first + 1] <= start) {
+            first++;
+        }
+        int last = first;
+        while (last + 1 < count && begins[last + 1] < end) {
+            last++;
+        }
+        // 截断的帧改写延迟(1/100秒)，其余为-1保持原样
+        int[] delays = new int[last - first + 1];
+        for (int i = first; i <= last; i++) {
+            long from = Math.max(begins[i], start);
+            long to = Math.min(begins[i + 1], end);
+            delays[i - first] = from == begins[i] && to == begins[i + 1]
+                    ? -1 : (int) Math.max(GifBlocks.MIN_DELAY_CS, (to - from + 5) / 10);
+        }
+        int independent = info.findIndependentFrame(first);
+        LOG.info("trim: frames " + first + "-" + last + " of " + count + ", decode from " + independent);
+        if (independent == first) {
+            GifBlocks.writeHeader(out, source.readHeader(info), info);
+            copyFrames(out, source, info, first, last, delays, first);
+            out.write(0x3b); // gif trailer
+            return true;
+        }
+        if (handle != null && handle.isStopped()) {
+            return false;
+        }
+        if (info.getFrame(first).dispose <= 1) {
+            GifRaster keyframe = GifDecoder.extractFrame(source, info, independent, first, 0);
+            if (keyframe == null) {
+                return false;
+            }
+            int delayMs = delays[0] >= 0 ? delays[0] * 10 : info.getFrame(first).delay;
+            GifBlocks.writeHeader(out, source.readHeader(info), info);
+            GifBlocks.writeKeyframe(out, keyframe, delayMs, 1);
+            copyFrames(out, source, info, first + 1, last, delays, first);
+            out.write(0x3b); // gif trailer
+            return true;
+        }
+        LOG.info("trim: first frame disposes, re-encoding " + delays.length + " frames");
+        return reencode(source, out, info, independent, first, last, delays, handle);
+    }
+
+    /**
+     * 从第from帧的偏移开始读取，逐帧复制到第to帧
+     */
+    private static void copyFrames(OutputStream out, GifSource source, GifInfo info, int from, int to, int[] delays,
+                                   int first) throws IOException {
+        if (from > to) {
+            return;
+        }
+        long offset = info.getFrame(from).getOffset();
+        GifBlocks.Reader reader = new GifBlocks.Reader(source.open(offset), offset);
+        for (int i = from; i <= to; i++) {
+            GifInfo.Frame frame = info.getFrame(i);
+            GifBlocks.writeFrame(out, reader.read(frame), frame, delays[i - first]);
+        }
+    }
+
+    /**
+     * 从独立帧解码到范围末尾，范围内的帧在当前线程上逐帧编码为完整画布。
+     * 文件头之后直接接上独立帧，解码得到的帧从独立帧开始编号
+     */
+    private static boolean reencode(GifSource source, OutputStream out, GifInfo info, int independent, int first,
+                                    int last, final int[] delays, final GifCompressHandle handle) throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setRepeat(info.getLoopCount());
+        final StreamingGifEncoder encoder = new StreamingGifEncoder(out, options);
+        encoder.setExactPalette(true);
+        final boolean[] reached = new boolean[1];
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        final int from = first - independent;
+        final int to = last - independent;
+        boolean[] skipped = new boolean[from];
+        Arrays.fill(skipped, true);
+        decoder.setSkippedFrames(skipped);
+        decoder.read(source.openFrom(info, independent), new IGifFrameListener() {
+            @Override
+            public boolean onFrameDecoded(int index, GifFrame frame) {
+                if (handle != null && handle.isStopped()) {
+                    return false;
+                }
+                int delay = delays[index - from];
+                if (!encoder.addFrame(frame.image, delay >= 0 ? delay * 10 : frame.delay)) {
+                    return false;
+                }
+                // 范围之后的数据不再解码
+                reached[0] = index == to;
+                return !reached[0];
+            }
+        });
+        return encoder.finish() && reached[0];
+    }
+}
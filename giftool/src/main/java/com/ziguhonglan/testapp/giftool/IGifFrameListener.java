@@ -0,0 +1,16 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * GifDecoder逐帧解码回调
+ */
+public interface IGifFrameListener {
+
+    /**
+     * 一帧合成完毕时在解码线程回调，可在此处阻塞以实现背压
+     *
+     * @param index 帧序号，从0开始
+     * @param frame 合成后的完整帧
+     * @return false表示停止解码
+     */
+    boolean onFrameDecoded(int index, GifFrame frame);
+}
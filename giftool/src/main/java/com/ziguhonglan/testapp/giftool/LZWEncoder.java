@@ -18,6 +18,13 @@ public class LZWEncoder {
 
     private int curPixel;
 
+    // checked every CANCEL_CHECK_INTERVAL pixels so abandoned frames stop quickly
+    private static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    private GifCompressHandle handle;
+
+    private int cancelCountdown;
+
     // GIFCOMPR.C - GIF Image compression routines
     //
     // Lempel-Ziv compression based on 'compress'. GIF modifications by
@@ -86,12 +93,35 @@ public class LZWEncoder {
     // Define the storage for the packet accumulator
     byte[] accum = new byte[256];
 
+    private MetricsRecorder metrics; // 可为null
+    private int frameIndex;
+    private int outputBytes; // 本帧已写出的数据子块字节数
+
     // ----------------------------------------------------------------------------
     LZWEncoder(int width, int height, byte[] pixels, int color_depth) {
+        reset(width, height, pixels, color_depth);
+    }
+
+    // Point the encoder at another image, keeping the hash tables so a single
+    // encoder can be reused for every frame of a stream
+    void reset(int width, int height, byte[] pixels, int color_depth) {
         imgW = width;
         imgH = height;
         pixAry = pixels;
         initCodeSize = Math.max(2, color_depth);
+        cur_accum = 0;
+        cur_bits = 0;
+        a_count = 0;
+    }
+
+    void setHandle(GifCompressHandle handle) {
+        this.handle = handle;
+    }
+
+    // 上报LZW阶段耗时及输出字节数，recorder为null时不计时
+    void setMetrics(MetricsRecorder recorder, int frameIndex) {
+        this.metrics = recorder;
+        this.frameIndex = frameIndex;
     }
 
     // Add a character to the end of the current packet, and if it is 254
@@ -154,8 +184,14 @@ public class LZWEncoder {
 
         output(ClearCode, outs);
 
+        cancelCountdown = CANCEL_CHECK_INTERVAL;
+
         outer_loop:
         while ((c = nextPixel()) != EOF) {
+            if (handle != null && --cancelCountdown == 0) {
+                cancelCountdown = CANCEL_CHECK_INTERVAL;
+                handle.throwIfStopped();
+            }
             fcode = (c << maxbits) + ent;
             i = (c << hshift) ^ ent; // xor hashing
 
@@ -192,6 +228,8 @@ public class LZWEncoder {
 
     // ----------------------------------------------------------------------------
     void encode(OutputStream os) throws IOException {
+        long start = metrics != null ? System.nanoTime() : 0;
+        outputBytes = 0;
         os.write(initCodeSize); // write "initial code size" byte
 
         remaining = imgW * imgH; // reset navigation variables
@@ -200,6 +238,10 @@ public class LZWEncoder {
         compress(initCodeSize + 1, os); // compress and write the pixel data
 
         os.write(0); // write block terminator
+        if (metrics != null) {
+            // 加上code size和块结束符
+            metrics.record(frameIndex, CompressionMetrics.STAGE_LZW, System.nanoTime() - start, outputBytes + 2);
+        }
     }
 
     // Flush the packet to disk, and reset the accumulator
@@ -207,6 +249,7 @@ public class LZWEncoder {
         if (a_count > 0) {
             outs.write(a_count);
             outs.write(accum, 0, a_count);
+            outputBytes += a_count + 1;
             a_count = 0;
         }
     }
@@ -0,0 +1,56 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 有损压缩：映射到调色板后，颜色与左边或上边像素足够接近的像素改用与它相同的索引，
+ * 相同的索引串更长、重复更多，LZW输出的码更少。
+ * 距离按像素自身量化后的颜色计算，误差不会沿行累积，最大误差即lossy
+ */
+final class LossyIndexFilter {
+
+    public static final int MAX_LOSSY = 200;
+
+    private LossyIndexFilter() {
+    }
+
+    /**
+     * @param indexed  索引像素，原地修改
+     * @param colorTab RGB调色板
+     * @param lossy    允许的最大颜色距离(RGB各分量差的绝对值之和)，0表示不修改
+     */
+    static void apply(byte[] indexed, int width, int height, byte[] colorTab, int lossy) {
+        if (lossy <= 0) {
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = offset + x;
+                int c = indexed[i] & 0xff;
+                if (x > 0) {
+                    int left = indexed[i - 1] & 0xff;
+                    if (left == c) {
+                        continue;
+                    }
+                    if (distance(colorTab, c, left) <= lossy) {
+                        indexed[i] = (byte) left;
+                        continue;
+                    }
+                }
+                if (y > 0) {
+                    int up = indexed[i - width] & 0xff;
+                    if (up != c && distance(colorTab, c, up) <= lossy) {
+                        indexed[i] = (byte) up;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int distance(byte[] colorTab, int a, int b) {
+        a *= 3;
+        b *= 3;
+        return Math.abs((colorTab[a] & 0xff) - (colorTab[b] & 0xff))
+                + Math.abs((colorTab[a + 1] & 0xff) - (colorTab[b + 1] & 0xff))
+                + Math.abs((colorTab[a + 2] & 0xff) - (colorTab[b + 2] & 0xff));
+    }
+}
@@ -0,0 +1,74 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个任务的统计累加器，各组件持有它上报阶段耗时，同时转发给{@link CompressionMetrics}。
+ * 没有设置CompressionMetrics时不创建，组件据此跳过计时。
+ */
+final class MetricsRecorder {
+
+    private static final AtomicLong sJobIds = new AtomicLong();
+
+    private final CompressionMetrics listener;
+    private final long jobId;
+    private final int workerCount;
+    private final long startNanos;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(CompressionMetrics.STAGE_COUNT);
+    private final AtomicLongArray stageBytes = new AtomicLongArray(CompressionMetrics.STAGE_COUNT);
+    private final AtomicLong workerBusyNanos = new AtomicLong();
+    private final AtomicInteger encodedFrames = new AtomicInteger();
+    private volatile int decodedFrames;
+
+    private MetricsRecorder(CompressionMetrics listener, int workerCount) {
+        this.listener = listener;
+        this.workerCount = workerCount;
+        this.jobId = sJobIds.incrementAndGet();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return listener为null时返回null
+     */
+    static MetricsRecorder create(CompressionMetrics listener, int workerCount) {
+        return listener != null ? new MetricsRecorder(listener, workerCount) : null;
+    }
+
+    long getJobId() {
+        return jobId;
+    }
+
+    void record(int frameIndex, int stage, long durationNanos, long bytes) {
+        stageNanos.addAndGet(stage, durationNanos);
+        stageBytes.addAndGet(stage, bytes);
+        listener.onFrameStage(jobId, frameIndex, stage, durationNanos, bytes);
+    }
+
+    void addWorkerBusy(long nanos) {
+        workerBusyNanos.addAndGet(nanos);
+    }
+
+    void frameEncoded() {
+        encodedFrames.incrementAndGet();
+    }
+
+    void setDecodedFrames(int count) {
+        decodedFrames = count;
+    }
+
+    CompressionSummary finish(boolean success, long bytesIn, long bytesOut) {
+        long[] nanos = new long[CompressionMetrics.STAGE_COUNT];
+        long[] bytes = new long[CompressionMetrics.STAGE_COUNT];
+        for (int i = 0; i < CompressionMetrics.STAGE_COUNT; i++) {
+            nanos[i] = stageNanos.get(i);
+            bytes[i] = stageBytes.get(i);
+        }
+        CompressionSummary summary = new CompressionSummary(jobId, success, System.nanoTime() - startNanos,
+                decodedFrames, encodedFrames.get(), bytesIn, bytesOut, nanos, bytes,
+                workerBusyNanos.get(), workerCount);
+        listener.onJobFinished(summary);
+        return summary;
+    }
+}
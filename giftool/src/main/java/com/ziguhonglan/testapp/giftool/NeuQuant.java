@@ -2,7 +2,11 @@ package com.ziguhonglan.testapp.giftool;
 
 public class NeuQuant {
 
-    protected static final int netsize = 256; /* number of colours used */
+    public static final int MAX_COLORS = 256;
+
+    public static final int MIN_COLORS = 2;
+
+    protected final int netsize; /* number of colours used */
 
     /* four primes near 500 - assume no image has a length so large */
     /* that it is divisible by all four primes */
@@ -30,7 +34,7 @@ public class NeuQuant {
      * Network Definitions -------------------
      */
 
-    protected static final int maxnetpos = (netsize - 1);
+    protected final int maxnetpos;
 
     protected static final int netbiasshift = 4; /* bias for colour values */
 
@@ -52,8 +56,8 @@ public class NeuQuant {
     protected static final int betagamma = (intbias << (gammashift - betashift));
 
     /* defs for decreasing radius factor */
-    protected static final int initrad = (netsize >> 3); /*
-     * for 256 cols, radius
+    protected final int initrad; /*
+     * netsize >> 3, for 256 cols, radius
      * starts
      */
 
@@ -61,8 +65,8 @@ public class NeuQuant {
 
     protected static final int radiusbias = (((int) 1) << radiusbiasshift);
 
-    protected static final int initradius = (initrad * radiusbias); /*
-     * and
+    protected final int initradius; /*
+     * initrad * radiusbias, and
      * decreases
      * by a
      */
@@ -95,6 +99,10 @@ public class NeuQuant {
 
     protected int samplefac; /* sampling factor 1..30 */
 
+    private MetricsRecorder metrics; /* 阶段统计，可为null */
+
+    private int frameIndex;
+
     // typedef int pixel[4]; /* BGRc */
     protected int[][] network; /* the network itself - [netsize][4] */
 
@@ -102,12 +110,12 @@ public class NeuQuant {
 
     /* for network lookup - really 256 */
 
-    protected int[] bias = new int[netsize];
+    protected int[] bias;
 
     /* bias and freq arrays for learning */
-    protected int[] freq = new int[netsize];
+    protected int[] freq;
 
-    protected int[] radpower = new int[initrad];
+    protected int[] radpower;
 
     /* radpower for precomputation */
 
@@ -116,6 +124,36 @@ public class NeuQuant {
      * -----------------------------------------------------------------------
      */
     public NeuQuant(byte[] thepic, int len, int sample) {
+        this(thepic, len, sample, MAX_COLORS);
+    }
+
+    /*
+     * 指定调色板颜色数(2~256)，颜色越少LZW码长越短，输出越小
+     */
+    public NeuQuant(byte[] thepic, int len, int sample, int colors) {
+
+        int i;
+
+        netsize = Math.max(MIN_COLORS, Math.min(MAX_COLORS, colors));
+        maxnetpos = netsize - 1;
+        initrad = netsize >> 3;
+        initradius = initrad * radiusbias;
+        bias = new int[netsize];
+        freq = new int[netsize];
+        radpower = new int[Math.max(1, initrad)];
+        network = new int[netsize][];
+        for (i = 0; i < netsize; i++) {
+            network[i] = new int[4];
+        }
+        reset(thepic, len, sample);
+    }
+
+    /*
+     * Re-initialise the existing network for another image so one quantizer can
+     * be reused frame after frame without reallocating its tables
+     * -----------------------------------------------------------------------
+     */
+    public void reset(byte[] thepic, int len, int sample) {
 
         int i;
         int[] p;
@@ -124,16 +162,19 @@ public class NeuQuant {
         lengthcount = len;
         samplefac = sample;
 
-        network = new int[netsize][];
         for (i = 0; i < netsize; i++) {
-            network[i] = new int[4];
             p = network[i];
             p[0] = p[1] = p[2] = (i << (netbiasshift + 8)) / netsize;
+            p[3] = 0;
             freq[i] = intbias / netsize; /* 1/netsize */
             bias[i] = 0;
         }
     }
 
+    public int getColorCount() {
+        return netsize;
+    }
+
     public byte[] colorMap() {
         byte[] map = new byte[3 * netsize];
         int[] index = new int[netsize];
@@ -369,10 +410,23 @@ public class NeuQuant {
     }
 
     public byte[] process() {
+        long start = metrics != null ? System.nanoTime() : 0;
         learn();
         unbiasnet();
         inxbuild();
-        return colorMap();
+        byte[] map = colorMap();
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_QUANTIZE, System.nanoTime() - start, lengthcount);
+        }
+        return map;
+    }
+
+    /*
+     * 上报量化(learn/unbiasnet/inxbuild)耗时，recorder为null时不计时
+     */
+    void setMetrics(MetricsRecorder recorder, int frameIndex) {
+        this.metrics = recorder;
+        this.frameIndex = frameIndex;
     }
 
     /*
@@ -0,0 +1,228 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.Arrays;
+
+/**
+ * 不做量化学习的调色板映射：精确调色板(帧内不同颜色不超过上限时原样保留)和固定调色板
+ * (映射到最接近的颜色，或只接受表中已有的颜色)。
+ * RGB到索引的查找用开放寻址的int哈希表，不装箱，同一实例可在帧之间复用
+ */
+final class PaletteMapper {
+
+    private static final int EMPTY = -1; // 键是24位RGB，不会等于-1
+    private static final int MAX_CACHED = 1 << 16; // 固定调色板最多缓存的颜色数，超过后清空重来
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int[] palette; // 固定调色板(RGB)，缓存对应的调色板
+
+    PaletteMapper() {
+        allocate(1024);
+    }
+
+    /**
+     * 精确调色板：帧内不同颜色不超过maxColors时，按出现顺序建立调色板并映射
+     *
+     * @param pixels  BGR像素
+     * @param indexed 输出的索引像素
+     * @return RGB调色板，颜色数超过maxColors时返回null，indexed的内容无效
+     */
+    byte[] mapExact(byte[] pixels, byte[] indexed, int maxColors) {
+        clear();
+        palette = null;
+        byte[] colorTab = new byte[3 * maxColors];
+        int count = 0;
+        int nPix = pixels.length / 3;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int b = pixels[k++] & 0xff;
+            int g = pixels[k++] & 0xff;
+            int r = pixels[k++] & 0xff;
+            int rgb = (r << 16) | (g << 8) | b;
+            int index = get(rgb);
+            if (index < 0) {
+                if (count == maxColors) {
+                    return null;
+                }
+                index = count++;
+                put(rgb, index);
+                colorTab[index * 3] = (byte) r;
+                colorTab[index * 3 + 1] = (byte) g;
+                colorTab[index * 3 + 2] = (byte) b;
+            }
+            indexed[i] = (byte) index;
+        }
+        return Arrays.copyOf(colorTab, 3 * Math.max(1, count));
+    }
+
+    /**
+     * 映射到固定调色板，每种颜色只查找一次最接近的颜色。调色板不变时缓存在调用之间保留
+     *
+     * @param pixels  BGR像素
+     * @param indexed 输出的索引像素
+     * @param rgb     调色板(RGB)
+     */
+    void mapFixed(byte[] pixels, byte[] indexed, int[] rgb) {
+        if (palette != rgb) {
+            clear();
+            palette = rgb;
+        }
+        int nPix = pixels.length / 3;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int b = pixels[k++] & 0xff;
+            int g = pixels[k++] & 0xff;
+            int r = pixels[k++] & 0xff;
+            int c = (r << 16) | (g << 8) | b;
+            int index = get(c);
+            if (index < 0) {
+                index = closest(rgb, r, g, b);
+                if (size >= MAX_CACHED) {
+                    clear();
+                }
+                put(c, index);
+            }
+            indexed[i] = (byte) index;
+        }
+    }
+
+    /**
+     * 精确映射到固定调色板：每个像素都不透明且颜色在调色板中时按颜色所在的索引映射，不找最接近的颜色
+     *
+     * @param argb    ARGB像素
+     * @param indexed 输出的索引像素
+     * @param rgb     调色板(RGB)
+     * @return 有透明像素或调色板外的颜色时返回false，indexed的内容无效
+     */
+    boolean mapFixedExact(int[] argb, int length, byte[] indexed, int[] rgb) {
+        clear();
+        palette = null;
+        for (int j = 0; j < rgb.length; j++) {
+            int c = rgb[j] & 0xffffff;
+            if (get(c) < 0) {
+                put(c, j);
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            int c = argb[i];
+            if (c >>> 24 == 0) {
+                return false;
+            }
+            int index = get(c & 0xffffff);
+            if (index < 0) {
+                return false;
+            }
+            indexed[i] = (byte) index;
+        }
+        return true;
+    }
+
+    /**
+     * 统计不同颜色数，透明像素按黑色计(与编码器一致)
+     *
+     * @param argb  ARGB像素
+     * @param limit 超过该值后停止统计
+     * @return 不同颜色数，超过limit时返回limit + 1
+     */
+    int countColors(int[] argb, int length, int limit) {
+        clear();
+        palette = null;
+        for (int i = 0; i < length; i++) {
+            int c = argb[i] >>> 24 != 0 ? argb[i] & 0xffffff : 0;
+            if (get(c) < 0) {
+                if (size == limit) {
+                    return limit + 1;
+                }
+                put(c, size);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * RGB调色板转为颜色表字节
+     */
+    static byte[] colorTab(int[] rgb) {
+        byte[] colorTab = new byte[3 * rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            colorTab[i * 3] = (byte) ((rgb[i] >> 16) & 0xff);
+            colorTab[i * 3 + 1] = (byte) ((rgb[i] >> 8) & 0xff);
+            colorTab[i * 3 + 2] = (byte) (rgb[i] & 0xff);
+        }
+        return colorTab;
+    }
+
+    private static int closest(int[] rgb, int r, int g, int b) {
+        int best = 0;
+        int bestDist = Integer.MAX_VALUE;
+        for (int j = 0; j < rgb.length && bestDist > 0; j++) {
+            int dr = r - ((rgb[j] >> 16) & 0xff);
+            int dg = g - ((rgb[j] >> 8) & 0xff);
+            int db = b - (rgb[j] & 0xff);
+            int d = dr * dr + dg * dg + db * db;
+            if (d < bestDist) {
+                bestDist = d;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    private int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void put(int key, int value) {
+        // 装载因子不超过1/2
+        if ((size + 1) * 2 > keys.length) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            allocate(keys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+        insert(key, value);
+    }
+
+    private void insert(int key, int value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
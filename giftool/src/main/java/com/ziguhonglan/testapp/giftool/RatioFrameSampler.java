@@ -0,0 +1,47 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 按固定比例抽帧：每ratio帧保留第1帧，其余帧的延迟按播放时的实际延迟合并到保留帧。不考虑原始帧率
+ */
+public class RatioFrameSampler implements FrameSampler {
+
+    private final int ratio;
+
+    public RatioFrameSampler(int ratio) {
+        this.ratio = Math.max(1, ratio);
+    }
+
+    public int getRatio() {
+        return ratio;
+    }
+
+    @Override
+    public int[] sample(int[] delays) {
+        int[] result = new int[delays.length];
+        int kept = 0;
+        for (int i = 0; i < delays.length; i++) {
+            if (i % ratio == 0) {
+                kept = i;
+                // 没有合并丢弃帧时保持原延迟
+                result[i] = delays[i];
+            } else {
+                if (i == kept + 1) {
+                    result[kept] = GifInfo.playbackDelay(delays[kept]);
+                }
+                result[i] = DROP;
+                result[kept] += GifInfo.playbackDelay(delays[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return getClass().getName() + ":" + "ratio" + ratio;
+    }
+
+    @Override
+    public String toString() {
+        return "ratio" + ratio;
+    }
+}
@@ -0,0 +1,365 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 多路输出：一次解码同时压缩出多个尺寸、帧率或大小上限不同的GIF，见{@link GifCompressor#compressRenditions}。
+ * <p>
+ * 各路先分别确定参数(有大小上限时用{@link TargetSizePlanner}的采样帧估算)、抽帧计划和编码策略，
+ * 可以原样输出的路直接复制输入。其余各路共用一次解码：只跳过所有路都丢弃的帧，
+ * 每个解码帧包装为{@link SharedFrame}后依次交给各路的去重阶段和流水线，缩小倍数相同的路共用缩小结果。
+ * 各路流水线的帧在同一个调度任务中并行编码，某一路失败不影响其他路。
+ * 有大小上限的路先缓存在内存中，超出上限时该路单独重新编码一次。
+ * 输入不复制到内存中，各阶段由{@link GifSource}回到起点重新读取。
+ * 调度优先级取各路中最高的，超时和线程数取第一路的参数；软截止时间和分阶段统计在多路输出中不生效
+ */
+final class RenditionLadder {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    private final GifSource source;
+    private GifInfo info; // 输入的块结构，各路确定抽帧计划和编码策略时共用
+    private final GifCompressHandle handle;
+    private final Output[] outputs;
+    private GifCompressScheduler.Job job;
+
+    private RenditionLadder(GifSource source, List<GifRendition> renditions, GifCompressHandle handle) {
+        this.source = source;
+        this.handle = handle;
+        outputs = new Output[renditions.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new Output(i, renditions.get(i));
+        }
+    }
+
+    /**
+     * @param handle 取消句柄，不为null
+     * @return 各路是否成功，输出流均已关闭
+     */
+    static boolean[] compress(GifSource source, List<GifRendition> renditions, GifCompressHandle handle) {
+        RenditionLadder ladder = new RenditionLadder(source, renditions, handle);
+        int code = ladder.run();
+        boolean[] results = new boolean[ladder.outputs.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = ladder.outputs[i].finish(code == GifDecoder.STATUS_OK && !handle.isCancelled());
+        }
+        return results;
+    }
+
+    /**
+     * 确定各路参数后解码一次并投递到各路流水线，等待全部写出
+     *
+     * @return 解码结果
+     */
+    private int run() {
+        int decoding = 0;
+        int priority = GifCompressOptions.PRIORITY_BACKGROUND;
+        try {
+            info = GifInfo.read(source.open());
+            for (Output output : outputs) {
+                if (!output.prepare()) {
+                    return GifDecoder.STATUS_ABORTED;
+                }
+                if (!output.remuxed) {
+                    decoding++;
+                    priority = Math.max(priority, output.opts.getPriority());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return GifDecoder.STATUS_FORMAT_ERROR;
+        }
+        if (decoding == 0) {
+            return GifDecoder.STATUS_OK;
+        }
+        GifCompressScheduler scheduler = GifCompressScheduler.getInstance();
+        job = scheduler.newJob(priority);
+        int maxThreads = outputs[0].rendition.getOptions().getMaxThreads();
+        job.setMaxThreads(maxThreads == GifCompressOptions.MAX_THREADS_HALF
+                ? Math.max(1, scheduler.getWorkerCount() / 2) : maxThreads);
+        LOG.info("renditions: " + outputs.length + ", decoded for " + decoding + ", thread count: "
+                + scheduler.getWorkerCount());
+        for (Output output : outputs) {
+            if (!output.remuxed) {
+                output.start(scheduler.getWorkerCount() * GifCompressor.FRAMES_IN_FLIGHT_PER_WORKER);
+            }
+        }
+        Runnable cancelAction = new Runnable() {
+            @Override
+            public void run() {
+                for (Output output : outputs) {
+                    if (output.pipeline != null) {
+                        output.pipeline.abort();
+                    }
+                }
+                job.close();
+            }
+        };
+        handle.addCancelAction(cancelAction);
+        int code = GifDecoder.STATUS_FORMAT_ERROR;
+        try {
+            code = decode();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (handle.isStopped()) {
+            cancelAction.run();
+        }
+        for (Output output : outputs) {
+            output.await();
+        }
+        job.close();
+        handle.removeCancelAction(cancelAction);
+        return code;
+    }
+
+    private int decode() throws IOException {
+        // 只跳过所有路都丢弃的帧
+        boolean[] skipped = null;
+        for (Output output : outputs) {
+            if (output.remuxed) {
+                continue;
+            }
+            boolean[] own = GifCompressor.toSkipped(output.plan);
+            if (own == null) {
+                skipped = null;
+                break;
+            }
+            if (skipped == null) {
+                skipped = own;
+            } else {
+                for (int i = 0; i < skipped.length && i < own.length; i++) {
+                    skipped[i] &= own[i];
+                }
+            }
+        }
+        GifDecoder decoder = new GifDecoder();
+        decoder.setSkippedFrames(skipped);
+        int code = decoder.read(source.open(), new IGifFrameListener() {
+            @Override
+            public boolean onFrameDecoded(int index, GifFrame frame) {
+                if (handle.isStopped()) {
+                    return false;
+                }
+                SharedFrame shared = new SharedFrame(frame.image);
+                boolean active = false;
+                for (Output output : outputs) {
+                    if (output.active) {
+                        output.active = output.add(index, shared, frame.delay);
+                        active |= output.active;
+                    }
+                }
+                return active;
+            }
+        });
+        if (code == GifDecoder.STATUS_OK && !handle.isStopped()) {
+            for (Output output : outputs) {
+                if (output.active && output.filter != null) {
+                    output.active = output.filter.flush();
+                    LOG.info("rendition " + output.id + ": duplicate frames merged: " + output.filter.getDroppedCount());
+                }
+            }
+        }
+        LOG.info("frame count: " + decoder.getFrameCount());
+        return code;
+    }
+
+    /**
+     * 一路输出的参数、计划和流水线
+     */
+    private final class Output implements DuplicateFrameFilter.Sink {
+
+        final int id;
+        final GifRendition rendition;
+        GifCompressOptions opts;
+        TargetSizePlanner sizePlanner; // 有大小上限时不为null
+        ByteArrayOutputStream buffer; // 有大小上限时缓存输出
+        OutputStream out;
+        int[] plan;
+        boolean remuxed;
+        boolean delta;
+        int[] globalPalette;
+        boolean exactPalette;
+        FramePipeline pipeline;
+        DuplicateFrameFilter filter;
+        boolean active;
+        boolean failed;
+        private GifRaster previous; // 差分帧：上一个保留帧
+
+        Output(int id, GifRendition rendition) {
+            this.id = id;
+            this.rendition = rendition;
+        }
+
+        /**
+         * 确定参数、抽帧计划和编码策略，原样输出时直接写出
+         *
+         * @return 取消时返回false
+         */
+        boolean prepare() throws IOException {
+            opts = rendition.getOptions();
+            out = rendition.getOutputStream();
+            if (opts.getMaxBytes() > 0) {
+                sizePlanner = new TargetSizePlanner(source, opts, false, handle);
+                opts = sizePlanner.plan();
+                if (opts == null) {
+                    return false;
+                }
+                out = buffer = new ByteArrayOutputStream();
+            }
+            plan = GifCompressor.planFrames(info, opts.getFrameSampler());
+            CompressionPlanner planner = CompressionPlanner.plan(source, info, plan, opts, false, handle);
+            LOG.info("rendition " + id + ": " + planner);
+            if (planner.getStrategy() == GifCompressOptions.STRATEGY_REMUX) {
+                try {
+                    Utils.copyStream(source.open(), out);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                }
+                remuxed = true;
+                return true;
+            }
+            delta = planner.getStrategy() == GifCompressOptions.STRATEGY_DELTA;
+            globalPalette = planner.usesGlobalPalette() ? planner.getGlobalPalette() : null;
+            exactPalette = planner.usesExactPalette();
+            return true;
+        }
+
+        void start(int maxInFlight) {
+            pipeline = new FramePipeline(job, out, maxInFlight);
+            filter = GifCompressor.newDuplicateFilter(opts, false, this);
+            active = true;
+        }
+
+        /**
+         * 解码线程调用，该路丢弃的帧直接忽略
+         *
+         * @return false表示该路已停止
+         */
+        boolean add(int index, SharedFrame frame, int frameDelay) {
+            if (plan != null && index > 0 && index < plan.length && plan[index] == FrameSampler.DROP) {
+                return true;
+            }
+            int delay = GifCompressor.outputDelay(plan, index, frameDelay);
+            return filter != null ? filter.add(index, frame, delay) : onFrame(index, frame, delay);
+        }
+
+        @Override
+        public boolean onFrame(int index, GifRaster image, int delay) {
+            int sampleSize = opts.getSampleSize(image.width, image.height);
+            int[] rect = null;
+            if (delta) {
+                if (previous != null) {
+                    //只编码变化区域，没有变化时编码1个像素以保留延迟
+                    rect = CompressionPlanner.changedRect(previous, image, sampleSize);
+                    if (rect == null) {
+                        rect = new int[]{0, 0, 1, 1};
+                    }
+                }
+                previous = image;
+            }
+            //缩小在编码线程上进行，SharedFrame在各路之间共用缩小结果，差分帧在缩小后裁剪
+            EncoderTask task = new EncoderTask(new ByteArrayOutputStream(), image, index == 0, 1, delay, opts.getRepeat());
+            task.setQuality(opts.getQuality());
+            task.setQuantizer(opts.getQuantizer());
+            task.setSampleSize(sampleSize);
+            task.setScaleFilter(opts.getScaleFilter());
+            if (globalPalette != null) {
+                task.setPalette(globalPalette, true);
+            }
+            task.setExactPalette(exactPalette);
+            if (delta) {
+                task.setDispose(1);
+                if (rect != null) {
+                    task.setCrop(rect);
+                    task.setPosition(rect[0], rect[1]);
+                }
+            }
+            task.setColors(opts.getColors());
+            task.setLossy(opts.getLossy());
+            task.setHandle(handle);
+            task.setRowStripes(job);
+            try {
+                job.awaitTurn();
+                return pipeline.submit(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * 等待在途帧全部写出
+         */
+        void await() {
+            if (pipeline == null) {
+                return;
+            }
+            try {
+                if (!pipeline.finish()) {
+                    failed = true;
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+        }
+
+        /**
+         * 写尾标志，有大小上限时检查大小，必要时单独重新编码后写出，最后关闭输出流
+         *
+         * @param decoded 解码成功(不需要解码时为true)且未取消
+         */
+        boolean finish(boolean decoded) {
+            OutputStream target = rendition.getOutputStream();
+            try {
+                boolean success = !failed && decoded;
+                if (success && !remuxed) {
+                    out.write(0x3b); // gif trailer
+                }
+                if (success && buffer != null) {
+                    success = writeWithinBudget(target);
+                }
+                target.flush();
+                return success;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            } finally {
+                try {
+                    target.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * 超出大小上限时按实际大小修正估算，该路单独重新编码一次，见{@link TargetSizePlanner#replan(long)}
+         */
+        private boolean writeWithinBudget(OutputStream target) throws IOException {
+            long maxBytes = rendition.getOptions().getMaxBytes();
+            ByteArrayOutputStream result = buffer;
+            GifCompressOptions next = result.size() > maxBytes ? sizePlanner.replan(result.size()) : null;
+            if (next != null) {
+                LOG.info("rendition " + id + ": target size " + maxBytes + " exceeded: " + result.size()
+                        + " bytes, re-encoding");
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                if (!GifCompressor.compress(source, bos, next, handle)) {
+                    return false;
+                }
+                result = bos;
+            }
+            if (result.size() > maxBytes) {
+                LOG.warning("rendition " + id + ": target size " + maxBytes + " not reached: " + result.size() + " bytes");
+            }
+            result.writeTo(target);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 帧内并行：超大帧的逐像素循环按行切成条带，在调用方压缩任务的编码线程上并行处理。
+ * <p>
+ * 帧级并行在帧数少、单帧很大时(如2000x2000的录屏只有几帧)大部分核空闲，这里把单帧的循环再拆开。
+ * 帮手作为调用方{@link GifCompressScheduler.Job}的任务排在它的队首，优先级和线程数上限与该任务的帧相同。
+ * 调用线程自己也领取条带，帮手只是帮忙：编码线程都在忙(包括调用线程本身就是编码线程)时
+ * 调用线程按顺序做完所有条带，未开始的帮手从队列中移除，已开始的发现没有剩余条带直接返回，不会互相等待而死锁。
+ * 没有任务(单线程的流式压缩等)或小于阈值的帧直接在调用线程上执行，不产生调度开销。
+ */
+final class RowStripes {
+
+    // 每个条带至少包含的像素数，帧小于两个条带时不拆分。可拆的只有转换和映射(约占单帧编码的1/4)，
+    // 1MP以下拆开省下的时间与多占的编码线程相比不划算，这些线程更应该留给其他帧，对比见EncoderBenchmark.encodeFrameStriped
+    static final int MIN_STRIPE_PIXELS = 1 << 20;
+
+    // 测试用：大于0时按该值拆分，不受编码线程数限制，为1时不拆分
+    static volatile int sForcedStripes = 0;
+
+    /**
+     * 处理[from, to)行
+     */
+    interface Body {
+        void run(int from, int to);
+    }
+
+    private RowStripes() {
+    }
+
+    /**
+     * 按行并行执行body，返回时所有行都已处理完，body中的写入对调用线程可见
+     *
+     * @param job      帮手提交到的任务，即调用线程正在执行的帧所属的任务；为null时在调用线程上执行
+     * @param rows     总行数
+     * @param rowWidth 每行像素数，用于按阈值决定条带数
+     */
+    static void run(GifCompressScheduler.Job job, int rows, int rowWidth, final Body body) {
+        int stripes = job != null ? stripeCount(job, rows, rowWidth) : 1;
+        if (stripes <= 1) {
+            body.run(0, rows);
+            return;
+        }
+        final Stripes work = new Stripes(rows, stripes, body);
+        Runnable helper = new Runnable() {
+            @Override
+            public void run() {
+                work.drain();
+            }
+        };
+        try {
+            for (int i = 1; i < stripes; i++) {
+                // 条带很短且调用线程在等待，排在该任务其他帧的前面
+                job.executeNext(helper);
+            }
+        } catch (RejectedExecutionException e) {
+            // 任务已关闭，剩余的条带由调用线程执行
+        }
+        work.drain();
+        // 未开始的帮手移除，已领取的条带正在执行，等待它们完成
+        job.remove(helper);
+        work.await();
+    }
+
+    /**
+     * 条带数不超过编码线程数和任务的线程数上限(调用线程本身就是其中之一)
+     */
+    private static int stripeCount(GifCompressScheduler.Job job, int rows, int rowWidth) {
+        long pixels = (long) rows * rowWidth;
+        if (pixels < 2L * MIN_STRIPE_PIXELS) {
+            return 1;
+        }
+        int threads = sForcedStripes > 0 ? sForcedStripes
+                : Math.min(GifCompressScheduler.getInstance().getWorkerCount(), job.getMaxThreads());
+        return (int) Math.min(Math.min(threads, rows), pixels / MIN_STRIPE_PIXELS);
+    }
+
+    private static final class Stripes {
+
+        private final int rows;
+        private final int count;
+        private final Body body;
+        private final AtomicInteger next = new AtomicInteger();
+        private int done = 0; // 由this保护
+        private Throwable error;
+
+        Stripes(int rows, int count, Body body) {
+            this.rows = rows;
+            this.count = count;
+            this.body = body;
+        }
+
+        /**
+         * 领取并执行剩余的条带
+         */
+        void drain() {
+            int i;
+            while ((i = next.getAndIncrement()) < count) {
+                Throwable failure = null;
+                try {
+                    body.run((int) ((long) rows * i / count), (int) ((long) rows * (i + 1) / count));
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                synchronized (this) {
+                    if (failure != null && error == null) {
+                        error = failure;
+                    }
+                    if (++done == count) {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 等待所有条带完成，条带抛出的异常在调用线程上重新抛出
+         */
+        synchronized void await() {
+            boolean interrupted = false;
+            while (done < count) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // 已领取的条带很快完成，等待结束后恢复中断状态
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.util.ArrayList;
+
+/**
+ * 多路输出共用的一个解码帧，见{@link RenditionLadder}。各路编码线程按自己的缩小倍数和方式调用
+ * {@link #downsample(int)}或{@link #downsampleNearest(int)}，相同的结果只计算一次；
+ * 倍数是已有结果的整数倍时从已缩小的图像继续缩小，像素更少。缓存随帧一起释放
+ */
+final class SharedFrame extends GifRaster {
+
+    private final ArrayList<Scaled> scaled = new ArrayList<>(2);
+
+    SharedFrame(GifRaster image) {
+        super(image.pixels, image.width, image.height);
+    }
+
+    @Override
+    public GifRaster downsample(int sampleSize) {
+        return get(sampleSize, GifCompressOptions.SCALE_FILTER_BOX);
+    }
+
+    @Override
+    public GifRaster downsampleNearest(int sampleSize) {
+        return get(sampleSize, GifCompressOptions.SCALE_FILTER_NEAREST);
+    }
+
+    private synchronized GifRaster get(int sampleSize, int filter) {
+        if (sampleSize <= 1) {
+            return this;
+        }
+        // 块平均的块平均即更大块的平均(整数除法的舍入误差不超过1)，取点的取点即更稀疏的取点
+        Scaled base = null;
+        for (Scaled s : scaled) {
+            if (s.filter == filter && sampleSize % s.sampleSize == 0 && (base == null || s.sampleSize > base.sampleSize)) {
+                base = s;
+            }
+        }
+        GifRaster image;
+        if (base == null) {
+            image = scale(this, sampleSize, filter);
+        } else if (base.sampleSize == sampleSize) {
+            return base.image;
+        } else {
+            image = scale(base.image, sampleSize / base.sampleSize, filter);
+        }
+        scaled.add(new Scaled(sampleSize, filter, image));
+        return image;
+    }
+
+    private static GifRaster scale(GifRaster src, int sampleSize, int filter) {
+        GifRaster dst = new GifRaster(Math.max(1, src.width / sampleSize), Math.max(1, src.height / sampleSize));
+        if (filter == GifCompressOptions.SCALE_FILTER_NEAREST) {
+            GifRaster.downsampleNearest(src.pixels, src.width, sampleSize, dst.pixels, dst.width, dst.height);
+        } else {
+            GifRaster.downsample(src.pixels, src.width, src.height, sampleSize, dst.pixels, dst.width, dst.height);
+        }
+        return dst;
+    }
+
+    private static final class Scaled {
+        final int sampleSize;
+        final int filter;
+        final GifRaster image;
+
+        Scaled(int sampleSize, int filter, GifRaster image) {
+            this.sampleSize = sampleSize;
+            this.filter = filter;
+            this.image = image;
+        }
+    }
+}
@@ -1,10 +1,5 @@
 package com.ziguhonglan.testapp.giftool;
 
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -23,7 +18,7 @@ public class SimpleAnimatedGifEncoder {
     private int delay = 0; // frame delay (hundredths)
     private boolean started = false; // ready to output frames
     private OutputStream out;
-    private Bitmap image; // 当前帧
+    private GifRaster image; // 当前帧
     private byte[] pixels; // BGR byte array from frame
     private byte[] indexedPixels; // converted frame indexed to palette
     private int colorDepth; // number of bit planes
@@ -35,7 +30,18 @@ public class SimpleAnimatedGifEncoder {
     private boolean firstFrame = true;
     private boolean sizeSet = false; // if false, get size from first frame
     private int sample = 10; // default sample interval for quantizer
-    private Paint paint = new Paint();
+    private int colors = NeuQuant.MAX_COLORS; // 调色板颜色数
+    private int lossy = 0; // 有损程度，见LossyIndexFilter
+    private int quantizer = GifCompressOptions.QUANTIZER_NEUQUANT;
+    private int[] fixedPalette; // 固定调色板(RGB)，设置后不做量化
+    private boolean globalPaletteOnly = false; // 各帧共用全局调色板，不写局部调色板
+    private boolean exactPalette = false; // 不同颜色不超过colors时原样保留
+    private boolean localPalette; // 本帧不能精确映射到固定调色板，写局部颜色表
+    private PaletteMapper mapper;
+    private GifCompressHandle handle; // 取消检查，可为null
+    private GifCompressScheduler.Job stripes; // 帧内条带提交到的任务，为null时不拆分
+    private MetricsRecorder metrics; // 阶段统计，可为null
+    private int frameIndex;
 
     /**
      * Sets the delay time between each frame, or changes it for subsequent frames
@@ -90,6 +96,29 @@ public class SimpleAnimatedGifEncoder {
         transparent = c;
     }
 
+    /**
+     * 设置取消句柄，任务取消或超时时编码在量化前后及LZW循环中抛出CancellationException
+     */
+    public void setHandle(GifCompressHandle handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * 超大帧的BGR转换和调色板映射按行分条带，在job的编码线程上并行，见{@link RowStripes}。
+     * 只应在job的编码线程上编码时设置，为null(默认)时在调用线程上执行
+     */
+    void setRowStripes(GifCompressScheduler.Job job) {
+        this.stripes = job;
+    }
+
+    /**
+     * 设置阶段统计，量化、映射和LZW耗时按frameIndex上报
+     */
+    void setMetrics(MetricsRecorder recorder, int frameIndex) {
+        this.metrics = recorder;
+        this.frameIndex = frameIndex;
+    }
+
     private void writeHeader() {
         try {
             writeString("GIF89a");
@@ -114,9 +143,9 @@ public class SimpleAnimatedGifEncoder {
      * <code>setSize</code> was not invoked, the size of the first image is used
      * for all subsequent frames.
      *
-     * @param im BufferedImage containing frame to write.
+     * @param im GifRaster containing frame to write.
      */
-    public void writeFrameData(Bitmap im) {
+    public void writeFrameData(GifRaster im) {
         if ((im == null) || !started) {
             return;
         }
@@ -124,13 +153,21 @@ public class SimpleAnimatedGifEncoder {
             image = im;
             if (!sizeSet) {
                 // use first frame's size
-                setSize(im.getWidth(), im.getHeight());
+                setSize(im.width, im.height);
+            }
+            image = image.resizeCanvas(width, height); // create new image with right size
+            if (!mapToFixedPaletteExactly()) {
+                getImagePixels(); // convert to correct format if necessary
+                analyzePixels(); // build color table & map pixels
             }
-            getImagePixels(); // convert to correct format if necessary
-            analyzePixels(); // build color table & map pixels
             if (firstFrame) {
                 writeLSD(); // logical screen descriptior
-                writePalette(); // global color table
+                if (localPalette) {
+                    // 全局颜色表仍为固定调色板，本帧另写局部颜色表
+                    writePalette(PaletteMapper.colorTab(fixedPalette), tableSize(fixedPalette.length));
+                } else {
+                    writePalette(colorTab, palSize); // global color table
+                }
                 if (repeat >= 0) {
                     // use NS app extension to indicate reps
                     writeNetscapeExt();
@@ -138,11 +175,14 @@ public class SimpleAnimatedGifEncoder {
             }
             writeGraphicCtrlExt(); // write graphic control extension
             writeImageDesc(); // image descriptor
-            if (!firstFrame) {
-                writePalette(); // local color table
+            if (hasLocalPalette()) {
+                writePalette(colorTab, palSize); // local color table
             }
             writePixels(); // encode and write pixel data
             firstFrame = false;
+            if (metrics != null) {
+                metrics.frameEncoded();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (OutOfMemoryError e) {
@@ -164,9 +204,6 @@ public class SimpleAnimatedGifEncoder {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        if (image != null && !image.isRecycled()) {
-            image.recycle();
-        }
         // reset for subsequent use
         transIndex = 0;
         out = null;
@@ -207,6 +244,57 @@ public class SimpleAnimatedGifEncoder {
         sample = quality;
     }
 
+    /**
+     * 调色板颜色数(2~256)，颜色越少码长越短，默认256
+     */
+    public void setColors(int colors) {
+        this.colors = Math.max(NeuQuant.MIN_COLORS, Math.min(NeuQuant.MAX_COLORS, colors));
+    }
+
+    /**
+     * 有损程度，相邻像素颜色距离不超过该值时使用相同的索引，0表示无损，见{@link LossyIndexFilter}
+     */
+    public void setLossy(int lossy) {
+        this.lossy = Math.max(0, Math.min(LossyIndexFilter.MAX_LOSSY, lossy));
+    }
+
+    /**
+     * 量化方式，{@link GifCompressOptions#QUANTIZER_NEUQUANT}或{@link GifCompressOptions#QUANTIZER_UNIFORM}。
+     * 设置了透明色时总是使用NeuQuant
+     */
+    public void setQuantizer(int quantizer) {
+        this.quantizer = quantizer;
+    }
+
+    /**
+     * 设置固定调色板，像素映射到最接近的颜色，不做量化，为null时恢复量化。见{@link AnimatedGifEncoder#setPalette(int[])}
+     *
+     * @param rgb 最多256个RGB颜色
+     */
+    public void setPalette(int[] rgb) {
+        if (rgb != null && (rgb.length < 1 || rgb.length > 256)) {
+            throw new IllegalArgumentException("Palette size must be 1..256: " + rgb.length);
+        }
+        fixedPalette = rgb;
+    }
+
+    /**
+     * 设置后非第一帧不写局部调色板，使用第一帧写出的全局调色板。只应与{@link #setPalette(int[])}一起使用，
+     * 且各帧(包括分开编码的帧)使用同一调色板
+     */
+    public void setGlobalPaletteOnly(boolean globalPaletteOnly) {
+        this.globalPaletteOnly = globalPaletteOnly;
+    }
+
+    /**
+     * 精确调色板：帧内不同颜色不超过颜色数时直接用这些颜色作调色板，无损且不需要量化学习，
+     * 超过时仍按量化方式处理。与{@link #setPalette(int[])}一起使用时只接受固定调色板中的颜色：
+     * 有透明像素或调色板外颜色的帧按上述方式处理并写局部颜色表，不映射到最接近的颜色
+     */
+    public void setExactPalette(boolean exactPalette) {
+        this.exactPalette = exactPalette;
+    }
+
     /**
      * Sets the GIF frame size. The default size is the size of the first frame
      * added if this method is not invoked.
@@ -265,12 +353,31 @@ public class SimpleAnimatedGifEncoder {
      * Analyzes image colors and creates color map.
      */
     private void analyzePixels() {
+        if (transparent == -1) {
+            if (fixedPalette != null && !exactPalette) {
+                mapToFixedPalette();
+                return;
+            }
+            if (exactPalette && mapToExactPalette()) {
+                return;
+            }
+            if (quantizer == GifCompressOptions.QUANTIZER_UNIFORM) {
+                mapToUniformPalette();
+                return;
+            }
+        }
         int len = pixels.length;
         int nPix = len / 3;
-        indexedPixels = new byte[nPix];
-        NeuQuant nq = new NeuQuant(pixels, len, sample);
+        if (indexedPixels == null || indexedPixels.length != nPix) {
+            indexedPixels = new byte[nPix];
+        }
+        NeuQuant nq = new NeuQuant(pixels, len, sample, colors);
+        nq.setMetrics(metrics, frameIndex);
         // initialize quantizer
         colorTab = nq.process(); // create reduced palette
+        if (handle != null) {
+            handle.throwIfStopped();
+        }
         // convert map from BGR to RGB
         for (int i = 0; i < colorTab.length; i += 3) {
             byte temp = colorTab[i];
@@ -279,21 +386,178 @@ public class SimpleAnimatedGifEncoder {
             usedEntry[i / 3] = false;
         }
         // map image pixels to new palette
-        int k = 0;
-        for (int i = 0; i < nPix; i++) {
-            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff, transparent != -1);
-            usedEntry[index] = true;
-            indexedPixels[i] = (byte) index;
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        mapPixels(nq);
+        // 透明色固定为索引0，有损时不能与其他颜色合并
+        if (transparent == -1) {
+            LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        }
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, len);
         }
         pixels = null;
-        colorDepth = 8;
-        palSize = 7;
+        setPaletteSize(colors);
         // get closest match to transparent color if specified
         if (transparent != -1) {
             transIndex = findClosest(transparent);
         }
     }
 
+    /**
+     * 映射到均匀调色板，不做量化学习
+     */
+    private void mapToUniformPalette() {
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        UniformQuantizer uq = new UniformQuantizer(colors);
+        colorTab = uq.colorMap();
+        int len = pixels.length;
+        int nPix = len / 3;
+        indexedPixels = new byte[nPix];
+        mapPixels(uq);
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, len);
+        }
+        pixels = null;
+        setPaletteSize(uq.getColorCount());
+    }
+
+    /**
+     * 把pixels映射到NeuQuant学到的调色板，设置了{@link #setRowStripes}时超大帧按行分条带并行
+     */
+    private void mapPixels(final NeuQuant nq) {
+        final byte[] pixels = this.pixels;
+        final byte[] indexedPixels = this.indexedPixels;
+        final boolean[] usedEntry = this.usedEntry;
+        final boolean tran = transparent != -1;
+        final int width = this.width;
+        RowStripes.run(stripes, height, width, new RowStripes.Body() {
+            @Override
+            public void run(int from, int to) {
+                int end = to * width;
+                int k = from * width * 3;
+                for (int i = from * width; i < end; i++) {
+                    int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff, tran);
+                    // 各条带只会写入true，并发写同一项没有影响
+                    usedEntry[index] = true;
+                    indexedPixels[i] = (byte) index;
+                }
+            }
+        });
+    }
+
+    private void mapPixels(final UniformQuantizer uq) {
+        final byte[] pixels = this.pixels;
+        final byte[] indexedPixels = this.indexedPixels;
+        final int width = this.width;
+        RowStripes.run(stripes, height, width, new RowStripes.Body() {
+            @Override
+            public void run(int from, int to) {
+                int end = to * width;
+                int k = from * width * 3;
+                for (int i = from * width; i < end; i++) {
+                    int b = pixels[k++] & 0xff;
+                    int g = pixels[k++] & 0xff;
+                    int r = pixels[k++] & 0xff;
+                    indexedPixels[i] = (byte) uq.map(r, g, b);
+                }
+            }
+        });
+    }
+
+    private void mapToFixedPalette() {
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        colorTab = PaletteMapper.colorTab(fixedPalette);
+        indexedPixels = new byte[pixels.length / 3];
+        if (mapper == null) {
+            mapper = new PaletteMapper();
+        }
+        mapper.mapFixed(pixels, indexedPixels, fixedPalette);
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, pixels.length);
+        }
+        pixels = null;
+        setPaletteSize(fixedPalette.length);
+    }
+
+    /**
+     * 固定调色板且要求精确时，每个像素都不透明且颜色在调色板中才按它映射，不转换为BGR
+     *
+     * @return 不适用或不能精确映射时返回false，后者本帧写局部颜色表
+     */
+    private boolean mapToFixedPaletteExactly() {
+        localPalette = false;
+        if (fixedPalette == null || !exactPalette || transparent != -1) {
+            return false;
+        }
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        int nPix = width * height;
+        indexedPixels = new byte[nPix];
+        if (mapper == null) {
+            mapper = new PaletteMapper();
+        }
+        if (!mapper.mapFixedExact(image.pixels, nPix, indexedPixels, fixedPalette)) {
+            localPalette = true;
+            return false;
+        }
+        colorTab = PaletteMapper.colorTab(fixedPalette);
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, nPix * 3);
+        }
+        setPaletteSize(fixedPalette.length);
+        return true;
+    }
+
+    /**
+     * 帧内不同颜色不超过colors时直接作为调色板
+     *
+     * @return 颜色过多返回false，pixels保持不变
+     */
+    private boolean mapToExactPalette() {
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        indexedPixels = new byte[pixels.length / 3];
+        if (mapper == null) {
+            mapper = new PaletteMapper();
+        }
+        byte[] tab = mapper.mapExact(pixels, indexedPixels, colors);
+        if (tab == null) {
+            return false;
+        }
+        colorTab = tab;
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, pixels.length);
+        }
+        pixels = null;
+        setPaletteSize(colorTab.length / 3);
+        return true;
+    }
+
+    private void setPaletteSize(int n) {
+        palSize = tableSize(n);
+        colorDepth = palSize + 1;
+    }
+
+    /**
+     * 容纳n种颜色的颜色表大小(bits-1)
+     */
+    private static int tableSize(int n) {
+        int size = 0;
+        while ((2 << size) < n) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 非第一帧且不限于全局调色板，或本帧不能精确映射到固定调色板时写局部颜色表
+     */
+    private boolean hasLocalPalette() {
+        return localPalette || (!firstFrame && !globalPaletteOnly);
+    }
+
     /**
      * Returns index of palette color closest to c
      */
@@ -326,22 +590,21 @@ public class SimpleAnimatedGifEncoder {
      * Extracts image pixels into byte array "pixels"
      */
     private void getImagePixels() {
-        int w = image.getWidth();
-        int h = image.getHeight();
-        if ((w != width) || (h != height)) {
-            // create new image with right size/format
-            Bitmap temp = Bitmap.createBitmap(width, height, Config.ARGB_4444);
-            Canvas g = new Canvas(temp);
-            g.drawBitmap(image, 0, 0, paint);
-            if (!image.isRecycled()) {
-                image.recycle();
+        final int[] data = image.pixels;
+        final byte[] pixels = new byte[width * height * 3];
+        this.pixels = pixels;
+        final int width = this.width;
+        // 设置了任务时超大帧按行分条带并行
+        RowStripes.run(stripes, height, width, new RowStripes.Body() {
+            @Override
+            public void run(int from, int to) {
+                toBgr(data, pixels, from * width, to * width);
             }
-            image = temp;
-        }
-        int[] data = getImageData(image);
-        pixels = new byte[data.length * 3];
+        });
+    }
 
-        for (int i = 0; i < data.length; i++) {
+    private static void toBgr(int[] data, byte[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
             int td = data[i];
             if (td >> 24 != 0) {//去掉透明像素,这里实际上透明像素被赋值为0了
                 float r = ((td >> 16) & 0xff);
@@ -363,16 +626,6 @@ public class SimpleAnimatedGifEncoder {
         }
     }
 
-
-    private int[] getImageData(Bitmap img) {
-        int w = img.getWidth();
-        int h = img.getHeight();
-
-        int[] data = new int[w * h];
-        img.getPixels(data, 0, w, 0, 0, w, h);
-        return data;
-    }
-
     /**
      * Writes Graphic Control Extension
      */
@@ -414,7 +667,7 @@ public class SimpleAnimatedGifEncoder {
         writeShort(width); // image size
         writeShort(height);
         // packed fields
-        if (firstFrame) {
+        if (!hasLocalPalette()) {
             // no LCT - GCT is used for first (or only) frame
             out.write(0);
         } else {
@@ -438,7 +691,7 @@ public class SimpleAnimatedGifEncoder {
         out.write((0x80 | // 1 : global color table flag = 1 (gct used)
                 0x70 | // 2-4 : color resolution = 7
                 0x00 | // 5 : gct sort flag = 0
-                palSize)); // 6-8 : gct size
+                (localPalette ? tableSize(fixedPalette.length) : palSize))); // 6-8 : gct size
 
         out.write(0); // background color index
         out.write(0); // pixel aspect ratio - assume 1:1
@@ -461,9 +714,9 @@ public class SimpleAnimatedGifEncoder {
     /**
      * Writes color table
      */
-    private void writePalette() throws IOException {
+    private void writePalette(byte[] colorTab, int palSize) throws IOException {
         out.write(colorTab, 0, colorTab.length);
-        int n = (3 * 256) - colorTab.length;
+        int n = (3 * (2 << palSize)) - colorTab.length;
         for (int i = 0; i < n; i++) {
             out.write(0);
         }
@@ -474,6 +727,8 @@ public class SimpleAnimatedGifEncoder {
      */
     private void writePixels() throws IOException {
         LZWEncoder encoder = new LZWEncoder(width, height, indexedPixels, colorDepth);
+        encoder.setHandle(handle);
+        encoder.setMetrics(metrics, frameIndex);
         encoder.encode(out);
     }
 
@@ -0,0 +1,477 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 单线程逐帧Gif编码。
+ * 缩放画布、BGR像素缓冲、索引缓冲、NeuQuant和LZW状态都在帧之间复用，
+ * 峰值内存只与单帧尺寸有关，与帧数无关。
+ */
+public class StreamingGifEncoder {
+
+    private final OutputStream out;
+    private final GifCompressOptions options;
+    private final int sample; // sample interval for quantizer
+    private final int repeat; // 重复设置，0表示无限重复
+    private final int colors; // 调色板颜色数
+    private final int lossy; // 有损程度，见LossyIndexFilter
+    private final UniformQuantizer uniform; // 使用均匀调色板时不为null
+    private int[] fixedPalette; // 固定调色板(RGB)，设置后不做量化
+    private byte[] fixedTab; // 固定调色板的颜色表
+    private int fixedPalSize; // 固定调色板的颜色表大小
+    private byte[] uniformTab; // 均匀调色板的颜色表，帧之间不变
+    private boolean exactPalette = false; // 不同颜色不超过colors时原样保留
+    private boolean localPalette; // 本帧不能精确映射到固定调色板，写局部颜色表
+    private PaletteMapper mapper;
+    private int quantizedPalSize; // 量化时的颜色表大小
+    private int palSize; // color table size (bits-1)
+    private int sampleSize = 1; // 缩小倍数，首帧确定
+    private int width; // 输出帧宽度
+    private int height; // 输出帧高度
+    private int delay = 0; // frame delay (hundredths)
+    private boolean firstFrame = true;
+    private boolean started = false;
+    private int[] scaled; // 缩小后的ARGB像素
+    private byte[] pixels; // BGR byte array from frame
+    private byte[] indexedPixels; // converted frame indexed to palette
+    private byte[] colorTab; // RGB palette
+    private NeuQuant nq;
+    private LZWEncoder lzw;
+    private MetricsRecorder metrics; // 阶段统计，可为null
+    private int frameIndex;
+
+    public StreamingGifEncoder(OutputStream os, GifCompressOptions options) {
+        out = new BufferedOutputStream(os, 8 * 1024);
+        this.options = options;
+        sample = options.getQuality();
+        repeat = options.getRepeat();
+        colors = options.getColors();
+        lossy = options.getLossy();
+        uniform = options.getQuantizer() == GifCompressOptions.QUANTIZER_UNIFORM ? new UniformQuantizer(colors) : null;
+        quantizedPalSize = palSize(uniform != null ? uniform.getColorCount() : colors);
+        palSize = quantizedPalSize;
+    }
+
+    /**
+     * 设置固定调色板，各帧映射到最接近的颜色，只写全局颜色表。必须在第一帧之前调用
+     *
+     * @param rgb 最多256个RGB颜色，为null时恢复量化
+     */
+    public void setPalette(int[] rgb) {
+        if (rgb != null && (rgb.length < 1 || rgb.length > 256)) {
+            throw new IllegalArgumentException("Palette size must be 1..256: " + rgb.length);
+        }
+        fixedPalette = rgb;
+        fixedTab = rgb != null ? PaletteMapper.colorTab(rgb) : null;
+        fixedPalSize = rgb != null ? palSize(rgb.length) : 0;
+    }
+
+    /**
+     * 精确调色板：帧内不同颜色不超过颜色数时直接作为该帧的调色板，超过时仍按量化方式处理。
+     * 设置了固定调色板时只接受其中的颜色：有透明像素或调色板外颜色的帧按上述方式处理并写局部颜色表，
+     * 不映射到最接近的颜色
+     */
+    public void setExactPalette(boolean exactPalette) {
+        this.exactPalette = exactPalette;
+    }
+
+    private static int palSize(int n) {
+        int size = 0;
+        while ((2 << size) < n) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 设置阶段统计，之后addFrame的帧按frameIndex上报
+     */
+    void setMetrics(MetricsRecorder recorder) {
+        this.metrics = recorder;
+    }
+
+    /**
+     * 设置下一次addFrame对应的源帧序号，仅用于统计上报
+     */
+    void setFrameIndex(int frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    /**
+     * 编码并立即写出一帧
+     *
+     * @param argb    完整画布的ARGB像素，调用返回后不再持有
+     * @param w       画布宽度
+     * @param h       画布高度
+     * @param delayMs 帧延迟(毫秒)
+     * @return false表示写出失败
+     */
+    public boolean addFrame(int[] argb, int w, int h, int delayMs) {
+        if (argb == null || w < 1 || h < 1) {
+            return false;
+        }
+        try {
+            if (!started) {
+                setupSize(w, h);
+                writeString("GIF89a");
+                started = true;
+            }
+            delay = delayMs / 10;
+            int[] data = scale(argb, w, h);
+            if (!mapToFixedPaletteExactly(data)) {
+                getImagePixels(data);
+                analyzePixels();
+            }
+            if (firstFrame) {
+                writeLSD(); // logical screen descriptior
+                if (localPalette) {
+                    // 全局颜色表仍为固定调色板，本帧另写局部颜色表
+                    writePalette(fixedTab, fixedPalSize);
+                } else {
+                    writePalette(colorTab, palSize); // global color table
+                }
+                if (repeat >= 0) {
+                    writeNetscapeExt();
+                }
+            }
+            writeGraphicCtrlExt();
+            writeImageDesc();
+            if (hasLocalPalette()) {
+                writePalette(colorTab, palSize); // local color table
+            }
+            writePixels();
+            firstFrame = false;
+            if (metrics != null) {
+                metrics.frameEncoded();
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 编码并立即写出一帧，见{@link #addFrame(int[], int, int, int)}
+     */
+    public boolean addFrame(GifRaster frame, int delayMs) {
+        return frame != null && addFrame(frame.pixels, frame.width, frame.height, delayMs);
+    }
+
+    /**
+     * 写出文件尾并flush，不关闭输出流
+     */
+    public boolean finish() {
+        if (!started) {
+            return false;
+        }
+        started = false;
+        try {
+            out.write(0x3b); // gif trailer
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            scaled = null;
+            pixels = null;
+            indexedPixels = null;
+            nq = null;
+            lzw = null;
+            mapper = null;
+        }
+    }
+
+    private void setupSize(int w, int h) {
+        sampleSize = options.getSampleSize(w, h);
+        width = Math.max(1, w / sampleSize);
+        height = Math.max(1, h / sampleSize);
+    }
+
+    /**
+     * 按sampleSize缩小
+     *
+     * @return 输出尺寸的ARGB像素，不缩小时为argb
+     */
+    private int[] scale(int[] argb, int stride, int srcHeight) {
+        if (sampleSize == 1) {
+            return argb;
+        }
+        if (scaled == null) {
+            scaled = new int[width * height];
+        }
+        if (options.getScaleFilter() == GifCompressOptions.SCALE_FILTER_NEAREST) {
+            GifRaster.downsampleNearest(argb, stride, sampleSize, scaled, width, height);
+        } else {
+            GifRaster.downsample(argb, stride, srcHeight, sampleSize, scaled, width, height);
+        }
+        return scaled;
+    }
+
+    /**
+     * 固定调色板且要求精确时，每个像素都不透明且颜色在调色板中才按它映射，不转换为BGR
+     *
+     * @param data 输出尺寸的ARGB像素
+     * @return 不适用或不能精确映射时返回false，后者本帧写局部颜色表
+     */
+    private boolean mapToFixedPaletteExactly(int[] data) {
+        localPalette = false;
+        if (fixedPalette == null || !exactPalette) {
+            return false;
+        }
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        int nPix = width * height;
+        if (indexedPixels == null) {
+            indexedPixels = new byte[nPix];
+        }
+        if (mapper == null) {
+            mapper = new PaletteMapper();
+        }
+        if (!mapper.mapFixedExact(data, nPix, indexedPixels, fixedPalette)) {
+            localPalette = true;
+            return false;
+        }
+        colorTab = fixedTab;
+        palSize = fixedPalSize;
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, nPix * 3);
+        }
+        return true;
+    }
+
+    /**
+     * 转为BGR字节
+     *
+     * @param data 输出尺寸的ARGB像素
+     */
+    private void getImagePixels(int[] data) {
+        int nPix = width * height;
+        if (pixels == null) {
+            pixels = new byte[nPix * 3];
+        }
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int td = data[i];
+            if (td >>> 24 != 0) {
+                pixels[k++] = (byte) (td & 0xff);
+                pixels[k++] = (byte) ((td >> 8) & 0xff);
+                pixels[k++] = (byte) ((td >> 16) & 0xff);
+            } else {
+                // 透明像素
+                pixels[k++] = 0;
+                pixels[k++] = 0;
+                pixels[k++] = 0;
+            }
+        }
+    }
+
+    /**
+     * Analyzes image colors and creates color map.
+     */
+    void analyzePixels() {
+        int len = pixels.length;
+        int nPix = len / 3;
+        if (indexedPixels == null) {
+            indexedPixels = new byte[nPix];
+        }
+        palSize = quantizedPalSize;
+        if (fixedPalette != null && !exactPalette) {
+            long mapStart = metrics != null ? System.nanoTime() : 0;
+            if (mapper == null) {
+                mapper = new PaletteMapper();
+            }
+            colorTab = fixedTab;
+            palSize = fixedPalSize;
+            mapper.mapFixed(pixels, indexedPixels, fixedPalette);
+            LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+            if (metrics != null) {
+                metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, len);
+            }
+            return;
+        }
+        if (exactPalette && uniform == null) {
+            long mapStart = metrics != null ? System.nanoTime() : 0;
+            if (mapper == null) {
+                mapper = new PaletteMapper();
+            }
+            byte[] tab = mapper.mapExact(pixels, indexedPixels, colors);
+            if (tab != null) {
+                colorTab = tab;
+                palSize = palSize(tab.length / 3);
+                LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+                if (metrics != null) {
+                    metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, len);
+                }
+                return;
+            }
+        }
+        if (uniform != null) {
+            mapToUniformPalette(nPix);
+            return;
+        }
+        if (nq == null) {
+            nq = new NeuQuant(pixels, len, sample, colors);
+        } else {
+            nq.reset(pixels, len, sample);
+        }
+        nq.setMetrics(metrics, frameIndex);
+        colorTab = nq.process(); // create reduced palette
+        // convert map from BGR to RGB
+        for (int i = 0; i < colorTab.length; i += 3) {
+            byte temp = colorTab[i];
+            colorTab[i] = colorTab[i + 2];
+            colorTab[i + 2] = temp;
+        }
+        // map image pixels to new palette
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int index = nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff, false);
+            indexedPixels[i] = (byte) index;
+        }
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, len);
+        }
+    }
+
+    /**
+     * 映射到均匀调色板，调色板在帧之间不变
+     */
+    private void mapToUniformPalette(int nPix) {
+        long mapStart = metrics != null ? System.nanoTime() : 0;
+        if (uniformTab == null) {
+            uniformTab = uniform.colorMap();
+        }
+        colorTab = uniformTab;
+        int k = 0;
+        for (int i = 0; i < nPix; i++) {
+            int b = pixels[k++] & 0xff;
+            int g = pixels[k++] & 0xff;
+            int r = pixels[k++] & 0xff;
+            indexedPixels[i] = (byte) uniform.map(r, g, b);
+        }
+        LossyIndexFilter.apply(indexedPixels, width, height, colorTab, lossy);
+        if (metrics != null) {
+            metrics.record(frameIndex, CompressionMetrics.STAGE_MAP, System.nanoTime() - mapStart, pixels.length);
+        }
+    }
+
+    /**
+     * 均匀调色板和固定调色板每帧相同，只写全局颜色表；本帧不能精确映射到固定调色板时写局部颜色表
+     */
+    private boolean hasLocalPalette() {
+        return localPalette || (!firstFrame && uniform == null && fixedPalette == null);
+    }
+
+    /**
+     * Writes Graphic Control Extension
+     */
+    private void writeGraphicCtrlExt() throws IOException {
+        out.write(0x21); // extension introducer
+        out.write(0xf9); // GCE label
+        out.write(4); // data block size
+        out.write(0); // packed fields: no disposal, no transparency
+        writeShort(delay); // delay x 1/100 sec
+        out.write(0); // transparent color index
+        out.write(0); // block terminator
+    }
+
+    /**
+     * Writes Image Descriptor
+     */
+    private void writeImageDesc() throws IOException {
+        out.write(0x2c); // image separator
+        writeShort(0); // image position x,y = 0,0
+        writeShort(0);
+        writeShort(width); // image size
+        writeShort(height);
+        // packed fields
+        if (!hasLocalPalette()) {
+            // no LCT - GCT is used for first (or only) frame
+            out.write(0);
+        } else {
+            // specify normal LCT
+            out.write(0x80 | palSize);
+        }
+    }
+
+    /**
+     * Writes Logical Screen Descriptor
+     */
+    private void writeLSD() throws IOException {
+        // logical screen size
+        writeShort(width);
+        writeShort(height);
+        // packed fields
+        out.write((0x80 | // 1 : global color table flag = 1 (gct used)
+                0x70 | // 2-4 : color resolution = 7
+                0x00 | // 5 : gct sort flag = 0
+                (localPalette ? fixedPalSize : palSize))); // 6-8 : gct size
+
+        out.write(0); // background color index
+        out.write(0); // pixel aspect ratio - assume 1:1
+    }
+
+    /**
+     * Writes Netscape application extension to define repeat count.
+     */
+    private void writeNetscapeExt() throws IOException {
+        out.write(0x21); // extension introducer
+        out.write(0xff); // app extension label
+        out.write(11); // block size
+        writeString("NETSCAPE" + "2.0"); // app id + auth code
+        out.write(3); // sub-block size
+        out.write(1); // loop sub-block id
+        writeShort(repeat); // loop count (extra iterations, 0=repeat forever)
+        out.write(0); // block terminator
+    }
+
+    /**
+     * Writes color table
+     */
+    private void writePalette(byte[] colorTab, int palSize) throws IOException {
+        out.write(colorTab, 0, colorTab.length);
+        int n = (3 * (2 << palSize)) - colorTab.length;
+        for (int i = 0; i < n; i++) {
+            out.write(0);
+        }
+    }
+
+    /**
+     * Encodes and writes pixel data, reusing the LZW hash tables
+     */
+    private void writePixels() throws IOException {
+        if (lzw == null) {
+            lzw = new LZWEncoder(width, height, indexedPixels, palSize + 1);
+        } else {
+            lzw.reset(width, height, indexedPixels, palSize + 1);
+        }
+        // LZW直接写入输出流，写出耗时计入LZW阶段
+        lzw.setMetrics(metrics, frameIndex);
+        lzw.encode(out);
+    }
+
+    /**
+     * Write 16-bit value to output stream, LSB first
+     */
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    /**
+     * Writes string to output stream
+     */
+    private void writeString(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            out.write((byte) s.charAt(i));
+        }
+    }
+}
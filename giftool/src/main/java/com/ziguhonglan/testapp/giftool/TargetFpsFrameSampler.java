@@ -0,0 +1,65 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 按目标帧率抽帧：沿各帧的累计播放时间前进，每个1/fps的时间槽内只保留最先出现的一帧，
+ * 合并了丢弃帧的保留帧，输出延迟为到下一个保留帧之间的全部播放时间，总时长和播放速度不变；
+ * 其余保留帧保持原延迟。原始帧率不超过目标帧率时保留全部帧，延迟不变
+ */
+public class TargetFpsFrameSampler implements FrameSampler {
+
+    private static final double SLOT_TOLERANCE_MS = 0.5; // 延迟以10ms为单位，容忍时间槽边界的浮点误差
+
+    private final float fps;
+
+    /**
+     * @param fps 目标帧率，小于等于0时保留全部帧
+     */
+    public TargetFpsFrameSampler(float fps) {
+        this.fps = Math.max(0, fps);
+    }
+
+    public float getFps() {
+        return fps;
+    }
+
+    @Override
+    public int[] sample(int[] delays) {
+        int n = delays.length;
+        int[] result = new int[n];
+        double interval = fps > 0 ? 1000.0 / fps : 0;
+        double nextSlot = 0;
+        long time = 0; // 当前帧开始播放的时间
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            // 按播放器实际使用的延迟计算时间，0延迟帧不会被当作同一时刻
+            int delay = GifInfo.playbackDelay(delays[i]);
+            if (i == 0 || time >= nextSlot - SLOT_TOLERANCE_MS) {
+                kept = i;
+                // 没有合并丢弃帧时保持原延迟
+                result[i] = delays[i];
+                if (interval > 0) {
+                    // 按固定的时间槽网格前进，避免误差累积
+                    nextSlot = (Math.floor((time + SLOT_TOLERANCE_MS) / interval) + 1) * interval;
+                }
+            } else {
+                result[i] = DROP;
+                if (i == kept + 1) {
+                    result[kept] = GifInfo.playbackDelay(delays[kept]);
+                }
+                result[kept] += delay;
+            }
+            time += delay;
+        }
+        return result;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return getClass().getName() + ":" + "fps" + fps;
+    }
+
+    @Override
+    public String toString() {
+        return "fps" + fps;
+    }
+}
@@ -0,0 +1,394 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+/**
+ * 目标大小模式：用少量采样帧估算不同参数下的输出大小，选出满足上限的参数后只完整编码一次。
+ * <p>
+ * 参数阶梯从调用方的参数开始，每一级在有损程度、颜色数、帧率和缩小倍数中轮流降低一项，
+ * 越往后画质越差、输出越小。每一级先用{@link CompressionPlanner}选出完整编码时的策略，
+ * 原样输出时估算大小就是输入大小；否则按该级的抽帧计划取几个保留帧及各自的前一个保留帧，
+ * 采样帧按同一策略编码(差分帧只编码与前一个保留帧相比的变化区域，沿用全局颜色表或精确调色板，
+ * 与前一个保留帧相同且开启去重时不计)，估算大小 = 第0帧的编码大小 + 其余采样帧的平均编码大小 * (保留的帧数 - 1)。
+ * 抽帧计划相同的级共用一次解码，计划、缩小倍数、颜色数、有损程度和策略都相同的级共用一次采样编码。
+ * 按阶梯单调二分查找，通常只需编码几组采样帧。
+ */
+final class TargetSizePlanner {
+
+    private static final Logger LOG = Logger.getLogger("GifCompressor");
+
+    private static final int SAMPLE_FRAMES = 4;
+    // 估算只用了少量帧，留出余量
+    private static final float SAFETY = 0.95f;
+    private static final int[] LOSSY_STEPS = {20, 40, 60, 80};
+    private static final int[] COLOR_STEPS = {128, 64, 32, 16};
+    private static final float FPS_STEP = 0.75f;
+    private static final float MIN_FPS = 4;
+    private static final int MIN_OUTPUT_SIZE = 96; // 缩小后长边的下限
+
+    private static final int KIND_LOSSY = 0;
+    private static final int KIND_COLORS = 1;
+    private static final int KIND_FPS = 2;
+    private static final int KIND_SCALE = 3;
+
+    private final GifSource source;
+    private final GifCompressOptions options;
+    private final boolean streaming;
+    private final GifCompressHandle handle;
+    private GifInfo info;
+    private int[] delays;
+    private GifRaster[] samples; // 第0个是第0帧
+    private GifRaster[] previous; // 各采样帧的前一个保留帧，第0帧没有前一帧
+    private String sampledKey; // 当前采样帧的帧序号
+    private final ArrayList<Step> ladder = new ArrayList<>();
+    // "保留帧数/缩小倍数/颜色数/有损程度/策略" -> {第0帧的字节数, 其余采样帧的平均每帧字节数}
+    private final HashMap<String, long[]> sampleBytes = new HashMap<>();
+    private int chosen = -1;
+    private float correction = 1f; // 实际大小与估算大小之比，完整编码后用于修正
+
+    /**
+     * @param source    输入，块结构扫描、内容分析和采样帧解码都回到起点重新读取
+     * @param streaming 是否用于流式压缩，与{@link CompressionPlanner}选择策略时一致
+     * @param handle    取消句柄，可为null
+     */
+    TargetSizePlanner(GifSource source, GifCompressOptions options, boolean streaming, GifCompressHandle handle) {
+        this.source = source;
+        this.options = options;
+        this.streaming = streaming;
+        this.handle = handle;
+    }
+
+    /**
+     * 选出估算大小满足上限的第一级参数，都不满足时返回最后一级
+     *
+     * @return 用于完整编码的参数(不再带大小上限)，取消时返回null
+     */
+    GifCompressOptions plan() throws IOException {
+        info = GifInfo.read(source.open());
+        if (info == null || info.getFrameCount() == 0) {
+            // 无法读取块结构，按原参数编码，由解码报告错误
+            return options.copy().setMaxBytes(0);
+        }
+        delays = new int[info.getFrameCount()];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = info.getFrame(i).delay;
+        }
+        buildLadder();
+        return choose(0);
+    }
+
+    /**
+     * 上一次选出的参数完整编码后仍超出上限时，按实际大小修正估算，从下一级开始重新选择
+     *
+     * @param actualBytes 上一次完整编码的输出大小
+     * @return 新的参数，已经是最后一级或取消时返回null
+     */
+    GifCompressOptions replan(long actualBytes) throws IOException {
+        if (!canReplan()) {
+            return null;
+        }
+        long estimated = estimate(ladder.get(chosen));
+        if (estimated > 0) {
+            correction *= (float) actualBytes / estimated;
+        }
+        return choose(chosen + 1);
+    }
+
+    /**
+     * 上一次选出的不是最后一级，超出上限时还可以{@link #replan(long)}
+     */
+    boolean canReplan() {
+        return chosen >= 0 && chosen < ladder.size() - 1;
+    }
+
+    private GifCompressOptions choose(int from) throws IOException {
+        long budget = (long) (options.getMaxBytes() * SAFETY);
+        int lo = from;
+        int hi = ladder.size() - 1;
+        // 估算随级数单调不增，二分查找第一个满足上限的级
+        while (lo < hi) {
+            if (handle != null && handle.isStopped()) {
+                return null;
+            }
+            int mid = (lo + hi) >>> 1;
+            if (estimate(ladder.get(mid)) <= budget) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        if (handle != null && handle.isStopped()) {
+            return null;
+        }
+        chosen = lo;
+        Step step = ladder.get(chosen);
+        LOG.info("target size " + options.getMaxBytes() + ": step " + chosen + "/" + (ladder.size() - 1)
+                + " " + step + ", estimated " + estimate(step) + " bytes");
+        return step.options;
+    }
+
+    private long estimate(Step step) throws IOException {
+        CompressionPlanner planner = step.getPlanner();
+        if (planner.getStrategy() == GifCompressOptions.STRATEGY_REMUX) {
+            // 原样输出的大小：结束标志之前的块加上结束标志
+            return info.getEndOffset() + 1;
+        }
+        boolean delta = planner.getStrategy() == GifCompressOptions.STRATEGY_DELTA;
+        String key = step.frameCount + "/" + step.sampleSize + "/" + step.options.getColors() + "/" + step.options.getLossy()
+                + "/" + (delta ? "delta" : "full") + "/" + planner.usesGlobalPalette() + "/" + planner.usesExactPalette();
+        long[] bytes = sampleBytes.get(key);
+        if (bytes == null) {
+            sample(step.plan);
+            bytes = encodeSamples(step, planner, delta);
+            sampleBytes.put(key, bytes);
+        }
+        return (long) ((bytes[0] + bytes[1] * (step.frameCount - 1)) * correction);
+    }
+
+    /**
+     * 按该级的策略编码采样帧，只统计字节数
+     *
+     * @return {第0帧的字节数, 其余采样帧的平均每帧字节数}
+     */
+    private long[] encodeSamples(Step step, CompressionPlanner planner, boolean delta) {
+        boolean dedupe = step.options.getDuplicateThreshold() >= 0;
+        long first = encodeSample(step, planner, samples[0], null, true);
+        long rest = 0;
+        for (int i = 1; i < samples.length; i++) {
+            int[] rect = CompressionPlanner.changedRect(previous[i], samples[i], step.sampleSize);
+            if (rect == null && dedupe) {
+                // 与前一帧相同，被去重合并
+                continue;
+            }
+            if (delta && rect == null) {
+                rect = new int[]{0, 0, 1, 1};
+            }
+            rest += encodeSample(step, planner, samples[i], delta ? rect : null, false);
+        }
+        return new long[]{first, samples.length > 1 ? rest / (samples.length - 1) : first};
+    }
+
+    /**
+     * 与{@link GifCompressor}的编码阶段相同的参数编码一帧
+     *
+     * @param rect 差分帧只编码的区域(缩小后的坐标)，为null时编码整帧
+     */
+    private long encodeSample(Step step, CompressionPlanner planner, GifRaster image, int[] rect, boolean first) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        EncoderTask task = new EncoderTask(bos, image, first, 1, 100, step.options.getRepeat());
+        task.setQuality(step.options.getQuality());
+        task.setQuantizer(step.options.getQuantizer());
+        task.setSampleSize(step.sampleSize);
+        task.setScaleFilter(step.options.getScaleFilter());
+        if (planner.usesGlobalPalette()) {
+            task.setPalette(planner.getGlobalPalette(), true);
+        }
+        task.setExactPalette(planner.usesExactPalette());
+        if (rect != null) {
+            task.setDispose(1);
+            task.setCrop(rect);
+            task.setPosition(rect[0], rect[1]);
+        }
+        task.setColors(step.options.getColors());
+        task.setLossy(step.options.getLossy());
+        task.run();
+        return bos.size();
+    }
+
+    /**
+     * 按抽帧计划取均匀分布的几个保留帧及各自的前一个保留帧作为采样帧，采样的帧相同时沿用上一次的解码结果。
+     * 最后一个采样帧之后不再解码
+     */
+    private void sample(int[] plan) throws IOException {
+        int n = info.getFrameCount();
+        int[] kept = new int[n];
+        int keptCount = 0;
+        for (int i = 0; i < n; i++) {
+            // 第0帧写文件头，总是保留
+            if (i == 0 || i >= plan.length || plan[i] != FrameSampler.DROP) {
+                kept[keptCount++] = i;
+            }
+        }
+        int count = Math.min(SAMPLE_FRAMES, keptCount);
+        final int[] indices = new int[count];
+        final int[] prior = new int[count];
+        final boolean[] wanted = new boolean[n];
+        for (int i = 0; i < count; i++) {
+            int k = count > 1 ? i * (keptCount - 1) / (count - 1) : 0;
+            indices[i] = kept[k];
+            prior[i] = k > 0 ? kept[k - 1] : -1;
+            wanted[indices[i]] = true;
+            if (prior[i] >= 0) {
+                wanted[prior[i]] = true;
+            }
+        }
+        String key = Arrays.toString(indices) + Arrays.toString(prior);
+        if (key.equals(sampledKey)) {
+            return;
+        }
+        final int lastSample = count > 0 ? indices[count - 1] : 0;
+        final HashMap<Integer, GifRaster> decoded = new HashMap<>();
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        boolean[] skipped = new boolean[n];
+        for (int i = 1; i < n; i++) {
+            skipped[i] = !wanted[i];
+        }
+        decoder.setSkippedFrames(skipped);
+        decoder.read(source.open(), new IGifFrameListener() {
+            @Override
+            public boolean onFrameDecoded(int index, GifFrame frame) {
+                if (handle != null && handle.isStopped()) {
+                    return false;
+                }
+                if (index < wanted.length && wanted[index]) {
+                    decoded.put(index, frame.image.copy());
+                }
+                return index < lastSample;
+            }
+        });
+        ArrayList<GifRaster> sampled = new ArrayList<>();
+        ArrayList<GifRaster> before = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            GifRaster image = decoded.get(indices[i]);
+            GifRaster previousImage = prior[i] >= 0 ? decoded.get(prior[i]) : null;
+            if (image != null && (prior[i] < 0 || previousImage != null)) {
+                sampled.add(image);
+                before.add(previousImage);
+            }
+        }
+        if (sampled.isEmpty()) {
+            // 第0帧都无法解码时用1x1占位，估算接近0而选第一级，由完整编码报告错误
+            sampled.add(new GifRaster(1, 1));
+            before.add(null);
+        }
+        samples = sampled.toArray(new GifRaster[0]);
+        previous = before.toArray(new GifRaster[0]);
+        sampledKey = key;
+    }
+
+    /**
+     * 从调用方的参数开始，轮流降低一项参数直到全部到达下限
+     */
+    private void buildLadder() {
+        GifCompressOptions base = options.copy().setMaxBytes(0);
+        int width = info.getWidth();
+        int height = info.getHeight();
+        FrameSampler sampler = base.getFrameSampler();
+        // 只有按帧率抽帧时才调整帧率，自定义的抽帧策略保持不变
+        float fps = 0;
+        if (sampler instanceof TargetFpsFrameSampler) {
+            fps = info.getFps();
+            float maxFps = ((TargetFpsFrameSampler) sampler).getFps();
+            if (maxFps > 0 && maxFps < fps) {
+                fps = maxFps;
+            }
+        }
+        int lossyStep = indexAbove(LOSSY_STEPS, base.getLossy());
+        int colorStep = indexBelow(COLOR_STEPS, base.getColors());
+        Step step = new Step(base, width, height);
+        ladder.add(step);
+        int kind = KIND_LOSSY;
+        int exhausted = 0;
+        while (exhausted < 4) {
+            GifCompressOptions next = null;
+            if (kind == KIND_LOSSY && lossyStep < LOSSY_STEPS.length) {
+                next = step.options.copy().setLossy(LOSSY_STEPS[lossyStep++]);
+            } else if (kind == KIND_COLORS && colorStep < COLOR_STEPS.length) {
+                next = step.options.copy().setColors(COLOR_STEPS[colorStep++]);
+            } else if (kind == KIND_FPS && fps * FPS_STEP >= MIN_FPS) {
+                fps *= FPS_STEP;
+                next = step.options.copy().setMaxFps(fps).setFrameSampler(null);
+            } else if (kind == KIND_SCALE) {
+                next = scaledDown(step.options, width, height);
+            }
+            if (next != null) {
+                step = new Step(next, width, height);
+                ladder.add(step);
+                exhausted = 0;
+            } else {
+                exhausted++;
+            }
+            kind = (kind + 1) % 4;
+        }
+    }
+
+    /**
+     * 缩小倍数加1，长边低于下限时返回null
+     */
+    private static GifCompressOptions scaledDown(GifCompressOptions current, int width, int height) {
+        int sampleSize = current.getSampleSize(width, height);
+        for (int s = sampleSize + 1; Math.max(width, height) / s >= MIN_OUTPUT_SIZE; s++) {
+            GifCompressOptions next = current.copy()
+                    .setMaxWidth((width + s - 1) / s)
+                    .setMaxHeight((height + s - 1) / s);
+            // 按最大宽高换算的倍数可能不是正好s
+            if (next.getSampleSize(width, height) > sampleSize) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    private static int indexAbove(int[] steps, int value) {
+        int i = 0;
+        while (i < steps.length && steps[i] <= value) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int indexBelow(int[] steps, int value) {
+        int i = 0;
+        while (i < steps.length && steps[i] >= value) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 阶梯中的一级
+     */
+    private final class Step {
+        final GifCompressOptions options;
+        final int sampleSize;
+        final int frameCount; // 抽帧后保留的帧数
+        final int[] plan;
+        private CompressionPlanner planner; // 用到时才分析
+
+        Step(GifCompressOptions options, int width, int height) {
+            this.options = options;
+            this.sampleSize = options.getSampleSize(width, height);
+            plan = options.getFrameSampler().sample(delays);
+            int kept = 0;
+            for (int delay : plan) {
+                if (delay != FrameSampler.DROP) {
+                    kept++;
+                }
+            }
+            this.frameCount = kept;
+        }
+
+        /**
+         * 该级参数完整编码时的策略
+         */
+        CompressionPlanner getPlanner() throws IOException {
+            if (planner == null) {
+                planner = CompressionPlanner.plan(source, info, plan, options, streaming, handle);
+            }
+            return planner;
+        }
+
+        @Override
+        public String toString() {
+            return "scale 1/" + sampleSize + ", " + options.getFrameSampler() + " (" + frameCount + " frames)"
+                    + ", colors " + options.getColors() + ", lossy " + options.getLossy()
+                    + (planner != null ? ", " + CompressionPlanner.name(planner.getStrategy()) : "");
+        }
+    }
+}
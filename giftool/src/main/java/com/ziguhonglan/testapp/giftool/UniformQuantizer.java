@@ -0,0 +1,54 @@
+package com.ziguhonglan.testapp.giftool;
+
+/**
+ * 均匀调色板量化：RGB各分量按固定级数均匀划分，不需要学习，映射只是几次乘除。
+ * 比NeuQuant快得多，代价是调色板不贴合图像，渐变处有色带
+ */
+final class UniformQuantizer {
+
+    private final int levelsR;
+    private final int levelsG;
+    private final int levelsB;
+
+    /**
+     * @param colors 最多使用的颜色数，绿色分量多分一些级，例如256色为6x7x6
+     */
+    UniformQuantizer(int colors) {
+        int levels = 1;
+        while ((levels + 1) * (levels + 1) * (levels + 1) <= colors) {
+            levels++;
+        }
+        levelsR = Math.max(2, levels);
+        levelsB = levelsR;
+        levelsG = Math.max(2, colors / (levelsR * levelsB));
+    }
+
+    int getColorCount() {
+        return levelsR * levelsG * levelsB;
+    }
+
+    /**
+     * RGB调色板
+     */
+    byte[] colorMap() {
+        byte[] map = new byte[3 * getColorCount()];
+        int k = 0;
+        for (int r = 0; r < levelsR; r++) {
+            for (int g = 0; g < levelsG; g++) {
+                for (int b = 0; b < levelsB; b++) {
+                    map[k++] = (byte) (r * 255 / (levelsR - 1));
+                    map[k++] = (byte) (g * 255 / (levelsG - 1));
+                    map[k++] = (byte) (b * 255 / (levelsB - 1));
+                }
+            }
+        }
+        return map;
+    }
+
+    int map(int r, int g, int b) {
+        int ri = (r * (levelsR - 1) + 127) / 255;
+        int gi = (g * (levelsG - 1) + 127) / 255;
+        int bi = (b * (levelsB - 1) + 127) / 255;
+        return (ri * levelsG + gi) * levelsB + bi;
+    }
+}
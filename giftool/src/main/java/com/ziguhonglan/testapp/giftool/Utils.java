@@ -0,0 +1,89 @@
+package com.ziguhonglan.testapp.giftool;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+public class Utils {
+    public static String toHex(int value, int length) {
+        String hex = Integer.toHexString(value);
+        hex = hex.toUpperCase();
+
+        if (hex.length() < length) {
+            while (hex.length() < length)
+                hex = "0" + hex;
+        } else if (hex.length() > length) {
+            hex = hex.substring(hex.length() - length);
+        }
+        return hex;
+    }
+
+    public static byte[] streamToBytes(InputStream stream) throws IOException,
+            OutOfMemoryError {
+        byte[] buff = new byte[1024];
+        int read;
+        ByteArrayOutputStream bao = new ByteArrayOutputStream();
+        while ((read = stream.read(buff)) != -1) {
+            bao.write(buff, 0, read);
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return bao.toByteArray();
+    }
+
+    /**
+     * 用FileChannel.transferTo复制文件，数据不经过Java堆，dest已存在时被覆盖
+     */
+    public static void copyFile(File src, File dest) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream out = new FileOutputStream(dest);
+            try {
+                FileChannel source = in.getChannel();
+                FileChannel target = out.getChannel();
+                long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    position += source.transferTo(position, size - position, target);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 把in剩余的数据写到out，两者都不关闭
+     */
+    static void copyStream(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * 丢弃全部数据的输出流，用于只统计大小或耗时的试编码
+     */
+    static OutputStream nullOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 追加写入：进程中途退出留下不完整的末尾后重新打开，丢弃不完整的帧后继续追加，文件仍是完整的GIF
+ */
+public class AppendableGifEncoderTest {
+
+    private static final int W = 48;
+    private static final int H = 32;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopensAfterTruncatedTail() throws IOException {
+        File file = folder.newFile("record.gif");
+        GifRaster[] frames = new GifRaster[5];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame(i);
+        }
+        AppendableGifEncoder encoder = AppendableGifEncoder.open(file, null);
+        long[] ends = new long[4];
+        for (int i = 0; i < 4; i++) {
+            assertTrue(encoder.addFrame(frames[i], 100));
+            ends[i] = file.length();
+        }
+        encoder.close();
+
+        // 第4帧写到一半时退出：结束标志和第4帧的后半部分丢失
+        truncate(file, (ends[2] + ends[3]) / 2);
+
+        encoder = AppendableGifEncoder.open(file, null);
+        assertEquals(3, encoder.getFrameCount());
+        assertEquals(W, encoder.getWidth());
+        assertEquals(H, encoder.getHeight());
+        // 重新打开后已是完整的GIF
+        assertEquals(ends[2], file.length());
+        assertTrue(encoder.addFrame(frames[4], 100));
+        assertEquals(4, encoder.getFrameCount());
+        encoder.close();
+
+        GifDecoder decoder = decode(file);
+        assertEquals(4, decoder.getFrameCount());
+        int[] expected = {0, 1, 2, 4};
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("frame " + i, frames[expected[i]].pixels, decoder.getFrame(i).pixels);
+        }
+    }
+
+    @Test
+    public void restartsWhenHeaderIsIncomplete() throws IOException {
+        File file = folder.newFile("header.gif");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{'G', 'I', 'F', '8'});
+        out.close();
+        AppendableGifEncoder encoder = AppendableGifEncoder.open(file, null);
+        assertEquals(0, encoder.getFrameCount());
+        assertTrue(encoder.addFrame(frame(0), 100));
+        encoder.close();
+        assertArrayEquals(frame(0).pixels, decode(file).getFrame(0).pixels);
+    }
+
+    @Test
+    public void rejectsFileThatIsNotGif() throws IOException {
+        File file = folder.newFile("text.gif");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("not a gif".getBytes("UTF-8"));
+        out.close();
+        try {
+            AppendableGifEncoder.open(file, null);
+            fail();
+        } catch (IOException expected) {
+            // 不覆盖不是GIF的文件
+        }
+        assertEquals(9, file.length());
+    }
+
+    @Test
+    public void rejectsFrameOutsideCanvas() throws IOException {
+        AppendableGifEncoder encoder = AppendableGifEncoder.open(folder.newFile("canvas.gif"), null);
+        assertTrue(encoder.addFrame(frame(0), 100));
+        assertFalse(encoder.addFrame(frame(1), 1, 0, 100));
+        assertEquals(1, encoder.getFrameCount());
+        encoder.close();
+    }
+
+    /**
+     * 几种颜色的斜向条纹，编码无损。避开黑色(编码器改写为(1,1,1))
+     */
+    private static GifRaster frame(int index) {
+        int[] colors = {0xffc04020, 0xff20c040, 0xff4020c0, 0xffe0e0e0};
+        GifRaster frame = new GifRaster(W, H);
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                frame.pixels[y * W + x] = colors[((x + y) / 4 + index) % colors.length];
+            }
+        }
+        return frame;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static GifDecoder decode(File file) throws IOException {
+        GifDecoder decoder = new GifDecoder();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            assertEquals(GifDecoder.STATUS_OK, decoder.read(in));
+        } finally {
+            in.close();
+        }
+        return decoder;
+    }
+}
@@ -0,0 +1,250 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压缩路径的峰值堆与分配量回归测试。
+ * <p>
+ * 分配量用ThreadMXBean统计所有线程(解码线程和共享编码线程)分配的字节数，按解码帧数折算；
+ * 峰值堆通过占位数组把空闲堆限制在上限内再压缩来检查。上限都以画布字节数(宽*高*4)为单位，
+ * setPixels、getImagePixels、输出缓冲等处多复制一份整帧就会超出上限。
+ * 测试JVM的参数见giftool/build.gradle的test配置。
+ */
+@RunWith(Parameterized.class)
+public class CompressionMemoryTest {
+
+    // 每帧分配量上限：多线程/一次性解码路径每帧复制栅格、BGR像素和索引像素，流式路径复用缓冲
+    private static final double ALLOC_CANVAS_PER_FRAME = 3.0;
+    private static final double STREAMING_ALLOC_CANVAS_PER_FRAME = 1.0;
+    // 每帧与尺寸无关的分配(NeuQuant网络、LZW哈希表、调色板等)及每次压缩的固定开销
+    private static final long ALLOC_FIXED_PER_FRAME = 256 * 1024;
+    private static final long ALLOC_FIXED = 4 * 1024 * 1024;
+
+    // 峰值堆上限：解码画布、上一帧、输出帧等常驻的画布数
+    private static final int PEAK_CANVASES = 6;
+    // 多线程路径每个在途帧持有的画布数(栅格副本、BGR像素、索引像素)
+    private static final int PEAK_CANVASES_PER_IN_FLIGHT_FRAME = 4;
+
+    private static final int BALLAST_CHUNK = 1024 * 1024;
+
+    private static final Logger COMPRESSOR_LOG = Logger.getLogger("GifCompressor");
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> inputs() {
+        return Arrays.asList(new Object[][]{
+                {"test.gif"},
+                {"test2.gif"},
+                {"synthetic-4k"},
+                {"synthetic-photo"},
+                {"synthetic-long"},
+        });
+    }
+
+    private final String name;
+    private byte[] input;
+    private Compression compression;
+    private long canvasBytes;
+    private int frameCount;
+
+    public CompressionMemoryTest(String name) {
+        this.name = name;
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue(allocationCounter() != null);
+        COMPRESSOR_LOG.setLevel(Level.WARNING);
+    }
+
+    @Test
+    public void resizeGif() throws IOException {
+        // 一次性解码全部帧，长动画的峰值只取决于帧数
+        Assume.assumeFalse("synthetic-long".equals(name));
+        load();
+        Measurement m = measure(new Compression() {
+            @Override
+            public boolean run(byte[] in, ByteArrayOutputStream out) throws IOException {
+                return GifCompressor.resizeGif(new ByteArrayInputStream(in), out, 400, 400);
+            }
+        });
+        // 先解码全部帧再编码，峰值与帧数成正比
+        assertAllocation(m, ALLOC_CANVAS_PER_FRAME);
+        assertPeak(m, frameCount + PEAK_CANVASES);
+    }
+
+    @Test
+    public void compress() throws IOException {
+        load();
+        Measurement m = measure(new Compression() {
+            @Override
+            public boolean run(byte[] in, ByteArrayOutputStream out) throws IOException {
+                return GifCompressor.compress(new ByteArrayInputStream(in), out, null, null);
+            }
+        });
+        int inFlight = GifCompressScheduler.getInstance().getWorkerCount() * 2;
+        assertAllocation(m, ALLOC_CANVAS_PER_FRAME);
+        assertPeak(m, inFlight * PEAK_CANVASES_PER_IN_FLIGHT_FRAME + PEAK_CANVASES);
+    }
+
+    @Test
+    public void compressStreaming() throws IOException {
+        load();
+        Measurement m = measure(new Compression() {
+            @Override
+            public boolean run(byte[] in, ByteArrayOutputStream out) throws IOException {
+                return GifCompressor.compressStreaming(new ByteArrayInputStream(in), out, null);
+            }
+        });
+        // 流式路径峰值与帧数无关
+        assertAllocation(m, STREAMING_ALLOC_CANVAS_PER_FRAME);
+        assertPeak(m, PEAK_CANVASES);
+    }
+
+    private void load() throws IOException {
+        if ("synthetic-4k".equals(name)) {
+            input = SyntheticGifGenerator.fourK().generate();
+        } else if ("synthetic-photo".equals(name)) {
+            input = SyntheticGifGenerator.photographic().generate();
+        } else if ("synthetic-long".equals(name)) {
+            // 50fps整帧噪点，抽帧后输出远小于输入，压缩的输入被整体缓存时超出峰值上限
+            input = SyntheticGifGenerator.longAnimation().setFrameCount(300).setChangedFraction(1f).setNoise(1f)
+                    .setDelayMs(20).generate();
+        } else {
+            File dir = new File(System.getProperty("giftool.corpus", "../app/src/main/assets"));
+            File file = new File(dir, name);
+            Assume.assumeTrue(file.isFile());
+            input = Utils.streamToBytes(new FileInputStream(file));
+        }
+        GifDecoder decoder = new GifDecoder();
+        decoder.setCopyFrames(false);
+        assertTrue(decoder.read(new ByteArrayInputStream(input)) == GifDecoder.STATUS_OK);
+        GifRaster image = decoder.getImage();
+        canvasBytes = (long) image.width * image.height * 4;
+        frameCount = decoder.getFrameCount();
+    }
+
+    /**
+     * 预热一次(启动编码线程、JIT)后测量一次压缩的分配量
+     */
+    private Measurement measure(Compression compression) throws IOException {
+        this.compression = compression;
+        assertTrue(name + " warm-up failed", compression.run(input, new ByteArrayOutputStream()));
+        long allocatedBefore = allocatedBytes();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean success = compression.run(input, out);
+        long allocatedAfter = allocatedBytes();
+        // 内存不足时编码器捕获OutOfMemoryError并返回false，这里作为失败处理
+        assertTrue(name + " compression failed", success);
+        Measurement m = new Measurement();
+        m.allocated = allocatedAfter - allocatedBefore;
+        m.outputBytes = out.size();
+        return m;
+    }
+
+    private void assertAllocation(Measurement m, double canvasesPerFrame) {
+        long limit = (long) (frameCount * (canvasesPerFrame * canvasBytes + ALLOC_FIXED_PER_FRAME)) + ALLOC_FIXED;
+        assertTrue(String.format("%s allocated %d bytes for %d frames, limit %d", name, m.allocated, frameCount, limit),
+                m.allocated <= limit);
+    }
+
+    /**
+     * 用占位数组填满堆，只留下上限大小的空闲空间，再压缩一次：峰值存活内存超出上限时抛出
+     * OutOfMemoryError或压缩返回false。未回收的垃圾会被GC回收，因此只检查真正的峰值存活量
+     */
+    private void assertPeak(Measurement m, int canvases) throws IOException {
+        // 输出缓冲(扩容时新旧数组同时存在)及一个新生代(大数组无法使用)不计入，输入在填充前已分配
+        long limit = canvases * canvasBytes + 2L * m.outputBytes + youngGenerationBytes();
+        List<byte[]> ballast = new ArrayList<>();
+        boolean success;
+        try {
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+            for (long remaining = free - limit; remaining > 0; remaining -= BALLAST_CHUNK) {
+                ballast.add(new byte[BALLAST_CHUNK]);
+            }
+            // 输出缓冲按上次的大小预先分配，扩容时新旧数组同时存在的开销不随输出大小翻倍
+            success = compression.run(input, new ByteArrayOutputStream((int) m.outputBytes + 1));
+        } catch (OutOfMemoryError e) {
+            success = false;
+        } finally {
+            ballast.clear();
+        }
+        assertTrue(String.format("%s needs more than %d bytes of heap", name, limit), success);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+        if (!counter.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+
+    private static MemoryPoolMXBean[] heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools.toArray(new MemoryPoolMXBean[0]);
+    }
+
+    private static long youngGenerationBytes() {
+        long bytes = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            String poolName = pool.getName();
+            if (poolName.contains("Eden") || poolName.contains("Survivor")) {
+                bytes += Math.max(pool.getUsage().getCommitted(), pool.getUsage().getMax());
+            }
+        }
+        return bytes;
+    }
+
+    private interface Compression {
+        boolean run(byte[] in, ByteArrayOutputStream out) throws IOException;
+    }
+
+    private static class Measurement {
+        long allocated;
+        long outputBytes;
+    }
+}
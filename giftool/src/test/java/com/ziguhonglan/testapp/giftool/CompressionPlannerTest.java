@@ -0,0 +1,97 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压缩计划：按输入的块结构和分析帧选出最快的适用策略
+ */
+public class CompressionPlannerTest {
+
+    @Test
+    public void remuxWhenSourceAlreadyMeetsOptions() throws IOException {
+        byte[] gif = new SyntheticGifGenerator().setSize(160, 120).setFrameCount(8).generate();
+        assertEquals(GifCompressOptions.STRATEGY_REMUX, plan(gif, new GifCompressOptions(), false).getStrategy());
+    }
+
+    @Test
+    public void deltaWhenChangedAreaIsSmall() throws IOException {
+        byte[] gif = new SyntheticGifGenerator().setSize(160, 120).setFrameCount(8).setChangedFraction(0.1f).generate();
+        // 循环次数不同，不能原样输出
+        GifCompressOptions options = new GifCompressOptions().setRepeat(2);
+        CompressionPlanner planner = plan(gif, options, false);
+        assertEquals(GifCompressOptions.STRATEGY_DELTA, planner.getStrategy());
+        assertTrue(planner.usesGlobalPalette());
+
+        // 流式编码器不支持差分帧
+        planner = plan(gif, options, true);
+        assertEquals(GifCompressOptions.STRATEGY_GLOBAL_PALETTE, planner.getStrategy());
+    }
+
+    @Test
+    public void globalPaletteWhenFramesUseOnlyTheGlobalTable() throws IOException {
+        byte[] gif = new SyntheticGifGenerator().setSize(160, 120).setFrameCount(8).setChangedFraction(1f)
+                .setNoise(0.1f).generate();
+        CompressionPlanner planner = plan(gif, new GifCompressOptions().setRepeat(2), false);
+        assertEquals(GifCompressOptions.STRATEGY_GLOBAL_PALETTE, planner.getStrategy());
+        assertTrue(planner.usesExactPalette());
+    }
+
+    @Test
+    public void exactPaletteWhenLocalTablesFitInColors() throws IOException {
+        byte[] gif = new SyntheticGifGenerator().setSize(160, 120).setFrameCount(8).setChangedFraction(1f)
+                .setColorCount(16).setPaletteMode(SyntheticGifGenerator.PALETTE_LOCAL).generate();
+        CompressionPlanner planner = plan(gif, new GifCompressOptions().setRepeat(2), false);
+        assertEquals(GifCompressOptions.STRATEGY_EXACT_PALETTE, planner.getStrategy());
+        assertFalse(planner.usesGlobalPalette());
+    }
+
+    @Test
+    public void requantizeWhenFramesHaveTooManyColors() throws IOException {
+        byte[] gif = SyntheticGifGenerator.photographic().setSize(160, 120).setFrameCount(8).generate();
+        CompressionPlanner planner = plan(gif, new GifCompressOptions().setColors(64), false);
+        assertEquals(GifCompressOptions.STRATEGY_REQUANTIZE, planner.getStrategy());
+        assertFalse(planner.usesExactPalette());
+    }
+
+    @Test
+    public void transparentPixelsRuleOutTheGlobalPalette() throws IOException {
+        int[] palette = {0x102030, 0x405060, 0x708090, 0xa0b0c0};
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        encoder.start(bos);
+        encoder.setRepeat(0);
+        encoder.setGlobalPaletteOnly(true);
+        encoder.setPalette(palette);
+        // 第0种颜色解码后为透明，露出画布的透明背景
+        encoder.setTransparent(palette[0]);
+        for (int f = 0; f < 8; f++) {
+            GifRaster frame = new GifRaster(64, 64);
+            for (int i = 0; i < frame.pixels.length; i++) {
+                frame.pixels[i] = 0xff000000 | palette[(i / 64 + i % 64 + f) % palette.length];
+            }
+            encoder.addFrame(frame);
+        }
+        encoder.finish();
+        byte[] gif = bos.toByteArray();
+
+        // 源文件只有全局颜色表，但透明像素无法按该表精确映射，退回精确调色板
+        CompressionPlanner planner = plan(gif, new GifCompressOptions().setRepeat(2), false);
+        assertEquals(GifCompressOptions.STRATEGY_EXACT_PALETTE, planner.getStrategy());
+        assertFalse(planner.usesGlobalPalette());
+    }
+
+    private static CompressionPlanner plan(byte[] gif, GifCompressOptions options, boolean streaming)
+            throws IOException {
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        int[] framePlan = GifCompressor.planFrames(info, options.getFrameSampler());
+        return CompressionPlanner.plan(GifSource.of(gif), info, framePlan, options, streaming, null);
+    }
+}
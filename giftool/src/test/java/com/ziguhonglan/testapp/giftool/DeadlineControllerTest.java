@@ -0,0 +1,129 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 软截止时间：用假时钟和固定的试编码耗时检查档位和抽帧随剩余时间的变化
+ */
+public class DeadlineControllerTest {
+
+    private static final long MS = 1000000L;
+    private static final int D = FrameSampler.DROP;
+    private static final int FRAMES = 10;
+    private static final int NEUQUANT = GifCompressOptions.QUANTIZER_NEUQUANT;
+    private static final int UNIFORM = GifCompressOptions.QUANTIZER_UNIFORM;
+
+    private GifCompressOptions options;
+    private GifCompressHandle handle;
+    private int[] plan;
+    private boolean[] skipped;
+    private FakeClockController controller;
+
+    @Before
+    public void setUp() {
+        options = new GifCompressOptions().setDeadlineMillis(1000);
+        handle = new GifCompressHandle();
+        plan = new int[FRAMES];
+        Arrays.fill(plan, 100);
+        skipped = new boolean[FRAMES];
+        controller = new FakeClockController(options, handle, plan, skipped);
+        // 试编码：原参数30ms，提高采样间隔20ms，均匀调色板10ms，10帧都来得及
+        controller.probe(new GifRaster(100, 100));
+        assertEquals(1, controller.getSampleSize());
+        assertEquals(options.getQuality(), controller.getQuality());
+        assertEquals(NEUQUANT, controller.getQuantizer());
+    }
+
+    @Test
+    public void levelsAndFrameStepFollowRemainingTime() {
+        controller.frameSubmitted();
+        // 剩余预算255ms，10帧按原参数需要300ms
+        beforeFrame(1, 700);
+        assertEquals(DeadlineController.FAST_QUALITY, controller.getQuality());
+        assertEquals(NEUQUANT, controller.getQuantizer());
+        assertEquals(GifCompressHandle.TRADE_OFF_QUALITY, handle.getTradeOffs());
+
+        controller.frameSubmitted();
+        // 剩余预算170ms，提高采样间隔需要200ms
+        beforeFrame(2, 800);
+        assertEquals(UNIFORM, controller.getQuantizer());
+        assertEquals(GifCompressHandle.TRADE_OFF_QUALITY | GifCompressHandle.TRADE_OFF_QUANTIZER, handle.getTradeOffs());
+
+        controller.frameSubmitted();
+        // 剩余预算85ms只够再编码8帧，除去在途和当前的4帧，之后的6帧保留一半，丢弃帧的延迟合并到前一个保留帧
+        beforeFrame(3, 900);
+        assertArrayEquals(new int[]{100, 100, 100, 200, D, 200, D, 200, D, 100}, plan);
+        assertArrayEquals(new boolean[]{false, false, false, false, true, false, true, false, true, false}, skipped);
+        assertTrue((handle.getTradeOffs() & GifCompressHandle.TRADE_OFF_FRAMES) != 0);
+        assertFalse(controller.isDroppingAll());
+
+        controller.frameSubmitted();
+        // 超过截止时间，之后的帧全部合并到当前帧，已交给下游的帧不变
+        beforeFrame(5, 1001);
+        assertArrayEquals(new int[]{100, 100, 100, 200, D, 500, D, D, D, D}, plan);
+        assertTrue(controller.isDroppingAll());
+        assertEquals(UNIFORM, controller.getQuantizer());
+    }
+
+    @Test
+    public void measuredEncodeSpeedOverridesProbe() {
+        for (int i = 0; i < 4; i++) {
+            controller.frameSubmitted();
+        }
+        // 按原参数实际每80ms完成一帧，是试编码的8/3倍
+        encoded(100);
+        encoded(180);
+        encoded(260);
+        // 剩余预算595ms，在途1帧、当前帧和之后5帧：按试编码需要210ms，按实测需要560ms仍来得及
+        beforeFrame(4, 300);
+        assertEquals(options.getQuality(), controller.getQuality());
+        assertEquals(0, handle.getTradeOffs());
+
+        controller.frameSubmitted();
+        // 剩余预算425ms，在途2帧、当前帧和之后4帧：按实测需要560ms，提高采样间隔按比例推算为373ms
+        beforeFrame(5, 500);
+        assertEquals(DeadlineController.FAST_QUALITY, controller.getQuality());
+        assertEquals(NEUQUANT, controller.getQuantizer());
+        assertEquals(GifCompressHandle.TRADE_OFF_QUALITY, handle.getTradeOffs());
+    }
+
+    private void beforeFrame(int index, long nowMillis) {
+        controller.now = nowMillis * MS;
+        controller.beforeFrame(index);
+    }
+
+    private void encoded(long nowMillis) {
+        controller.now = nowMillis * MS;
+        controller.frameEncoded(options.getQuality(), options.getQuantizer());
+    }
+
+    private static final class FakeClockController extends DeadlineController {
+
+        long now;
+
+        FakeClockController(GifCompressOptions options, GifCompressHandle handle, int[] plan, boolean[] skipped) {
+            super(options, handle, plan, skipped, 0, 1);
+        }
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+
+        @Override
+        long encodeCost(GifRaster frame, int quality, int quantizer) {
+            if (quantizer == GifCompressOptions.QUANTIZER_UNIFORM) {
+                return 10 * MS;
+            }
+            return quality == DeadlineController.FAST_QUALITY ? 20 * MS : 30 * MS;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 连续重复帧的合并：阈值为0时只合并完全相同的帧，阈值大于0时按网格亮度差合并，被合并帧的延迟累加到保留帧
+ */
+public class DuplicateFrameFilterTest {
+
+    private final List<int[]> received = new ArrayList<>(); // {帧序号, 延迟}
+    private final List<GifRaster> images = new ArrayList<>();
+
+    private final DuplicateFrameFilter.Sink sink = new DuplicateFrameFilter.Sink() {
+        @Override
+        public boolean onFrame(int index, GifRaster image, int delay) {
+            received.add(new int[]{index, delay});
+            images.add(image.copy());
+            return true;
+        }
+    };
+
+    @Test
+    public void exactMergesOnlyIdenticalFrames() {
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(GifCompressOptions.DUPLICATE_EXACT, false, sink);
+        GifRaster a = solid(0xff808080);
+        GifRaster b = solid(0xff808080);
+        b.pixels[0] = 0xff818080; // 一个像素不同，网格亮度签名不变
+        filter.add(0, a, 100);
+        filter.add(1, a.copy(), 50);
+        filter.add(2, b, 30);
+        filter.add(3, b.copy(), 20);
+        filter.add(4, b.copy(), 10);
+        filter.flush();
+        assertFrames(new int[][]{{0, 150}, {2, 60}});
+        assertEquals(3, filter.getDroppedCount());
+    }
+
+    @Test
+    public void thresholdMergesSimilarFrames() {
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(4, false, sink);
+        filter.add(0, solid(0xff808080), 100);
+        filter.add(1, solid(0xff838383), 100); // 亮度差3
+        filter.add(2, solid(0xff878787), 100); // 与保留帧相比差7
+        filter.flush();
+        assertFrames(new int[][]{{0, 200}, {2, 100}});
+        assertEquals(1, filter.getDroppedCount());
+    }
+
+    @Test
+    public void differentSizesAreNeverMerged() {
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(255, false, sink);
+        filter.add(0, solid(0xff808080), 100);
+        filter.add(1, new GifRaster(new int[16 * 8], 16, 8), 100);
+        filter.flush();
+        assertFrames(new int[][]{{0, 100}, {1, 100}});
+    }
+
+    @Test
+    public void copiesReusedCanvasUntilTheNextKeptFrame() {
+        // 解码器复用画布：保留帧交给下游前画布已被下一帧覆盖
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(GifCompressOptions.DUPLICATE_EXACT, true, sink);
+        GifRaster canvas = solid(0xff102030);
+        filter.add(0, canvas, 100);
+        fill(canvas, 0xff405060);
+        filter.add(1, canvas, 100);
+        filter.flush();
+        assertFrames(new int[][]{{0, 100}, {1, 100}});
+        assertEquals(0xff102030, images.get(0).pixels[0]);
+        assertEquals(0xff405060, images.get(1).pixels[0]);
+    }
+
+    @Test
+    public void stopsWhenSinkStops() {
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(GifCompressOptions.DUPLICATE_EXACT, false,
+                new DuplicateFrameFilter.Sink() {
+                    @Override
+                    public boolean onFrame(int index, GifRaster image, int delay) {
+                        return false;
+                    }
+                });
+        filter.add(0, solid(0xff000001), 100);
+        assertFalse(filter.add(1, solid(0xffffffff), 100));
+    }
+
+    private void assertFrames(int[][] expected) {
+        assertEquals(expected.length, received.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("frame " + i, expected[i], received.get(i));
+        }
+        assertEquals(received.size(), images.size());
+    }
+
+    private static GifRaster solid(int argb) {
+        GifRaster raster = new GifRaster(16, 16);
+        fill(raster, argb);
+        return raster;
+    }
+
+    private static void fill(GifRaster raster, int argb) {
+        for (int i = 0; i < raster.pixels.length; i++) {
+            raster.pixels[i] = argb;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * 抽帧策略：没有合并丢弃帧的保留帧保持原延迟，合并时按播放时的实际延迟累加
+ */
+public class FrameSamplerTest {
+
+    private static final int D = FrameSampler.DROP;
+
+    @Test
+    public void targetFpsKeepsDelaysWhenNothingIsDropped() {
+        int[] delays = {0, 10, 100, 70};
+        assertArrayEquals(delays, new TargetFpsFrameSampler(15).sample(delays));
+    }
+
+    @Test
+    public void targetFpsMergesDroppedDelaysAtPlaybackSpeed() {
+        // 50fps降到10fps：每5帧保留1帧，最后一帧没有合并，保持0延迟
+        int[] delays = {20, 20, 20, 20, 20, 20, 20, 20, 20, 20, 0};
+        int[] expected = {100, D, D, D, D, 100, D, D, D, D, 0};
+        assertArrayEquals(expected, new TargetFpsFrameSampler(10).sample(delays));
+        // 快速帧之后的0延迟帧被合并时按100ms计入
+        assertArrayEquals(new int[]{140, D, D},
+                new TargetFpsFrameSampler(5).sample(new int[]{20, 0, 20}));
+    }
+
+    @Test
+    public void ratioKeepsDelaysOfUnmergedFrames() {
+        assertArrayEquals(new int[]{0, 10}, new RatioFrameSampler(1).sample(new int[]{0, 10}));
+        assertArrayEquals(new int[]{200, D, 10}, new RatioFrameSampler(2).sample(new int[]{0, 100, 10}));
+    }
+}
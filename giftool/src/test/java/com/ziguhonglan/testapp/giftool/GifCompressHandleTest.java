@@ -0,0 +1,145 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 取消和超时：解码在帧之间停止，正在编码的帧在LZW循环中退出
+ */
+public class GifCompressHandleTest {
+
+    private static final int FRAMES = 30;
+
+    private static byte[] input;
+
+    @BeforeClass
+    public static void generate() {
+        input = new SyntheticGifGenerator()
+                .setSize(200, 150)
+                .setFrameCount(FRAMES)
+                .setChangedFraction(1f)
+                .setNoise(0.1f)
+                .setSeed(30)
+                .generate();
+    }
+
+    @Test
+    public void cancelStopsDecodingBetweenFrames() throws IOException {
+        final GifCompressHandle handle = new GifCompressHandle();
+        Recorder metrics = new Recorder() {
+            @Override
+            void onStage(int frameIndex, int stage) {
+                if (stage == STAGE_DECODE && frameIndex == 2) {
+                    handle.cancel();
+                }
+            }
+        };
+        assertFalse(compress(metrics, handle));
+        assertTrue(handle.isCancelled());
+        CompressionSummary summary = metrics.summary.get();
+        assertNotNull(summary);
+        assertFalse(summary.isSuccess());
+        assertTrue("decoded " + summary.getDecodedFrames(), summary.getDecodedFrames() <= 3);
+    }
+
+    @Test
+    public void timeoutStopsDecodingBetweenFrames() throws IOException {
+        final GifCompressHandle handle = new GifCompressHandle(100);
+        Recorder metrics = new Recorder() {
+            @Override
+            void onStage(int frameIndex, int stage) {
+                if (stage == STAGE_DECODE && frameIndex == 2) {
+                    // 解码第2帧时超过截止时间
+                    sleepUntilExpired(handle);
+                }
+            }
+        };
+        assertFalse(compress(metrics, handle));
+        assertFalse(handle.isCancelled());
+        assertTrue(handle.isExpired());
+        assertTrue("decoded " + metrics.summary.get().getDecodedFrames(), metrics.summary.get().getDecodedFrames() <= 3);
+    }
+
+    @Test
+    public void cancelStopsEncodingInsideLzw() throws IOException {
+        final GifCompressHandle handle = new GifCompressHandle();
+        Recorder metrics = new Recorder() {
+            @Override
+            void onStage(int frameIndex, int stage) {
+                if (stage == STAGE_MAP && frameIndex == 0) {
+                    // 第0帧映射完成、开始LZW编码之前取消
+                    handle.cancel();
+                }
+            }
+        };
+        assertFalse(compress(metrics, handle));
+        assertFalse("frame 0 was LZW encoded", metrics.lzwFrames.containsKey(0));
+    }
+
+    @Test
+    public void expiredHandleStopsEncoderTask() {
+        GifCompressHandle handle = new GifCompressHandle(1);
+        sleepUntilExpired(handle);
+        EncoderTask task = new EncoderTask(new ByteArrayOutputStream(), new GifRaster(200, 150), true, 1, 100, 0);
+        task.setHandle(handle);
+        try {
+            task.run();
+            fail();
+        } catch (CancellationException expected) {
+            // 超时的任务不再编码
+        }
+    }
+
+    private static boolean compress(CompressionMetrics metrics, GifCompressHandle handle) throws IOException {
+        GifCompressOptions options = new GifCompressOptions()
+                .setStrategy(GifCompressOptions.STRATEGY_REQUANTIZE)
+                .setMetrics(metrics);
+        return GifCompressor.compress(new ByteArrayInputStream(input), new ByteArrayOutputStream(), options, handle);
+    }
+
+    private static void sleepUntilExpired(GifCompressHandle handle) {
+        while (!handle.isExpired()) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 记录完成LZW编码的帧和汇总，每个阶段回调onStage
+     */
+    private abstract static class Recorder implements CompressionMetrics {
+        final ConcurrentHashMap<Integer, Boolean> lzwFrames = new ConcurrentHashMap<>();
+        final AtomicReference<CompressionSummary> summary = new AtomicReference<>();
+
+        abstract void onStage(int frameIndex, int stage);
+
+        @Override
+        public void onFrameStage(long jobId, int frameIndex, int stage, long durationNanos, long bytes) {
+            if (stage == STAGE_LZW) {
+                lzwFrames.put(frameIndex, true);
+            }
+            onStage(frameIndex, stage);
+        }
+
+        @Override
+        public void onJobFinished(CompressionSummary summary) {
+            this.summary.set(summary);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 压缩参数：直接复制的判断、预设的取值和结果缓存键
+ */
+public class GifCompressOptionsTest {
+
+    @Test
+    public void alreadyOptimalRequiresEveryLimit() throws IOException {
+        // 320x240，10fps
+        byte[] gif = new SyntheticGifGenerator().setFrameCount(6).setDelayMs(100).generate();
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        long size = gif.length;
+        GifCompressOptions options = new GifCompressOptions().setPassthroughMaxBytes(size);
+        assertTrue(options.isAlreadyOptimal(info, size));
+        assertTrue(options.setMaxWidth(320).setMaxHeight(240).isAlreadyOptimal(info, size));
+        assertTrue(options.setMaxFps(10).isAlreadyOptimal(info, size));
+
+        assertFalse(new GifCompressOptions().isAlreadyOptimal(info, size));
+        assertFalse(new GifCompressOptions().setPassthroughMaxBytes(size - 1).isAlreadyOptimal(info, size));
+        assertFalse(new GifCompressOptions().setPassthroughMaxBytes(size).setMaxBytes(size - 1)
+                .isAlreadyOptimal(info, size));
+        assertFalse(new GifCompressOptions().setPassthroughMaxBytes(size).setMaxHeight(200)
+                .isAlreadyOptimal(info, size));
+        assertFalse(new GifCompressOptions().setPassthroughMaxBytes(size).setMaxFps(8)
+                .isAlreadyOptimal(info, size));
+    }
+
+    @Test
+    public void presetValues() {
+        GifCompressOptions fastest = new GifCompressOptions().applyPreset(GifCompressOptions.PRESET_FASTEST);
+        assertEquals(GifCompressOptions.QUANTIZER_UNIFORM, fastest.getQuantizer());
+        assertEquals(30, fastest.getQuality());
+        assertEquals(GifCompressOptions.SCALE_FILTER_NEAREST, fastest.getScaleFilter());
+        assertEquals(GifCompressOptions.STRATEGY_AUTO, fastest.getStrategy());
+
+        GifCompressOptions fast = new GifCompressOptions().applyPreset(GifCompressOptions.PRESET_FAST);
+        assertEquals(GifCompressOptions.QUANTIZER_NEUQUANT, fast.getQuantizer());
+        assertEquals(20, fast.getQuality());
+        assertEquals(GifCompressOptions.SCALE_FILTER_NEAREST, fast.getScaleFilter());
+
+        GifCompressOptions smallest = new GifCompressOptions().applyPreset(GifCompressOptions.PRESET_SMALLEST);
+        assertEquals(128, smallest.getColors());
+        assertEquals(80, smallest.getLossy());
+        assertEquals(GifCompressOptions.STRATEGY_DELTA, smallest.getStrategy());
+        assertEquals(GifCompressOptions.MAX_THREADS_HALF, smallest.getMaxThreads());
+    }
+
+    @Test
+    public void presetKeepsOtherOptionsAndCanBeSwitched() {
+        GifCompressOptions options = new GifCompressOptions().setMaxWidth(160).setMaxFps(10)
+                .setPriority(GifCompressOptions.PRIORITY_BACKGROUND)
+                .applyPreset(GifCompressOptions.PRESET_SMALLEST);
+        assertEquals(160, options.getMaxWidth());
+        assertEquals(10f, options.getMaxFps(), 0f);
+        assertEquals(GifCompressOptions.PRIORITY_BACKGROUND, options.getPriority());
+        // 切换预设时上一个预设的取值全部被覆盖
+        options.applyPreset(GifCompressOptions.PRESET_BALANCED);
+        assertEquals(new GifCompressOptions().setMaxWidth(160).setMaxFps(10).outputKey(), options.outputKey());
+        assertEquals(0, options.getMaxThreads());
+    }
+
+    @Test
+    public void outputKeyIsStable() {
+        GifCompressOptions options = new GifCompressOptions().setMaxWidth(240).setColors(64).setLossy(20);
+        assertEquals(options.outputKey(), options.outputKey());
+        assertEquals(options.outputKey(), options.copy().outputKey());
+        assertEquals(options.outputKey(), new GifCompressOptions().setMaxWidth(240).setColors(64).setLossy(20).outputKey());
+        // 只影响调度的参数不计入
+        assertEquals(options.outputKey(), options.copy().setPriority(GifCompressOptions.PRIORITY_FOREGROUND)
+                .setTimeoutMillis(1000).setMaxThreads(1).outputKey());
+        // 默认参数即平衡预设
+        assertEquals(new GifCompressOptions().outputKey(),
+                new GifCompressOptions().applyPreset(GifCompressOptions.PRESET_BALANCED).outputKey());
+    }
+
+    @Test
+    public void presetsHaveDistinctOutputKeys() {
+        int[] presets = {GifCompressOptions.PRESET_FASTEST, GifCompressOptions.PRESET_FAST,
+                GifCompressOptions.PRESET_BALANCED, GifCompressOptions.PRESET_SMALLEST};
+        for (int i = 0; i < presets.length; i++) {
+            for (int j = i + 1; j < presets.length; j++) {
+                assertNotEquals(new GifCompressOptions().applyPreset(presets[i]).outputKey(),
+                        new GifCompressOptions().applyPreset(presets[j]).outputKey());
+            }
+        }
+    }
+}
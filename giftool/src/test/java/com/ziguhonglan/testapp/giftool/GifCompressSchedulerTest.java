@@ -0,0 +1,147 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 共享编码线程的调度：先占满全部编码线程，再放出一个线程，按它取帧的顺序检查优先级和轮转；
+ * 低优先级任务在有更高优先级的帧排队时在awaitTurn中等待
+ */
+public class GifCompressSchedulerTest {
+
+    private static final int FOREGROUND = GifCompressOptions.PRIORITY_FOREGROUND;
+    private static final int NORMAL = GifCompressOptions.PRIORITY_NORMAL;
+    private static final int BACKGROUND = GifCompressOptions.PRIORITY_BACKGROUND;
+
+    private GifCompressScheduler scheduler;
+    private GifCompressScheduler.Job blockers;
+    private final Semaphore released = new Semaphore(0);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void blockAllWorkers() throws InterruptedException {
+        scheduler = GifCompressScheduler.getInstance();
+        blockers = scheduler.newJob(FOREGROUND);
+        int workers = scheduler.getWorkerCount();
+        final CountDownLatch started = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            blockers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    released.acquireUninterruptibly();
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void releaseAllWorkers() {
+        released.release(scheduler.getWorkerCount());
+        blockers.close();
+    }
+
+    @Test
+    public void higherPriorityFramesRunFirst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(6);
+        GifCompressScheduler.Job background = scheduler.newJob(BACKGROUND);
+        GifCompressScheduler.Job normal = scheduler.newJob(NORMAL);
+        GifCompressScheduler.Job foreground = scheduler.newJob(FOREGROUND);
+        background.execute(record("background", done));
+        normal.execute(record("normal", done));
+        foreground.execute(record("foreground", done));
+        background.execute(record("background", done));
+        normal.execute(record("normal", done));
+        foreground.execute(record("foreground", done));
+        // 只放出一个编码线程，它依次取帧
+        released.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("foreground", "foreground", "normal", "normal", "background", "background"), order);
+        background.close();
+        normal.close();
+        foreground.close();
+    }
+
+    @Test
+    public void samePriorityJobsTakeTurns() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(4);
+        GifCompressScheduler.Job a = scheduler.newJob(NORMAL);
+        GifCompressScheduler.Job b = scheduler.newJob(NORMAL);
+        a.execute(record("a", done));
+        a.execute(record("a", done));
+        b.execute(record("b", done));
+        b.execute(record("b", done));
+        released.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("a", "b", "a", "b"), order);
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void backgroundJobYieldsWhileForegroundFramesWait() throws InterruptedException {
+        final GifCompressScheduler.Job background = scheduler.newJob(BACKGROUND);
+        GifCompressScheduler.Job foreground = scheduler.newJob(FOREGROUND);
+        CountDownLatch done = new CountDownLatch(1);
+        foreground.execute(record("foreground", done));
+        final CountDownLatch resumed = new CountDownLatch(1);
+        Thread decoder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    background.awaitTurn();
+                    resumed.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        decoder.start();
+        // 前台的帧还在排队，后台任务不投递下一帧
+        assertFalse(resumed.await(200, TimeUnit.MILLISECONDS));
+        released.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(resumed.await(5, TimeUnit.SECONDS));
+        decoder.join();
+        background.close();
+        foreground.close();
+    }
+
+    @Test
+    public void awaitTurnReturnsWhenNothingHigherIsQueued() throws InterruptedException {
+        GifCompressScheduler.Job normal = scheduler.newJob(NORMAL);
+        GifCompressScheduler.Job background = scheduler.newJob(BACKGROUND);
+        CountDownLatch done = new CountDownLatch(1);
+        background.execute(record("background", done));
+        // 只有同级或更低优先级的帧排队时不等待
+        normal.awaitTurn();
+        released.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        normal.close();
+        background.close();
+    }
+
+    private Runnable record(final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 已满足限制的输入直接放到输出，不重新编码
+ */
+public class GifCompressorTest {
+
+    private File dir;
+    private File src;
+    private File dest;
+    private byte[] input;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gif-passthrough").toFile();
+        src = new File(dir, "src.gif");
+        dest = new File(dir, "dest.gif");
+        // 320x240，10fps
+        input = new SyntheticGifGenerator().setFrameCount(6).setDelayMs(100).generate();
+        FileOutputStream out = new FileOutputStream(src);
+        try {
+            out.write(input);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dest.delete();
+        src.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void copiesOptimalInput() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setPassthroughMaxBytes(input.length);
+        assertTrue(GifCompressor.passthroughIfOptimal(src, dest, options));
+        assertArrayEquals(input, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void linksOptimalInputWhenAllowed() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setPassthroughMaxBytes(input.length)
+                .setAllowHardLink(true);
+        assertTrue(GifCompressor.passthroughIfOptimal(src, dest, options));
+        assertArrayEquals(input, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    public void compressesInputOutsideLimits() throws IOException {
+        // 默认不直接复制
+        assertFalse(GifCompressor.passthroughIfOptimal(src, dest, new GifCompressOptions()));
+        assertFalse(GifCompressor.passthroughIfOptimal(src, dest,
+                new GifCompressOptions().setPassthroughMaxBytes(input.length - 1)));
+        assertFalse(GifCompressor.passthroughIfOptimal(src, dest,
+                new GifCompressOptions().setPassthroughMaxBytes(input.length).setMaxWidth(160)));
+        assertFalse(GifCompressor.passthroughIfOptimal(src, dest,
+                new GifCompressOptions().setPassthroughMaxBytes(input.length).setMaxFps(5)));
+        assertFalse(dest.exists());
+    }
+}
@@ -0,0 +1,157 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 拼接的三种交界处理：第一帧不透明且覆盖画布时直接复制、上一段最后一帧改为处置2、第一帧重新合成为关键帧。
+ * 拼接结果的每一帧与各段单独播放时(较小的段居中)相同
+ */
+public class GifConcatenatorTest {
+
+    private static final int W = 96;
+    private static final int H = 64;
+    private static final int FRAMES = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void copiesOpaqueFullCanvasHead() throws IOException {
+        byte[] a = generate(W, H, 0.3f, 1);
+        byte[] b = generate(W, H, 0.3f, 2);
+        GifInfo output = concat(a, b);
+        // 第二段的全局颜色表作为局部颜色表写入，上一段的最后一帧不改写
+        assertTrue(output.getFrame(FRAMES).localPalette);
+        assertEquals(1, output.getFrame(FRAMES - 1).dispose);
+    }
+
+    @Test
+    public void rewritesPreviousFullCanvasFrameToDispose2() throws IOException {
+        // 整帧变化，第一段的最后一帧覆盖画布；第二段较小，第一帧不覆盖输出画布
+        byte[] a = generate(W, H, 1f, 1);
+        byte[] b = generate(48, 32, 0.3f, 2);
+        GifInfo output = concat(a, b);
+        assertEquals(2, output.getFrame(FRAMES - 1).dispose);
+        assertEquals(24, output.getFrame(FRAMES).x);
+        assertEquals(16, output.getFrame(FRAMES).y);
+    }
+
+    @Test
+    public void recompositesHeadWhenNothingCoversCanvas() throws IOException {
+        byte[] a = generate(W, H, 0.3f, 1);
+        byte[] b = generate(48, 32, 0.3f, 2);
+        GifInfo output = concat(a, b);
+        assertEquals(1, output.getFrame(FRAMES - 1).dispose);
+        // 关键帧覆盖整个画布，之后的帧仍直接复制
+        GifInfo.Frame keyframe = output.getFrame(FRAMES);
+        assertEquals(0, keyframe.x);
+        assertEquals(W, keyframe.width);
+        assertEquals(H, keyframe.height);
+        assertTrue(output.getFrame(FRAMES + 1).x >= 24);
+    }
+
+    @Test
+    public void rejectsInputThatIsNotGif() throws IOException {
+        byte[] a = generate(W, H, 1f, 1);
+        assertFalse(GifCompressor.concat(Arrays.<InputStream>asList(new ByteArrayInputStream(a),
+                new ByteArrayInputStream(new byte[]{1, 2, 3})), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void fileInputsMatchStreams() throws IOException {
+        byte[] a = generate(W, H, 0.3f, 1);
+        byte[] b = generate(48, 32, 0.3f, 2);
+        // 不支持mark的流
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        InputStream streamA = new CountingInputStream(new ByteArrayInputStream(a));
+        InputStream streamB = new CountingInputStream(new ByteArrayInputStream(b));
+        assertTrue(GifCompressor.concat(Arrays.asList(streamA, streamB), expected));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.concat(Arrays.<InputStream>asList(new FileInputStream(write(a)),
+                new FileInputStream(write(b))), actual));
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    private static byte[] generate(int width, int height, float changed, long seed) {
+        return new SyntheticGifGenerator()
+                .setSize(width, height)
+                .setFrameCount(FRAMES)
+                .setColorCount(16)
+                .setChangedFraction(changed)
+                .setSeed(seed)
+                .generate();
+    }
+
+    /**
+     * 拼接两段并检查每一帧，返回输出的块结构
+     */
+    private static GifInfo concat(byte[] a, byte[] b) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.concat(Arrays.<InputStream>asList(new ByteArrayInputStream(a),
+                new ByteArrayInputStream(b)), out));
+        byte[] output = out.toByteArray();
+        GifDecoder decoder = decode(output);
+        assertEquals(2 * FRAMES, decoder.getFrameCount());
+        assertSegment(decode(a), decoder, 0);
+        assertSegment(decode(b), decoder, FRAMES);
+        return GifInfo.read(new ByteArrayInputStream(output));
+    }
+
+    /**
+     * 单独解码的段居中放到输出画布上，与输出中从offset开始的帧相同。
+     * 关键帧不写透明色，透明像素在关键帧中为黑色
+     */
+    private static void assertSegment(GifDecoder segment, GifDecoder output, int offset) {
+        for (int i = 0; i < segment.getFrameCount(); i++) {
+            GifRaster frame = segment.getFrame(i);
+            int dx = (W - frame.width) / 2;
+            int dy = (H - frame.height) / 2;
+            int[] expected = new int[W * H];
+            for (int y = 0; y < frame.height; y++) {
+                System.arraycopy(frame.pixels, y * frame.width, expected, (y + dy) * W + dx, frame.width);
+            }
+            int[] actual = output.getFrame(offset + i).pixels.clone();
+            opaque(expected);
+            opaque(actual);
+            assertArrayEquals("frame " + (offset + i), expected, actual);
+        }
+    }
+
+    private File write(byte[] gif) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(gif);
+        out.close();
+        return file;
+    }
+
+    private static GifDecoder decode(byte[] gif) {
+        GifDecoder decoder = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+        return decoder;
+    }
+
+    private static void opaque(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] >>> 24 == 0) {
+                pixels[i] = 0xff000000;
+            }
+        }
+    }
+}
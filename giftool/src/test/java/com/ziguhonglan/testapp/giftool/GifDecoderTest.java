@@ -0,0 +1,145 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 单帧解码：{@link GifDecoder#extractFrame(java.io.InputStream, int, int)}从最近的独立帧开始合成，
+ * 结果与完整解码的同一帧相同
+ */
+public class GifDecoderTest {
+
+    private static final int FRAMES = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyFrameMatchesFullDecode() {
+        // 各种处置方法，整帧和局部变化
+        for (int dispose = 0; dispose <= 3; dispose++) {
+            for (float changed : new float[]{1f, 0.3f}) {
+                byte[] gif = new SyntheticGifGenerator()
+                        .setSize(96, 64)
+                        .setFrameCount(FRAMES)
+                        .setChangedFraction(changed)
+                        .setDispose(dispose)
+                        .setSeed(46)
+                        .generate();
+                GifDecoder decoder = new GifDecoder();
+                assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+                for (int i = 0; i < FRAMES; i++) {
+                    String message = "dispose " + dispose + ", changed " + changed + ", frame " + i;
+                    GifRaster expected = decoder.getFrame(i);
+                    GifRaster actual = GifDecoder.extractFrame(new ByteArrayInputStream(gif), i, 0);
+                    assertNotNull(message, actual);
+                    assertArrayEquals(message, expected.pixels, actual.pixels);
+
+                    // 缩小一半时只做块平均
+                    GifRaster half = GifDecoder.extractFrame(new ByteArrayInputStream(gif), i, 48);
+                    assertNotNull(message, half);
+                    assertArrayEquals(message, expected.downsample(2).pixels, half.pixels);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexOutOfRangeReturnsNull() {
+        byte[] gif = new SyntheticGifGenerator().setSize(32, 32).setFrameCount(3).generate();
+        assertNull(GifDecoder.extractFrame(new ByteArrayInputStream(gif), 3, 0));
+        assertNull(GifDecoder.extractFrame(new ByteArrayInputStream(gif), -1, 0));
+    }
+
+    @Test
+    public void stopsReadingAfterTheFrame() throws IOException {
+        byte[] gif = largeFrames();
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        GifDecoder decoder = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+        // 不支持mark的流：读过的数据留在缓冲中，第3帧之后的帧不读取
+        CountingInputStream in = new CountingInputStream(gif);
+        GifRaster frame = GifDecoder.extractFrame(in, 3, 0);
+        assertNotNull(frame);
+        assertArrayEquals(decoder.getFrame(3).pixels, frame.pixels);
+        assertTrue(in.count + " >= " + info.getFrame(5).getOffset(), in.count < info.getFrame(5).getOffset());
+        assertTrue(in.closed);
+    }
+
+    @Test
+    public void fileInputMatchesFullDecode() throws IOException {
+        byte[] gif = largeFrames();
+        File file = folder.newFile("frames.gif");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(gif);
+        out.close();
+        GifDecoder decoder = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+        for (int i = 0; i < FRAMES; i++) {
+            GifRaster frame = GifDecoder.extractFrame(new FileInputStream(file), i, 0);
+            assertNotNull("frame " + i, frame);
+            assertArrayEquals("frame " + i, decoder.getFrame(i).pixels, frame.pixels);
+        }
+    }
+
+    /**
+     * 每帧覆盖整个画布且带噪点，每帧几十KB，多于各层缓冲的预读
+     */
+    private static byte[] largeFrames() {
+        return new SyntheticGifGenerator()
+                .setSize(320, 240)
+                .setFrameCount(FRAMES)
+                .setChangedFraction(1f)
+                .setNoise(0.2f)
+                .setSeed(46)
+                .generate();
+    }
+
+    /**
+     * 记录读出的字节数，不支持mark
+     */
+    private static final class CountingInputStream extends InputStream {
+        private final byte[] data;
+        long count;
+        boolean closed;
+
+        CountingInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return count < data.length ? data[(int) count++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (count >= data.length) {
+                return -1;
+            }
+            int n = (int) Math.min(len, data.length - count);
+            System.arraycopy(data, (int) count, b, off, n);
+            count += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 结果缓存只缓存由输入和参数唯一决定的输出
+ */
+public class GifResultCacheTest {
+
+    private File dir;
+    private GifResultCache cache;
+    private byte[] input;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gif-cache").toFile();
+        cache = new GifResultCache(dir, 64 * 1024 * 1024);
+        input = new SyntheticGifGenerator().setFrameCount(4).generate();
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+        dir.delete();
+    }
+
+    @Test
+    public void repeatedRequestHitsCache() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setMaxWidth(160);
+        assertTrue(compress(options));
+        assertTrue(compress(new GifCompressOptions().setMaxWidth(160)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getCount());
+    }
+
+    @Test
+    public void deadlineResultsAreNotCached() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setDeadlineMillis(60000);
+        assertFalse(GifResultCache.isCacheable(options));
+        assertTrue(compress(options));
+        assertTrue(compress(options));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void samplerWithoutKeyIsNotCached() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setFrameSampler(new FrameSampler() {
+            @Override
+            public int[] sample(int[] delays) {
+                return delays.clone();
+            }
+
+            @Override
+            public String getCacheKey() {
+                return null;
+            }
+        });
+        assertFalse(GifResultCache.isCacheable(options));
+        assertTrue(compress(options));
+        assertEquals(0, cache.getCount());
+    }
+
+    @Test
+    public void openResultIsNotEvicted() throws IOException {
+        // 上限为1字节，每写入一个结果都要淘汰其他结果
+        File smallDir = Files.createTempDirectory("gif-cache").toFile();
+        GifResultCache small = new GifResultCache(smallDir, 1);
+        GifCompressOptions first = new GifCompressOptions().setMaxWidth(160);
+        InputStream reading = small.open(new ByteArrayInputStream(input), first, null);
+        ByteArrayOutputStream other = new ByteArrayOutputStream();
+        assertTrue(small.compress(new ByteArrayInputStream(input), other, new GifCompressOptions().setMaxWidth(120), null));
+        assertEquals(2, small.getCount());
+        assertArrayEquals(compressUncached(first), Utils.streamToBytes(reading));
+        reading.close();
+        // 关闭后按上限淘汰
+        assertEquals(1, small.getCount());
+        small.clear();
+        smallDir.delete();
+    }
+
+    @Test
+    public void samplerKeysDistinguishParameters() {
+        assertEquals(new TargetFpsFrameSampler(10).getCacheKey(), new TargetFpsFrameSampler(10).getCacheKey());
+        assertFalse(new TargetFpsFrameSampler(10).getCacheKey().equals(new TargetFpsFrameSampler(12).getCacheKey()));
+        assertFalse(new RatioFrameSampler(2).getCacheKey().equals(new RatioFrameSampler(3).getCacheKey()));
+    }
+
+    private byte[] compressUncached(GifCompressOptions options) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.compress(new ByteArrayInputStream(input), out, options, null));
+        return out.toByteArray();
+    }
+
+    private boolean compress(GifCompressOptions options) throws IOException {
+        return cache.compress(new ByteArrayInputStream(input), new ByteArrayOutputStream(), options, null);
+    }
+}
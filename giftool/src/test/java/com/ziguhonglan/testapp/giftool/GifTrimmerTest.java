@@ -0,0 +1,126 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按时间截取的三种方式：直接复制独立帧、合成关键帧后复制、逐帧重新编码。
+ * 颜色数少，三种方式都无损，截取结果的每一帧与源文件中对应的帧相同
+ */
+public class GifTrimmerTest {
+
+    private static final int FRAMES = 10;
+    private static final int DELAY = 100;
+
+    @Test
+    public void copiesFromIndependentFrame() throws IOException {
+        // 每帧覆盖整个画布，都是独立帧
+        byte[] gif = generate(1f, 1);
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        assertEquals(3, info.findIndependentFrame(3));
+        byte[] output = trim(gif, 300, 700);
+        assertFrames(gif, output, 3, new int[]{DELAY, DELAY, DELAY, DELAY});
+        // 只复制块，不重新编码
+        assertTrue(output.length < gif.length);
+    }
+
+    @Test
+    public void writesKeyframeWhenFirstFrameDependsOnEarlierFrames() throws IOException {
+        byte[] gif = generate(0.3f, 1);
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        assertEquals(0, info.findIndependentFrame(3));
+        // 首尾被截断的帧改写延迟
+        byte[] output = trim(gif, 350, 620);
+        assertFrames(gif, output, 3, new int[]{50, DELAY, DELAY, 20});
+    }
+
+    @Test
+    public void reencodesWhenFirstFrameDisposes() throws IOException {
+        // 处置方法为2，之后的帧露出画布的透明背景
+        byte[] gif = generate(0.3f, 2);
+        byte[] output = trim(gif, 350, 800);
+        assertFrames(gif, output, 3, new int[]{50, DELAY, DELAY, DELAY, DELAY});
+    }
+
+    @Test
+    public void stopsReadingAfterTheRange() throws IOException {
+        // 每帧几十KB，多于各层缓冲的预读
+        byte[] gif = new SyntheticGifGenerator()
+                .setSize(320, 240)
+                .setFrameCount(FRAMES)
+                .setColorCount(16)
+                .setChangedFraction(0.3f)
+                .setNoise(0.2f)
+                .setDelayMs(DELAY)
+                .setSeed(47)
+                .generate();
+        GifInfo info = GifInfo.read(new ByteArrayInputStream(gif));
+        assertEquals(0, info.findIndependentFrame(1));
+        // 不支持mark的流，读过的数据留在缓冲中，范围之后只多读缓冲预读的部分
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(gif));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.trim(in, out, 150, 320, null));
+        assertFrames(gif, out.toByteArray(), 1, new int[]{50, DELAY, 20});
+        assertTrue(in.getCount() + " >= " + info.getFrame(7).getOffset(), in.getCount() < info.getFrame(7).getOffset());
+    }
+
+    @Test
+    public void emptyRangeFails() throws IOException {
+        byte[] gif = generate(1f, 1);
+        assertFalse(GifTrimmer.trim(GifSource.of(gif), new ByteArrayOutputStream(), 500, 500, null));
+        assertFalse(GifTrimmer.trim(GifSource.of(gif), new ByteArrayOutputStream(), FRAMES * DELAY, 0, null));
+    }
+
+    private static byte[] generate(float changed, int dispose) {
+        return new SyntheticGifGenerator()
+                .setSize(96, 64)
+                .setFrameCount(FRAMES)
+                .setColorCount(16)
+                .setChangedFraction(changed)
+                .setDispose(dispose)
+                .setDelayMs(DELAY)
+                .setSeed(47)
+                .generate();
+    }
+
+    private static byte[] trim(byte[] gif, long startMs, long endMs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(GifTrimmer.trim(GifSource.of(gif), out, startMs, endMs, null));
+        return out.toByteArray();
+    }
+
+    /**
+     * 截取结果的各帧与源文件从first开始的帧相同。编码器不写透明色，源文件中透明的像素在结果中为黑色
+     */
+    private static void assertFrames(byte[] gif, byte[] output, int first, int[] delays) {
+        GifDecoder source = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, source.read(new ByteArrayInputStream(gif)));
+        GifDecoder trimmed = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, trimmed.read(new ByteArrayInputStream(output)));
+        assertEquals(delays.length, trimmed.getFrameCount());
+        for (int i = 0; i < delays.length; i++) {
+            int[] expected = source.getFrame(first + i).pixels.clone();
+            int[] actual = trimmed.getFrame(i).pixels.clone();
+            opaque(expected);
+            opaque(actual);
+            assertArrayEquals("frame " + i, expected, actual);
+            assertEquals("frame " + i, delays[i], trimmed.getDelay(i));
+        }
+    }
+
+    private static void opaque(int[] pixels) {
+        for (int i = 0; i < pixels.length; i++) {
+            if (pixels[i] >>> 24 == 0) {
+                pixels[i] = 0xff000000;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多路输出：每一路的结果与单独调用{@link GifCompressor#compress}逐字节相同
+ */
+public class RenditionLadderTest {
+
+    @Test
+    public void renditionsMatchSeparateCompressions() throws IOException {
+        byte[] input = new SyntheticGifGenerator()
+                .setSize(320, 240)
+                .setFrameCount(12)
+                .setChangedFraction(0.6f)
+                .setNoise(0.05f)
+                .setDelayMs(40)
+                .setSeed(45)
+                .generate();
+        List<GifCompressOptions> options = new ArrayList<>();
+        // 原样输出
+        options.add(new GifCompressOptions());
+        // 全尺寸重新编码
+        options.add(new GifCompressOptions().setRepeat(2));
+        // 缩小并抽帧，两路缩小倍数相同、共用缩小结果
+        options.add(new GifCompressOptions().setMaxWidth(160).setMaxHeight(160).setMaxFps(10));
+        options.add(new GifCompressOptions().setMaxWidth(160).setMaxHeight(160).setColors(64));
+        // 大小上限
+        options.add(new GifCompressOptions().setMaxBytes(input.length / 3));
+
+        List<GifRendition> renditions = new ArrayList<>();
+        for (GifCompressOptions o : options) {
+            renditions.add(new GifRendition(new ByteArrayOutputStream(), o.copy()));
+        }
+        boolean[] results = GifCompressor.compressRenditions(new ByteArrayInputStream(input), renditions, null);
+
+        for (int i = 0; i < options.size(); i++) {
+            assertTrue("rendition " + i, results[i]);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            assertTrue(GifCompressor.compress(new ByteArrayInputStream(input), expected, options.get(i), null));
+            byte[] actual = ((ByteArrayOutputStream) renditions.get(i).getOutputStream()).toByteArray();
+            assertArrayEquals("rendition " + i, expected.toByteArray(), actual);
+        }
+    }
+}
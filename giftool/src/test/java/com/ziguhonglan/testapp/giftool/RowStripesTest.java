@@ -0,0 +1,72 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 帧内并行：超过阈值的帧按行拆分后，编码结果与不拆分时逐字节相同
+ */
+public class RowStripesTest {
+
+    // 3个条带以上，帮手和调用线程都领到条带
+    private static final int SIDE = 1800;
+
+    private static GifRaster frame;
+
+    @BeforeClass
+    public static void decode() {
+        byte[] gif = new SyntheticGifGenerator()
+                .setSize(SIDE, SIDE)
+                .setFrameCount(1)
+                .setNoise(0.2f)
+                .setSeed(7)
+                .generate();
+        GifDecoder decoder = new GifDecoder();
+        decoder.read(new ByteArrayInputStream(gif));
+        frame = decoder.getFrame(0);
+        assertTrue((long) SIDE * SIDE >= 3L * RowStripes.MIN_STRIPE_PIXELS);
+    }
+
+    @After
+    public void reset() {
+        RowStripes.sForcedStripes = 0;
+    }
+
+    @Test
+    public void neuQuantStripesMatchSerial() {
+        assertArrayEquals(encode(GifCompressOptions.QUANTIZER_NEUQUANT, 1),
+                encode(GifCompressOptions.QUANTIZER_NEUQUANT, 4));
+    }
+
+    @Test
+    public void uniformStripesMatchSerial() {
+        assertArrayEquals(encode(GifCompressOptions.QUANTIZER_UNIFORM, 1),
+                encode(GifCompressOptions.QUANTIZER_UNIFORM, 4));
+    }
+
+    /**
+     * 在测试线程上编码，帮手由共享编码线程执行
+     *
+     * @param stripes 强制的条带数，为1时不拆分
+     */
+    private static byte[] encode(int quantizer, int stripes) {
+        RowStripes.sForcedStripes = stripes;
+        GifCompressScheduler.Job job = GifCompressScheduler.getInstance().newJob(GifCompressOptions.PRIORITY_NORMAL);
+        try {
+            EncoderTask task = new EncoderTask(new ByteArrayOutputStream(), frame, true, 1, 100, 0);
+            task.setQuantizer(quantizer);
+            task.setRowStripes(job);
+            task.run();
+            return task.getOutputStream().toByteArray();
+        } finally {
+            job.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ziguhonglan.testapp.giftool;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 目标大小模式：估算选出的参数完整编码后满足上限；无法满足时仍输出阶梯末端的最小结果
+ */
+public class TargetSizePlannerTest {
+
+    private static byte[] input;
+    private static int unconstrained; // 不设上限时的输出大小
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void generate() throws IOException {
+        // 整帧变化带噪点，差分和原样输出都省不了多少，只能靠降低参数
+        input = new SyntheticGifGenerator()
+                .setSize(200, 150)
+                .setFrameCount(16)
+                .setChangedFraction(1f)
+                .setNoise(0.1f)
+                .setDelayMs(40)
+                .setSeed(41)
+                .generate();
+        unconstrained = compress(new GifCompressOptions(), false).length;
+    }
+
+    @Test
+    public void budgetIsMet() throws IOException {
+        long maxBytes = unconstrained / 2;
+        byte[] output = compress(new GifCompressOptions().setMaxBytes(maxBytes), false);
+        assertTrue(output.length + " > " + maxBytes, output.length <= maxBytes);
+        assertDecodes(output);
+    }
+
+    @Test
+    public void budgetIsMetWhenStreaming() throws IOException {
+        long maxBytes = unconstrained / 2;
+        byte[] output = compress(new GifCompressOptions().setMaxBytes(maxBytes), true);
+        assertTrue(output.length + " > " + maxBytes, output.length <= maxBytes);
+        assertDecodes(output);
+    }
+
+    @Test
+    public void streamingRereadsFileAndUnmarkableInput() throws IOException {
+        // 估算、采样和编码都回到起点重新读取输入；选出的不是最后一级，编码结果先写到临时文件
+        GifCompressOptions options = new GifCompressOptions().setMaxBytes(unconstrained / 2);
+        byte[] expected = compress(options, true);
+        File file = folder.newFile();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(input);
+        fos.close();
+        ByteArrayOutputStream fromFile = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.compressStreaming(new FileInputStream(file), fromFile, options));
+        assertArrayEquals(expected, fromFile.toByteArray());
+        ByteArrayOutputStream fromStream = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.compressStreaming(new CountingInputStream(new ByteArrayInputStream(input)),
+                fromStream, options));
+        assertArrayEquals(expected, fromStream.toByteArray());
+    }
+
+    @Test
+    public void smallestResultIsWrittenWhenBudgetIsNotMet() throws IOException {
+        GifCompressOptions options = new GifCompressOptions().setMaxBytes(100);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(GifCompressor.compress(new ByteArrayInputStream(input), out, options, null));
+        byte[] output = out.toByteArray();
+        assertTrue(output.length > 100);
+        assertTrue(output.length < unconstrained / 2);
+        assertDecodes(output);
+
+        // 估算和修正都到达阶梯末端后不再有下一级
+        TargetSizePlanner planner = new TargetSizePlanner(GifSource.of(input), options, false, null);
+        GifCompressOptions planned = planner.plan();
+        assertEquals(0, planned.getMaxBytes());
+        assertFalse(planner.canReplan());
+        assertNull(planner.replan(output.length));
+    }
+
+    private static byte[] compress(GifCompressOptions options, boolean streaming) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean success = streaming
+                ? GifCompressor.compressStreaming(new ByteArrayInputStream(input), out, options)
+                : GifCompressor.compress(new ByteArrayInputStream(input), out, options, null);
+        assertTrue(success);
+        return out.toByteArray();
+    }
+
+    private static void assertDecodes(byte[] gif) {
+        GifDecoder decoder = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+        assertTrue(decoder.getFrameCount() > 0);
+    }
+}
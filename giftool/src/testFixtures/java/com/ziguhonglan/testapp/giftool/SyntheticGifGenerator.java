@@ -0,0 +1,228 @@
+package com.ziguhonglan.testapp.giftool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * 可复现的合成GIF生成器，基于{@link AnimatedGifEncoder}。
+ * <p>
+ * 可控制画布尺寸、帧数、颜色数、每帧变化面积比例、disposal、隔行、全局/局部调色板和噪点比例。
+ * 第一帧覆盖整个画布，之后每帧只写出变化的矩形区域。同一组参数和种子总是生成相同的字节，
+ * 基准测试和回归测试可以覆盖4K画布、上千帧、双色、照片类等极端输入，而不需要提交真实用户文件。
+ */
+public class SyntheticGifGenerator {
+
+    public static final int PALETTE_GLOBAL = 0; // 所有帧共用一个全局调色板
+    public static final int PALETTE_LOCAL = 1; // 每帧使用各自的局部调色板
+
+    private int width = 320;
+    private int height = 240;
+    private int frameCount = 10;
+    private int colorCount = 256;
+    private float changedFraction = 0.25f; // 每帧变化的面积占画布的比例
+    private int dispose = 1; // GIF disposal method 0~3
+    private boolean interlace = false;
+    private int paletteMode = PALETTE_GLOBAL;
+    private float noise = 0f; // 变化区域中随机取色的像素比例
+    private int delayMs = 100;
+    private long seed = 1;
+
+    /**
+     * 3840x2160，少量帧
+     */
+    public static SyntheticGifGenerator fourK() {
+        return new SyntheticGifGenerator().setSize(3840, 2160).setFrameCount(5).setChangedFraction(0.1f);
+    }
+
+    /**
+     * 1000帧的小画布长动画，每帧只变化一小块
+     */
+    public static SyntheticGifGenerator longAnimation() {
+        return new SyntheticGifGenerator().setSize(320, 240).setFrameCount(1000).setChangedFraction(0.05f);
+    }
+
+    /**
+     * 黑白双色
+     */
+    public static SyntheticGifGenerator twoColor() {
+        return new SyntheticGifGenerator().setColorCount(2);
+    }
+
+    /**
+     * 照片类内容：256色、每帧使用局部调色板、整帧变化且带大量噪点
+     */
+    public static SyntheticGifGenerator photographic() {
+        return new SyntheticGifGenerator().setColorCount(256).setPaletteMode(PALETTE_LOCAL)
+                .setChangedFraction(1f).setNoise(0.3f);
+    }
+
+    public SyntheticGifGenerator setSize(int width, int height) {
+        this.width = Math.max(1, Math.min(65535, width));
+        this.height = Math.max(1, Math.min(65535, height));
+        return this;
+    }
+
+    public SyntheticGifGenerator setFrameCount(int frameCount) {
+        this.frameCount = Math.max(1, frameCount);
+        return this;
+    }
+
+    /**
+     * 调色板颜色数，2~256
+     */
+    public SyntheticGifGenerator setColorCount(int colorCount) {
+        this.colorCount = Math.max(2, Math.min(256, colorCount));
+        return this;
+    }
+
+    /**
+     * 第一帧之后每帧变化的面积占画布的比例，0~1，1表示整帧重写
+     */
+    public SyntheticGifGenerator setChangedFraction(float changedFraction) {
+        this.changedFraction = Math.max(0f, Math.min(1f, changedFraction));
+        return this;
+    }
+
+    /**
+     * 每帧的disposal method，0~3
+     */
+    public SyntheticGifGenerator setDispose(int dispose) {
+        this.dispose = Math.max(0, Math.min(3, dispose));
+        return this;
+    }
+
+    public SyntheticGifGenerator setInterlace(boolean interlace) {
+        this.interlace = interlace;
+        return this;
+    }
+
+    /**
+     * {@link #PALETTE_GLOBAL}或{@link #PALETTE_LOCAL}
+     */
+    public SyntheticGifGenerator setPaletteMode(int paletteMode) {
+        this.paletteMode = paletteMode == PALETTE_LOCAL ? PALETTE_LOCAL : PALETTE_GLOBAL;
+        return this;
+    }
+
+    /**
+     * 变化区域中随机取色的像素比例，0~1，0表示平滑渐变，越大越接近照片噪声
+     */
+    public SyntheticGifGenerator setNoise(float noise) {
+        this.noise = Math.max(0f, Math.min(1f, noise));
+        return this;
+    }
+
+    public SyntheticGifGenerator setDelayMs(int delayMs) {
+        this.delayMs = Math.max(0, delayMs);
+        return this;
+    }
+
+    public SyntheticGifGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public byte[] generate() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            generate(bos);
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        return bos.toByteArray();
+    }
+
+    public void generate(OutputStream out) throws IOException {
+        Random random = new Random(seed);
+        AnimatedGifEncoder encoder = new AnimatedGifEncoder();
+        if (!encoder.start(out)) {
+            throw new IOException("Cannot write GIF header");
+        }
+        encoder.setRepeat(0);
+        encoder.setDelay(delayMs);
+        encoder.setDispose(dispose);
+        encoder.setInterlace(interlace);
+        encoder.setGlobalPaletteOnly(paletteMode == PALETTE_GLOBAL);
+        int[] palette = createPalette(random);
+        encoder.setPalette(palette);
+        encoder.setSize(width, height);
+        if (!encoder.addFrame(render(random, palette, width, height, 0, 0, 0))) {
+            throw new IOException("Cannot write frame 0");
+        }
+        // 变化区域保持画布宽高比
+        double scale = Math.sqrt(changedFraction);
+        int rw = Math.max(1, (int) Math.round(width * scale));
+        int rh = Math.max(1, (int) Math.round(height * scale));
+        for (int f = 1; f < frameCount; f++) {
+            if (paletteMode == PALETTE_LOCAL) {
+                palette = createPalette(random);
+                encoder.setPalette(palette);
+            }
+            int rx = random.nextInt(width - rw + 1);
+            int ry = random.nextInt(height - rh + 1);
+            encoder.setSize(rw, rh);
+            encoder.setPosition(rx, ry);
+            if (!encoder.addFrame(render(random, palette, rw, rh, rx, ry, f))) {
+                throw new IOException("Cannot write frame " + f);
+            }
+        }
+        if (!encoder.finish()) {
+            throw new IOException("Cannot write GIF trailer");
+        }
+    }
+
+    /**
+     * 双色时为黑白，否则为随机颜色。黑色会被编码器改写为(1,1,1)，因此避开纯黑
+     */
+    private int[] createPalette(Random random) {
+        int[] palette = new int[colorCount];
+        if (colorCount == 2) {
+            palette[0] = 0x010101;
+            palette[1] = 0xffffff;
+            return palette;
+        }
+        for (int i = 0; i < colorCount; i++) {
+            int c = random.nextInt(0x1000000);
+            palette[i] = c == 0 ? 0x010101 : c;
+        }
+        return palette;
+    }
+
+    /**
+     * 绘制画布上(x0, y0)起w * h的区域：按位置和帧号取调色板的斜向渐变，按noise比例混入随机颜色
+     */
+    private GifRaster render(Random random, int[] palette, int w, int h, int x0, int y0, int frame) {
+        GifRaster raster = new GifRaster(w, h);
+        int[] px = raster.pixels;
+        int n = palette.length;
+        int span = width + height;
+        int phase = frame * span / Math.max(1, frameCount);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int index;
+                if (noise > 0f && random.nextFloat() < noise) {
+                    index = random.nextInt(n);
+                } else {
+                    index = (int) ((long) ((x0 + x + y0 + y + phase) % span) * n / span);
+                }
+                px[y * w + x] = 0xff000000 | palette[index];
+            }
+        }
+        return raster;
+    }
+}